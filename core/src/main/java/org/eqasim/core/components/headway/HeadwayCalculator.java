@@ -24,12 +24,24 @@ public class HeadwayCalculator {
 	}
 
 	public double calculateHeadway_min(Facility originFacility, Facility destinationFacilty, double departureTime) {
+		return calculateHeadway_min(calculateRoutes(originFacility, destinationFacilty, departureTime));
+	}
+
+	/**
+	 * Performs the range query around the departure time from which the headway
+	 * is derived. The routes can be reused to select a route, so no additional
+	 * query is needed for the same trip.
+	 */
+	public List<RaptorRoute> calculateRoutes(Facility originFacility, Facility destinationFacilty,
+			double departureTime) {
 		double earliestDepartureTime = departureTime - beforeDepartureOffset;
 		double latestDepartureTime = departureTime + afterDepartureOffset;
 
-		List<RaptorRoute> routes = raptor.calcRoutes(originFacility, destinationFacilty, earliestDepartureTime,
-				departureTime, latestDepartureTime, null, new AttributesImpl());
+		return raptor.calcRoutes(originFacility, destinationFacilty, earliestDepartureTime, departureTime,
+				latestDepartureTime, null, new AttributesImpl());
+	}
 
+	public double calculateHeadway_min(List<RaptorRoute> routes) {
 		int numberOfPtRoutes = 0;
 
 		for (RaptorRoute route : routes) {
@@ -0,0 +1,57 @@
+package org.eqasim.core.misc;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.network.LinkQuadTree;
+import org.matsim.core.network.NetworkUtils;
+
+/**
+ * Finds the nearest link for a coordinate using a spatial index over the link
+ * geometries, which is built once and can be shared between threads and
+ * services. Results are kept in a snapping cache, so repeated coordinates (for
+ * instance, recurring origins in a batch or coordinates on a grid) are only
+ * looked up once. The cache is reset once it reaches its maximum size.
+ */
+public class LinkSnapper {
+	static public final int DEFAULT_MAXIMUM_CACHED_COORDINATES = 100000;
+
+	private final LinkQuadTree index;
+
+	private final int maximumCachedCoordinates;
+	private final Map<Coord, Link> cache = new ConcurrentHashMap<>();
+
+	public LinkSnapper(Network network, int maximumCachedCoordinates) {
+		double[] bounds = NetworkUtils.getBoundingBox(network.getNodes().values());
+
+		this.index = new LinkQuadTree(bounds[0], bounds[1], bounds[2], bounds[3]);
+		this.maximumCachedCoordinates = maximumCachedCoordinates;
+
+		for (Link link : network.getLinks().values()) {
+			index.put(link);
+		}
+	}
+
+	public LinkSnapper(Network network) {
+		this(network, DEFAULT_MAXIMUM_CACHED_COORDINATES);
+	}
+
+	public Link getNearestLink(Coord coord) {
+		Link link = cache.get(coord);
+
+		if (link == null) {
+			link = index.getNearest(coord.getX(), coord.getY());
+
+			if (cache.size() >= maximumCachedCoordinates) {
+				cache.clear();
+			}
+
+			cache.put(coord, link);
+		}
+
+		return link;
+	}
+}
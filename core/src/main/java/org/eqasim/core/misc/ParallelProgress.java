@@ -20,12 +20,24 @@ public class ParallelProgress {
 		this.description = description;
 	}
 
+	/**
+	 * Reports progress without a total count, for instance while items are
+	 * streamed from a file. Only the current count is logged.
+	 */
+	public ParallelProgress(String description) {
+		this(description, -1);
+	}
+
 	private void run() {
 		try {
-			while (currentCount < totalCount) {
+			while (totalCount < 0 || currentCount < totalCount) {
 				if (currentCount > lastCount) {
-					logger.info(String.format("%s %d/%d (%.2f%%)", description, currentCount, totalCount,
-							100.0 * currentCount / totalCount));
+					if (totalCount < 0) {
+						logger.info(String.format("%s %d", description, currentCount));
+					} else {
+						logger.info(String.format("%s %d/%d (%.2f%%)", description, currentCount, totalCount,
+								100.0 * currentCount / totalCount));
+					}
 				}
 
 				lastCount = currentCount;
@@ -61,6 +73,8 @@ public class ParallelProgress {
 
 		if (currentCount == totalCount) {
 			logger.info(String.format("%s Done!", description));
+		} else if (totalCount < 0) {
+			logger.info(String.format("%s %d processed", description, currentCount));
 		}
 	}
 }
@@ -0,0 +1,250 @@
+package org.eqasim.core.tools.routing;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.core.utils.io.IOUtils;
+
+/**
+ * Checkpoints of a long batch routing run. Instead of the final outputs, results
+ * are written to numbered parts in the checkpoint directory, one compressed CSV
+ * file per output. A part is committed periodically: its files are closed and
+ * only then the identifiers of its tasks are written to the task file of the
+ * part, which is moved into place atomically. All files of the part are
+ * synchronized to disk before the move. A run that is started with an
+ * existing checkpoint directory discards uncommitted parts and skips all tasks
+ * of the committed ones. Once all tasks are processed, the parts are merged
+ * into the final outputs. The checkpoint directory is kept, so the merge can be
+ * repeated; it can be removed once the outputs have been written.
+ *
+ * Calls to the writer and to {@link #complete(Collection)} must be synchronized
+ * by the caller.
+ */
+public class BatchCheckpoint<W extends Closeable> {
+	private final static Logger logger = LogManager.getLogger(BatchCheckpoint.class);
+
+	private final static String PREFIX = "part_";
+	private final static String TASKS_SUFFIX = ".tasks";
+	private final static Pattern PART_PATTERN = Pattern.compile("^" + PREFIX + "(\\d+)\\..+$");
+
+	public interface WriterFactory<W> {
+		/**
+		 * Creates a writer for one part, with one output stream per output name.
+		 */
+		W create(Map<String, OutputStream> outputStreams) throws IOException;
+	}
+
+	private final File directory;
+	private final List<String> outputNames;
+	private final WriterFactory<W> factory;
+	private final long interval_ms;
+
+	private int partIndex = 0;
+	private W writer = null;
+
+	private final List<String> identifiers = new ArrayList<>();
+	private long lastCommitTime = System.currentTimeMillis();
+
+	public BatchCheckpoint(File directory, Collection<String> outputNames, double interval_s,
+			WriterFactory<W> factory) {
+		this.directory = directory;
+		this.outputNames = new ArrayList<>(outputNames);
+		this.factory = factory;
+		this.interval_ms = (long) (interval_s * 1000.0);
+	}
+
+	/**
+	 * Returns the identifiers of the tasks in committed parts and removes the
+	 * files of uncommitted parts.
+	 */
+	public Set<String> load() throws IOException {
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("Cannot create checkpoint directory: " + directory);
+		}
+
+		Set<Integer> committed = new HashSet<>();
+
+		for (File file : directory.listFiles()) {
+			if (file.getName().startsWith(PREFIX) && file.getName().endsWith(TASKS_SUFFIX)) {
+				Matcher matcher = PART_PATTERN.matcher(file.getName());
+
+				if (matcher.matches()) {
+					committed.add(Integer.parseInt(matcher.group(1)));
+				}
+			}
+		}
+
+		for (File file : directory.listFiles()) {
+			Matcher matcher = PART_PATTERN.matcher(file.getName());
+
+			if (matcher.matches() && !committed.contains(Integer.parseInt(matcher.group(1)))) {
+				Files.delete(file.toPath());
+			}
+		}
+
+		Set<String> completed = new HashSet<>();
+
+		for (int index : committed) {
+			completed.addAll(Files.readAllLines(getTasksFile(index).toPath()));
+			partIndex = Math.max(partIndex, index + 1);
+		}
+
+		if (completed.size() > 0) {
+			logger.info("Resuming from " + committed.size() + " checkpoint parts with " + completed.size()
+					+ " completed tasks");
+		}
+
+		return completed;
+	}
+
+	/**
+	 * Returns the writer of the current part.
+	 */
+	public W getWriter() throws IOException {
+		if (writer == null) {
+			Map<String, OutputStream> outputStreams = new LinkedHashMap<>();
+
+			for (String name : outputNames) {
+				outputStreams.put(name,
+						IOUtils.getOutputStream(IOUtils.getFileUrl(getOutputFile(partIndex, name).getPath()), false));
+			}
+
+			writer = factory.create(outputStreams);
+		}
+
+		return writer;
+	}
+
+	/**
+	 * Marks tasks as completed once their results have been passed to the writer.
+	 * The current part is committed if the checkpoint interval has elapsed.
+	 */
+	public void complete(Collection<String> taskIdentifiers) throws IOException {
+		for (String identifier : taskIdentifiers) {
+			if (identifier == null) {
+				throw new IllegalStateException("Tasks need an identifier to be checkpointed");
+			}
+
+			identifiers.add(identifier);
+		}
+
+		if (System.currentTimeMillis() - lastCommitTime >= interval_ms) {
+			commit();
+		}
+	}
+
+	private void commit() throws IOException {
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+
+		if (identifiers.size() > 0) {
+			// The task file must not become visible before the results are on disk
+			for (String name : outputNames) {
+				File outputFile = getOutputFile(partIndex, name);
+
+				if (outputFile.exists()) {
+					force(outputFile.toPath());
+				}
+			}
+
+			File temporaryFile = new File(directory, PREFIX + String.format("%06d", partIndex) + ".tmp");
+			Files.write(temporaryFile.toPath(), identifiers);
+			force(temporaryFile.toPath());
+
+			Files.move(temporaryFile.toPath(), getTasksFile(partIndex).toPath(), StandardCopyOption.ATOMIC_MOVE);
+			forceDirectory();
+
+			identifiers.clear();
+			partIndex++;
+		}
+
+		lastCommitTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Commits the current part and writes the parts to the final outputs in the
+	 * order in which they have been created. The header line is only kept for the
+	 * first part.
+	 */
+	public void merge(Map<String, OutputStream> outputStreams) throws IOException {
+		commit();
+
+		for (var entry : outputStreams.entrySet()) {
+			BufferedWriter outputWriter = new BufferedWriter(new OutputStreamWriter(entry.getValue()));
+			boolean hasHeader = false;
+
+			for (int index = 0; index < partIndex; index++) {
+				File file = getOutputFile(index, entry.getKey());
+
+				if (!file.exists()) {
+					continue;
+				}
+
+				try (BufferedReader reader = IOUtils.getBufferedReader(IOUtils.getFileUrl(file.getPath()))) {
+					String line = reader.readLine();
+
+					if (line != null && !hasHeader) {
+						outputWriter.write(line + "\n");
+						hasHeader = true;
+					}
+
+					while ((line = reader.readLine()) != null) {
+						outputWriter.write(line + "\n");
+					}
+				}
+			}
+
+			outputWriter.close();
+		}
+	}
+
+	static private void force(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Persists the directory entries of the parts, so that a committed task file
+	 * survives a crash of the system. Not all platforms allow to open directories,
+	 * in which case the entries are persisted by the file system on its own.
+	 */
+	private void forceDirectory() {
+		try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			logger.debug("Cannot synchronize checkpoint directory: " + directory, e);
+		}
+	}
+
+	private File getOutputFile(int index, String name) {
+		return new File(directory, PREFIX + String.format("%06d", index) + "." + name + ".csv.gz");
+	}
+
+	private File getTasksFile(int index) {
+		return new File(directory, PREFIX + String.format("%06d", index) + TASKS_SUFFIX);
+	}
+}
@@ -1,19 +1,24 @@
 package org.eqasim.core.tools.routing;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.eqasim.core.components.headway.HeadwayCalculator;
+import org.eqasim.core.misc.LinkSnapper;
 import org.eqasim.core.misc.ParallelProgress;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.PlanElement;
-import org.matsim.core.network.NetworkUtils;
 import org.matsim.core.router.DefaultRoutingRequest;
 import org.matsim.core.router.LinkWrapperFacility;
 import org.matsim.facilities.Facility;
@@ -25,44 +30,139 @@ import org.matsim.pt.transitSchedule.api.TransitRoute;
 import org.matsim.pt.transitSchedule.api.TransitSchedule;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.google.common.base.Preconditions;
 import com.google.inject.Provider;
 
+import ch.sbb.matsim.routing.pt.raptor.RaptorParameters;
+import ch.sbb.matsim.routing.pt.raptor.RaptorRoute;
+import ch.sbb.matsim.routing.pt.raptor.RaptorRoute.RoutePart;
+import ch.sbb.matsim.routing.pt.raptor.RaptorUtils;
+
+/**
+ * Routes public transport trips in parallel. Tasks are pulled from an iterator
+ * in batches and the results of each batch are passed to a
+ * {@link ResultWriter} as soon as the batch is finished, so memory use does not
+ * depend on the number of tasks. Batches finish in arbitrary order, so results
+ * need to be matched to the tasks by their identifier.
+ *
+ * If headways are calculated and the combined mode is enabled, the route of a
+ * trip is selected from the routes of the range query that yields the headway
+ * instead of being calculated by a separate query. Among the routes that depart
+ * after the departure time of the task, the one with the lowest costs is chosen
+ * as the router would, and the time until its departure is counted as initial
+ * waiting time. If there is no such route, or if walking is cheaper, the trip
+ * is routed as usual.
+ */
 public class BatchPublicTransportRouter {
 	private final Provider<TransitRouter> routerProvider;
 	private final Provider<HeadwayCalculator> headwayCalculatorProvider;
 	private final TransitSchedule schedule;
-	private final Network network;
+	private final LinkSnapper linkSnapper;
 
 	private final int batchSize;
 	private final int numberOfThreads;
 	private final double interval;
 
+	private final boolean combinedHeadway;
+	private final double transferWalkMargin;
+	private final RaptorParameters raptorParameters;
+
 	public BatchPublicTransportRouter(Provider<TransitRouter> routerProvider,
 			Provider<HeadwayCalculator> headwayCalculatorProvider, TransitSchedule schedule, Network network,
 			int batchSize, int numberOfThreads, double interval) {
+		this(routerProvider, headwayCalculatorProvider, schedule, network, batchSize, numberOfThreads, interval, false,
+				0.0, null);
+	}
+
+	/**
+	 * The transfer walk margin and the parameters must be those of the router,
+	 * so that routes from the range query are converted and selected like the
+	 * routes of a separate query.
+	 */
+	public BatchPublicTransportRouter(Provider<TransitRouter> routerProvider,
+			Provider<HeadwayCalculator> headwayCalculatorProvider, TransitSchedule schedule, Network network,
+			int batchSize, int numberOfThreads, double interval, boolean combinedHeadway, double transferWalkMargin,
+			RaptorParameters raptorParameters) {
+		Preconditions.checkArgument(!combinedHeadway || raptorParameters != null,
+				"Combined headway calculation requires the routing parameters");
+
 		this.routerProvider = routerProvider;
 		this.headwayCalculatorProvider = headwayCalculatorProvider;
 		this.batchSize = batchSize;
 		this.numberOfThreads = numberOfThreads;
 		this.schedule = schedule;
-		this.network = network;
+		this.linkSnapper = new LinkSnapper(network);
 		this.interval = interval;
+		this.combinedHeadway = combinedHeadway;
+		this.transferWalkMargin = transferWalkMargin;
+		this.raptorParameters = raptorParameters;
+	}
+
+	/**
+	 * Receives the results of one batch of tasks. Tasks without a route have no
+	 * trip. Calls are synchronized.
+	 */
+	public interface ResultWriter {
+		void write(List<Task> tasks, List<TripInformation> trips, List<LegInformation> legs) throws IOException;
 	}
 
 	public Pair<Collection<TripInformation>, Collection<LegInformation>> run(Collection<Task> tasks)
 			throws InterruptedException {
-		Iterator<Task> taskIterator = tasks.iterator();
-
 		List<TripInformation> tripResults = new ArrayList<>(tasks.size());
 		List<LegInformation> legResults = new ArrayList<>(tasks.size());
 
-		ParallelProgress progress = new ParallelProgress("Routing trips ...", tasks.size());
+		run(tasks.iterator(), tasks.size(), (batch, trips, legs) -> {
+			tripResults.addAll(trips);
+			legResults.addAll(legs);
+		});
+
+		return Pair.of(tripResults, legResults);
+	}
+
+	/**
+	 * Routes the tasks of the iterator, which is only accessed by one thread at a
+	 * time. The number of tasks is only used to report progress.
+	 */
+	public void run(Iterator<Task> taskIterator, long numberOfTasks, ResultWriter writer)
+			throws InterruptedException {
+		run(taskIterator, new ParallelProgress("Routing trips ...", numberOfTasks), writer);
+	}
+
+	/**
+	 * Routes the tasks of the iterator without knowing their number in advance,
+	 * for instance while they are read from a file. Progress is reported as the
+	 * number of routed tasks.
+	 */
+	public void run(Iterator<Task> taskIterator, ResultWriter writer) throws InterruptedException {
+		run(taskIterator, new ParallelProgress("Routing trips ..."), writer);
+	}
+
+	private void run(Iterator<Task> taskIterator, ParallelProgress progress, ResultWriter writer)
+			throws InterruptedException {
 		progress.start();
 
 		List<Thread> threads = new ArrayList<>(numberOfThreads);
+		List<RuntimeException> exceptions = new ArrayList<>();
+
+		// Set by the first failing worker so that the others stop after their batch
+		AtomicBoolean failed = new AtomicBoolean(false);
 
 		for (int i = 0; i < numberOfThreads; i++) {
-			Thread thread = new Thread(new Worker(taskIterator, tripResults, legResults, progress));
+			Thread thread = new Thread(() -> {
+				try {
+					new Worker(taskIterator, writer, progress, failed).run();
+				} catch (RuntimeException e) {
+					failed.set(true);
+
+					synchronized (exceptions) {
+						exceptions.add(e);
+					}
+				}
+			});
+
 			threads.add(thread);
 			thread.start();
 		}
@@ -72,21 +172,24 @@ public class BatchPublicTransportRouter {
 		}
 
 		progress.close();
-		return Pair.of(tripResults, legResults);
+
+		if (exceptions.size() > 0) {
+			throw exceptions.get(0);
+		}
 	}
 
 	private class Worker implements Runnable {
 		private final Iterator<Task> taskIterator;
-		private final Collection<TripInformation> tripResults;
-		private final Collection<LegInformation> legResults;
+		private final ResultWriter writer;
 		private final ParallelProgress progress;
+		private final AtomicBoolean failed;
 
-		private Worker(Iterator<Task> taskIterator, Collection<TripInformation> tripResults,
-				Collection<LegInformation> legResults, ParallelProgress progress) {
+		private Worker(Iterator<Task> taskIterator, ResultWriter writer, ParallelProgress progress,
+				AtomicBoolean failed) {
 			this.taskIterator = taskIterator;
-			this.tripResults = tripResults;
-			this.legResults = legResults;
+			this.writer = writer;
 			this.progress = progress;
+			this.failed = failed;
 		}
 
 		@Override
@@ -98,6 +201,10 @@ public class BatchPublicTransportRouter {
 				List<Task> localTasks = new ArrayList<>(batchSize);
 
 				synchronized (taskIterator) {
+					if (failed.get()) {
+						return;
+					}
+
 					while (taskIterator.hasNext() && localTasks.size() < batchSize) {
 						localTasks.add(taskIterator.next());
 					}
@@ -116,19 +223,38 @@ public class BatchPublicTransportRouter {
 					Coord fromCoord = new Coord(task.originX, task.originY);
 					Coord toCoord = new Coord(task.destinationX, task.destinationY);
 
-					Facility fromFacility = new LinkWrapperFacility(NetworkUtils.getNearestLink(network, fromCoord));
-					Facility toFacility = new LinkWrapperFacility(NetworkUtils.getNearestLink(network, toCoord));
+					Facility fromFacility = new LinkWrapperFacility(linkSnapper.getNearestLink(fromCoord));
+					Facility toFacility = new LinkWrapperFacility(linkSnapper.getNearestLink(toCoord));
+
+					List<? extends PlanElement> planElements = null;
+					double departureDelay = 0.0;
+
+					if (interval > 0.0 && combinedHeadway) {
+						List<RaptorRoute> routes = headwayCalculator.calculateRoutes(fromFacility, toFacility,
+								task.departureTime);
+						tripInformation.headway_min = headwayCalculator.calculateHeadway_min(routes);
 
-					List<? extends PlanElement> planElements = router.calcRoute(DefaultRoutingRequest.withoutAttributes(fromFacility, toFacility, task.departureTime, null));
+						RaptorRoute route = selectRoute(routes, task.departureTime);
+
+						// If walking wins, the router reports the trip as in the separate mode
+						if (route != null && hasTransitPart(route)) {
+							planElements = RaptorUtils.convertRouteToLegs(route, transferWalkMargin);
+							departureDelay = route.getDepartureTime() - task.departureTime;
+						}
+					}
+
+					if (planElements == null) {
+						planElements = router.calcRoute(DefaultRoutingRequest.withoutAttributes(fromFacility, toFacility, task.departureTime, null));
+					}
 
 					if (planElements != null) {
 						boolean isFirstVehicularLeg = true;
 						tripInformation.isOnlyWalk = 1;
 
-						if (interval > 0.0) {
+						if (interval > 0.0 && !combinedHeadway) {
 							tripInformation.headway_min = headwayCalculator.calculateHeadway_min(fromFacility,
 									toFacility, task.departureTime);
-						} else {
+						} else if (interval <= 0.0) {
 							tripInformation.headway_min = Double.NaN;
 						}
 
@@ -218,6 +344,11 @@ public class BatchPublicTransportRouter {
 							currentIndex++;
 						}
 
+						if (tripInformation.isOnlyWalk == 0) {
+							// Selected route departs later than requested
+							tripInformation.initialWaitingTime_min += departureDelay / 60.0;
+						}
+
 						tripInformation.inVehicleTimeTotal_min = tripInformation.inVehicleTimeRail_min
 								+ tripInformation.inVehicleTimeSubway_min + tripInformation.inVehicleTimeBus_min
 								+ tripInformation.inVehicleTimeTram_min + tripInformation.inVehicleTimeOther_min;
@@ -235,14 +366,118 @@ public class BatchPublicTransportRouter {
 					progress.update();
 				}
 
-				synchronized (tripResults) {
-					tripResults.addAll(localTripResults);
-					legResults.addAll(localLegResults);
+				try {
+					synchronized (writer) {
+						writer.write(localTasks, localTripResults, localLegResults);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
 				}
 			}
 		}
 	}
 
+	/**
+	 * Writes trips and legs as CSV. Either output stream may be null, in which
+	 * case the respective results are discarded.
+	 */
+	static public class CsvResultWriter implements ResultWriter, Closeable {
+		private final SequenceWriter tripWriter;
+		private final SequenceWriter legWriter;
+
+		public CsvResultWriter(OutputStream tripOutputStream, OutputStream legOutputStream) throws IOException {
+			CsvMapper mapper = new CsvMapper();
+
+			if (tripOutputStream != null) {
+				CsvSchema schema = mapper.typedSchemaFor(TripInformation.class).withHeader().withColumnSeparator(',');
+				tripWriter = mapper.writerWithTypedSchemaFor(TripInformation.class).with(schema)
+						.writeValues(tripOutputStream);
+			} else {
+				tripWriter = null;
+			}
+
+			if (legOutputStream != null) {
+				CsvSchema schema = mapper.typedSchemaFor(LegInformation.class).withHeader().withColumnSeparator(',');
+				legWriter = mapper.writerWithTypedSchemaFor(LegInformation.class).with(schema)
+						.writeValues(legOutputStream);
+			} else {
+				legWriter = null;
+			}
+		}
+
+		@Override
+		public void write(List<Task> tasks, List<TripInformation> trips, List<LegInformation> legs)
+				throws IOException {
+			if (tripWriter != null) {
+				tripWriter.writeAll(trips);
+			}
+
+			if (legWriter != null) {
+				legWriter.writeAll(legs);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (tripWriter != null) {
+				tripWriter.close();
+			}
+
+			if (legWriter != null) {
+				legWriter.close();
+			}
+		}
+	}
+
+	/**
+	 * Selects the route that a separate query at the given time would yield: the
+	 * one with the lowest costs among the routes that depart at or after that
+	 * time, including the direct walk. Routes of the range query start without
+	 * waiting, so the costs of waiting until their departure are added, and the
+	 * costs of the direct walk are scaled by the direct walk factor, as in the
+	 * router. For equal costs, the earlier arrival is preferred.
+	 */
+	private RaptorRoute selectRoute(List<RaptorRoute> routes, double departureTime) {
+		RaptorRoute bestRoute = null;
+		double bestCosts = Double.POSITIVE_INFINITY;
+		double bestArrivalTime = Double.POSITIVE_INFINITY;
+
+		for (RaptorRoute route : routes) {
+			if (route.getDepartureTime() < departureTime) {
+				continue;
+			}
+
+			final double costs;
+
+			if (hasTransitPart(route)) {
+				costs = route.getTotalCosts() - (route.getDepartureTime() - departureTime)
+						* raptorParameters.getMarginalUtilityOfWaitingPt_utl_s();
+			} else {
+				costs = route.getTotalCosts() * raptorParameters.getDirectWalkFactor();
+			}
+
+			double arrivalTime = route.getDepartureTime() + route.getTravelTime();
+
+			if (costs < bestCosts || costs == bestCosts && arrivalTime < bestArrivalTime) {
+				bestRoute = route;
+				bestCosts = costs;
+				bestArrivalTime = arrivalTime;
+			}
+		}
+
+		return bestRoute;
+	}
+
+	private static boolean hasTransitPart(RaptorRoute route) {
+		for (RoutePart part : route.getParts()) {
+			if (part.line != null) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
 	private static Departure findDeparture(TransitPassengerRoute passengerRoute, TransitRoute route) {
 		double boardingTime = passengerRoute.getBoardingTime().seconds();
 
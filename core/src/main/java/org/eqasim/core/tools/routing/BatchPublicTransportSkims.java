@@ -0,0 +1,468 @@
+package org.eqasim.core.tools.routing;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eqasim.core.misc.LinkSnapper;
+import org.eqasim.core.misc.ParallelProgress;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.router.LinkWrapperFacility;
+import org.matsim.core.utils.collections.QuadTree;
+import org.matsim.core.utils.collections.QuadTrees;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.facilities.Facility;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.inject.Provider;
+
+import ch.sbb.matsim.routing.pt.raptor.RaptorParameters;
+import ch.sbb.matsim.routing.pt.raptor.RaptorRoute;
+import ch.sbb.matsim.routing.pt.raptor.RaptorRoute.RoutePart;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorCore.TravelInfo;
+
+/**
+ * Calculates public transport skim matrices between zones. Instead of routing
+ * every origin-destination pair, one tree is calculated from each origin to all
+ * stops for every departure time. Origins that are snapped to the same link are
+ * processed as one cluster sharing the same trees, which start at the link.
+ * The walk from each origin to its link is added to the access time. Each
+ * destination zone is then reached by walking from the nearby stops, and the
+ * best stop determines the skim values. A direct walk is used whenever it is
+ * faster than public transport.
+ *
+ * The total travel time and the only-walk share are averaged over all
+ * departure times. All other values describe the public transport trips and
+ * are averaged over the departure times for which public transport is used.
+ * They are NaN if walking is always faster.
+ *
+ * Clusters are distributed over the threads and the rows of each origin are
+ * written as soon as they are complete, so the full matrix is never held in
+ * memory.
+ */
+public class BatchPublicTransportSkims {
+	static public final String[] FIELDS = { "total_travel_time_min", "access_travel_time_min",
+			"egress_travel_time_min", "transfer_travel_time_min", "initial_waiting_time_min",
+			"transfer_waiting_time_min", "in_vehicle_time_rail_min", "in_vehicle_time_subway_min",
+			"in_vehicle_time_bus_min", "in_vehicle_time_tram_min", "in_vehicle_time_other_min",
+			"in_vehicle_time_total_min", "transfers", "only_walk_share" };
+
+	static private final int TOTAL = 0;
+	static private final int ACCESS = 1;
+	static private final int EGRESS = 2;
+	static private final int TRANSFER = 3;
+	static private final int INITIAL_WAITING = 4;
+	static private final int TRANSFER_WAITING = 5;
+	static private final int IN_VEHICLE_RAIL = 6;
+	static private final int IN_VEHICLE_SUBWAY = 7;
+	static private final int IN_VEHICLE_BUS = 8;
+	static private final int IN_VEHICLE_TRAM = 9;
+	static private final int IN_VEHICLE_OTHER = 10;
+	static private final int IN_VEHICLE_TOTAL = 11;
+	static private final int TRANSFERS = 12;
+	static private final int ONLY_WALK = 13;
+
+	private final Provider<SwissRailRaptor> raptorProvider;
+	private final RaptorParameters parameters;
+
+	private final LinkSnapper linkSnapper;
+	private final QuadTree<TransitStopFacility> stopIndex;
+
+	private final double egressRadius;
+	private final double walkFactor;
+	private final double walkSpeed;
+
+	private final int numberOfThreads;
+
+	public BatchPublicTransportSkims(Provider<SwissRailRaptor> raptorProvider, RaptorParameters parameters,
+			TransitSchedule schedule, Network network, double egressRadius, double walkFactor, double walkSpeed,
+			int numberOfThreads) {
+		this.raptorProvider = raptorProvider;
+		this.parameters = parameters;
+		this.linkSnapper = new LinkSnapper(network);
+		this.egressRadius = egressRadius;
+		this.walkFactor = walkFactor;
+		this.walkSpeed = walkSpeed;
+		this.numberOfThreads = numberOfThreads;
+
+		this.stopIndex = QuadTrees.createQuadTree(schedule.getFacilities().values(), e -> e.getCoord(), 0.0);
+	}
+
+	/**
+	 * Receives the skim values of one origin zone, with one row per destination
+	 * zone in the order of the zone list. Calls are synchronized.
+	 */
+	public interface SkimWriter {
+		void write(int originIndex, double[][] rows) throws IOException;
+	}
+
+	public void run(List<Zone> zones, Collection<Double> departureTimes, SkimWriter writer)
+			throws InterruptedException {
+		List<EgressStop[]> egressStops = new ArrayList<>(zones.size());
+
+		for (Zone zone : zones) {
+			egressStops.add(findEgressStops(zone));
+		}
+
+		// Origins that are snapped to the same link share their trees
+		Map<Id<Link>, List<Integer>> clusterMap = new LinkedHashMap<>();
+
+		for (int i = 0; i < zones.size(); i++) {
+			Link link = linkSnapper.getNearestLink(new Coord(zones.get(i).x, zones.get(i).y));
+			clusterMap.computeIfAbsent(link.getId(), id -> new ArrayList<>()).add(i);
+		}
+
+		List<List<Integer>> clusters = new ArrayList<>(clusterMap.values());
+		AtomicInteger nextCluster = new AtomicInteger(0);
+
+		ParallelProgress progress = new ParallelProgress("Calculating skims ...", zones.size());
+		progress.start();
+
+		List<Thread> threads = new ArrayList<>(numberOfThreads);
+		List<RuntimeException> exceptions = new ArrayList<>();
+
+		// Once a worker fails, the others stop after their current cluster
+		AtomicBoolean failed = new AtomicBoolean(false);
+
+		for (int i = 0; i < numberOfThreads; i++) {
+			Thread thread = new Thread(() -> {
+				try {
+					new Worker(zones, clusters, egressStops, departureTimes, nextCluster, writer, progress, failed)
+							.run();
+				} catch (RuntimeException e) {
+					failed.set(true);
+
+					synchronized (exceptions) {
+						exceptions.add(e);
+					}
+				}
+			});
+
+			threads.add(thread);
+			thread.start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		progress.close();
+
+		if (exceptions.size() > 0) {
+			throw exceptions.get(0);
+		}
+	}
+
+	private record EgressStop(Id<TransitStopFacility> stopId, double walkTime) {
+	}
+
+	private EgressStop[] findEgressStops(Zone zone) {
+		Coord coord = new Coord(zone.x, zone.y);
+		Collection<TransitStopFacility> candidates = stopIndex.getDisk(zone.x, zone.y, egressRadius);
+
+		if (candidates.isEmpty() && stopIndex.size() > 0) {
+			candidates = List.of(stopIndex.getClosest(zone.x, zone.y));
+		}
+
+		EgressStop[] stops = new EgressStop[candidates.size()];
+
+		int k = 0;
+		for (TransitStopFacility stop : candidates) {
+			stops[k++] = new EgressStop(stop.getId(), getWalkTime(stop.getCoord(), coord));
+		}
+
+		return stops;
+	}
+
+	private double getWalkTime(Coord fromCoord, Coord toCoord) {
+		return CoordUtils.calcEuclideanDistance(fromCoord, toCoord) * walkFactor / walkSpeed;
+	}
+
+	private class Worker {
+		private final List<Zone> zones;
+		private final List<List<Integer>> clusters;
+		private final List<EgressStop[]> egressStops;
+		private final Collection<Double> departureTimes;
+		private final AtomicInteger nextCluster;
+		private final SkimWriter writer;
+		private final ParallelProgress progress;
+		private final AtomicBoolean failed;
+
+		private final SwissRailRaptor raptor = raptorProvider.get();
+
+		Worker(List<Zone> zones, List<List<Integer>> clusters, List<EgressStop[]> egressStops,
+				Collection<Double> departureTimes, AtomicInteger nextCluster, SkimWriter writer,
+				ParallelProgress progress, AtomicBoolean failed) {
+			this.zones = zones;
+			this.clusters = clusters;
+			this.egressStops = egressStops;
+			this.departureTimes = departureTimes;
+			this.nextCluster = nextCluster;
+			this.writer = writer;
+			this.progress = progress;
+			this.failed = failed;
+		}
+
+		void run() {
+			int clusterIndex;
+
+			while (!failed.get() && (clusterIndex = nextCluster.getAndIncrement()) < clusters.size()) {
+				List<Integer> cluster = clusters.get(clusterIndex);
+				double[][][] rows = processCluster(cluster);
+
+				try {
+					synchronized (writer) {
+						for (int k = 0; k < cluster.size(); k++) {
+							writer.write(cluster.get(k), rows[k]);
+						}
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+
+				for (int k = 0; k < cluster.size(); k++) {
+					progress.update();
+				}
+			}
+		}
+
+		private double[][][] processCluster(List<Integer> cluster) {
+			Zone firstOrigin = zones.get(cluster.get(0));
+			Facility originFacility = new LinkWrapperFacility(
+					linkSnapper.getNearestLink(new Coord(firstOrigin.x, firstOrigin.y)));
+
+			// Walk from each origin to the start of the shared trees
+			double[] originWalkTimes = new double[cluster.size()];
+
+			for (int k = 0; k < cluster.size(); k++) {
+				Zone origin = zones.get(cluster.get(k));
+				originWalkTimes[k] = getWalkTime(new Coord(origin.x, origin.y), originFacility.getCoord());
+			}
+
+			double[][][] rows = new double[cluster.size()][zones.size()][FIELDS.length];
+			int[][] transitDepartures = new int[cluster.size()][zones.size()];
+
+			for (double departureTime : departureTimes) {
+				Map<Id<TransitStopFacility>, TravelInfo> tree = raptor.calcTree(originFacility, departureTime,
+						parameters, null);
+
+				for (int destinationIndex = 0; destinationIndex < zones.size(); destinationIndex++) {
+					Zone destination = zones.get(destinationIndex);
+
+					// Find the stop from which the destination is reached first
+					TravelInfo bestInfo = null;
+					double bestArrivalTime = Double.POSITIVE_INFINITY;
+					double bestEgressTime = 0.0;
+
+					for (EgressStop egressStop : egressStops.get(destinationIndex)) {
+						TravelInfo info = tree.get(egressStop.stopId());
+
+						if (info != null && !info.isWalkOnly()) {
+							double arrivalTime = info.ptArrivalTime + egressStop.walkTime();
+
+							if (arrivalTime < bestArrivalTime) {
+								bestInfo = info;
+								bestArrivalTime = arrivalTime;
+								bestEgressTime = egressStop.walkTime();
+							}
+						}
+					}
+
+					for (int k = 0; k < cluster.size(); k++) {
+						Zone origin = zones.get(cluster.get(k));
+						double walkTime = getWalkTime(new Coord(origin.x, origin.y),
+								new Coord(destination.x, destination.y));
+
+						double[] row = rows[k][destinationIndex];
+
+						double arrivalTime = bestArrivalTime + originWalkTimes[k];
+
+						if (bestInfo == null || departureTime + walkTime <= arrivalTime) {
+							row[TOTAL] += walkTime;
+							row[ONLY_WALK] += 1.0;
+						} else {
+							row[TOTAL] += arrivalTime - departureTime;
+							row[ACCESS] += bestInfo.accessTime + originWalkTimes[k];
+							row[EGRESS] += bestEgressTime;
+							addRoute(row, bestInfo.getRaptorRoute());
+							transitDepartures[k][destinationIndex]++;
+						}
+					}
+				}
+			}
+
+			double numberOfDepartureTimes = departureTimes.size();
+
+			for (int k = 0; k < cluster.size(); k++) {
+				for (int destinationIndex = 0; destinationIndex < zones.size(); destinationIndex++) {
+					double[] row = rows[k][destinationIndex];
+					int numberOfTransitDepartures = transitDepartures[k][destinationIndex];
+
+					row[IN_VEHICLE_TOTAL] = row[IN_VEHICLE_RAIL] + row[IN_VEHICLE_SUBWAY] + row[IN_VEHICLE_BUS]
+							+ row[IN_VEHICLE_TRAM] + row[IN_VEHICLE_OTHER];
+
+					for (int field = 0; field < FIELDS.length; field++) {
+						if (field == TOTAL || field == ONLY_WALK) {
+							row[field] /= numberOfDepartureTimes;
+						} else if (numberOfTransitDepartures > 0) {
+							row[field] /= numberOfTransitDepartures;
+						} else {
+							row[field] = Double.NaN;
+						}
+
+						if (field != TRANSFERS && field != ONLY_WALK) {
+							row[field] /= 60.0;
+						}
+					}
+				}
+			}
+
+			return rows;
+		}
+
+		private void addRoute(double[] row, RaptorRoute route) {
+			boolean isFirstVehicularPart = true;
+
+			for (RoutePart part : route.getParts()) {
+				if (part.line == null) {
+					// Walks before the first vehicle are covered by the access time
+					if (!isFirstVehicularPart) {
+						row[TRANSFER] += part.arrivalTime - part.depTime;
+					}
+
+					continue;
+				}
+
+				double waitingTime = part.boardingTime - part.depTime;
+
+				if (isFirstVehicularPart) {
+					row[INITIAL_WAITING] += waitingTime;
+					isFirstVehicularPart = false;
+				} else {
+					row[TRANSFER_WAITING] += waitingTime;
+					row[TRANSFERS] += 1.0;
+				}
+
+				double inVehicleTime = part.arrivalTime - part.boardingTime;
+
+				switch (part.route.getTransportMode()) {
+				case "rail":
+					row[IN_VEHICLE_RAIL] += inVehicleTime;
+					break;
+				case "subway":
+					row[IN_VEHICLE_SUBWAY] += inVehicleTime;
+					break;
+				case "bus":
+					row[IN_VEHICLE_BUS] += inVehicleTime;
+					break;
+				case "tram":
+					row[IN_VEHICLE_TRAM] += inVehicleTime;
+					break;
+				default:
+					row[IN_VEHICLE_OTHER] += inVehicleTime;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes one CSV line per origin-destination pair.
+	 */
+	static public class CsvSkimWriter implements SkimWriter {
+		private final BufferedWriter writer;
+		private final List<Zone> zones;
+
+		public CsvSkimWriter(OutputStream outputStream, List<Zone> zones) throws IOException {
+			this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+			this.zones = zones;
+
+			writer.write("origin_id,destination_id," + String.join(",", FIELDS) + "\n");
+		}
+
+		@Override
+		public void write(int originIndex, double[][] rows) throws IOException {
+			String originId = zones.get(originIndex).identifier;
+
+			for (int destinationIndex = 0; destinationIndex < rows.length; destinationIndex++) {
+				StringBuilder line = new StringBuilder();
+				line.append(originId).append(',').append(zones.get(destinationIndex).identifier);
+
+				for (double value : rows[destinationIndex]) {
+					line.append(',').append((float) value);
+				}
+
+				writer.write(line.append('\n').toString());
+			}
+		}
+
+		public void close() throws IOException {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes the skims as little-endian binary. The header contains the number of
+	 * zones and fields (int32). It is followed by one block per origin, in the
+	 * order of completion, with the origin index (int32) and the field values of
+	 * all destinations (float32, destination-major).
+	 */
+	static public class BinarySkimWriter implements SkimWriter {
+		private final OutputStream outputStream;
+
+		public BinarySkimWriter(OutputStream outputStream, List<Zone> zones) throws IOException {
+			this.outputStream = outputStream;
+
+			ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(zones.size()).putInt(FIELDS.length);
+			outputStream.write(header.array());
+		}
+
+		@Override
+		public void write(int originIndex, double[][] rows) throws IOException {
+			ByteBuffer block = ByteBuffer.allocate(Integer.BYTES + rows.length * FIELDS.length * Float.BYTES)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			block.putInt(originIndex);
+
+			for (double[] row : rows) {
+				for (double value : row) {
+					block.putFloat((float) value);
+				}
+			}
+
+			outputStream.write(block.array());
+		}
+
+		public void close() throws IOException {
+			outputStream.close();
+		}
+	}
+
+	static public class Zone {
+		@JsonProperty("identifier")
+		public String identifier;
+
+		@JsonProperty("x")
+		public double x;
+
+		@JsonProperty("y")
+		public double y;
+	}
+}
@@ -1,16 +1,21 @@
 package org.eqasim.core.tools.routing;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.eqasim.core.misc.LinkSnapper;
 import org.eqasim.core.misc.ParallelProgress;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
-import org.matsim.core.network.NetworkUtils;
 import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
 import org.matsim.core.router.util.LeastCostPathCalculator;
 import org.matsim.core.router.util.LeastCostPathCalculator.Path;
@@ -21,11 +26,21 @@ import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
 import org.matsim.core.utils.geometry.CoordUtils;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import com.google.inject.Provider;
 
+/**
+ * Routes road trips in parallel. Tasks are pulled from an iterator in batches
+ * and the results of each batch are passed to a {@link ResultWriter} as soon as
+ * the batch is finished, in arbitrary order.
+ */
 public class BatchRoadRouter {
 	private final Provider<LeastCostPathCalculatorFactory> routerFactoryProvider;
 	private final Network network;
+	private final LinkSnapper linkSnapper;
 
 	private final int batchSize;
 	private final int numberOfThreads;
@@ -37,20 +52,64 @@ public class BatchRoadRouter {
 		this.batchSize = batchSize;
 		this.numberOfThreads = numberOfThreads;
 		this.network = network;
+		this.linkSnapper = new LinkSnapper(network);
 		this.writePaths = writePaths;
 	}
 
+	/**
+	 * Receives the results of one batch of tasks. Calls are synchronized.
+	 */
+	public interface ResultWriter {
+		void write(List<Task> tasks, List<Result> results) throws IOException;
+	}
+
 	public Collection<Result> run(Collection<Task> tasks) throws InterruptedException {
-		Iterator<Task> taskIterator = tasks.iterator();
 		List<Result> results = new ArrayList<>(tasks.size());
+		run(tasks.iterator(), tasks.size(), (batch, batchResults) -> results.addAll(batchResults));
+		return results;
+	}
+
+	/**
+	 * Routes the tasks of the iterator, which is only accessed by one thread at a
+	 * time. The number of tasks is only used to report progress.
+	 */
+	public void run(Iterator<Task> taskIterator, long numberOfTasks, ResultWriter writer)
+			throws InterruptedException {
+		run(taskIterator, new ParallelProgress("Routing trips ...", numberOfTasks), writer);
+	}
+
+	/**
+	 * Routes the tasks of the iterator without knowing their number in advance,
+	 * for instance while they are read from a file. Progress is reported as the
+	 * number of routed tasks.
+	 */
+	public void run(Iterator<Task> taskIterator, ResultWriter writer) throws InterruptedException {
+		run(taskIterator, new ParallelProgress("Routing trips ..."), writer);
+	}
 
-		ParallelProgress progress = new ParallelProgress("Routing trips ...", tasks.size());
+	private void run(Iterator<Task> taskIterator, ParallelProgress progress, ResultWriter writer)
+			throws InterruptedException {
 		progress.start();
 
 		List<Thread> threads = new ArrayList<>(numberOfThreads);
+		List<RuntimeException> exceptions = new ArrayList<>();
+
+		// Set by the first failing worker so that the others stop after their batch
+		AtomicBoolean failed = new AtomicBoolean(false);
 
 		for (int i = 0; i < numberOfThreads; i++) {
-			Thread thread = new Thread(new Worker(taskIterator, results, progress));
+			Thread thread = new Thread(() -> {
+				try {
+					new Worker(taskIterator, writer, progress, failed).run();
+				} catch (RuntimeException e) {
+					failed.set(true);
+
+					synchronized (exceptions) {
+						exceptions.add(e);
+					}
+				}
+			});
+
 			threads.add(thread);
 			thread.start();
 		}
@@ -60,18 +119,24 @@ public class BatchRoadRouter {
 		}
 
 		progress.close();
-		return results;
+
+		if (exceptions.size() > 0) {
+			throw exceptions.get(0);
+		}
 	}
 
 	private class Worker implements Runnable {
 		private final Iterator<Task> taskIterator;
-		private final Collection<Result> results;
+		private final ResultWriter writer;
 		private final ParallelProgress progress;
+		private final AtomicBoolean failed;
 
-		private Worker(Iterator<Task> taskIterator, Collection<Result> results, ParallelProgress progress) {
+		private Worker(Iterator<Task> taskIterator, ResultWriter writer, ParallelProgress progress,
+				AtomicBoolean failed) {
 			this.taskIterator = taskIterator;
-			this.results = results;
+			this.writer = writer;
 			this.progress = progress;
+			this.failed = failed;
 		}
 
 		@Override
@@ -87,6 +152,10 @@ public class BatchRoadRouter {
 				List<Task> localTasks = new ArrayList<>(batchSize);
 
 				synchronized (taskIterator) {
+					if (failed.get()) {
+						return;
+					}
+
 					while (taskIterator.hasNext() && localTasks.size() < batchSize) {
 						localTasks.add(taskIterator.next());
 					}
@@ -104,8 +173,8 @@ public class BatchRoadRouter {
 					Coord fromCoord = new Coord(task.originX, task.originY);
 					Coord toCoord = new Coord(task.destinationX, task.destinationY);
 
-					Link fromLink = NetworkUtils.getNearestLink(network, fromCoord);
-					Link toLink = NetworkUtils.getNearestLink(network, toCoord);
+					Link fromLink = linkSnapper.getNearestLink(fromCoord);
+					Link toLink = linkSnapper.getNearestLink(toCoord);
 
 					Path path = router.calcLeastCostPath(fromLink.getToNode(), toLink.getFromNode(), task.departureTime,
 							null, null);
@@ -126,13 +195,56 @@ public class BatchRoadRouter {
 					progress.update();
 				}
 
-				synchronized (results) {
-					results.addAll(localResults);
+				try {
+					synchronized (writer) {
+						writer.write(localTasks, localResults);
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
 				}
 			}
 		}
 	}
 
+	/**
+	 * Writes the results as CSV, with the links of the path separated by spaces if
+	 * paths are written.
+	 */
+	static public class CsvResultWriter implements ResultWriter, Closeable {
+		private final SequenceWriter writer;
+
+		public CsvResultWriter(OutputStream outputStream, boolean writePaths) throws IOException {
+			CsvSchema.Builder builder = new CsvSchema.Builder() //
+					.setColumnSeparator(',') //
+					.setArrayElementSeparator(" ") //
+					.setUseHeader(true) //
+					.addColumn("identifier") //
+					.addColumn("access_euclidean_distance_km") //
+					.addColumn("egress_euclidean_distance_km") //
+					.addColumn("in_vehicle_time_min") //
+					.addColumn("in_vehicle_distance_km");
+
+			if (writePaths) {
+				builder.addArrayColumn("path");
+			}
+
+			CsvMapper mapper = new CsvMapper();
+			mapper.configure(JsonGenerator.Feature.IGNORE_UNKNOWN, true);
+
+			this.writer = mapper.writerWithTypedSchemaFor(Result.class).with(builder.build()).writeValues(outputStream);
+		}
+
+		@Override
+		public void write(List<Task> tasks, List<Result> results) throws IOException {
+			writer.writeAll(results);
+		}
+
+		@Override
+		public void close() throws IOException {
+			writer.close();
+		}
+	}
+
 	static public class Task {
 		@JsonProperty("identifier")
 		public String identifier;
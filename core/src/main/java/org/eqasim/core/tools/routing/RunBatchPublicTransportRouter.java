@@ -2,24 +2,25 @@ package org.eqasim.core.tools.routing;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eqasim.core.components.headway.HeadwayCalculator;
 import org.eqasim.core.components.headway.HeadwayImputerModule;
 import org.eqasim.core.misc.InjectorBuilder;
 import org.eqasim.core.simulation.EqasimConfigurator;
-import org.eqasim.core.tools.routing.BatchPublicTransportRouter.LegInformation;
+import org.eqasim.core.tools.routing.BatchPublicTransportRouter.CsvResultWriter;
 import org.eqasim.core.tools.routing.BatchPublicTransportRouter.Task;
-import org.eqasim.core.tools.routing.BatchPublicTransportRouter.TripInformation;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.core.config.CommandLine;
@@ -32,6 +33,7 @@ import org.matsim.core.config.groups.RoutingConfigGroup.TeleportedModeParams;
 import org.matsim.core.config.groups.ScoringConfigGroup.ModeParams;
 import org.matsim.core.network.io.MatsimNetworkReader;
 import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
 import org.matsim.pt.router.TransitRouter;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
@@ -42,13 +44,17 @@ import org.matsim.vehicles.MatsimVehicleReader;
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.MappingIterator;
-import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.google.common.collect.Iterators;
 import com.google.inject.Injector;
 import com.google.inject.Provider;
 
 import ch.sbb.matsim.config.SwissRailRaptorConfigGroup;
+import ch.sbb.matsim.routing.pt.raptor.RaptorParameters;
+import ch.sbb.matsim.routing.pt.raptor.RaptorParametersForPerson;
+import ch.sbb.matsim.routing.pt.raptor.RaptorUtils;
 
 public class RunBatchPublicTransportRouter {
 	private final static Logger logger = LogManager.getLogger(RunBatchPublicTransportRouter.class);
@@ -57,11 +63,12 @@ public class RunBatchPublicTransportRouter {
 			IOException, InterruptedException {
 		CommandLine cmd = new CommandLine.Builder(args) //
 				.requireOptions("config-path", "input-path") //
-				.allowOptions("threads", "batch-size", "interval", //
+				.allowOptions("threads", "batch-size", "interval", "combined-headway", //
 						"transfer-utility", "waiting-utility", //
 						"direct-walk-factor", "maximum-transfer-distance", //
 						"walk-factor", "walk-speed", //
-						"output-trips-path", "output-legs-path", "output-config-path") //
+						"output-trips-path", "output-legs-path", "output-config-path", //
+						"checkpoint-path", "checkpoint-interval") //
 				.allowPrefixes("travel-utility") //
 				.build();
 
@@ -257,10 +264,17 @@ public class RunBatchPublicTransportRouter {
 		int batchSize = cmd.getOption("batch-size").map(Integer::parseInt).orElse(100);
 		double interval = (double) cmd.getOption("interval").map(Integer::parseInt).orElse(0);
 
+		// Select routes from the range query of the headway instead of routing twice
+		boolean combinedHeadway = cmd.getOption("combined-headway").map(Boolean::parseBoolean).orElse(false);
+		double transferWalkMargin = RaptorUtils.createStaticConfig(config).getTransferWalkMargin();
+
 		Optional<String> outputLegsPath = cmd.getOption("output-legs-path");
 		Optional<String> outputTripsPath = cmd.getOption("output-trips-path");
 		Optional<String> outputConfigPath = cmd.getOption("output-config-path");
 
+		Optional<String> checkpointPath = cmd.getOption("checkpoint-path");
+		double checkpointInterval = cmd.getOption("checkpoint-interval").map(Double::parseDouble).orElse(600.0);
+
 		Injector injector = new InjectorBuilder(scenario) //
 				.addOverridingModules(configurator.getModules()) //
 				.addOverridingModule(new HeadwayImputerModule(numberOfThreads, batchSize, false, interval)).build();
@@ -269,44 +283,85 @@ public class RunBatchPublicTransportRouter {
 		Provider<HeadwayCalculator> headwayCalculatorProvider = injector.getProvider(HeadwayCalculator.class);
 		TransitSchedule schedule = injector.getInstance(TransitSchedule.class);
 		Network network = injector.getInstance(Network.class);
+		RaptorParameters raptorParameters = injector.getInstance(RaptorParametersForPerson.class)
+				.getRaptorParameters(null);
 
 		BatchPublicTransportRouter batchRouter = new BatchPublicTransportRouter(routerProvider,
-				headwayCalculatorProvider, schedule, network, batchSize, numberOfThreads, interval);
+				headwayCalculatorProvider, schedule, network, batchSize, numberOfThreads, interval, combinedHeadway,
+				transferWalkMargin, raptorParameters);
 
+		// Tasks are streamed from the input file and results are written as batches
+		// finish, so the input and output can be compressed (.gz) and of any size
 		CsvMapper mapper = new CsvMapper();
 
-		File inputFile = new File(cmd.getOptionStrict("input-path"));
+		URL inputUrl = IOUtils.getFileUrl(cmd.getOptionStrict("input-path"));
 		CsvSchema taskSchema = mapper.typedSchemaFor(Task.class).withHeader().withColumnSeparator(',').withComments()
 				.withColumnReordering(true);
+		ObjectReader taskReader = mapper.readerWithTypedSchemaFor(Task.class).with(taskSchema);
+
+		// With a checkpoint directory, results are first written to parts that
+		// survive a restart, and tasks of previous runs are skipped
+		Map<String, String> outputPaths = new LinkedHashMap<>();
+		outputTripsPath.ifPresent(path -> outputPaths.put("trips", path));
+		outputLegsPath.ifPresent(path -> outputPaths.put("legs", path));
+
+		BatchCheckpoint<CsvResultWriter> checkpoint = checkpointPath.isPresent()
+				? new BatchCheckpoint<>(new File(checkpointPath.get()), outputPaths.keySet(), checkpointInterval,
+						outputStreams -> new CsvResultWriter(outputStreams.get("trips"), outputStreams.get("legs")))
+				: null;
+
+		Set<String> completedTasks = checkpoint == null ? Collections.emptySet() : checkpoint.load();
+
+		try (MappingIterator<Task> taskIterator = taskReader.readValues(IOUtils.getInputStream(inputUrl))) {
+			// Trips and legs are matched by identifier and resuming skips tasks by
+			// identifier, so every task needs a unique one. They are validated while the
+			// tasks are read, in the single pass over the input.
+			Set<String> identifiers = new HashSet<>();
+
+			Iterator<Task> validatedIterator = Iterators.transform(taskIterator, task -> {
+				if (task.identifier == null) {
+					throw new IllegalStateException("Tasks need an identifier");
+				}
 
-		MappingIterator<Task> taskIterator = mapper.readerWithTypedSchemaFor(Task.class).with(taskSchema)
-				.readValues(inputFile);
-		List<Task> tasks = taskIterator.readAll();
+				if (!identifiers.add(task.identifier)) {
+					throw new IllegalStateException("Duplicate task identifier: " + task.identifier);
+				}
 
-		Pair<Collection<TripInformation>, Collection<LegInformation>> results = batchRouter.run(tasks);
-		Collection<TripInformation> tripResults = results.getLeft();
-		Collection<LegInformation> legResults = results.getRight();
+				return task;
+			});
 
-		if (outputTripsPath.isPresent()) {
-			File outputFile = new File(outputTripsPath.get());
-			CsvSchema resultSchema = mapper.typedSchemaFor(TripInformation.class).withHeader().withColumnSeparator(',');
+			if (checkpoint == null) {
+				Map<String, OutputStream> outputStreams = openOutputStreams(outputPaths);
 
-			SequenceWriter writer = mapper.writerWithTypedSchemaFor(TripInformation.class).with(resultSchema)
-					.writeValues(outputFile);
-			writer.writeAll(tripResults);
+				try (CsvResultWriter writer = new CsvResultWriter(outputStreams.get("trips"),
+						outputStreams.get("legs"))) {
+					batchRouter.run(validatedIterator, writer);
+				}
+			} else {
+				batchRouter.run(Iterators.filter(validatedIterator, task -> !completedTasks.contains(task.identifier)),
+						(tasks, trips, legs) -> {
+							checkpoint.getWriter().write(tasks, trips, legs);
+							checkpoint.complete(tasks.stream().map(task -> task.identifier).toList());
+						});
+			}
 		}
 
-		if (outputLegsPath.isPresent()) {
-			File outputFile = new File(outputLegsPath.get());
-			CsvSchema resultSchema = mapper.typedSchemaFor(LegInformation.class).withHeader().withColumnSeparator(',');
-
-			SequenceWriter writer = mapper.writerWithTypedSchemaFor(LegInformation.class).with(resultSchema)
-					.writeValues(outputFile);
-			writer.writeAll(legResults);
+		if (checkpoint != null) {
+			checkpoint.merge(openOutputStreams(outputPaths));
 		}
 
 		if (outputConfigPath.isPresent()) {
 			new ConfigWriter(config).write(outputConfigPath.get());
 		}
 	}
+
+	static private Map<String, OutputStream> openOutputStreams(Map<String, String> outputPaths) {
+		Map<String, OutputStream> outputStreams = new LinkedHashMap<>();
+
+		for (var entry : outputPaths.entrySet()) {
+			outputStreams.put(entry.getKey(), IOUtils.getOutputStream(IOUtils.getFileUrl(entry.getValue()), false));
+		}
+
+		return outputStreams;
+	}
 }
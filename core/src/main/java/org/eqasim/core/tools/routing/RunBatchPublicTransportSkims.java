@@ -0,0 +1,147 @@
+package org.eqasim.core.tools.routing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eqasim.core.misc.InjectorBuilder;
+import org.eqasim.core.simulation.EqasimConfigurator;
+import org.eqasim.core.tools.routing.BatchPublicTransportSkims.BinarySkimWriter;
+import org.eqasim.core.tools.routing.BatchPublicTransportSkims.CsvSkimWriter;
+import org.eqasim.core.tools.routing.BatchPublicTransportSkims.Zone;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.config.CommandLine;
+import org.matsim.core.config.CommandLine.ConfigurationException;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.RoutingConfigGroup.TeleportedModeParams;
+import org.matsim.core.network.io.MatsimNetworkReader;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleReader;
+import org.matsim.vehicles.MatsimVehicleReader;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.google.inject.Injector;
+
+import ch.sbb.matsim.routing.pt.raptor.RaptorParameters;
+import ch.sbb.matsim.routing.pt.raptor.RaptorParametersForPerson;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
+
+/**
+ * Calculates public transport skims between all pairs of zones given in the
+ * input file (identifier, x, y). Departure times are sampled from start-time to
+ * end-time (inclusive) with the given time step, in seconds. The output is
+ * written as CSV or, if the output path ends with .bin or .bin.gz, in a compact
+ * binary format (see {@link BinarySkimWriter}).
+ */
+public class RunBatchPublicTransportSkims {
+	private final static Logger logger = LogManager.getLogger(RunBatchPublicTransportSkims.class);
+
+	static public void main(String[] args) throws ConfigurationException, IOException, InterruptedException {
+		CommandLine cmd = new CommandLine.Builder(args) //
+				.requireOptions("config-path", "input-path", "output-path") //
+				.allowOptions("threads", "start-time", "end-time", "time-step", //
+						"egress-radius", "walk-factor", "walk-speed") //
+				.build();
+
+		EqasimConfigurator configurator = new EqasimConfigurator();
+		Config config = ConfigUtils.loadConfig(cmd.getOptionStrict("config-path"), configurator.getConfigGroups());
+		cmd.applyConfiguration(config);
+
+		// Walking
+		TeleportedModeParams walkRoutingParams = config.routing().getTeleportedModeParams().get("walk");
+
+		if (cmd.hasOption("walk-factor")) {
+			walkRoutingParams.setBeelineDistanceFactor(Double.parseDouble(cmd.getOptionStrict("walk-factor")));
+			logger.info("Setting walk factor to " + walkRoutingParams.getBeelineDistanceFactor());
+		}
+
+		if (cmd.hasOption("walk-speed")) {
+			walkRoutingParams.setTeleportedModeSpeed(Double.parseDouble(cmd.getOptionStrict("walk-speed")));
+			logger.info("Setting walk speed to " + walkRoutingParams.getTeleportedModeSpeed());
+		}
+
+		// Departure times
+		double startTime = cmd.getOption("start-time").map(Double::parseDouble).orElse(8.0 * 3600.0);
+		double endTime = cmd.getOption("end-time").map(Double::parseDouble).orElse(startTime);
+		double timeStep = cmd.getOption("time-step").map(Double::parseDouble).orElse(600.0);
+
+		if (endTime < startTime || timeStep <= 0.0) {
+			throw new IllegalStateException("Invalid departure time window");
+		}
+
+		List<Double> departureTimes = new ArrayList<>();
+		for (double time = startTime; time <= endTime; time += timeStep) {
+			departureTimes.add(time);
+		}
+
+		logger.info("Calculating skims for " + departureTimes.size() + " departure times");
+
+		double egressRadius = cmd.getOption("egress-radius").map(Double::parseDouble)
+				.orElse(config.transitRouter().getSearchRadius());
+
+		// We only load network, schedule and transit vehicles
+		Scenario scenario = ScenarioUtils.createScenario(config);
+		configurator.configureScenario(scenario);
+
+		new MatsimNetworkReader(scenario.getNetwork())
+				.readURL(ConfigGroup.getInputFileURL(config.getContext(), config.network().getInputFile()));
+		new TransitScheduleReader(scenario)
+				.readURL(ConfigGroup.getInputFileURL(config.getContext(), config.transit().getTransitScheduleFile()));
+
+		if (config.transit().getVehiclesFile() != null) {
+			new MatsimVehicleReader(scenario.getTransitVehicles())
+					.readURL(ConfigGroup.getInputFileURL(config.getContext(), config.transit().getVehiclesFile()));
+		}
+
+		int numberOfThreads = cmd.getOption("threads").map(Integer::parseInt)
+				.orElse(Runtime.getRuntime().availableProcessors());
+
+		Injector injector = new InjectorBuilder(scenario) //
+				.addOverridingModules(configurator.getModules()) //
+				.build();
+
+		RaptorParameters parameters = injector.getInstance(RaptorParametersForPerson.class).getRaptorParameters(null);
+		TransitSchedule schedule = injector.getInstance(TransitSchedule.class);
+		Network network = injector.getInstance(Network.class);
+
+		BatchPublicTransportSkims skims = new BatchPublicTransportSkims(injector.getProvider(SwissRailRaptor.class),
+				parameters, schedule, network, egressRadius, walkRoutingParams.getBeelineDistanceFactor(),
+				walkRoutingParams.getTeleportedModeSpeed(), numberOfThreads);
+
+		// Zones
+		CsvMapper mapper = new CsvMapper();
+
+		File inputFile = new File(cmd.getOptionStrict("input-path"));
+		CsvSchema zoneSchema = mapper.typedSchemaFor(Zone.class).withHeader().withColumnSeparator(',').withComments()
+				.withColumnReordering(true);
+
+		MappingIterator<Zone> zoneIterator = mapper.readerWithTypedSchemaFor(Zone.class).with(zoneSchema)
+				.readValues(inputFile);
+		List<Zone> zones = zoneIterator.readAll();
+
+		// Output
+		String outputPath = cmd.getOptionStrict("output-path");
+		OutputStream outputStream = IOUtils.getOutputStream(IOUtils.getFileUrl(outputPath), false);
+
+		if (outputPath.endsWith(".bin") || outputPath.endsWith(".bin.gz")) {
+			BinarySkimWriter writer = new BinarySkimWriter(outputStream, zones);
+			skims.run(zones, departureTimes, writer);
+			writer.close();
+		} else {
+			CsvSkimWriter writer = new CsvSkimWriter(outputStream, zones);
+			skims.run(zones, departureTimes, writer);
+			writer.close();
+		}
+	}
+}
@@ -2,14 +2,18 @@ package org.eqasim.core.tools.routing;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
+import java.net.URL;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 
 import org.eqasim.core.misc.InjectorBuilder;
 import org.eqasim.core.simulation.EqasimConfigurator;
-import org.eqasim.core.tools.routing.BatchRoadRouter.Result;
+import org.eqasim.core.tools.routing.BatchRoadRouter.CsvResultWriter;
 import org.eqasim.core.tools.routing.BatchRoadRouter.Task;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.network.Network;
@@ -23,14 +27,15 @@ import org.matsim.core.network.algorithms.NetworkCleaner;
 import org.matsim.core.network.algorithms.TransportModeNetworkFilter;
 import org.matsim.core.router.util.LeastCostPathCalculatorFactory;
 import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
 
 import com.fasterxml.jackson.core.JsonGenerationException;
-import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.MappingIterator;
-import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.google.common.collect.Iterators;
 import com.google.inject.Injector;
 import com.google.inject.Key;
 import com.google.inject.Provides;
@@ -43,7 +48,8 @@ public class RunBatchRoadRouter {
 			IOException, InterruptedException {
 		CommandLine cmd = new CommandLine.Builder(args) //
 				.requireOptions("config-path", "input-path", "output-path") //
-				.allowOptions("threads", "batch-size", "modes", "write-paths") //
+				.allowOptions("threads", "batch-size", "modes", "write-paths", //
+						"checkpoint-path", "checkpoint-interval") //
 				.build();
 
 		EqasimConfigurator configurator = new EqasimConfigurator();
@@ -88,41 +94,63 @@ public class RunBatchRoadRouter {
 		BatchRoadRouter batchRouter = new BatchRoadRouter(injector.getProvider(LeastCostPathCalculatorFactory.class),
 				network, batchSize, numberOfThreads, writePaths);
 
+		// Tasks are streamed from the input file and results are written as batches
+		// finish, so the input and output can be compressed (.gz) and of any size
 		CsvMapper taskMapper = new CsvMapper();
 
-		File inputFile = new File(cmd.getOptionStrict("input-path"));
+		URL inputUrl = IOUtils.getFileUrl(cmd.getOptionStrict("input-path"));
 		CsvSchema taskSchema = taskMapper.typedSchemaFor(Task.class).withHeader().withColumnSeparator(',')
 				.withComments().withColumnReordering(true);
-
-		MappingIterator<Task> taskIterator = taskMapper.readerWithTypedSchemaFor(Task.class).with(taskSchema)
-				.readValues(inputFile);
-		List<Task> tasks = taskIterator.readAll();
-
-		Collection<Result> results = batchRouter.run(tasks);
-
-		CsvSchema.Builder builder = new CsvSchema.Builder() //
-				.setColumnSeparator(',') //
-				.setArrayElementSeparator(" ") //
-				.setUseHeader(true) //
-				.addColumn("identifier") //
-				.addColumn("access_euclidean_distance_km") //
-				.addColumn("egress_euclidean_distance_km") //
-				.addColumn("in_vehicle_time_min") //
-				.addColumn("in_vehicle_distance_km");
-
-		if (writePaths) {
-			builder.addArrayColumn("path");
+		ObjectReader taskReader = taskMapper.readerWithTypedSchemaFor(Task.class).with(taskSchema);
+
+		String outputPath = cmd.getOptionStrict("output-path");
+
+		// With a checkpoint directory, results are first written to parts that
+		// survive a restart, and tasks of previous runs are skipped
+		Optional<String> checkpointPath = cmd.getOption("checkpoint-path");
+		double checkpointInterval = cmd.getOption("checkpoint-interval").map(Double::parseDouble).orElse(600.0);
+
+		BatchCheckpoint<CsvResultWriter> checkpoint = checkpointPath.isPresent()
+				? new BatchCheckpoint<>(new File(checkpointPath.get()), List.of("output"), checkpointInterval,
+						outputStreams -> new CsvResultWriter(outputStreams.get("output"), writePaths))
+				: null;
+
+		Set<String> completedTasks = checkpoint == null ? Collections.emptySet() : checkpoint.load();
+
+		try (MappingIterator<Task> taskIterator = taskReader.readValues(IOUtils.getInputStream(inputUrl))) {
+			// Results are matched by identifier and resuming skips tasks by identifier,
+			// so every task needs a unique one. They are validated while the tasks are
+			// read, in the single pass over the input.
+			Set<String> identifiers = new HashSet<>();
+
+			Iterator<Task> validatedIterator = Iterators.transform(taskIterator, task -> {
+				if (task.identifier == null) {
+					throw new IllegalStateException("Tasks need an identifier");
+				}
+
+				if (!identifiers.add(task.identifier)) {
+					throw new IllegalStateException("Duplicate task identifier: " + task.identifier);
+				}
+
+				return task;
+			});
+
+			if (checkpoint == null) {
+				try (CsvResultWriter writer = new CsvResultWriter(
+						IOUtils.getOutputStream(IOUtils.getFileUrl(outputPath), false), writePaths)) {
+					batchRouter.run(validatedIterator, writer);
+				}
+			} else {
+				batchRouter.run(Iterators.filter(validatedIterator, task -> !completedTasks.contains(task.identifier)),
+						(tasks, results) -> {
+							checkpoint.getWriter().write(tasks, results);
+							checkpoint.complete(tasks.stream().map(task -> task.identifier).toList());
+						});
+			}
 		}
 
-		CsvSchema schema = builder.build();
-
-		File outputFile = new File(cmd.getOptionStrict("output-path"));
-
-		CsvMapper resultMapper = new CsvMapper();
-		resultMapper.configure(JsonGenerator.Feature.IGNORE_UNKNOWN, true);
-		SequenceWriter writer = resultMapper.writerWithTypedSchemaFor(Result.class).with(schema)
-				.writeValues(outputFile);
-
-		writer.writeAll(results);
+		if (checkpoint != null) {
+			checkpoint.merge(Map.of("output", IOUtils.getOutputStream(IOUtils.getFileUrl(outputPath), false)));
+		}
 	}
 }
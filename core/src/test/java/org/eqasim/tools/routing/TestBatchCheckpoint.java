@@ -0,0 +1,108 @@
+package org.eqasim.tools.routing;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eqasim.core.tools.routing.BatchCheckpoint;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestBatchCheckpoint {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final static String HEADER = "identifier;value";
+
+	static private class PartWriter implements Closeable {
+		private final BufferedWriter writer;
+
+		PartWriter(OutputStream outputStream) throws IOException {
+			this.writer = new BufferedWriter(new OutputStreamWriter(outputStream));
+			writer.write(HEADER + "\n");
+		}
+
+		void write(String identifier) throws IOException {
+			writer.write(identifier + ";" + identifier.length() + "\n");
+		}
+
+		@Override
+		public void close() throws IOException {
+			writer.close();
+		}
+	}
+
+	private BatchCheckpoint<PartWriter> createCheckpoint(File directory, double interval_s) {
+		return new BatchCheckpoint<>(directory, List.of("output"), interval_s,
+				outputStreams -> new PartWriter(outputStreams.get("output")));
+	}
+
+	private void process(BatchCheckpoint<PartWriter> checkpoint, String identifier) throws IOException {
+		checkpoint.getWriter().write(identifier);
+		checkpoint.complete(List.of(identifier));
+	}
+
+	@Test
+	public void testInterruptedRun() throws IOException {
+		File directory = new File(temporaryFolder.getRoot(), "checkpoint");
+		List<String> tasks = Arrays.asList("a", "b", "c", "d", "e");
+
+		// First run commits after every task and is interrupted while writing the
+		// third task, after its result has been written but before it is committed
+		BatchCheckpoint<PartWriter> first = createCheckpoint(directory, 0.0);
+		Assert.assertTrue(first.load().isEmpty());
+
+		process(first, "a");
+		process(first, "b");
+
+		first.getWriter().write("c");
+		first.getWriter().close();
+
+		Files.write(new File(directory, "part_000002.tmp").toPath(), List.of("c"));
+
+		// Second run resumes with the remaining tasks and never commits on its own
+		BatchCheckpoint<PartWriter> second = createCheckpoint(directory, 3600.0);
+		Set<String> completed = second.load();
+		Assert.assertEquals(Set.of("a", "b"), completed);
+
+		for (String task : tasks) {
+			if (!completed.contains(task)) {
+				process(second, task);
+			}
+		}
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		second.merge(Map.of("output", outputStream));
+
+		List<String> lines = new ArrayList<>(
+				Arrays.asList(new String(outputStream.toByteArray(), StandardCharsets.UTF_8).split("\n")));
+
+		Assert.assertEquals(HEADER, lines.remove(0));
+		Assert.assertEquals(tasks.size(), lines.size());
+
+		for (String task : tasks) {
+			Assert.assertEquals(1, lines.stream().filter(line -> line.equals(task + ";1")).count());
+		}
+
+		// The merge is repeatable
+		BatchCheckpoint<PartWriter> third = createCheckpoint(directory, 3600.0);
+		Assert.assertEquals(Set.copyOf(tasks), third.load());
+
+		ByteArrayOutputStream repeatedStream = new ByteArrayOutputStream();
+		third.merge(Map.of("output", repeatedStream));
+		Assert.assertArrayEquals(outputStream.toByteArray(), repeatedStream.toByteArray());
+	}
+}
@@ -0,0 +1,293 @@
+package org.eqasim.tools.routing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.eqasim.core.components.headway.HeadwayCalculator;
+import org.eqasim.core.tools.routing.BatchPublicTransportRouter;
+import org.eqasim.core.tools.routing.BatchPublicTransportRouter.LegInformation;
+import org.eqasim.core.tools.routing.BatchPublicTransportRouter.Task;
+import org.eqasim.core.tools.routing.BatchPublicTransportRouter.TripInformation;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.pt.router.TransitRouter;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.vehicles.Vehicle;
+
+import ch.sbb.matsim.routing.pt.raptor.RaptorStaticConfig;
+import ch.sbb.matsim.routing.pt.raptor.RaptorUtils;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData;
+
+public class TestBatchPublicTransportRouter {
+	/*
+	 * A chain of links with stops at the origin (x = 50), 500 m further (near),
+	 * after 10 km (middle) and after 20 km (destination). Each test adds its own
+	 * lines. All tasks start at the origin at 08:10.
+	 */
+	private final static double DEPARTURE_TIME = 8.0 * 3600.0 + 10.0 * 60.0;
+
+	private final Config config;
+	private final Scenario scenario;
+
+	private final List<Link> chain = new ArrayList<>();
+	private final Map<String, TransitStopFacility> facilities = new HashMap<>();
+
+	public TestBatchPublicTransportRouter() {
+		config = ConfigUtils.createConfig();
+		scenario = ScenarioUtils.createScenario(config);
+
+		Network network = scenario.getNetwork();
+		TransitSchedule schedule = scenario.getTransitSchedule();
+
+		double[][] coordinates = { { 0.0, 0.0 }, { 100.0, 0.0 }, { 500.0, 0.0 }, { 600.0, 0.0 }, { 10000.0, 50.0 },
+				{ 10100.0, 50.0 }, { 20000.0, 100.0 }, { 20100.0, 100.0 } };
+		String[] linkNames = { "origin", "a", "near", "b", "middle", "c", "destination" };
+
+		List<Node> nodes = new ArrayList<>();
+
+		for (int k = 0; k < coordinates.length; k++) {
+			nodes.add(NetworkUtils.createAndAddNode(network, Id.createNodeId("n" + k),
+					new Coord(coordinates[k][0], coordinates[k][1])));
+		}
+
+		for (int k = 0; k < linkNames.length; k++) {
+			Node fromNode = nodes.get(k);
+			Node toNode = nodes.get(k + 1);
+
+			Link link = NetworkUtils.createAndAddLink(network, Id.createLinkId(linkNames[k]), fromNode, toNode,
+					CoordUtils.calcEuclideanDistance(fromNode.getCoord(), toNode.getCoord()), 30.0, 1000.0, 1.0);
+			chain.add(link);
+
+			if (k % 2 == 0) {
+				TransitStopFacility facility = schedule.getFactory().createTransitStopFacility(
+						Id.create(linkNames[k], TransitStopFacility.class), link.getCoord(), false);
+				facility.setLinkId(link.getId());
+				schedule.addStopFacility(facility);
+				facilities.put(linkNames[k], facility);
+			}
+		}
+	}
+
+	/**
+	 * Adds a line between two stops that takes the given travel time and departs
+	 * at the given times. Vehicles are named after the line and the departure.
+	 */
+	private void addLine(String name, String fromStop, String toStop, double travelTime_min,
+			double... departureTimes) {
+		TransitSchedule schedule = scenario.getTransitSchedule();
+		TransitScheduleFactory factory = schedule.getFactory();
+
+		TransitStopFacility fromFacility = facilities.get(fromStop);
+		TransitStopFacility toFacility = facilities.get(toStop);
+
+		List<TransitRouteStop> stops = new ArrayList<>();
+		stops.add(factory.createTransitRouteStop(fromFacility, 0.0, 0.0));
+		stops.add(factory.createTransitRouteStop(toFacility, travelTime_min * 60.0, travelTime_min * 60.0));
+
+		int fromIndex = chain.indexOf(scenario.getNetwork().getLinks().get(fromFacility.getLinkId()));
+		int toIndex = chain.indexOf(scenario.getNetwork().getLinks().get(toFacility.getLinkId()));
+
+		List<Id<Link>> linkIds = new ArrayList<>();
+
+		for (int k = fromIndex + 1; k < toIndex; k++) {
+			linkIds.add(chain.get(k).getId());
+		}
+
+		TransitRoute route = factory.createTransitRoute(Id.create(name, TransitRoute.class),
+				RouteUtils.createLinkNetworkRouteImpl(fromFacility.getLinkId(), linkIds, toFacility.getLinkId()),
+				stops, "bus");
+
+		for (double departureTime : departureTimes) {
+			String time = formatTime(departureTime);
+
+			Departure departure = factory.createDeparture(Id.create(time, Departure.class), departureTime);
+			departure.setVehicleId(Id.create(name + "_" + time, Vehicle.class));
+			route.addDeparture(departure);
+		}
+
+		TransitLine line = factory.createTransitLine(Id.create(name, TransitLine.class));
+		line.addRoute(route);
+		schedule.addTransitLine(line);
+	}
+
+	static private double time(int hours, int minutes) {
+		return hours * 3600.0 + minutes * 60.0;
+	}
+
+	static private String formatTime(double time) {
+		return String.format("%02d:%02d", (int) (time / 3600.0), (int) (time % 3600.0 / 60.0));
+	}
+
+	static private class Result {
+		// Null if the router does not yield a trip
+		TripInformation trip;
+		List<LegInformation> legs;
+		int separateQueries;
+	}
+
+	private Result route(String destination, double interval, boolean combinedHeadway) throws InterruptedException {
+		RaptorStaticConfig staticConfig = RaptorUtils.createStaticConfig(config);
+		SwissRailRaptorData data = SwissRailRaptorData.create(scenario.getTransitSchedule(), null, staticConfig,
+				scenario.getNetwork(), null);
+		SwissRailRaptor raptor = new SwissRailRaptor.Builder(data, config).build();
+
+		// Counts the queries that are not answered from the range query
+		AtomicInteger separateQueries = new AtomicInteger();
+
+		TransitRouter router = request -> {
+			separateQueries.incrementAndGet();
+			return raptor.calcRoute(request);
+		};
+
+		BatchPublicTransportRouter batchRouter = new BatchPublicTransportRouter(() -> router,
+				() -> new HeadwayCalculator(raptor, interval, interval), scenario.getTransitSchedule(),
+				scenario.getNetwork(), 1, 1, interval, combinedHeadway, staticConfig.getTransferWalkMargin(),
+				RaptorUtils.createParameters(config));
+
+		Coord originCoord = facilities.get("origin").getCoord();
+		Coord destinationCoord = facilities.get(destination).getCoord();
+
+		Task task = new Task();
+		task.identifier = "task";
+		task.originX = originCoord.getX();
+		task.originY = originCoord.getY();
+		task.destinationX = destinationCoord.getX();
+		task.destinationY = destinationCoord.getY();
+		task.departureTime = DEPARTURE_TIME;
+
+		Pair<Collection<TripInformation>, Collection<LegInformation>> results = batchRouter.run(List.of(task));
+		Assert.assertTrue(results.getLeft().size() <= 1);
+
+		Result result = new Result();
+		result.trip = results.getLeft().isEmpty() ? null : results.getLeft().iterator().next();
+		result.legs = new ArrayList<>(results.getRight());
+		result.separateQueries = separateQueries.get();
+		return result;
+	}
+
+	private void assertSameTrip(Result expected, Result actual) {
+		Assert.assertEquals(expected.trip == null, actual.trip == null);
+
+		if (expected.trip != null) {
+			Assert.assertEquals(expected.trip.isOnlyWalk, actual.trip.isOnlyWalk);
+			Assert.assertEquals(expected.trip.numberOfTransfers, actual.trip.numberOfTransfers);
+			Assert.assertEquals(expected.trip.initialWaitingTime_min, actual.trip.initialWaitingTime_min, 1e-6);
+			Assert.assertEquals(expected.trip.inVehicleTimeTotal_min, actual.trip.inVehicleTimeTotal_min, 1e-6);
+			Assert.assertEquals(expected.trip.accessTravelTime_min, actual.trip.accessTravelTime_min, 1e-6);
+			Assert.assertEquals(expected.trip.egressTravelTime_min, actual.trip.egressTravelTime_min, 1e-6);
+			Assert.assertEquals(expected.trip.headway_min, actual.trip.headway_min, 1e-6);
+		}
+
+		Assert.assertEquals(expected.legs.size(), actual.legs.size());
+
+		for (int k = 0; k < expected.legs.size(); k++) {
+			Assert.assertEquals(expected.legs.get(k).vehicleId, actual.legs.get(k).vehicleId);
+			Assert.assertEquals(expected.legs.get(k).accessTime, actual.legs.get(k).accessTime, 1e-6);
+			Assert.assertEquals(expected.legs.get(k).egressTime, actual.legs.get(k).egressTime, 1e-6);
+		}
+	}
+
+	@Test
+	public void testSelectedRoute() throws InterruptedException {
+		addLine("line", "origin", "destination", 10.0, time(8, 0), time(8, 30), time(9, 0));
+
+		// Range query from 07:40 to 08:40 finds the departures at 08:00 and 08:30
+		Result separate = route("destination", 1800.0, false);
+		Result combined = route("destination", 1800.0, true);
+
+		Assert.assertEquals(1, separate.separateQueries);
+		Assert.assertEquals(0, combined.separateQueries);
+
+		// The departure at 08:00 is too early, the one at 08:30 is selected
+		Assert.assertEquals(1, combined.legs.size());
+		Assert.assertEquals("line_08:30", combined.legs.get(0).vehicleId);
+		Assert.assertEquals(time(8, 30), combined.legs.get(0).accessTime, 1e-6);
+
+		// The time until the selected route departs counts as initial waiting time
+		Assert.assertEquals(0, combined.trip.isOnlyWalk);
+		Assert.assertEquals(20.0, combined.trip.initialWaitingTime_min, 1e-6);
+		Assert.assertEquals(10.0, combined.trip.inVehicleTimeTotal_min, 1e-6);
+
+		assertSameTrip(separate, combined);
+	}
+
+	@Test
+	public void testFallbackWithoutLaterDeparture() throws InterruptedException {
+		addLine("line", "origin", "destination", 10.0, time(8, 0), time(8, 30), time(9, 0));
+
+		// Range query from 07:55 to 08:25 only finds the departure at 08:00
+		Result separate = route("destination", 900.0, false);
+		Result combined = route("destination", 900.0, true);
+
+		// No route departs after 08:10, so the trip is routed separately
+		Assert.assertEquals(1, combined.separateQueries);
+
+		Assert.assertEquals(1, combined.legs.size());
+		Assert.assertEquals("line_08:30", combined.legs.get(0).vehicleId);
+
+		// No delay is added on top of the waiting time of the separate query
+		Assert.assertEquals(0, combined.trip.isOnlyWalk);
+		Assert.assertEquals(20.0, combined.trip.initialWaitingTime_min, 1e-6);
+
+		assertSameTrip(separate, combined);
+	}
+
+	@Test
+	public void testCheaperSlowerConnection() throws InterruptedException {
+		// The direct line arrives at 08:44, the connection with a transfer at 08:43
+		addLine("direct", "origin", "destination", 14.0, time(8, 30));
+		addLine("first", "origin", "middle", 5.0, time(8, 30));
+		addLine("second", "middle", "destination", 5.0, time(8, 38));
+
+		Result separate = route("destination", 1800.0, false);
+		Result combined = route("destination", 1800.0, true);
+
+		// The transfer penalty makes the direct line cheaper, as in the router
+		Assert.assertEquals(0, combined.separateQueries);
+		Assert.assertEquals(1, combined.legs.size());
+		Assert.assertEquals("direct_08:30", combined.legs.get(0).vehicleId);
+		Assert.assertEquals(0, combined.trip.numberOfTransfers);
+
+		assertSameTrip(separate, combined);
+	}
+
+	@Test
+	public void testDirectWalk() throws InterruptedException {
+		// Walking 500 m is faster than the slow line, even without waiting
+		addLine("slow", "origin", "near", 30.0, time(8, 0), time(8, 30));
+
+		Result separate = route("near", 1800.0, false);
+		Result combined = route("near", 1800.0, true);
+
+		// The direct walk wins the selection, so the router reports the trip
+		Assert.assertEquals(1, combined.separateQueries);
+		Assert.assertEquals(0, combined.legs.size());
+		Assert.assertTrue(combined.trip == null || combined.trip.isOnlyWalk == 1);
+
+		assertSameTrip(separate, combined);
+	}
+}
@@ -0,0 +1,204 @@
+package org.eqasim.tools.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eqasim.core.tools.routing.BatchPublicTransportSkims;
+import org.eqasim.core.tools.routing.BatchPublicTransportSkims.Zone;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import ch.sbb.matsim.routing.pt.raptor.RaptorUtils;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptor;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData;
+
+public class TestBatchPublicTransportSkims {
+	/*
+	 * A bus line runs every ten minutes from 08:00 to 09:00 from a stop at x = 50
+	 * to a stop at x = 5050, in five minutes. Zones a and b are next to the first
+	 * stop and share its link, zone c is next to the second stop.
+	 */
+	private final static double WALK_FACTOR = 1.3;
+	private final static double WALK_SPEED = 1.2;
+	private final static double EPSILON = 1e-6;
+
+	private final static double MORNING = 8.0 * 3600.0 + 5.0 * 60.0;
+	private final static double NIGHT = 23.0 * 3600.0;
+
+	private final Config config = ConfigUtils.createConfig();
+	private final Scenario scenario = ScenarioUtils.createScenario(config);
+
+	private final List<Zone> zones = new ArrayList<>();
+
+	public TestBatchPublicTransportSkims() {
+		Network network = scenario.getNetwork();
+		TransitSchedule schedule = scenario.getTransitSchedule();
+		TransitScheduleFactory factory = schedule.getFactory();
+
+		double[] x = { 0.0, 100.0, 5000.0, 5100.0 };
+		String[] linkNames = { "origin", "middle", "destination" };
+
+		List<Node> nodes = new ArrayList<>();
+
+		for (int k = 0; k < x.length; k++) {
+			nodes.add(NetworkUtils.createAndAddNode(network, Id.createNodeId("n" + k), new Coord(x[k], 0.0)));
+		}
+
+		for (int k = 0; k < linkNames.length; k++) {
+			NetworkUtils.createAndAddLink(network, Id.createLinkId(linkNames[k]), nodes.get(k), nodes.get(k + 1),
+					x[k + 1] - x[k], 30.0, 1000.0, 1.0);
+		}
+
+		List<TransitRouteStop> stops = new ArrayList<>();
+
+		for (String linkName : List.of("origin", "destination")) {
+			Link link = network.getLinks().get(Id.createLinkId(linkName));
+
+			TransitStopFacility facility = factory.createTransitStopFacility(
+					Id.create(linkName, TransitStopFacility.class), link.getCoord(), false);
+			facility.setLinkId(link.getId());
+			schedule.addStopFacility(facility);
+
+			double offset = stops.isEmpty() ? 0.0 : 300.0;
+			stops.add(factory.createTransitRouteStop(facility, offset, offset));
+		}
+
+		TransitRoute route = factory.createTransitRoute(Id.create("route", TransitRoute.class),
+				RouteUtils.createLinkNetworkRouteImpl(Id.createLinkId("origin"), List.of(Id.createLinkId("middle")),
+						Id.createLinkId("destination")),
+				stops, "bus");
+
+		for (int k = 0; k <= 6; k++) {
+			route.addDeparture(
+					factory.createDeparture(Id.create("d" + k, Departure.class), 8.0 * 3600.0 + k * 600.0));
+		}
+
+		TransitLine line = factory.createTransitLine(Id.create("line", TransitLine.class));
+		line.addRoute(route);
+		schedule.addTransitLine(line);
+
+		addZone("a", 50.0, 20.0);
+		addZone("b", 50.0, -20.0);
+		addZone("c", 5050.0, 20.0);
+	}
+
+	private void addZone(String identifier, double x, double y) {
+		Zone zone = new Zone();
+		zone.identifier = identifier;
+		zone.x = x;
+		zone.y = y;
+		zones.add(zone);
+	}
+
+	private Map<Integer, double[][]> run(Double... departureTimes) throws InterruptedException {
+		SwissRailRaptorData data = SwissRailRaptorData.create(scenario.getTransitSchedule(), null,
+				RaptorUtils.createStaticConfig(config), scenario.getNetwork(), null);
+		SwissRailRaptor raptor = new SwissRailRaptor.Builder(data, config).build();
+
+		BatchPublicTransportSkims skims = new BatchPublicTransportSkims(() -> raptor,
+				RaptorUtils.createParameters(config), scenario.getTransitSchedule(), scenario.getNetwork(), 500.0,
+				WALK_FACTOR, WALK_SPEED, 1);
+
+		Map<Integer, double[][]> results = new HashMap<>();
+		skims.run(zones, Arrays.asList(departureTimes), (originIndex, rows) -> {
+			Assert.assertNull(results.put(originIndex, rows));
+		});
+
+		Assert.assertEquals(zones.size(), results.size());
+		return results;
+	}
+
+	static private double get(double[] row, String field) {
+		int index = Arrays.asList(BatchPublicTransportSkims.FIELDS).indexOf(field);
+		Assert.assertTrue(index >= 0);
+		return row[index];
+	}
+
+	static private double walkTime_min(double distance) {
+		return distance * WALK_FACTOR / WALK_SPEED / 60.0;
+	}
+
+	@Test
+	public void testWalkOnly() throws InterruptedException {
+		Map<Integer, double[][]> results = run(MORNING);
+
+		// From a to b, and from c back to a without any line in that direction
+		double[] ab = results.get(0)[1];
+		double[] ca = results.get(2)[0];
+
+		Assert.assertEquals(1.0, get(ab, "only_walk_share"), EPSILON);
+		Assert.assertEquals(walkTime_min(40.0), get(ab, "total_travel_time_min"), EPSILON);
+
+		Assert.assertEquals(1.0, get(ca, "only_walk_share"), EPSILON);
+
+		for (double[] row : List.of(ab, ca)) {
+			Assert.assertTrue(Double.isNaN(get(row, "access_travel_time_min")));
+			Assert.assertTrue(Double.isNaN(get(row, "in_vehicle_time_bus_min")));
+			Assert.assertTrue(Double.isNaN(get(row, "transfers")));
+		}
+	}
+
+	@Test
+	public void testPublicTransport() throws InterruptedException {
+		Map<Integer, double[][]> results = run(MORNING);
+
+		for (int originIndex : List.of(0, 1)) {
+			double[] row = results.get(originIndex)[2];
+
+			Assert.assertEquals(0.0, get(row, "only_walk_share"), EPSILON);
+			Assert.assertEquals(0.0, get(row, "transfers"), EPSILON);
+			Assert.assertEquals(5.0, get(row, "in_vehicle_time_bus_min"), EPSILON);
+			Assert.assertEquals(5.0, get(row, "in_vehicle_time_total_min"), EPSILON);
+			Assert.assertEquals(walkTime_min(20.0), get(row, "egress_travel_time_min"), EPSILON);
+
+			// The tree starts at the stop, so the access is the walk from the zone
+			Assert.assertEquals(walkTime_min(20.0), get(row, "access_travel_time_min"), 1.0 / 60.0);
+
+			double components = get(row, "access_travel_time_min") + get(row, "initial_waiting_time_min")
+					+ get(row, "in_vehicle_time_total_min") + get(row, "egress_travel_time_min");
+			Assert.assertEquals(get(row, "total_travel_time_min"), components, EPSILON);
+
+			// The 08:10 departure is boarded and arrives at 08:15
+			Assert.assertEquals(10.0, get(row, "total_travel_time_min") - get(row, "egress_travel_time_min"),
+					EPSILON);
+		}
+	}
+
+	@Test
+	public void testAverageOverTransitDepartures() throws InterruptedException {
+		double[] morning = run(MORNING).get(0)[2];
+		double[] mixed = run(MORNING, NIGHT).get(0)[2];
+
+		// At night, the trip is walked and only counts towards the total and the share
+		Assert.assertEquals(0.5, get(mixed, "only_walk_share"), EPSILON);
+		Assert.assertEquals(5.0, get(mixed, "in_vehicle_time_bus_min"), EPSILON);
+		Assert.assertEquals(get(morning, "access_travel_time_min"), get(mixed, "access_travel_time_min"), EPSILON);
+		Assert.assertEquals(get(morning, "initial_waiting_time_min"), get(mixed, "initial_waiting_time_min"),
+				EPSILON);
+
+		double walkTime = walkTime_min(5000.0);
+		Assert.assertEquals(0.5 * (get(morning, "total_travel_time_min") + walkTime),
+				get(mixed, "total_travel_time_min"), EPSILON);
+	}
+}
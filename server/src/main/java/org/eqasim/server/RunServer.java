@@ -2,19 +2,31 @@ package org.eqasim.server;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.file.Path;
 
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eqasim.core.components.raptor.EqasimRaptorConfigGroup;
+import org.eqasim.core.misc.LinkSnapper;
+import org.eqasim.server.api.MetricsEndpoint;
 import org.eqasim.server.api.RoadIsochroneEndpoint;
+import org.eqasim.server.api.RoadMatrixEndpoint;
 import org.eqasim.server.api.RoadRouterEndpoint;
+import org.eqasim.server.api.StatsEndpoint;
 import org.eqasim.server.api.TransitIsochroneEndpoint;
 import org.eqasim.server.api.TransitRouterEndpoint;
+import org.eqasim.server.api.TravelTimeEndpoint;
+import org.eqasim.server.execution.RoutingExecutor;
+import org.eqasim.server.metrics.ServerMetrics;
 import org.eqasim.server.services.ServiceConfiguration;
+import org.eqasim.server.services.isochrone.road.RoadIsochroneGraph;
 import org.eqasim.server.services.isochrone.road.RoadIsochroneService;
 import org.eqasim.server.services.isochrone.transit.TransitIsochroneService;
+import org.eqasim.server.services.matrix.road.RoadMatrixService;
 import org.eqasim.server.services.router.road.RoadRouterService;
 import org.eqasim.server.services.router.transit.TransitRouterService;
+import org.eqasim.server.services.travel_time.RoadTravelTime;
+import org.eqasim.server.services.travel_time.RoadTravelTimeManager;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.core.config.CommandLine;
 import org.matsim.core.config.CommandLine.ConfigurationException;
@@ -23,11 +35,13 @@ import org.matsim.core.config.ConfigGroup;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.network.io.MatsimNetworkReader;
 import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
 import org.matsim.pt.transitSchedule.api.TransitScheduleReader;
 
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
 
 import io.javalin.Javalin;
 
@@ -51,12 +65,19 @@ public class RunServer {
 		}
 
 		// Create Javalin application and enable CORS
+		Integer requestThreads = configuration.execution.requestThreads;
+
 		Javalin app = Javalin.create(config -> {
 			config.plugins.enableCors(cors -> {
 				cors.add(it -> {
 					it.anyHost();
 				});
 			});
+
+			if (requestThreads != null) {
+				// Request threads only wait for the routing executor
+				config.jetty.server(() -> new Server(new QueuedThreadPool(requestThreads)));
+			}
 		});
 
 		Config config = ConfigUtils.loadConfig(cmd.getOptionStrict("config-path"), new EqasimRaptorConfigGroup());
@@ -68,28 +89,85 @@ public class RunServer {
 		new TransitScheduleReader(scenario)
 				.readURL(ConfigGroup.getInputFileURL(config.getContext(), config.transit().getTransitScheduleFile()));
 
-		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		RoutingExecutor executor = new RoutingExecutor(threads, configuration.execution.fair);
+		app.events(events -> events.serverStopped(executor::shutdown));
+
+		ServerMetrics metrics = new ServerMetrics();
+		metrics.setExecutor(executor);
+
+		// Spatial index for snapping coordinates to links, shared by the services
+		LinkSnapper linkSnapper = new LinkSnapper(scenario.getNetwork());
+
+		int maximumInFlight = configuration.streaming.maximumInFlight != null ? configuration.streaming.maximumInFlight
+				: 4 * threads;
+		Preconditions.checkArgument(maximumInFlight > 0, "streaming.maximumInFlight must be positive");
+
+		// Road travel time, shared by the road services and replaceable at runtime
+		RoadTravelTime roadTravelTime = configuration.travelTime.path == null
+				? RoadTravelTime.createFreeSpeed(scenario.getNetwork())
+				: RoadTravelTime.read(scenario.getNetwork(), IOUtils.getFileUrl(configuration.travelTime.path));
+		RoadTravelTimeManager roadTravelTimeManager = new RoadTravelTimeManager(roadTravelTime);
+
+		if (configuration.travelTime.allowUpdates) {
+			Path updateDirectory = configuration.travelTime.updateDirectory == null ? null
+					: Path.of(configuration.travelTime.updateDirectory);
+			TravelTimeEndpoint travelTimeEndpoint = new TravelTimeEndpoint(roadTravelTimeManager,
+					scenario.getNetwork(), updateDirectory);
+			app.get("/admin/travel-time", travelTimeEndpoint::get);
+			app.post("/admin/travel-time", travelTimeEndpoint::post);
+		}
 
 		RoadRouterService roadRouterService = RoadRouterService.create(config, scenario.getNetwork(),
-				configuration.walk, threads);
-		RoadRouterEndpoint roadRouterEndpoint = new RoadRouterEndpoint(executor, roadRouterService);
+				configuration.walk, configuration.cache, roadTravelTimeManager, threads);
+		RoadRouterEndpoint roadRouterEndpoint = new RoadRouterEndpoint(executor, roadRouterService,
+				maximumInFlight, metrics.addEndpoint("road_router", "/router/road", "/router/road/stream"));
 		app.post("/router/road", roadRouterEndpoint::post);
+		app.post("/router/road/stream", roadRouterEndpoint::postStream);
+
+		// Compact road graph, shared by the isochrone and matrix services
+		RoadIsochroneGraph roadGraph = RoadIsochroneGraph.create(scenario.getNetwork());
 
 		RoadIsochroneService roadIsochroneService = RoadIsochroneService.create(config, scenario.getNetwork(),
-				configuration.walk);
-		RoadIsochroneEndpoint roadIsochroneEndpoint = new RoadIsochroneEndpoint(executor, roadIsochroneService);
+				roadGraph, configuration.walk, roadTravelTimeManager);
+		RoadIsochroneEndpoint roadIsochroneEndpoint = new RoadIsochroneEndpoint(executor, roadIsochroneService,
+				maximumInFlight,
+				metrics.addEndpoint("road_isochrone", "/isochrone/road", "/isochrone/road/stream"));
 		app.post("/isochrone/road", roadIsochroneEndpoint::post);
+		app.post("/isochrone/road/stream", roadIsochroneEndpoint::postStream);
+
+		RoadMatrixService roadMatrixService = RoadMatrixService.create(config, roadGraph, linkSnapper,
+				configuration.walk, roadTravelTimeManager, executor);
+		RoadMatrixEndpoint roadMatrixEndpoint = new RoadMatrixEndpoint(roadMatrixService,
+				metrics.addEndpoint("road_matrix", "/matrix/road"));
+		app.post("/matrix/road", roadMatrixEndpoint::post);
 
 		TransitRouterService transitRouterService = TransitRouterService.create(config, scenario.getNetwork(),
-				scenario.getTransitSchedule(), configuration.transit, configuration.walk);
-		TransitRouterEndpoint transitRouterEndpoint = new TransitRouterEndpoint(executor, transitRouterService);
+				scenario.getTransitSchedule(), linkSnapper, configuration.transit, configuration.walk,
+				configuration.cache, threads);
+		TransitRouterEndpoint transitRouterEndpoint = new TransitRouterEndpoint(executor, transitRouterService,
+				maximumInFlight,
+				metrics.addEndpoint("transit_router", "/router/transit", "/router/transit/stream"));
 		app.post("/router/transit", transitRouterEndpoint::post);
+		app.post("/router/transit/stream", transitRouterEndpoint::postStream);
 
 		TransitIsochroneService transitIsochroneService = TransitIsochroneService.create(config,
 				scenario.getTransitSchedule(), configuration.transit, configuration.walk);
 		TransitIsochroneEndpoint transitIsochroneEndpoint = new TransitIsochroneEndpoint(executor,
-				transitIsochroneService);
+				transitIsochroneService, maximumInFlight,
+				metrics.addEndpoint("transit_isochrone", "/isochrone/transit", "/isochrone/transit/stream"));
 		app.post("/isochrone/transit", transitIsochroneEndpoint::post);
+		app.post("/isochrone/transit/stream", transitIsochroneEndpoint::postStream);
+
+		StatsEndpoint statsEndpoint = new StatsEndpoint(roadRouterService, transitRouterService);
+		app.get("/stats", statsEndpoint::get);
+
+		metrics.addCache("road_router", roadRouterService.getCache());
+		metrics.addCache("transit_router", transitRouterService.getCache());
+
+		MetricsEndpoint metricsEndpoint = new MetricsEndpoint(metrics);
+		app.before(metricsEndpoint::before);
+		app.after(metricsEndpoint::after);
+		app.get("/metrics", metricsEndpoint::get);
 
 		// Run API
 		int port = Integer.parseInt(cmd.getOptionStrict("port"));
@@ -1,31 +1,201 @@
 package org.eqasim.server.api;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import org.eqasim.server.metrics.EndpointMetrics;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.google.common.base.Preconditions;
 
 import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
 
+/**
+ * Base class of the endpoints. Requests and responses are encoded in JSON by
+ * default. Clients can send requests in CBOR by setting the content type to
+ * application/cbor, and receive responses in CBOR by accepting application/cbor
+ * (or application/cbor-seq for streams). Responses are written directly to the
+ * output stream of the response.
+ */
 public abstract class AbstractEndpoint {
-	private final ObjectMapper objectMapper = new ObjectMapper();
+	static private final String NDJSON = "application/x-ndjson";
+	static private final String CBOR = "application/cbor";
+	static private final String CBOR_SEQUENCE = "application/cbor-seq";
+
+	private final ObjectMapper jsonMapper = createMapper(new JsonFactory());
+	private final ObjectMapper cborMapper = createMapper(new CBORFactory());
+
+	private final EndpointMetrics metrics;
+
+	protected AbstractEndpoint() {
+		// Measurements are recorded, but not exposed
+		this(new EndpointMetrics());
+	}
+
+	protected AbstractEndpoint(EndpointMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	protected EndpointMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Wraps a task so that the time it waits for the executor and the time it
+	 * takes to process it are recorded. The task must be submitted right away.
+	 */
+	protected <R> Callable<R> instrument(Callable<R> task) {
+		long submissionTime = System.nanoTime();
+
+		return () -> {
+			long startTime = System.nanoTime();
+			metrics.recordQueue(startTime - submissionTime);
+
+			try {
+				return task.call();
+			} finally {
+				metrics.recordProcessing(System.nanoTime() - startTime);
+			}
+		};
+	}
+
+	static private ObjectMapper createMapper(JsonFactory factory) {
+		ObjectMapper mapper = new ObjectMapper(factory);
+
+		// Javalin closes the output stream once the handler has finished
+		mapper.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+		return mapper;
+	}
+
+	private ObjectMapper getRequestMapper(Context ctx) {
+		String contentType = ctx.contentType();
+		return contentType != null && contentType.startsWith(CBOR) ? cborMapper : jsonMapper;
+	}
+
+	private boolean acceptsCbor(Context ctx) {
+		String accept = ctx.header(Header.ACCEPT);
+
+		// Also covers application/cbor-seq
+		return accept != null && accept.contains(CBOR);
+	}
 
-	protected <T> T readRequest(Context ctx, Class<T> requestType)
-			throws JsonMappingException, JsonProcessingException {
-		return objectMapper.readValue(ctx.body(), requestType);
+	protected <T> T readRequest(Context ctx, Class<T> requestType) throws IOException {
+		return getRequestMapper(ctx).readValue(ctx.bodyAsBytes(), requestType);
 	}
 
-	protected <T> List<T> readRequests(Context ctx, Class<T> requestType)
-			throws JsonMappingException, JsonProcessingException {
-		return objectMapper.readValue(ctx.body(), new TypeReference<List<T>>() {
+	protected <T> List<T> readRequests(Context ctx, Class<T> requestType) throws IOException {
+		return getRequestMapper(ctx).readValue(ctx.bodyAsBytes(), new TypeReference<List<T>>() {
 		});
 	}
 
-	protected <T> void writeResponse(Context ctx, T response) throws JsonProcessingException {
-		ctx.contentType(ContentType.JSON);
-		ctx.result(objectMapper.writeValueAsString(response));
+	protected <T> void writeResponse(Context ctx, T response) throws IOException {
+		ObjectMapper mapper;
+
+		if (acceptsCbor(ctx)) {
+			ctx.contentType(CBOR);
+			mapper = cborMapper;
+		} else {
+			ctx.contentType(ContentType.JSON);
+			mapper = jsonMapper;
+		}
+
+		long startTime = System.nanoTime();
+		mapper.writeValue(ctx.outputStream(), response);
+		metrics.recordSerialization(System.nanoTime() - startTime);
+	}
+
+	/**
+	 * Processes a stream of newline-delimited JSON requests (or a sequence of CBOR
+	 * items). Requests are parsed one by one from the body and dispatched to the
+	 * executor, with at most maximumInFlight requests being processed or waiting
+	 * for output at a time. Responses are written as newline-delimited JSON (or a
+	 * CBOR sequence) in the order in which they are completed, so they need to be
+	 * matched to the requests by their request index. If parsing, processing or
+	 * writing fails, for instance because the client has disconnected, the
+	 * requests that have not been processed yet are cancelled.
+	 */
+	protected <T, R> void processStream(Context ctx, Executor executor, int maximumInFlight,
+			Class<T> requestType, Function<T, R> processor)
+			throws IOException, InterruptedException, ExecutionException {
+		Preconditions.checkArgument(maximumInFlight > 0, "maximumInFlight must be positive");
+
+		boolean isCbor = acceptsCbor(ctx);
+		ctx.contentType(isCbor ? CBOR_SEQUENCE : NDJSON);
+
+		ObjectMapper mapper = isCbor ? cborMapper : jsonMapper;
+		ObjectMapper requestMapper = getRequestMapper(ctx);
+
+		CompletionService<R> completionService = new ExecutorCompletionService<>(executor);
+		OutputStream outputStream = ctx.outputStream();
+
+		// Submitted requests whose responses have not been written yet
+		Set<Future<R>> pending = new HashSet<>();
+		int batchSize = 0;
+
+		try {
+			try (MappingIterator<T> iterator = requestMapper.readerFor(requestType)
+					.readValues(ctx.bodyInputStream())) {
+				while (iterator.hasNextValue()) {
+					T request = iterator.nextValue();
+
+					if (pending.size() >= maximumInFlight) {
+						writeItem(mapper, outputStream, pending, completionService.take());
+					}
+
+					pending.add(completionService.submit(instrument(() -> processor.apply(request))));
+					batchSize++;
+
+					Future<R> completed;
+					while ((completed = completionService.poll()) != null) {
+						writeItem(mapper, outputStream, pending, completed);
+					}
+				}
+			}
+
+			while (!pending.isEmpty()) {
+				writeItem(mapper, outputStream, pending, completionService.take());
+			}
+
+			outputStream.flush();
+		} finally {
+			for (Future<R> future : pending) {
+				future.cancel(false);
+			}
+		}
+
+		metrics.recordBatchSize(batchSize);
+	}
+
+	private <R> void writeItem(ObjectMapper mapper, OutputStream outputStream, Set<Future<R>> pending,
+			Future<R> response) throws IOException, InterruptedException, ExecutionException {
+		pending.remove(response);
+		R value = response.get();
+
+		long startTime = System.nanoTime();
+		mapper.writeValue(outputStream, value);
+
+		if (mapper == jsonMapper) {
+			outputStream.write('\n');
+		}
+
+		metrics.recordSerialization(System.nanoTime() - startTime);
 	}
 }
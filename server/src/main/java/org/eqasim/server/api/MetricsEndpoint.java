@@ -0,0 +1,50 @@
+package org.eqasim.server.api;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.eqasim.server.metrics.EndpointMetrics;
+import org.eqasim.server.metrics.ServerMetrics;
+
+import io.javalin.http.Context;
+
+/**
+ * Exposes the server metrics in the Prometheus text format and measures the
+ * total duration and the number of in-flight HTTP requests per endpoint.
+ */
+public class MetricsEndpoint extends AbstractEndpoint {
+	static private final String PROMETHEUS = "text/plain; version=0.0.4; charset=utf-8";
+	static private final String START_TIME = "metrics.startTime";
+
+	private final ServerMetrics metrics;
+
+	public MetricsEndpoint(ServerMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public void get(Context ctx) throws IOException {
+		StringWriter writer = new StringWriter();
+		metrics.write(writer);
+
+		ctx.contentType(PROMETHEUS);
+		ctx.result(writer.toString());
+	}
+
+	public void before(Context ctx) {
+		EndpointMetrics endpointMetrics = metrics.getEndpointByPath(ctx.path());
+
+		if (endpointMetrics != null) {
+			endpointMetrics.startRequest();
+			ctx.attribute(START_TIME, System.nanoTime());
+		}
+	}
+
+	public void after(Context ctx) {
+		EndpointMetrics endpointMetrics = metrics.getEndpointByPath(ctx.path());
+		Long startTime = ctx.attribute(START_TIME);
+
+		if (endpointMetrics != null && startTime != null) {
+			endpointMetrics.finishRequest(System.nanoTime() - startTime);
+		}
+	}
+}
@@ -1,46 +1,52 @@
 package org.eqasim.server.api;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 
+import org.eqasim.server.execution.RoutingExecutor;
+import org.eqasim.server.metrics.EndpointMetrics;
 import org.eqasim.server.services.isochrone.road.RoadIsochroneRequest;
 import org.eqasim.server.services.isochrone.road.RoadIsochroneResponse;
 import org.eqasim.server.services.isochrone.road.RoadIsochroneService;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-
 import io.javalin.http.Context;
 
 public class RoadIsochroneEndpoint extends AbstractEndpoint {
-	private final ExecutorService executor;
+	private final RoutingExecutor executor;
 	private final RoadIsochroneService service;
+	private final int maximumInFlight;
 
-	public RoadIsochroneEndpoint(ExecutorService executor, RoadIsochroneService service) {
+	public RoadIsochroneEndpoint(RoutingExecutor executor, RoadIsochroneService service, int maximumInFlight,
+			EndpointMetrics metrics) {
+		super(metrics);
 		this.executor = executor;
 		this.service = service;
+		this.maximumInFlight = maximumInFlight;
 	}
 
 	private Collection<RoadIsochroneResponse> process(List<RoadIsochroneRequest> requests)
 			throws InterruptedException, ExecutionException {
+		getMetrics().recordBatchSize(requests.size());
+
 		List<Callable<RoadIsochroneResponse>> tasks = new LinkedList<>();
 		for (RoadIsochroneRequest request : requests) {
-			tasks.add(() -> service.processRequest(request));
+			tasks.add(instrument(() -> service.processRequest(request)));
 		}
 
 		List<RoadIsochroneResponse> response = new LinkedList<>();
-		for (var task : executor.invokeAll(tasks)) {
+		for (var task : executor.openSession().invokeAll(tasks)) {
 			response.add(task.get());
 		}
 
 		return response;
 	}
 
-	public void post(Context ctx) throws JsonProcessingException, InterruptedException, ExecutionException {
+	public void post(Context ctx) throws IOException, InterruptedException, ExecutionException {
 		Request request = readRequest(ctx, Request.class);
 
 		if (request.request != null) {
@@ -50,6 +56,11 @@ public class RoadIsochroneEndpoint extends AbstractEndpoint {
 		}
 	}
 
+	public void postStream(Context ctx) throws IOException, InterruptedException, ExecutionException {
+		processStream(ctx, executor.openSession(), maximumInFlight, RoadIsochroneRequest.class,
+				service::processRequest);
+	}
+
 	static public class Request {
 		public RoadIsochroneRequest request = null;
 		public List<RoadIsochroneRequest> batch = new LinkedList<>();
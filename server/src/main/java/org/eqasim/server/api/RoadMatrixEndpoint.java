@@ -0,0 +1,37 @@
+package org.eqasim.server.api;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import org.eqasim.server.metrics.EndpointMetrics;
+import org.eqasim.server.services.matrix.road.RoadMatrixRequest;
+import org.eqasim.server.services.matrix.road.RoadMatrixResponse;
+import org.eqasim.server.services.matrix.road.RoadMatrixService;
+
+import io.javalin.http.Context;
+
+public class RoadMatrixEndpoint extends AbstractEndpoint {
+	static private final String BINARY = "application/octet-stream";
+
+	private final RoadMatrixService service;
+
+	public RoadMatrixEndpoint(RoadMatrixService service, EndpointMetrics metrics) {
+		super(metrics);
+		this.service = service;
+	}
+
+	public void post(Context ctx) throws IOException, InterruptedException, ExecutionException {
+		RoadMatrixRequest request = readRequest(ctx, RoadMatrixRequest.class);
+
+		long startTime = System.nanoTime();
+		RoadMatrixResponse response = service.processRequest(request);
+		getMetrics().recordProcessing(System.nanoTime() - startTime);
+
+		if (request.binary) {
+			ctx.contentType(BINARY);
+			response.writeBinary(ctx.outputStream());
+		} else {
+			writeResponse(ctx, response);
+		}
+	}
+}
@@ -1,46 +1,52 @@
 package org.eqasim.server.api;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 
+import org.eqasim.server.execution.RoutingExecutor;
+import org.eqasim.server.metrics.EndpointMetrics;
 import org.eqasim.server.services.router.road.RoadRouterRequest;
 import org.eqasim.server.services.router.road.RoadRouterResponse;
 import org.eqasim.server.services.router.road.RoadRouterService;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-
 import io.javalin.http.Context;
 
 public class RoadRouterEndpoint extends AbstractEndpoint {
-	private final ExecutorService executor;
+	private final RoutingExecutor executor;
 	private final RoadRouterService service;
+	private final int maximumInFlight;
 
-	public RoadRouterEndpoint(ExecutorService executor, RoadRouterService service) {
+	public RoadRouterEndpoint(RoutingExecutor executor, RoadRouterService service, int maximumInFlight,
+			EndpointMetrics metrics) {
+		super(metrics);
 		this.executor = executor;
 		this.service = service;
+		this.maximumInFlight = maximumInFlight;
 	}
 
 	private Collection<RoadRouterResponse> process(List<RoadRouterRequest> requests)
 			throws InterruptedException, ExecutionException {
+		getMetrics().recordBatchSize(requests.size());
+
 		List<Callable<RoadRouterResponse>> tasks = new LinkedList<>();
 		for (RoadRouterRequest request : requests) {
-			tasks.add(() -> service.processRequest(request));
+			tasks.add(instrument(() -> service.processRequest(request)));
 		}
 
 		List<RoadRouterResponse> response = new LinkedList<>();
-		for (var task : executor.invokeAll(tasks)) {
+		for (var task : executor.openSession().invokeAll(tasks)) {
 			response.add(task.get());
 		}
 
 		return response;
 	}
 
-	public void post(Context ctx) throws JsonProcessingException, InterruptedException, ExecutionException {
+	public void post(Context ctx) throws IOException, InterruptedException, ExecutionException {
 		Request request = readRequest(ctx, Request.class);
 
 		if (request.request != null) {
@@ -50,6 +56,11 @@ public class RoadRouterEndpoint extends AbstractEndpoint {
 		}
 	}
 
+	public void postStream(Context ctx) throws IOException, InterruptedException, ExecutionException {
+		processStream(ctx, executor.openSession(), maximumInFlight, RoadRouterRequest.class,
+				service::processRequest);
+	}
+
 	static public class Request {
 		public RoadRouterRequest request = null;
 		public List<RoadRouterRequest> batch = new LinkedList<>();
@@ -0,0 +1,31 @@
+package org.eqasim.server.api;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eqasim.server.services.router.road.RoadRouterService;
+import org.eqasim.server.services.router.transit.TransitRouterService;
+
+import io.javalin.http.Context;
+
+public class StatsEndpoint extends AbstractEndpoint {
+	private final RoadRouterService roadRouterService;
+	private final TransitRouterService transitRouterService;
+
+	public StatsEndpoint(RoadRouterService roadRouterService, TransitRouterService transitRouterService) {
+		this.roadRouterService = roadRouterService;
+		this.transitRouterService = transitRouterService;
+	}
+
+	public void get(Context ctx) throws IOException {
+		Map<String, Object> caches = new LinkedHashMap<>();
+		caches.put("road_router", roadRouterService.getCache().getStats());
+		caches.put("transit_router", transitRouterService.getCache().getStats());
+
+		Map<String, Object> response = new LinkedHashMap<>();
+		response.put("caches", caches);
+
+		writeResponse(ctx, response);
+	}
+}
@@ -1,46 +1,52 @@
 package org.eqasim.server.api;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 
+import org.eqasim.server.execution.RoutingExecutor;
+import org.eqasim.server.metrics.EndpointMetrics;
 import org.eqasim.server.services.isochrone.transit.TransitIsochroneRequest;
 import org.eqasim.server.services.isochrone.transit.TransitIsochroneResponse;
 import org.eqasim.server.services.isochrone.transit.TransitIsochroneService;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-
 import io.javalin.http.Context;
 
 public class TransitIsochroneEndpoint extends AbstractEndpoint {
-	private final ExecutorService executor;
+	private final RoutingExecutor executor;
 	private final TransitIsochroneService service;
+	private final int maximumInFlight;
 
-	public TransitIsochroneEndpoint(ExecutorService executor, TransitIsochroneService service) {
+	public TransitIsochroneEndpoint(RoutingExecutor executor, TransitIsochroneService service,
+			int maximumInFlight, EndpointMetrics metrics) {
+		super(metrics);
 		this.executor = executor;
 		this.service = service;
+		this.maximumInFlight = maximumInFlight;
 	}
 
 	private Collection<TransitIsochroneResponse> process(List<TransitIsochroneRequest> requests)
 			throws InterruptedException, ExecutionException {
+		getMetrics().recordBatchSize(requests.size());
+
 		List<Callable<TransitIsochroneResponse>> tasks = new LinkedList<>();
 		for (TransitIsochroneRequest request : requests) {
-			tasks.add(() -> service.processRequest(request));
+			tasks.add(instrument(() -> service.processRequest(request)));
 		}
 
 		List<TransitIsochroneResponse> response = new LinkedList<>();
-		for (var task : executor.invokeAll(tasks)) {
+		for (var task : executor.openSession().invokeAll(tasks)) {
 			response.add(task.get());
 		}
 
 		return response;
 	}
 
-	public void post(Context ctx) throws JsonProcessingException, InterruptedException, ExecutionException {
+	public void post(Context ctx) throws IOException, InterruptedException, ExecutionException {
 		Request request = readRequest(ctx, Request.class);
 
 		if (request.request != null) {
@@ -50,6 +56,11 @@ public class TransitIsochroneEndpoint extends AbstractEndpoint {
 		}
 	}
 
+	public void postStream(Context ctx) throws IOException, InterruptedException, ExecutionException {
+		processStream(ctx, executor.openSession(), maximumInFlight, TransitIsochroneRequest.class,
+				service::processRequest);
+	}
+
 	static public class Request {
 		public TransitIsochroneRequest request = null;
 		public List<TransitIsochroneRequest> batch = new LinkedList<>();
@@ -1,48 +1,54 @@
 package org.eqasim.server.api;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 
+import org.eqasim.server.execution.RoutingExecutor;
+import org.eqasim.server.metrics.EndpointMetrics;
 import org.eqasim.server.services.router.transit.TransitRouterRequest;
 import org.eqasim.server.services.router.transit.TransitRouterResponse;
 import org.eqasim.server.services.router.transit.TransitRouterService;
 import org.eqasim.server.services.router.transit.TransitUtilities;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-
 import io.javalin.http.Context;
 import jakarta.annotation.Nullable;
 
 public class TransitRouterEndpoint extends AbstractEndpoint {
-	private final ExecutorService executor;
+	private final RoutingExecutor executor;
 	private final TransitRouterService service;
+	private final int maximumInFlight;
 
-	public TransitRouterEndpoint(ExecutorService executor, TransitRouterService service) {
+	public TransitRouterEndpoint(RoutingExecutor executor, TransitRouterService service,
+			int maximumInFlight, EndpointMetrics metrics) {
+		super(metrics);
 		this.executor = executor;
 		this.service = service;
+		this.maximumInFlight = maximumInFlight;
 	}
 
 	private Collection<TransitRouterResponse> process(List<TransitRouterRequest> requests,
 			@Nullable TransitUtilities utilities) throws InterruptedException, ExecutionException {
+		getMetrics().recordBatchSize(requests.size());
+
 		List<Callable<TransitRouterResponse>> tasks = new LinkedList<>();
 		for (TransitRouterRequest request : requests) {
-			tasks.add(() -> service.processRequest(request, utilities));
+			tasks.add(instrument(() -> service.processRequest(request, utilities)));
 		}
 
 		List<TransitRouterResponse> response = new LinkedList<>();
-		for (var task : executor.invokeAll(tasks)) {
+		for (var task : executor.openSession().invokeAll(tasks)) {
 			response.add(task.get());
 		}
 
 		return response;
 	}
 
-	public void post(Context ctx) throws JsonProcessingException, InterruptedException, ExecutionException {
+	public void post(Context ctx) throws IOException, InterruptedException, ExecutionException {
 		Request request = readRequest(ctx, Request.class);
 
 		if (request.request != null) {
@@ -53,6 +59,11 @@ public class TransitRouterEndpoint extends AbstractEndpoint {
 		}
 	}
 
+	public void postStream(Context ctx) throws IOException, InterruptedException, ExecutionException {
+		processStream(ctx, executor.openSession(), maximumInFlight, TransitRouterRequest.class,
+				request -> service.processRequest(request, null));
+	}
+
 	static public class Request {
 		public TransitRouterRequest request = null;
 		public List<TransitRouterRequest> batch = new LinkedList<>();
@@ -0,0 +1,121 @@
+package org.eqasim.server.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.eqasim.server.services.travel_time.RoadTravelTime;
+import org.eqasim.server.services.travel_time.RoadTravelTimeManager;
+import org.matsim.api.core.v01.network.Network;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.ForbiddenResponse;
+import jakarta.annotation.Nullable;
+
+/**
+ * Shows and replaces the road travel time used by the services. A new travel
+ * time is either uploaded as the request body in the binary format of the
+ * recorded travel times (with content type application/octet-stream), or read
+ * by name from the update directory that is configured on the server. Files
+ * outside of that directory are rejected. Without a path, free-flow travel
+ * times are used.
+ */
+public class TravelTimeEndpoint extends AbstractEndpoint {
+	static private final String BINARY = "application/octet-stream";
+
+	private final RoadTravelTimeManager manager;
+	private final Network network;
+	private final Path updateDirectory;
+
+	public TravelTimeEndpoint(RoadTravelTimeManager manager, Network network, @Nullable Path updateDirectory)
+			throws IOException {
+		this.manager = manager;
+		this.network = network;
+		this.updateDirectory = updateDirectory == null ? null : updateDirectory.toRealPath();
+	}
+
+	public void get(Context ctx) throws IOException {
+		writeResponse(ctx, createResponse(manager.get()));
+	}
+
+	public void post(Context ctx) throws IOException {
+		final RoadTravelTime travelTime;
+
+		String contentType = ctx.contentType();
+
+		if (contentType != null && contentType.startsWith(BINARY)) {
+			try (InputStream inputStream = ctx.bodyInputStream()) {
+				travelTime = RoadTravelTime.read(network, inputStream, "upload");
+			}
+		} else {
+			Request request = readRequest(ctx, Request.class);
+
+			travelTime = request.path == null ? RoadTravelTime.createFreeSpeed(network)
+					: RoadTravelTime.read(network, resolve(request.path).toUri().toURL());
+		}
+
+		manager.update(travelTime);
+		writeResponse(ctx, createResponse(travelTime));
+	}
+
+	/**
+	 * Resolves a path relative to the update directory. Paths that leave the
+	 * directory, also through symbolic links, are rejected.
+	 */
+	private Path resolve(String path) throws IOException {
+		if (updateDirectory == null) {
+			throw new ForbiddenResponse("No update directory is configured, travel times can only be uploaded");
+		}
+
+		Path resolved = updateDirectory.resolve(path).normalize();
+
+		if (!resolved.startsWith(updateDirectory)) {
+			throw new ForbiddenResponse("Travel time files must be located in the update directory");
+		}
+
+		if (!Files.isRegularFile(resolved)) {
+			throw new BadRequestResponse("Travel time file does not exist: " + path);
+		}
+
+		resolved = resolved.toRealPath();
+
+		if (!resolved.startsWith(updateDirectory)) {
+			throw new ForbiddenResponse("Travel time files must be located in the update directory");
+		}
+
+		return resolved;
+	}
+
+	private Response createResponse(RoadTravelTime travelTime) {
+		Response response = new Response();
+		response.source = travelTime.getSource();
+		response.startTime_s = travelTime.getStartTime();
+		response.interval_s = travelTime.getInterval();
+		response.bins = travelTime.getBins();
+		return response;
+	}
+
+	static public class Request {
+		// Relative to the update directory
+		@JsonProperty("path")
+		public String path = null;
+	}
+
+	static public class Response {
+		@JsonProperty("source")
+		public String source;
+
+		@JsonProperty("start_time_s")
+		public double startTime_s;
+
+		@JsonProperty("interval_s")
+		public double interval_s;
+
+		@JsonProperty("bins")
+		public int bins;
+	}
+}
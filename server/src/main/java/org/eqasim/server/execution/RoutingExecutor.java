@@ -0,0 +1,333 @@
+package org.eqasim.server.execution;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Fixed pool of worker threads that perform the CPU-bound routing work of the
+ * server. HTTP requests only wait for the results, so they never occupy a
+ * worker themselves.
+ *
+ * Every request submits its tasks through its own session. In fair mode, the
+ * workers take the next task from the sessions with pending tasks in
+ * round-robin order, so a large batch delays a concurrent small request by at
+ * most one task per worker instead of by the whole batch. Otherwise, all
+ * sessions share one queue and tasks are processed in the order of submission.
+ *
+ * Once the executor is shut down, no new tasks are accepted and the workers
+ * terminate after the pending tasks have been processed.
+ */
+public class RoutingExecutor {
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	private final Condition terminated = lock.newCondition();
+
+	// Sessions with pending tasks, guarded by the lock
+	private final Deque<Session> sessions = new ArrayDeque<>();
+	private int pendingTasks = 0;
+
+	// Guarded by the lock
+	private boolean isShutdown = false;
+	private int liveWorkers;
+
+	private final boolean fair;
+	private final Session sharedSession;
+
+	private final Thread[] workers;
+	private final AtomicInteger activeThreads = new AtomicInteger();
+
+	public RoutingExecutor(int threads, boolean fair) {
+		Preconditions.checkArgument(threads > 0);
+
+		this.fair = fair;
+		this.sharedSession = fair ? null : new Session();
+
+		this.workers = new Thread[threads];
+		this.liveWorkers = threads;
+
+		for (int k = 0; k < threads; k++) {
+			workers[k] = new Thread(this::work, "routing-worker-" + k);
+			workers[k].start();
+		}
+	}
+
+	/**
+	 * Returns the session through which the tasks of one request are submitted.
+	 */
+	public Session openSession() {
+		return fair ? new Session() : sharedSession;
+	}
+
+	public int getQueueSize() {
+		lock.lock();
+
+		try {
+			return pendingTasks;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getActiveSessions() {
+		lock.lock();
+
+		try {
+			return sessions.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getActiveThreads() {
+		return activeThreads.get();
+	}
+
+	public int getThreads() {
+		return workers.length;
+	}
+
+	/**
+	 * Stops accepting new tasks. Tasks that have already been submitted are still
+	 * processed before the workers terminate.
+	 */
+	public void shutdown() {
+		lock.lock();
+
+		try {
+			isShutdown = true;
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops accepting new tasks, cancels the pending tasks and interrupts the
+	 * tasks in progress. Returns the tasks that have not been started.
+	 */
+	public List<Runnable> shutdownNow() {
+		List<Runnable> pending = new ArrayList<>();
+
+		lock.lock();
+
+		try {
+			isShutdown = true;
+
+			for (Session session : sessions) {
+				pending.addAll(session.tasks);
+				session.tasks.clear();
+			}
+
+			sessions.clear();
+			pendingTasks = 0;
+
+			for (Thread worker : workers) {
+				worker.interrupt();
+			}
+
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+
+		for (Runnable task : pending) {
+			if (task instanceof Future<?> future) {
+				future.cancel(false);
+			}
+		}
+
+		return pending;
+	}
+
+	public boolean isShutdown() {
+		lock.lock();
+
+		try {
+			return isShutdown;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean isTerminated() {
+		lock.lock();
+
+		try {
+			return isShutdown && liveWorkers == 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until all workers have terminated after a shutdown, or until the
+	 * timeout has elapsed. Returns whether the workers have terminated.
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long remaining = unit.toNanos(timeout);
+
+		lock.lock();
+
+		try {
+			while (liveWorkers > 0) {
+				if (remaining <= 0) {
+					return false;
+				}
+
+				remaining = terminated.awaitNanos(remaining);
+			}
+
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void enqueue(Session session, Runnable task) {
+		lock.lock();
+
+		try {
+			if (isShutdown) {
+				throw new RejectedExecutionException("The routing executor has been shut down");
+			}
+
+			if (session.tasks.isEmpty()) {
+				sessions.add(session);
+			}
+
+			session.tasks.add(task);
+			pendingTasks++;
+
+			available.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void work() {
+		try {
+			while (true) {
+				Runnable task;
+
+				lock.lock();
+
+				try {
+					while (sessions.isEmpty()) {
+						if (isShutdown) {
+							return;
+						}
+
+						available.await();
+					}
+
+					Session session = sessions.poll();
+					task = session.tasks.poll();
+					pendingTasks--;
+
+					if (!session.tasks.isEmpty()) {
+						// Go to the back of the line
+						sessions.add(session);
+					}
+				} catch (InterruptedException e) {
+					// Interrupts that remain from cancelled tasks do not stop the worker
+					continue;
+				} finally {
+					lock.unlock();
+				}
+
+				activeThreads.incrementAndGet();
+
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					// Futures capture their exceptions, so this only concerns plain runnables
+					Thread thread = Thread.currentThread();
+					thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+				} finally {
+					activeThreads.decrementAndGet();
+				}
+			}
+		} finally {
+			lock.lock();
+
+			try {
+				liveWorkers--;
+				terminated.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Queue of the tasks of one request. A session has no lifecycle of its own:
+	 * it is discarded after the request, and it stops accepting tasks when the
+	 * executor is shut down.
+	 */
+	public class Session implements Executor {
+		// Guarded by the lock of the executor
+		private final Deque<Runnable> tasks = new ArrayDeque<>();
+
+		private Session() {
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			enqueue(this, command);
+		}
+
+		public <T> Future<T> submit(Callable<T> task) {
+			FutureTask<T> future = new FutureTask<>(task);
+			execute(future);
+			return future;
+		}
+
+		/**
+		 * Submits all tasks and waits until they have completed. If the calling
+		 * thread is interrupted or the executor rejects a task, the tasks that have
+		 * not been started yet are cancelled.
+		 */
+		public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+			List<Future<T>> futures = new ArrayList<>(tasks.size());
+
+			try {
+				for (Callable<T> task : tasks) {
+					futures.add(submit(task));
+				}
+
+				for (Future<T> future : futures) {
+					try {
+						future.get();
+					} catch (ExecutionException | CancellationException e) {
+						// Reported when the caller obtains the result
+					}
+				}
+
+				return futures;
+			} catch (InterruptedException | RuntimeException e) {
+				for (Future<T> future : futures) {
+					// Running tasks are not interrupted, as this would hit the worker
+					future.cancel(false);
+				}
+
+				throw e;
+			}
+		}
+	}
+}
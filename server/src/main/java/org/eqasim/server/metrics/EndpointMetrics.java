@@ -0,0 +1,49 @@
+package org.eqasim.server.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measurements for one endpoint. Latencies are recorded in microseconds per
+ * phase: the time a request waits in the executor queue, the time it is
+ * processed by the service, the time its response is serialized, and the total
+ * time of the HTTP request. The batch size is the number of requests that have
+ * been received in one HTTP request.
+ */
+public class EndpointMetrics {
+	static private final int MAXIMUM_LATENCY_EXPONENT = 27; // ~134s
+	static private final int MAXIMUM_BATCH_SIZE_EXPONENT = 20;
+
+	final Histogram queue = new Histogram(MAXIMUM_LATENCY_EXPONENT);
+	final Histogram processing = new Histogram(MAXIMUM_LATENCY_EXPONENT);
+	final Histogram serialization = new Histogram(MAXIMUM_LATENCY_EXPONENT);
+	final Histogram total = new Histogram(MAXIMUM_LATENCY_EXPONENT);
+
+	final Histogram batchSize = new Histogram(MAXIMUM_BATCH_SIZE_EXPONENT);
+
+	final AtomicInteger inFlight = new AtomicInteger();
+
+	public void recordQueue(long duration_ns) {
+		queue.record(duration_ns / 1000);
+	}
+
+	public void recordProcessing(long duration_ns) {
+		processing.record(duration_ns / 1000);
+	}
+
+	public void recordSerialization(long duration_ns) {
+		serialization.record(duration_ns / 1000);
+	}
+
+	public void recordBatchSize(int size) {
+		batchSize.record(size);
+	}
+
+	public void startRequest() {
+		inFlight.incrementAndGet();
+	}
+
+	public void finishRequest(long duration_ns) {
+		inFlight.decrementAndGet();
+		total.record(duration_ns / 1000);
+	}
+}
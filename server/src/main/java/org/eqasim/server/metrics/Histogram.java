@@ -0,0 +1,77 @@
+package org.eqasim.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative integer values with log-linear buckets
+ * in the style of HDR histograms: every power of two is split into four
+ * buckets of equal width, so the relative error of a bucket is at most 25%.
+ * Values above the maximum exponent are counted in the last bucket.
+ */
+public class Histogram {
+	static private final int SUB_BUCKET_BITS = 2;
+	static private final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final int maximumExponent;
+	private final AtomicLongArray counts;
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+
+	public Histogram(int maximumExponent) {
+		this.maximumExponent = maximumExponent;
+		this.counts = new AtomicLongArray(getBucket(Long.MAX_VALUE) + 1);
+	}
+
+	private int getBucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) Math.max(0, value);
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+
+		if (exponent > maximumExponent) {
+			return SUB_BUCKETS + (maximumExponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS - 1;
+		}
+
+		int subBucket = (int) (value >> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+		return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the largest value that falls into the bucket.
+	 */
+	long getUpperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+		int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+
+		return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	public void record(long value) {
+		counts.incrementAndGet(getBucket(value));
+		count.increment();
+		sum.add(value);
+	}
+
+	int getNumberOfBuckets() {
+		return counts.length();
+	}
+
+	long getCount(int bucket) {
+		return counts.get(bucket);
+	}
+
+	long getCount() {
+		return count.sum();
+	}
+
+	long getSum() {
+		return sum.sum();
+	}
+}
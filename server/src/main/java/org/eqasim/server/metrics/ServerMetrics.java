@@ -0,0 +1,167 @@
+package org.eqasim.server.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eqasim.server.execution.RoutingExecutor;
+import org.eqasim.server.services.RoutingCache;
+
+/**
+ * Collects the metrics of the server and writes them in the Prometheus text
+ * exposition format. Endpoints, caches and the executor are registered at
+ * startup. The metrics of an endpoint are shared by all of its paths (for
+ * instance, the batch and the streaming path).
+ */
+public class ServerMetrics {
+	static private final String PREFIX = "eqasim_server_";
+
+	private final Map<String, EndpointMetrics> endpoints = new TreeMap<>();
+	private final Map<String, EndpointMetrics> paths = new TreeMap<>();
+	private final Map<String, RoutingCache<?, ?>> caches = new TreeMap<>();
+	private RoutingExecutor executor = null;
+
+	public synchronized EndpointMetrics addEndpoint(String name, String... paths) {
+		EndpointMetrics metrics = endpoints.computeIfAbsent(name, n -> new EndpointMetrics());
+
+		for (String path : paths) {
+			this.paths.put(path, metrics);
+		}
+
+		return metrics;
+	}
+
+	/**
+	 * Returns the metrics of the endpoint that serves the path, or null.
+	 */
+	public synchronized EndpointMetrics getEndpointByPath(String path) {
+		return paths.get(path);
+	}
+
+	public synchronized void addCache(String name, RoutingCache<?, ?> cache) {
+		caches.put(name, cache);
+	}
+
+	public synchronized void setExecutor(RoutingExecutor executor) {
+		this.executor = executor;
+	}
+
+	public synchronized void write(Writer writer) throws IOException {
+		// Latencies
+		writeHeader(writer, "request_duration_seconds", "histogram",
+				"Duration of the phases of the requests per endpoint");
+
+		for (var entry : endpoints.entrySet()) {
+			EndpointMetrics metrics = entry.getValue();
+			String endpoint = "endpoint=\"" + entry.getKey() + "\"";
+
+			writeHistogram(writer, "request_duration_seconds", endpoint + ",phase=\"queue\"", metrics.queue, 1e-6);
+			writeHistogram(writer, "request_duration_seconds", endpoint + ",phase=\"processing\"",
+					metrics.processing, 1e-6);
+			writeHistogram(writer, "request_duration_seconds", endpoint + ",phase=\"serialization\"",
+					metrics.serialization, 1e-6);
+			writeHistogram(writer, "request_duration_seconds", endpoint + ",phase=\"total\"", metrics.total, 1e-6);
+		}
+
+		writeHeader(writer, "batch_size", "histogram", "Number of requests per HTTP request");
+
+		for (var entry : endpoints.entrySet()) {
+			writeHistogram(writer, "batch_size", "endpoint=\"" + entry.getKey() + "\"", entry.getValue().batchSize,
+					1.0);
+		}
+
+		writeHeader(writer, "requests_in_flight", "gauge", "HTTP requests currently being processed");
+
+		for (var entry : endpoints.entrySet()) {
+			writeValue(writer, "requests_in_flight", "endpoint=\"" + entry.getKey() + "\"",
+					entry.getValue().inFlight.get());
+		}
+
+		// Executor
+		if (executor != null) {
+			writeHeader(writer, "executor_queue_size", "gauge", "Tasks waiting in the executor queue");
+			writeValue(writer, "executor_queue_size", null, executor.getQueueSize());
+
+			writeHeader(writer, "executor_active_threads", "gauge", "Threads of the executor running a task");
+			writeValue(writer, "executor_active_threads", null, executor.getActiveThreads());
+
+			writeHeader(writer, "executor_threads", "gauge", "Threads of the executor");
+			writeValue(writer, "executor_threads", null, executor.getThreads());
+
+			writeHeader(writer, "executor_active_sessions", "gauge", "Requests with tasks waiting in the executor");
+			writeValue(writer, "executor_active_sessions", null, executor.getActiveSessions());
+		}
+
+		// Caches
+		if (caches.size() > 0) {
+			Map<String, RoutingCache.Stats> stats = new TreeMap<>();
+
+			for (var entry : caches.entrySet()) {
+				stats.put(entry.getKey(), entry.getValue().getStats());
+			}
+
+			writeHeader(writer, "cache_hits_total", "counter", "Cache hits");
+			for (var entry : stats.entrySet()) {
+				writeValue(writer, "cache_hits_total", "cache=\"" + entry.getKey() + "\"", entry.getValue().hits());
+			}
+
+			writeHeader(writer, "cache_misses_total", "counter", "Cache misses");
+			for (var entry : stats.entrySet()) {
+				writeValue(writer, "cache_misses_total", "cache=\"" + entry.getKey() + "\"",
+						entry.getValue().misses());
+			}
+
+			writeHeader(writer, "cache_size", "gauge", "Entries in the cache");
+			for (var entry : stats.entrySet()) {
+				writeValue(writer, "cache_size", "cache=\"" + entry.getKey() + "\"", entry.getValue().size());
+			}
+
+			writeHeader(writer, "cache_hit_rate", "gauge", "Share of cache lookups that were hits");
+			for (var entry : stats.entrySet()) {
+				writeValue(writer, "cache_hit_rate", "cache=\"" + entry.getKey() + "\"",
+						entry.getValue().hitRate());
+			}
+		}
+	}
+
+	private void writeHeader(Writer writer, String name, String type, String help) throws IOException {
+		writer.write("# HELP " + PREFIX + name + " " + help + "\n");
+		writer.write("# TYPE " + PREFIX + name + " " + type + "\n");
+	}
+
+	private void writeValue(Writer writer, String name, String labels, double value) throws IOException {
+		writer.write(PREFIX + name + (labels == null ? "" : "{" + labels + "}") + " " + formatValue(value) + "\n");
+	}
+
+	/**
+	 * Writes the cumulative buckets of the histogram. The last bucket also holds
+	 * the values above the maximum and is only written as +Inf.
+	 */
+	private void writeHistogram(Writer writer, String name, String labels, Histogram histogram, double scale)
+			throws IOException {
+		long cumulative = 0;
+		int lastBucket = histogram.getNumberOfBuckets() - 1;
+
+		for (int bucket = 0; bucket < lastBucket; bucket++) {
+			cumulative += histogram.getCount(bucket);
+			writer.write(PREFIX + name + "_bucket{" + labels + ",le=\""
+					+ formatValue(histogram.getUpperBound(bucket) * scale) + "\"} " + cumulative + "\n");
+		}
+
+		// Read the total count after the buckets, so it is never below the +Inf bucket
+		long count = Math.max(histogram.getCount(), cumulative + histogram.getCount(lastBucket));
+
+		writer.write(PREFIX + name + "_bucket{" + labels + ",le=\"+Inf\"} " + count + "\n");
+		writer.write(PREFIX + name + "_sum{" + labels + "} " + formatValue(histogram.getSum() * scale) + "\n");
+		writer.write(PREFIX + name + "_count{" + labels + "} " + count + "\n");
+	}
+
+	static private String formatValue(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+
+		return Double.toString(value);
+	}
+}
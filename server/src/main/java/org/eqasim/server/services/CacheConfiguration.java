@@ -0,0 +1,6 @@
+package org.eqasim.server.services;
+
+public class CacheConfiguration {
+	public int maximumSize = 0;
+	public double departureTimeBucket_s = 60.0;
+}
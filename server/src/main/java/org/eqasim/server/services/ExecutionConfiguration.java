@@ -0,0 +1,6 @@
+package org.eqasim.server.services;
+
+public class ExecutionConfiguration {
+	public boolean fair = true;
+	public Integer requestThreads = null;
+}
@@ -0,0 +1,11 @@
+package org.eqasim.server.services;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public enum GeometryFormat {
+	@JsonProperty("wkt")
+	WKT, //
+
+	@JsonProperty("polyline")
+	POLYLINE
+}
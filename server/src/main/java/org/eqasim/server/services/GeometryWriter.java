@@ -0,0 +1,69 @@
+package org.eqasim.server.services;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.WKTWriter;
+
+/**
+ * Writes the geometries of a response, either as WKT or as an encoded polyline.
+ * Polylines follow the encoding of the Google polyline format, but are based on
+ * the coordinates of the network (x before y) with a precision of one decimal.
+ * An instance is created per request and is not thread-safe.
+ */
+public class GeometryWriter {
+	static public final double POLYLINE_FACTOR = 10.0;
+
+	private final static GeometryFactory geometryFactory = new GeometryFactory();
+
+	private final GeometryFormat format;
+	private final WKTWriter wktWriter;
+	private final StringBuilder builder = new StringBuilder();
+
+	public GeometryWriter(GeometryFormat format) {
+		this.format = format;
+		this.wktWriter = format == GeometryFormat.WKT ? new WKTWriter() : null;
+	}
+
+	public String writeLineString(Coordinate[] coordinates) {
+		if (format == GeometryFormat.WKT) {
+			return wktWriter.write(geometryFactory.createLineString(coordinates));
+		}
+
+		builder.setLength(0);
+
+		long previousX = 0;
+		long previousY = 0;
+
+		for (Coordinate coordinate : coordinates) {
+			long x = Math.round(coordinate.x * POLYLINE_FACTOR);
+			long y = Math.round(coordinate.y * POLYLINE_FACTOR);
+
+			encodeValue(x - previousX);
+			encodeValue(y - previousY);
+
+			previousX = x;
+			previousY = y;
+		}
+
+		return builder.toString();
+	}
+
+	public String writePoint(Coordinate coordinate) {
+		if (format == GeometryFormat.WKT) {
+			return wktWriter.write(geometryFactory.createPoint(coordinate));
+		}
+
+		return writeLineString(new Coordinate[] { coordinate });
+	}
+
+	private void encodeValue(long value) {
+		long remainder = value < 0 ? ~(value << 1) : value << 1;
+
+		while (remainder >= 0x20) {
+			builder.append((char) ((0x20 | (remainder & 0x1f)) + 63));
+			remainder >>= 5;
+		}
+
+		builder.append((char) (remainder + 63));
+	}
+}
@@ -0,0 +1,119 @@
+package org.eqasim.server.services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Size-bounded cache with least-recently-used eviction for routing results. A
+ * cache with a maximum size of zero is disabled and always computes the value.
+ * Values are computed outside of the lock, so concurrent requests for the same
+ * key may compute it more than once.
+ */
+public class RoutingCache<K, V> {
+	private final int maximumSize;
+	private final Map<K, V> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public RoutingCache(int maximumSize) {
+		this.maximumSize = maximumSize;
+
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > maximumSize;
+			}
+		};
+	}
+
+	public boolean isEnabled() {
+		return maximumSize > 0;
+	}
+
+	public V get(K key, Function<K, V> loader) {
+		if (!isEnabled()) {
+			return loader.apply(key);
+		}
+
+		synchronized (entries) {
+			if (entries.containsKey(key)) {
+				hits.incrementAndGet();
+				return entries.get(key);
+			}
+		}
+
+		misses.incrementAndGet();
+		V value = loader.apply(key);
+
+		synchronized (entries) {
+			entries.put(key, value);
+		}
+
+		return value;
+	}
+
+	/**
+	 * Returns the cached value or null, for values that are cached under a key
+	 * that is only known after they have been computed.
+	 */
+	public V getIfPresent(K key) {
+		if (!isEnabled()) {
+			return null;
+		}
+
+		synchronized (entries) {
+			V value = entries.get(key);
+
+			if (value != null) {
+				hits.incrementAndGet();
+				return value;
+			}
+		}
+
+		misses.incrementAndGet();
+		return null;
+	}
+
+	public void put(K key, V value) {
+		if (isEnabled()) {
+			synchronized (entries) {
+				entries.put(key, value);
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public Stats getStats() {
+		final int size;
+
+		synchronized (entries) {
+			size = entries.size();
+		}
+
+		long hits = this.hits.get();
+		long misses = this.misses.get();
+		long total = hits + misses;
+
+		return new Stats(size, maximumSize, hits, misses, total == 0 ? 0.0 : (double) hits / total);
+	}
+
+	public record Stats( //
+			@JsonProperty("size") int size, //
+			@JsonProperty("maximum_size") int maximumSize, //
+			@JsonProperty("hits") long hits, //
+			@JsonProperty("misses") long misses, //
+			@JsonProperty("hit_rate") double hitRate) {
+	}
+}
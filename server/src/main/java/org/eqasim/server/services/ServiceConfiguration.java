@@ -3,4 +3,8 @@ package org.eqasim.server.services;
 public class ServiceConfiguration {
 	public WalkConfiguration walk = new WalkConfiguration();
 	public TransitConfiguration transit = new TransitConfiguration();
+	public StreamingConfiguration streaming = new StreamingConfiguration();
+	public CacheConfiguration cache = new CacheConfiguration();
+	public TravelTimeConfiguration travelTime = new TravelTimeConfiguration();
+	public ExecutionConfiguration execution = new ExecutionConfiguration();
 }
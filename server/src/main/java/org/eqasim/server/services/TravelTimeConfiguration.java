@@ -0,0 +1,9 @@
+package org.eqasim.server.services;
+
+public class TravelTimeConfiguration {
+	public String path = null;
+	public boolean allowUpdates = false;
+
+	// Directory from which travel time files can be loaded at runtime by name
+	public String updateDirectory = null;
+}
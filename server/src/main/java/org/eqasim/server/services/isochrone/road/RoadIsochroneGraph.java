@@ -0,0 +1,179 @@
+package org.eqasim.server.services.isochrone.road;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.matsim.api.core.v01.IdMap;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+/**
+ * Compact representation of the road network for isochrone searches. Nodes are
+ * numbered consecutively and the outgoing links of each node are stored in
+ * contiguous arrays (compressed sparse rows) together with their lengths and
+ * link id indices, which are used to look up the travel times in a
+ * {@link org.eqasim.server.services.travel_time.RoadTravelTime}. The highway
+ * types of the links adjacent to each node are stored
+ * in the same way, so the restricted nodes for a combination of highway types
+ * can be derived without going through the network. They are cached per
+ * combination.
+ */
+public class RoadIsochroneGraph {
+	private final static int MAXIMUM_CACHED_RESTRICTIONS = 128;
+
+	// Marks a node that is adjacent to a link without highway type
+	private final static int UNTYPED = -1;
+
+	final int size;
+
+	final Node[] nodes;
+	final double[] x;
+	final double[] y;
+
+	final int[] edgeStart;
+	final int[] edgeTarget;
+	final int[] edgeLinkIndex;
+	final double[] edgeLength;
+
+	private final IdMap<Node, Integer> indices = new IdMap<>(Node.class);
+
+	private final int[] typeStart;
+	private final int[] types;
+	private final Map<String, Integer> typeIndices = new HashMap<>();
+
+	private final Map<Set<String>, BitSet> restrictionCache = new ConcurrentHashMap<>();
+
+	RoadIsochroneGraph(Network network) {
+		this.size = network.getNodes().size();
+
+		this.nodes = network.getNodes().values().toArray(new Node[size]);
+		this.x = new double[size];
+		this.y = new double[size];
+
+		for (int i = 0; i < size; i++) {
+			indices.put(nodes[i].getId(), i);
+			x[i] = nodes[i].getCoord().getX();
+			y[i] = nodes[i].getCoord().getY();
+		}
+
+		// Outgoing links
+		this.edgeStart = new int[size + 1];
+
+		for (int i = 0; i < size; i++) {
+			edgeStart[i + 1] = edgeStart[i] + nodes[i].getOutLinks().size();
+		}
+
+		this.edgeTarget = new int[edgeStart[size]];
+		this.edgeLinkIndex = new int[edgeStart[size]];
+		this.edgeLength = new double[edgeStart[size]];
+
+		for (int i = 0; i < size; i++) {
+			int edge = edgeStart[i];
+
+			for (Link link : nodes[i].getOutLinks().values()) {
+				edgeTarget[edge] = indices.get(link.getToNode().getId());
+				edgeLinkIndex[edge] = link.getId().index();
+				edgeLength[edge] = link.getLength();
+				edge++;
+			}
+		}
+
+		// Highway types of adjacent links
+		this.typeStart = new int[size + 1];
+		List<Integer> nodeTypes = new ArrayList<>();
+
+		for (int i = 0; i < size; i++) {
+			List<Integer> adjacentTypes = new ArrayList<>();
+
+			for (Link link : nodes[i].getInLinks().values()) {
+				addType(adjacentTypes, link);
+			}
+
+			for (Link link : nodes[i].getOutLinks().values()) {
+				addType(adjacentTypes, link);
+			}
+
+			if (adjacentTypes.contains(UNTYPED)) {
+				// Node can never be restricted
+				adjacentTypes = List.of(UNTYPED);
+			}
+
+			nodeTypes.addAll(adjacentTypes);
+			typeStart[i + 1] = nodeTypes.size();
+		}
+
+		this.types = nodeTypes.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	static public RoadIsochroneGraph create(Network network) {
+		return new RoadIsochroneGraph(network);
+	}
+
+	private void addType(List<Integer> adjacentTypes, Link link) {
+		String osm = (String) link.getAttributes().getAttribute("osm:way:highway");
+		int type = osm == null ? UNTYPED : typeIndices.computeIfAbsent(osm, t -> typeIndices.size());
+
+		if (!adjacentTypes.contains(type)) {
+			adjacentTypes.add(type);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Integer getIndex(Node node) {
+		return indices.get(node.getId());
+	}
+
+	/**
+	 * Returns the nodes whose adjacent links all have one of the given highway
+	 * types. Null entries are ignored.
+	 */
+	BitSet getRestrictedNodes(Set<String> requestedHighwayTypes) {
+		Set<String> highwayTypes = requestedHighwayTypes.stream().filter(Objects::nonNull)
+				.collect(Collectors.toUnmodifiableSet());
+
+		BitSet restrictedNodes = restrictionCache.get(highwayTypes);
+
+		if (restrictedNodes == null) {
+			boolean[] isRestrictedType = new boolean[typeIndices.size()];
+
+			for (String highwayType : highwayTypes) {
+				Integer type = typeIndices.get(highwayType);
+
+				if (type != null) {
+					isRestrictedType[type] = true;
+				}
+			}
+
+			restrictedNodes = new BitSet(size);
+
+			for (int i = 0; i < size; i++) {
+				boolean isRestricted = true;
+
+				for (int k = typeStart[i]; k < typeStart[i + 1] && isRestricted; k++) {
+					isRestricted = types[k] != UNTYPED && isRestrictedType[types[k]];
+				}
+
+				restrictedNodes.set(i, isRestricted);
+			}
+
+			if (restrictionCache.size() >= MAXIMUM_CACHED_RESTRICTIONS) {
+				restrictionCache.clear();
+			}
+
+			restrictionCache.put(highwayTypes, restrictedNodes);
+		}
+
+		return restrictedNodes;
+	}
+}
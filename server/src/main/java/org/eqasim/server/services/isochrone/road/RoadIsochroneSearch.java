@@ -0,0 +1,214 @@
+package org.eqasim.server.services.isochrone.road;
+
+import java.util.Arrays;
+
+import org.eqasim.server.services.travel_time.RoadTravelTime;
+
+/**
+ * Dijkstra search on a {@link RoadIsochroneGraph} using primitive arrays and an
+ * indexed binary heap with decrease-key, so every node is settled exactly once.
+ * Link travel times are taken from the given travel time at the time at which
+ * the link is entered.
+ * An instance is meant to be reused by one thread at a time: only the nodes that
+ * have been reached in the previous search are reset.
+ *
+ * The search is also used for one-to-many queries, in which case it stops as
+ * soon as all target nodes have been settled.
+ */
+public class RoadIsochroneSearch {
+	private final RoadIsochroneGraph graph;
+
+	final double[] travelTime;
+	final double[] distance;
+	final double[] accessTime;
+	final double[] accessDistance;
+	final boolean[] isOrigin;
+
+	// Nodes in the order in which they have been settled
+	final int[] settled;
+	int settledCount = 0;
+
+	private final int[] reached;
+	private int reachedCount = 0;
+
+	private final int[] heap;
+	private final int[] heapPosition;
+	private int heapSize = 0;
+
+	public RoadIsochroneSearch(RoadIsochroneGraph graph) {
+		this.graph = graph;
+
+		this.travelTime = new double[graph.size];
+		this.distance = new double[graph.size];
+		this.accessTime = new double[graph.size];
+		this.accessDistance = new double[graph.size];
+		this.isOrigin = new boolean[graph.size];
+
+		this.settled = new int[graph.size];
+		this.reached = new int[graph.size];
+
+		this.heap = new int[graph.size];
+		this.heapPosition = new int[graph.size];
+
+		Arrays.fill(travelTime, Double.POSITIVE_INFINITY);
+		Arrays.fill(heapPosition, -1);
+	}
+
+	public void reset() {
+		for (int k = 0; k < reachedCount; k++) {
+			int node = reached[k];
+			travelTime[node] = Double.POSITIVE_INFINITY;
+			isOrigin[node] = false;
+			heapPosition[node] = -1;
+		}
+
+		reachedCount = 0;
+		settledCount = 0;
+		heapSize = 0;
+	}
+
+	/**
+	 * Adds an origin node. Origins are always part of the result, independent of
+	 * the maximum travel time.
+	 */
+	public void addOrigin(int node, double originAccessTime, double originAccessDistance) {
+		if (originAccessTime < travelTime[node]) {
+			update(node, originAccessTime, originAccessDistance, originAccessTime, originAccessDistance);
+			isOrigin[node] = true;
+		}
+	}
+
+	void run(RoadTravelTime roadTravelTime, double departureTime, double maximumTravelTime) {
+		run(roadTravelTime, departureTime, maximumTravelTime, null, 0);
+	}
+
+	/**
+	 * Runs the search after the origins have been added. If target nodes are
+	 * given, the search stops once the given number of targets has been settled.
+	 */
+	public void run(RoadTravelTime roadTravelTime, double departureTime, double maximumTravelTime,
+			boolean[] isTarget, int targetCount) {
+		int remainingTargets = targetCount;
+
+		while (heapSize > 0) {
+			int current = poll();
+			settled[settledCount++] = current;
+
+			if (isTarget != null && isTarget[current] && --remainingTargets == 0) {
+				break;
+			}
+
+			double currentTravelTime = travelTime[current];
+
+			for (int edge = graph.edgeStart[current]; edge < graph.edgeStart[current + 1]; edge++) {
+				int next = graph.edgeTarget[edge];
+				double nextTravelTime = currentTravelTime
+						+ roadTravelTime.getLinkTravelTime(graph.edgeLinkIndex[edge], departureTime + currentTravelTime);
+
+				if (nextTravelTime < travelTime[next] && nextTravelTime <= maximumTravelTime) {
+					update(next, nextTravelTime, distance[current] + graph.edgeLength[edge], accessTime[current],
+							accessDistance[current]);
+					isOrigin[next] = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the travel time to the node, which is infinite if the node has not
+	 * been reached.
+	 */
+	public double getTravelTime(int node) {
+		return travelTime[node];
+	}
+
+	public double getDistance(int node) {
+		return distance[node];
+	}
+
+	private void update(int node, double nodeTravelTime, double nodeDistance, double nodeAccessTime,
+			double nodeAccessDistance) {
+		if (travelTime[node] == Double.POSITIVE_INFINITY) {
+			reached[reachedCount++] = node;
+		}
+
+		travelTime[node] = nodeTravelTime;
+		distance[node] = nodeDistance;
+		accessTime[node] = nodeAccessTime;
+		accessDistance[node] = nodeAccessDistance;
+
+		if (heapPosition[node] < 0) {
+			heap[heapSize] = node;
+			heapPosition[node] = heapSize;
+			heapSize++;
+		}
+
+		siftUp(heapPosition[node]);
+	}
+
+	private int poll() {
+		int root = heap[0];
+		heapPosition[root] = -1;
+
+		heapSize--;
+
+		if (heapSize > 0) {
+			heap[0] = heap[heapSize];
+			heapPosition[heap[0]] = 0;
+			siftDown(0);
+		}
+
+		return root;
+	}
+
+	private void siftUp(int position) {
+		int node = heap[position];
+		double key = travelTime[node];
+
+		while (position > 0) {
+			int parentPosition = (position - 1) >> 1;
+			int parent = heap[parentPosition];
+
+			if (travelTime[parent] <= key) {
+				break;
+			}
+
+			heap[position] = parent;
+			heapPosition[parent] = position;
+			position = parentPosition;
+		}
+
+		heap[position] = node;
+		heapPosition[node] = position;
+	}
+
+	private void siftDown(int position) {
+		int node = heap[position];
+		double key = travelTime[node];
+
+		while (true) {
+			int childPosition = 2 * position + 1;
+
+			if (childPosition >= heapSize) {
+				break;
+			}
+
+			if (childPosition + 1 < heapSize && travelTime[heap[childPosition + 1]] < travelTime[heap[childPosition]]) {
+				childPosition++;
+			}
+
+			int child = heap[childPosition];
+
+			if (travelTime[child] >= key) {
+				break;
+			}
+
+			heap[position] = child;
+			heapPosition[child] = position;
+			position = childPosition;
+		}
+
+		heap[position] = node;
+		heapPosition[node] = position;
+	}
+}
@@ -1,62 +1,55 @@
 package org.eqasim.server.services.isochrone.road;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.PriorityQueue;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
-import org.apache.commons.lang3.tuple.Pair;
 import org.eqasim.server.services.WalkConfiguration;
 import org.eqasim.server.services.router.road.RoadRouterService;
 import org.eqasim.server.services.router.road.RoadRouterService.WalkParameters;
+import org.eqasim.server.services.travel_time.RoadTravelTime;
+import org.eqasim.server.services.travel_time.RoadTravelTimeManager;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.io.WKTWriter;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.IdMap;
-import org.matsim.api.core.v01.IdSet;
-import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.network.Node;
 import org.matsim.core.config.Config;
-import org.matsim.core.router.util.TravelTime;
-import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
 import org.matsim.core.utils.collections.QuadTree;
 import org.matsim.core.utils.collections.QuadTrees;
 import org.matsim.core.utils.geometry.CoordUtils;
 
-import com.google.common.collect.Sets;
-
 public class RoadIsochroneService {
 	private final GeometryFactory geometryFactory = new GeometryFactory();
 
-	private final TravelTime travelTime = new FreeSpeedTravelTime();
-
-	private final Network network;
 	private final QuadTree<? extends Node> nodeIndex;
+	private final RoadIsochroneGraph graph;
 
 	private final WalkParameters walkParameters;
+	private final RoadTravelTimeManager travelTimeManager;
+
+	private final ConcurrentLinkedQueue<RoadIsochroneSearch> searchPool = new ConcurrentLinkedQueue<>();
 
-	RoadIsochroneService(Network network, QuadTree<? extends Node> nodeIndex, WalkParameters walkParameters) {
-		this.network = network;
+	RoadIsochroneService(RoadIsochroneGraph graph, QuadTree<? extends Node> nodeIndex,
+			WalkParameters walkParameters, RoadTravelTimeManager travelTimeManager) {
+		this.graph = graph;
 		this.nodeIndex = nodeIndex;
 		this.walkParameters = walkParameters;
+		this.travelTimeManager = travelTimeManager;
 	}
 
 	public RoadIsochroneResponse processRequest(RoadIsochroneRequest request) {
 		RoadIsochroneResponse response = new RoadIsochroneResponse();
 		response.requestIndex = request.requestIndex;
 
-		PriorityQueue<Pair<Node, Destination>> queue = new PriorityQueue<>((a, b) -> {
-			return Double.compare(a.getRight().travelTime, b.getRight().travelTime);
-		});
-
-		IdMap<Node, Destination> destinations = new IdMap<>(Node.class);
-		IdMap<Node, Double> minimumTravelTime = new IdMap<>(Node.class);
-
 		Set<Node> originCandidates = new HashSet<>();
 
 		if (request.originRadius_km != null) {
@@ -67,109 +60,57 @@ public class RoadIsochroneService {
 			originCandidates.add(nodeIndex.getClosest(request.originX, request.originY));
 		}
 
-		IdSet<Node> restrictedNodes = getRestrictedNodes(request);
-
-		for (Node originNode : originCandidates) {
-			Coord originCoord = originNode.getCoord();
+		BitSet restrictedNodes = request.osmRestrictions != null ? graph.getRestrictedNodes(request.osmRestrictions)
+				: new BitSet();
 
-			double accessTime = 0.0;
-			double accessDistance = 0.0;
+		RoadTravelTime travelTime = travelTimeManager.get();
+		RoadIsochroneSearch search = searchPool.poll();
 
-			if (request.considerAccess) {
-				accessDistance = CoordUtils.calcEuclideanDistance(new Coord(request.originX, request.originY),
-						originCoord) * walkParameters.beelineWalkFactor();
-				accessTime = accessDistance / walkParameters.beelineWalkSpeed_m_s()
-						* walkParameters.beelineWalkFactor();
-			}
-
-			Destination originDestination = new Destination(originCoord.getX(), originCoord.getY(), accessTime,
-					accessDistance, true, restrictedNodes.contains(originNode.getId()), originNode.getId(), accessTime,
-					accessDistance);
-			queue.add(Pair.of(originNode, originDestination));
-			destinations.put(originNode.getId(), originDestination);
-			minimumTravelTime.put(originNode.getId(), accessTime);
+		if (search == null) {
+			search = new RoadIsochroneSearch(graph);
 		}
 
-		double maximumTravelTime = request.maximumTravelTime_min * 60.0;
-
-		while (!queue.isEmpty()) {
-			var currentItem = queue.poll();
-
-			double currentTravelTime = currentItem.getRight().travelTime;
-			double currentDistance = currentItem.getRight().distance;
-			double currentAccessTime = currentItem.getRight().accessTime;
-			double currentAccessDistance = currentItem.getRight().accessDistance;
+		List<Destination> destinations = new ArrayList<>();
 
-			Node currentNode = currentItem.getLeft();
-			boolean currentRestricted = restrictedNodes.contains(currentNode.getId());
+		try {
+			search.reset();
 
-			for (Link link : currentNode.getOutLinks().values()) {
-				Node nextNode = link.getToNode();
-				boolean nextRestricted = restrictedNodes.contains(nextNode.getId());
+			for (Node originNode : originCandidates) {
+				Coord originCoord = originNode.getCoord();
 
-				double enterTime = request.departureTime_s + currentTravelTime;
-				double nextTravelTime = currentTravelTime + travelTime.getLinkTravelTime(link, enterTime, null, null);
+				double accessTime = 0.0;
+				double accessDistance = 0.0;
 
-				if (request.segmentLength_km != null) {
-					double linkLength = CoordUtils.calcEuclideanDistance(currentNode.getCoord(), nextNode.getCoord());
-					double requestedSegmentLength = request.segmentLength_km * 1e3;
-
-					if (linkLength > requestedSegmentLength) {
-						double linkTravelTime = nextTravelTime - currentTravelTime;
-
-						int segments = (int) Math.floor(linkLength / requestedSegmentLength);
-
-						double segmentLength = linkLength / segments;
-						double segmentDuration = linkTravelTime / segments;
-
-						List<String> framingNodeIds = new LinkedList<>();
-						framingNodeIds.add(currentNode.getId().toString());
-						framingNodeIds.add(nextNode.getId().toString());
-						Collections.sort(framingNodeIds);
-
-						String nodePrefix = framingNodeIds.get(0) + "::" + framingNodeIds.get(1) + "::";
-
-						for (int k = 1; k < segments; k++) {
-							double segmentTravelTime = currentTravelTime + k * segmentDuration;
-							double segmentDistance = currentDistance + k * segmentLength;
-
-							if (segmentTravelTime <= maximumTravelTime) {
-								Coord direction = CoordUtils.minus(nextNode.getCoord(), currentNode.getCoord());
-
-								Coord segmentCoord = CoordUtils.plus(currentNode.getCoord(),
-										CoordUtils.scalarMult((double) k / segments, direction));
-
-								Destination segmentDestination = new Destination(segmentCoord.getX(),
-										segmentCoord.getY(), segmentTravelTime, segmentDistance, false,
-										currentRestricted && nextRestricted, null, currentAccessTime,
-										currentAccessDistance);
-
-								Id<Node> segmentNodeId = Id.createNodeId(nodePrefix + k);
-								destinations.put(segmentNodeId, segmentDestination);
-							}
-						}
-					}
+				if (request.considerAccess) {
+					accessDistance = CoordUtils.calcEuclideanDistance(new Coord(request.originX, request.originY),
+							originCoord) * walkParameters.beelineWalkFactor();
+					accessTime = accessDistance / walkParameters.beelineWalkSpeed_m_s()
+							* walkParameters.beelineWalkFactor();
 				}
 
-				if (nextTravelTime < minimumTravelTime.getOrDefault(nextNode.getId(), Double.POSITIVE_INFINITY)) {
-					double nextDistance = currentDistance + link.getLength();
+				search.addOrigin(graph.getIndex(originNode), accessTime, accessDistance);
+			}
 
-					if (nextTravelTime <= maximumTravelTime) {
-						Coord nextCoord = nextNode.getCoord();
-						Destination nextDestination = new Destination(nextCoord.getX(), nextCoord.getY(),
-								nextTravelTime, nextDistance, false, nextRestricted, nextNode.getId(),
-								currentAccessTime, currentAccessDistance);
+			double maximumTravelTime = request.maximumTravelTime_min * 60.0;
+			search.run(travelTime, request.departureTime_s, maximumTravelTime);
 
-						destinations.put(nextNode.getId(), nextDestination);
-						queue.add(Pair.of(nextNode, nextDestination));
-					}
+			for (int k = 0; k < search.settledCount; k++) {
+				int node = search.settled[k];
 
-					minimumTravelTime.put(nextNode.getId(), nextTravelTime);
-				}
+				destinations.add(new Destination(graph.x[node], graph.y[node], search.travelTime[node],
+						search.distance[node], search.isOrigin[node], restrictedNodes.get(node),
+						graph.nodes[node].getId(), search.accessTime[node], search.accessDistance[node]));
 			}
+
+			if (request.segmentLength_km != null) {
+				destinations.addAll(createSegments(search, travelTime, request.departureTime_s, restrictedNodes,
+						request.segmentLength_km * 1e3, maximumTravelTime));
+			}
+		} finally {
+			searchPool.add(search);
 		}
 
-		for (Destination destination : destinations.values()) {
+		for (Destination destination : destinations) {
 			RoadIsochroneResponse.Point point = new RoadIsochroneResponse.Point();
 			response.points.add(point);
 
@@ -201,42 +142,75 @@ public class RoadIsochroneService {
 		return response;
 	}
 
-	private IdSet<Node> getRestrictedNodes(RoadIsochroneRequest request) {
-		if (request.osmRestrictions != null) {
-			IdSet<Link> restrictedLinks = new IdSet<>(Link.class);
+	private record SegmentKey(int lowerNode, int upperNode, int index) {
+	}
 
-			for (Link link : network.getLinks().values()) {
-				String osm = (String) link.getAttributes().getAttribute("osm:way:highway");
+	/**
+	 * Creates intermediate points on links that are longer than the requested
+	 * segment length. The points of the two directions between a pair of nodes
+	 * coincide, and the one that is reached first is kept.
+	 */
+	private Collection<Destination> createSegments(RoadIsochroneSearch search, RoadTravelTime travelTime,
+			double departureTime, BitSet restrictedNodes, double requestedSegmentLength, double maximumTravelTime) {
+		Map<SegmentKey, Destination> segments = new HashMap<>();
 
-				if (osm != null && request.osmRestrictions.contains(osm)) {
-					restrictedLinks.add(link.getId());
-				}
-			}
+		for (int k = 0; k < search.settledCount; k++) {
+			int current = search.settled[k];
+			double currentTravelTime = search.travelTime[current];
+
+			for (int edge = graph.edgeStart[current]; edge < graph.edgeStart[current + 1]; edge++) {
+				int next = graph.edgeTarget[edge];
 
-			IdSet<Node> restrictedNodes = new IdSet<>(Node.class);
+				double dx = graph.x[next] - graph.x[current];
+				double dy = graph.y[next] - graph.y[current];
+				double linkLength = Math.sqrt(dx * dx + dy * dy);
 
-			for (Node node : network.getNodes().values()) {
-				if (Sets.difference(node.getInLinks().keySet(), restrictedLinks).size() == 0) {
-					if (Sets.difference(node.getOutLinks().keySet(), restrictedLinks).size() == 0) {
-						restrictedNodes.add(node.getId());
+				if (linkLength > requestedSegmentLength) {
+					int segmentCount = (int) Math.floor(linkLength / requestedSegmentLength);
+
+					double segmentLength = linkLength / segmentCount;
+					double segmentDuration = travelTime.getLinkTravelTime(graph.edgeLinkIndex[edge],
+							departureTime + currentTravelTime) / segmentCount;
+
+					boolean isRestricted = restrictedNodes.get(current) && restrictedNodes.get(next);
+
+					for (int index = 1; index < segmentCount; index++) {
+						double segmentTravelTime = currentTravelTime + index * segmentDuration;
+
+						if (segmentTravelTime <= maximumTravelTime) {
+							SegmentKey key = current < next ? new SegmentKey(current, next, index)
+									: new SegmentKey(next, current, segmentCount - index);
+
+							Destination existing = segments.get(key);
+
+							if (existing == null || existing.travelTime > segmentTravelTime) {
+								double fraction = (double) index / segmentCount;
+
+								segments.put(key,
+										new Destination(graph.x[current] + fraction * dx,
+												graph.y[current] + fraction * dy, segmentTravelTime,
+												search.distance[current] + index * segmentLength, false,
+												isRestricted, null, search.accessTime[current],
+												search.accessDistance[current]));
+							}
+						}
 					}
 				}
 			}
-
-			return restrictedNodes;
 		}
 
-		return new IdSet<>(Node.class);
+		return segments.values();
 	}
 
 	private record Destination(double x, double y, double travelTime, double distance, boolean isOrigin,
 			boolean isRestricted, Id<Node> nodeId, double accessTime, double accessDistance) {
 	}
 
-	static public RoadIsochroneService create(Config config, Network network, WalkConfiguration configuration) {
+	static public RoadIsochroneService create(Config config, Network network, RoadIsochroneGraph graph,
+			WalkConfiguration configuration, RoadTravelTimeManager travelTimeManager) {
 		WalkParameters walkParameters = RoadRouterService.createWalkParameters(config, configuration);
 		QuadTree<? extends Node> nodeIndex = QuadTrees.createQuadTree(network.getNodes().values());
 
-		return new RoadIsochroneService(network, nodeIndex, walkParameters);
+		return new RoadIsochroneService(graph, nodeIndex, walkParameters, travelTimeManager);
 	}
 }
@@ -0,0 +1,255 @@
+package org.eqasim.server.services.isochrone.transit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eqasim.server.services.router.transit.TransitRouterService.WalkParameters;
+import org.matsim.api.core.v01.IdMap;
+import org.matsim.core.utils.collections.QuadTree;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.core.utils.misc.OptionalTime;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+/**
+ * Array representation of the schedule for isochrone searches. Stops and routes
+ * are numbered consecutively. For each route, the stop sequence with arrival and
+ * departure offsets and the sorted departure times are stored in flat arrays.
+ * Since all departures of a route share the same offsets, the first departure
+ * that can be reached at any stop of the route is found by binary search.
+ *
+ * Walking transfers between stops are precomputed per transfer distance and
+ * cached, as they only depend on the stop locations.
+ */
+class TransitIsochroneData {
+	private final static int MAXIMUM_CACHED_TRANSFER_GRAPHS = 16;
+
+	final int stopCount;
+	final TransitStopFacility[] stops;
+
+	final int routeCount;
+	final int[] routeStopStart;
+	final int[] routeStops;
+	final double[] arrivalOffsets;
+	final double[] departureOffsets;
+	final int[] routeDepartureStart;
+	final double[] departures;
+	final int[] routeModes;
+	final List<String> modes = new ArrayList<>();
+
+	final int[] stopRouteStart;
+	final int[] stopRoutes;
+	final int[] stopRoutePositions;
+
+	private final IdMap<TransitStopFacility, Integer> stopIndices = new IdMap<>(TransitStopFacility.class);
+
+	private final QuadTree<TransitStopFacility> stopIndex;
+	private final WalkParameters walkParameters;
+
+	private final Map<Double, TransferGraph> transferCache = new ConcurrentHashMap<>();
+
+	TransitIsochroneData(TransitSchedule schedule, QuadTree<TransitStopFacility> stopIndex,
+			WalkParameters walkParameters) {
+		this.stopIndex = stopIndex;
+		this.walkParameters = walkParameters;
+
+		// Stops
+		this.stopCount = schedule.getFacilities().size();
+		this.stops = schedule.getFacilities().values().toArray(new TransitStopFacility[stopCount]);
+
+		for (int i = 0; i < stopCount; i++) {
+			stopIndices.put(stops[i].getId(), i);
+		}
+
+		// Routes
+		List<TransitRoute> routes = new ArrayList<>();
+
+		for (TransitLine transitLine : schedule.getTransitLines().values()) {
+			routes.addAll(transitLine.getRoutes().values());
+		}
+
+		this.routeCount = routes.size();
+		this.routeStopStart = new int[routeCount + 1];
+		this.routeDepartureStart = new int[routeCount + 1];
+		this.routeModes = new int[routeCount];
+
+		for (int r = 0; r < routeCount; r++) {
+			TransitRoute route = routes.get(r);
+			routeStopStart[r + 1] = routeStopStart[r] + route.getStops().size();
+			routeDepartureStart[r + 1] = routeDepartureStart[r] + route.getDepartures().size();
+
+			String mode = route.getTransportMode();
+			int modeIndex = modes.indexOf(mode);
+
+			if (modeIndex < 0) {
+				modeIndex = modes.size();
+				modes.add(mode);
+			}
+
+			routeModes[r] = modeIndex;
+		}
+
+		this.routeStops = new int[routeStopStart[routeCount]];
+		this.arrivalOffsets = new double[routeStopStart[routeCount]];
+		this.departureOffsets = new double[routeStopStart[routeCount]];
+		this.departures = new double[routeDepartureStart[routeCount]];
+
+		int[] stopRouteCounts = new int[stopCount];
+
+		for (int r = 0; r < routeCount; r++) {
+			TransitRoute route = routes.get(r);
+
+			int position = routeStopStart[r];
+			for (TransitRouteStop routeStop : route.getStops()) {
+				int stop = stopIndices.get(routeStop.getStopFacility().getId());
+
+				routeStops[position] = stop;
+				arrivalOffsets[position] = getOffset(routeStop.getArrivalOffset(), routeStop.getDepartureOffset());
+				departureOffsets[position] = getOffset(routeStop.getDepartureOffset(), routeStop.getArrivalOffset());
+
+				stopRouteCounts[stop]++;
+				position++;
+			}
+
+			int departureIndex = routeDepartureStart[r];
+			for (Departure departure : route.getDepartures().values()) {
+				departures[departureIndex++] = departure.getDepartureTime();
+			}
+
+			Arrays.sort(departures, routeDepartureStart[r], routeDepartureStart[r + 1]);
+		}
+
+		// Routes per stop
+		this.stopRouteStart = new int[stopCount + 1];
+
+		for (int i = 0; i < stopCount; i++) {
+			stopRouteStart[i + 1] = stopRouteStart[i] + stopRouteCounts[i];
+		}
+
+		this.stopRoutes = new int[stopRouteStart[stopCount]];
+		this.stopRoutePositions = new int[stopRouteStart[stopCount]];
+
+		int[] stopRouteOffsets = Arrays.copyOf(stopRouteStart, stopCount);
+
+		for (int r = 0; r < routeCount; r++) {
+			for (int position = routeStopStart[r]; position < routeStopStart[r + 1]; position++) {
+				int stop = routeStops[position];
+
+				stopRoutes[stopRouteOffsets[stop]] = r;
+				stopRoutePositions[stopRouteOffsets[stop]] = position;
+				stopRouteOffsets[stop]++;
+			}
+		}
+	}
+
+	static private double getOffset(OptionalTime offset, OptionalTime fallback) {
+		return offset.isDefined() ? offset.seconds() : fallback.seconds();
+	}
+
+	Integer getIndex(TransitStopFacility facility) {
+		return stopIndices.get(facility.getId());
+	}
+
+	/**
+	 * Returns the index of the first departure of the route that leaves the given
+	 * route position at or after the given time, or -1 if there is none.
+	 */
+	int findDeparture(int route, int position, double time) {
+		double departureTime = time - departureOffsets[position];
+
+		int lower = routeDepartureStart[route];
+		int upper = routeDepartureStart[route + 1];
+
+		while (lower < upper) {
+			int middle = (lower + upper) >>> 1;
+
+			if (departures[middle] < departureTime) {
+				lower = middle + 1;
+			} else {
+				upper = middle;
+			}
+		}
+
+		return lower < routeDepartureStart[route + 1] ? lower : -1;
+	}
+
+	/**
+	 * Walking connections from each stop to all other stops within the transfer
+	 * distance, stored as compressed sparse rows.
+	 */
+	static class TransferGraph {
+		final int[] start;
+		final int[] target;
+		final double[] travelTime;
+
+		private TransferGraph(int[] start, int[] target, double[] travelTime) {
+			this.start = start;
+			this.target = target;
+			this.travelTime = travelTime;
+		}
+	}
+
+	TransferGraph getTransferGraph(double maximumTransferDistance) {
+		TransferGraph graph = transferCache.get(maximumTransferDistance);
+
+		if (graph == null) {
+			graph = createTransferGraph(maximumTransferDistance);
+
+			if (transferCache.size() >= MAXIMUM_CACHED_TRANSFER_GRAPHS) {
+				transferCache.clear();
+			}
+
+			transferCache.put(maximumTransferDistance, graph);
+		}
+
+		return graph;
+	}
+
+	private TransferGraph createTransferGraph(double maximumTransferDistance) {
+		int[] start = new int[stopCount + 1];
+		List<Integer> targets = new ArrayList<>();
+		List<Double> travelTimes = new ArrayList<>();
+
+		for (int i = 0; i < stopCount; i++) {
+			Collection<TransitStopFacility> candidates = stopIndex.getDisk(stops[i].getCoord().getX(),
+					stops[i].getCoord().getY(), maximumTransferDistance);
+
+			for (TransitStopFacility candidate : candidates) {
+				int target = stopIndices.get(candidate.getId());
+
+				if (target != i) {
+					targets.add(target);
+					travelTimes.add(CoordUtils.calcEuclideanDistance(stops[i].getCoord(), candidate.getCoord())
+							* walkParameters.beelineWalkFactor() / walkParameters.beelineWalkSpeed_m_s());
+				}
+			}
+
+			start[i + 1] = targets.size();
+		}
+
+		return new TransferGraph(start, targets.stream().mapToInt(Integer::intValue).toArray(),
+				travelTimes.stream().mapToDouble(Double::doubleValue).toArray());
+	}
+
+	/**
+	 * Returns a flag per mode index indicating whether the mode is restricted.
+	 */
+	boolean[] getRestrictedModes(Set<String> restrictedModes) {
+		boolean[] isRestricted = new boolean[modes.size()];
+
+		for (int k = 0; k < modes.size(); k++) {
+			isRestricted[k] = restrictedModes.contains(modes.get(k));
+		}
+
+		return isRestricted;
+	}
+}
@@ -0,0 +1,264 @@
+package org.eqasim.server.services.isochrone.transit;
+
+import java.util.Arrays;
+
+import org.eqasim.server.services.isochrone.transit.TransitIsochroneData.TransferGraph;
+
+/**
+ * Round-based (RAPTOR) search for the earliest arrival at all stops. Round k
+ * scans all routes that serve a stop that has been improved in the previous
+ * round, so the labels found in round k use k vehicle legs. After each round,
+ * walking transfers are applied from the improved stops to obtain the times at
+ * which vehicles can be boarded in the next round.
+ *
+ * All times are relative to the departure time of the request. Along with the
+ * arrival time, each label carries the accumulated access, transfer and wait
+ * times and the stop at which the last vehicle has been boarded. An instance is
+ * meant to be reused by one thread at a time.
+ */
+class TransitIsochroneSearch {
+	private final TransitIsochroneData data;
+
+	// Earliest arrival by vehicle (or at an origin) over all rounds
+	final double[] travelTime;
+	final double[] accessTime;
+	final double[] transferTime;
+	final double[] waitTime;
+	final int[] transfers;
+	final int[] boardingStop;
+	final boolean[] isOrigin;
+
+	// Times at which a vehicle can be boarded, for the previous and current round
+	private final double[][] boardingTime = new double[2][];
+	private final double[][] boardingAccessTime = new double[2][];
+	private final double[][] boardingTransferTime = new double[2][];
+	private final double[][] boardingWaitTime = new double[2][];
+	private final double[] bestBoardingTime;
+
+	private final boolean[] isMarked;
+	private final int[] markedStops;
+	private int markedCount = 0;
+
+	private final boolean[] isImproved;
+	private final int[] improvedStops;
+	private int improvedCount = 0;
+
+	private final int[] routeStart;
+	private final int[] markedRoutes;
+	private int markedRouteCount = 0;
+
+	TransitIsochroneSearch(TransitIsochroneData data) {
+		this.data = data;
+
+		int size = data.stopCount;
+
+		this.travelTime = new double[size];
+		this.accessTime = new double[size];
+		this.transferTime = new double[size];
+		this.waitTime = new double[size];
+		this.transfers = new int[size];
+		this.boardingStop = new int[size];
+		this.isOrigin = new boolean[size];
+
+		for (int k = 0; k < 2; k++) {
+			boardingTime[k] = new double[size];
+			boardingAccessTime[k] = new double[size];
+			boardingTransferTime[k] = new double[size];
+			boardingWaitTime[k] = new double[size];
+		}
+
+		this.bestBoardingTime = new double[size];
+
+		this.isMarked = new boolean[size];
+		this.markedStops = new int[size];
+		this.isImproved = new boolean[size];
+		this.improvedStops = new int[size];
+
+		this.routeStart = new int[data.routeCount];
+		this.markedRoutes = new int[data.routeCount];
+	}
+
+	void reset() {
+		Arrays.fill(travelTime, Double.POSITIVE_INFINITY);
+		Arrays.fill(isOrigin, false);
+		Arrays.fill(bestBoardingTime, Double.POSITIVE_INFINITY);
+		Arrays.fill(boardingTime[0], Double.POSITIVE_INFINITY);
+		Arrays.fill(boardingTime[1], Double.POSITIVE_INFINITY);
+		Arrays.fill(isMarked, false);
+		Arrays.fill(isImproved, false);
+		Arrays.fill(routeStart, -1);
+
+		markedCount = 0;
+		improvedCount = 0;
+		markedRouteCount = 0;
+	}
+
+	void addOrigin(int stop, double originAccessTime) {
+		if (originAccessTime < travelTime[stop]) {
+			markImproved(stop);
+
+			travelTime[stop] = originAccessTime;
+			accessTime[stop] = originAccessTime;
+			transferTime[stop] = 0.0;
+			waitTime[stop] = 0.0;
+			transfers[stop] = 0;
+			boardingStop[stop] = stop;
+			isOrigin[stop] = true;
+		}
+	}
+
+	private void markImproved(int stop) {
+		if (!isImproved[stop]) {
+			isImproved[stop] = true;
+			improvedStops[improvedCount++] = stop;
+		}
+	}
+
+	/**
+	 * Runs the search after the origins have been added. The maximum number of
+	 * rounds corresponds to the maximum number of transfers plus one.
+	 */
+	void run(double departureTime, double maximumTravelTime, int maximumRounds, boolean[] isRestrictedMode,
+			TransferGraph transferGraph) {
+		int current = 0;
+		applyTransfers(current, maximumTravelTime, transferGraph);
+
+		for (int round = 1; round <= maximumRounds && markedCount > 0; round++) {
+			int previous = current;
+			current = 1 - current;
+
+			Arrays.fill(boardingTime[current], Double.POSITIVE_INFINITY);
+
+			collectRoutes(isRestrictedMode);
+
+			for (int k = 0; k < markedRouteCount; k++) {
+				int route = markedRoutes[k];
+				scanRoute(route, routeStart[route], previous, round, departureTime, maximumTravelTime);
+				routeStart[route] = -1;
+			}
+
+			markedRouteCount = 0;
+			applyTransfers(current, maximumTravelTime, transferGraph);
+		}
+	}
+
+	private void collectRoutes(boolean[] isRestrictedMode) {
+		for (int k = 0; k < markedCount; k++) {
+			int stop = markedStops[k];
+			isMarked[stop] = false;
+
+			for (int j = data.stopRouteStart[stop]; j < data.stopRouteStart[stop + 1]; j++) {
+				int route = data.stopRoutes[j];
+
+				if (isRestrictedMode[data.routeModes[route]]) {
+					continue;
+				}
+
+				int position = data.stopRoutePositions[j];
+
+				if (routeStart[route] < 0) {
+					routeStart[route] = position;
+					markedRoutes[markedRouteCount++] = route;
+				} else if (position < routeStart[route]) {
+					routeStart[route] = position;
+				}
+			}
+		}
+
+		markedCount = 0;
+	}
+
+	private void scanRoute(int route, int startPosition, int previous, int round, double departureTime,
+			double maximumTravelTime) {
+		int departure = -1;
+
+		int currentBoardingStop = -1;
+		double currentAccessTime = 0.0;
+		double currentTransferTime = 0.0;
+		double currentWaitTime = 0.0;
+
+		for (int position = startPosition; position < data.routeStopStart[route + 1]; position++) {
+			int stop = data.routeStops[position];
+
+			if (departure >= 0) {
+				double arrivalTime = data.departures[departure] + data.arrivalOffsets[position] - departureTime;
+
+				if (arrivalTime < travelTime[stop] && arrivalTime <= maximumTravelTime) {
+					markImproved(stop);
+
+					travelTime[stop] = arrivalTime;
+					accessTime[stop] = currentAccessTime;
+					transferTime[stop] = currentTransferTime;
+					waitTime[stop] = currentWaitTime;
+					transfers[stop] = round - 1;
+					boardingStop[stop] = currentBoardingStop;
+					isOrigin[stop] = false;
+				}
+			}
+
+			double readyTime = boardingTime[previous][stop];
+
+			if (readyTime < Double.POSITIVE_INFINITY) {
+				double currentDepartureTime = departure >= 0
+						? data.departures[departure] + data.departureOffsets[position] - departureTime
+						: Double.POSITIVE_INFINITY;
+
+				if (readyTime < currentDepartureTime) {
+					int candidate = data.findDeparture(route, position, readyTime + departureTime);
+
+					if (candidate >= 0 && (departure < 0 || candidate < departure)) {
+						departure = candidate;
+
+						double boardingDepartureTime = data.departures[departure] + data.departureOffsets[position]
+								- departureTime;
+
+						currentBoardingStop = stop;
+						currentAccessTime = boardingAccessTime[previous][stop];
+						currentTransferTime = boardingTransferTime[previous][stop];
+						currentWaitTime = boardingWaitTime[previous][stop] + boardingDepartureTime - readyTime;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Derives the boarding times of the current round from the stops that have
+	 * been improved, including walking transfers to nearby stops.
+	 */
+	private void applyTransfers(int current, double maximumTravelTime, TransferGraph transferGraph) {
+		for (int k = 0; k < improvedCount; k++) {
+			int stop = improvedStops[k];
+			isImproved[stop] = false;
+
+			updateBoarding(current, stop, travelTime[stop], accessTime[stop], transferTime[stop], waitTime[stop],
+					maximumTravelTime);
+
+			for (int j = transferGraph.start[stop]; j < transferGraph.start[stop + 1]; j++) {
+				double walkTime = transferGraph.travelTime[j];
+
+				updateBoarding(current, transferGraph.target[j], travelTime[stop] + walkTime, accessTime[stop],
+						transferTime[stop] + walkTime, waitTime[stop], maximumTravelTime);
+			}
+		}
+
+		improvedCount = 0;
+	}
+
+	private void updateBoarding(int current, int stop, double time, double access, double transfer, double wait,
+			double maximumTravelTime) {
+		if (time < bestBoardingTime[stop] && time <= maximumTravelTime) {
+			bestBoardingTime[stop] = time;
+
+			boardingTime[current][stop] = time;
+			boardingAccessTime[current][stop] = access;
+			boardingTransferTime[current][stop] = transfer;
+			boardingWaitTime[current][stop] = wait;
+
+			if (!isMarked[stop]) {
+				isMarked[stop] = true;
+				markedStops[markedCount++] = stop;
+			}
+		}
+	}
+}
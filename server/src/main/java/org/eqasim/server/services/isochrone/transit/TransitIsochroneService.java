@@ -3,10 +3,9 @@ package org.eqasim.server.services.isochrone.transit;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
-import org.apache.commons.lang3.tuple.Pair;
 import org.eqasim.server.services.TransitConfiguration;
 import org.eqasim.server.services.WalkConfiguration;
 import org.eqasim.server.services.router.transit.TransitRouterService;
@@ -15,16 +14,12 @@ import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.io.WKTWriter;
 import org.matsim.api.core.v01.Coord;
-import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.IdMap;
 import org.matsim.core.config.Config;
 import org.matsim.core.utils.collections.QuadTree;
 import org.matsim.core.utils.collections.QuadTrees;
 import org.matsim.core.utils.geometry.CoordUtils;
-import org.matsim.pt.transitSchedule.api.Departure;
 import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
-import org.matsim.pt.transitSchedule.api.TransitRouteStop;
 import org.matsim.pt.transitSchedule.api.TransitSchedule;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
 
@@ -34,17 +29,18 @@ public class TransitIsochroneService {
 	private final static GeometryFactory geometryFactory = new GeometryFactory();
 
 	private final QuadTree<TransitStopFacility> stopIndex;
-	private final IdMap<TransitStopFacility, Set<TransitRoute>> stopToRoute;
+	private final TransitIsochroneData data;
 
 	private final Set<String> availableModes;
 
 	private final WalkParameters walkParameters;
 
-	TransitIsochroneService(QuadTree<TransitStopFacility> stopIndex,
-			IdMap<TransitStopFacility, Set<TransitRoute>> stopToRoute, WalkParameters walkParameters,
-			Set<String> availableModes) {
+	private final ConcurrentLinkedQueue<TransitIsochroneSearch> searchPool = new ConcurrentLinkedQueue<>();
+
+	TransitIsochroneService(QuadTree<TransitStopFacility> stopIndex, TransitIsochroneData data,
+			WalkParameters walkParameters, Set<String> availableModes) {
 		this.stopIndex = stopIndex;
-		this.stopToRoute = stopToRoute;
+		this.data = data;
 		this.availableModes = availableModes;
 		this.walkParameters = walkParameters;
 	}
@@ -53,13 +49,6 @@ public class TransitIsochroneService {
 		TransitIsochroneResponse response = new TransitIsochroneResponse();
 		response.requestIndex = request.requestIndex;
 
-		PriorityQueue<Pair<TransitStopFacility, Destination>> queue = new PriorityQueue<>((a, b) -> {
-			return Double.compare(a.getRight().travelTime, b.getRight().travelTime);
-		});
-
-		IdMap<TransitStopFacility, Destination> destinations = new IdMap<>(TransitStopFacility.class);
-		IdMap<TransitStopFacility, Double> minimumTravelTime = new IdMap<>(TransitStopFacility.class);
-
 		Collection<TransitStopFacility> originCandidates = stopIndex.getDisk(request.originX, request.originY,
 				request.maximumAccessDistance_km * 1e3);
 
@@ -67,23 +56,6 @@ public class TransitIsochroneService {
 			originCandidates.add(stopIndex.getClosest(request.originX, request.originY));
 		}
 
-		for (TransitStopFacility originFacility : originCandidates) {
-			Coord facilityCoord = originFacility.getCoord();
-
-			double accessTime = 0.0;
-
-			if (request.considerAccess) {
-				accessTime = CoordUtils.calcEuclideanDistance(new Coord(request.originX, request.originY),
-						facilityCoord) * walkParameters.beelineWalkFactor() / walkParameters.beelineWalkSpeed_m_s();
-			}
-
-			Destination originDestination = new Destination(facilityCoord.getX(), facilityCoord.getY(), accessTime, 0,
-					true, originFacility.getId(), originFacility.getId(), accessTime, 0.0, 0.0);
-			queue.add(Pair.of(originFacility, originDestination));
-			destinations.put(originFacility.getId(), originDestination);
-			minimumTravelTime.put(originFacility.getId(), accessTime);
-		}
-
 		Set<String> restrictedModes = getRestrictedModes(request);
 
 		if (request.maximumTravelTime_min == null) {
@@ -94,118 +66,71 @@ public class TransitIsochroneService {
 			Verify.verifyNotNull(request.maximumTravelTime_min);
 		}
 
-		while (!queue.isEmpty()) {
-			var currentItem = queue.poll();
-
-			double currentTravelTime = currentItem.getRight().travelTime;
-			int currentTransfers = currentItem.getRight().transfers;
-			double currentAccessTime = currentItem.getRight().accessTime;
-			double currentTransferTime = currentItem.getRight().transferTime;
-			double currentWaitTime = currentItem.getRight().waitTime;
-
-			TransitStopFacility currentFacility = currentItem.getLeft();
-			Coord currentCoord = currentFacility.getCoord();
-
-			Collection<TransitStopFacility> nextFacilityCandidates = stopIndex.getDisk(currentCoord.getX(),
-					currentCoord.getY(), request.maximumTransferDistance_km * 1e3);
-
-			for (TransitStopFacility nextFacilityCandidate : nextFacilityCandidates) {
-				Set<TransitRoute> routes = stopToRoute.getOrDefault(currentFacility.getId(), Collections.emptySet());
-				double transferTravelTime = CoordUtils.calcEuclideanDistance(currentCoord,
-						nextFacilityCandidate.getCoord()) * walkParameters.beelineWalkFactor()
-						/ walkParameters.beelineWalkSpeed_m_s();
-				double nextTransferTime = currentTransferTime + transferTravelTime;
-
-				for (TransitRoute route : routes) {
-					if (restrictedModes.contains(route.getTransportMode())) {
-						continue;
-					}
-
-					TransitRouteStop currentStop = route.getStop(currentFacility);
-					int stopIndex = route.getStops().indexOf(currentStop);
-
-					for (Departure departure : route.getDepartures().values()) {
-						double conectionDepartureTime = departure.getDepartureTime()
-								+ currentStop.getDepartureOffset().seconds();
-
-						if (conectionDepartureTime >= currentTravelTime + request.departureTime_s
-								+ transferTravelTime) {
-							double waitTime = conectionDepartureTime - currentTravelTime - transferTravelTime
-									- request.departureTime_s;
-							double nextWaitTime = currentWaitTime + waitTime;
+		double maximumTravelTime = request.maximumTravelTime_min == null ? Double.POSITIVE_INFINITY
+				: request.maximumTravelTime_min * 60.0;
+		int maximumRounds = request.maximumTransfers == null ? Integer.MAX_VALUE : request.maximumTransfers + 1;
 
-							for (int i = stopIndex + 1; i < route.getStops().size(); i++) {
-								TransitRouteStop nextStopCandidate = route.getStops().get(i);
-								TransitStopFacility nextFacility = nextStopCandidate.getStopFacility();
-								double connectionArrivalTime = departure.getDepartureTime()
-										+ nextStopCandidate.getArrivalOffset().seconds();
-								double nextTravelTime = connectionArrivalTime - request.departureTime_s;
+		TransitIsochroneSearch search = searchPool.poll();
 
-								if (nextTravelTime < minimumTravelTime.getOrDefault(nextFacility.getId(),
-										Double.POSITIVE_INFINITY)) {
-
-									int nextTransfers = currentTransfers + (currentItem.getRight().isOrigin ? 0 : 1);
+		if (search == null) {
+			search = new TransitIsochroneSearch(data);
+		}
 
-									boolean explore = true;
+		try {
+			search.reset();
 
-									if (request.maximumTravelTime_min != null
-											&& nextTravelTime > request.maximumTravelTime_min * 60.0) {
-										explore = false;
-									}
+			for (TransitStopFacility originFacility : originCandidates) {
+				double accessTime = 0.0;
 
-									if (request.maximumTransfers != null && nextTransfers > request.maximumTransfers) {
-										explore = false;
-									}
+				if (request.considerAccess) {
+					accessTime = CoordUtils.calcEuclideanDistance(new Coord(request.originX, request.originY),
+							originFacility.getCoord()) * walkParameters.beelineWalkFactor()
+							/ walkParameters.beelineWalkSpeed_m_s();
+				}
 
-									if (explore) {
-										Coord nextCoord = nextStopCandidate.getStopFacility().getCoord();
+				search.addOrigin(data.getIndex(originFacility), accessTime);
+			}
 
-										Destination nextDestination = new Destination(nextCoord.getX(),
-												nextCoord.getY(), nextTravelTime, nextTransfers, false,
-												currentFacility.getId(), nextFacility.getId(), currentAccessTime,
-												nextTransferTime, nextWaitTime);
+			search.run(request.departureTime_s, maximumTravelTime, maximumRounds,
+					data.getRestrictedModes(restrictedModes),
+					data.getTransferGraph(request.maximumTransferDistance_km * 1e3));
+
+			for (int index = 0; index < data.stopCount; index++) {
+				if (search.travelTime[index] < Double.POSITIVE_INFINITY) {
+					TransitIsochroneResponse.Stop stop = new TransitIsochroneResponse.Stop();
+					response.stops.add(stop);
+
+					TransitStopFacility facility = data.stops[index];
+					double travelTime = search.travelTime[index];
+
+					stop.x = facility.getCoord().getX();
+					stop.y = facility.getCoord().getY();
+					stop.arrivalTime_s = travelTime + request.departureTime_s;
+					stop.totalTravelTime_min = travelTime / 60.0;
+					stop.isOrigin = search.isOrigin[index];
+					stop.transferTime_min = search.transferTime[index] / 60.0;
+					stop.waitTime_min = search.waitTime[index] / 60.0;
+					stop.inVehicleTime_min = (travelTime - search.accessTime[index] - search.waitTime[index]
+							- search.transferTime[index]) / 60.0;
+					stop.transfers = search.transfers[index];
+
+					if (request.considerAccess) {
+						stop.acessTime_min = search.accessTime[index] / 60.0;
+					}
 
-										destinations.put(nextFacility.getId(), nextDestination);
-										queue.add(Pair.of(nextFacility, nextDestination));
-									}
+					if (request.provideStops) {
+						stop.accessStopId = data.stops[search.boardingStop[index]].getId().toString();
+						stop.egressStopId = facility.getId().toString();
+					}
 
-									minimumTravelTime.put(nextFacility.getId(), nextTravelTime);
-								}
-							}
-						}
+					if (request.provideGeometry) {
+						WKTWriter writer = new WKTWriter();
+						stop.geometry = writer.write(geometryFactory.createPoint(new Coordinate(stop.x, stop.y)));
 					}
 				}
 			}
-		}
-
-		for (Destination destination : destinations.values()) {
-			TransitIsochroneResponse.Stop stop = new TransitIsochroneResponse.Stop();
-			response.stops.add(stop);
-
-			stop.x = destination.x;
-			stop.y = destination.y;
-			stop.arrivalTime_s = destination.travelTime + request.departureTime_s;
-			stop.totalTravelTime_min = destination.travelTime / 60.0;
-			stop.isOrigin = destination.isOrigin;
-			stop.transferTime_min = destination.transferTime / 60.0;
-			stop.waitTime_min = destination.waitTime / 60.0;
-			stop.inVehicleTime_min = (destination.travelTime - destination.accessTime - destination.waitTime
-					- destination.transferTime) / 60.0;
-			stop.transfers = destination.transfers;
-
-			if (request.considerAccess) {
-				stop.acessTime_min = destination.accessTime / 60.0;
-			}
-
-			if (request.provideStops) {
-				stop.accessStopId = destination.accessId.toString();
-				stop.egressStopId = destination.egressId.toString();
-			}
-
-			if (request.provideGeometry) {
-				WKTWriter writer = new WKTWriter();
-				stop.geometry = writer.write(geometryFactory.createPoint(new Coordinate(stop.x, stop.y)));
-			}
+		} finally {
+			searchPool.add(search);
 		}
 
 		return response;
@@ -226,31 +151,22 @@ public class TransitIsochroneService {
 		}
 	}
 
-	private record Destination(double x, double y, double travelTime, int transfers, boolean isOrigin,
-			Id<TransitStopFacility> accessId, Id<TransitStopFacility> egressId, double accessTime, double transferTime,
-			double waitTime) {
-	}
-
 	static public TransitIsochroneService create(Config config, TransitSchedule schedule,
 			TransitConfiguration configuration, WalkConfiguration walkConfiguration) {
 		QuadTree<TransitStopFacility> stopIndex = QuadTrees.createQuadTree(schedule.getFacilities().values(),
 				e -> e.getCoord(), 0.0);
 
-		IdMap<TransitStopFacility, Set<TransitRoute>> stopToRoute = new IdMap<>(TransitStopFacility.class);
 		Set<String> availableModes = new HashSet<>();
 
 		for (TransitLine transitLine : schedule.getTransitLines().values()) {
 			for (TransitRoute transitRoute : transitLine.getRoutes().values()) {
 				availableModes.add(transitRoute.getTransportMode());
-
-				for (TransitRouteStop stop : transitRoute.getStops()) {
-					stopToRoute.computeIfAbsent(stop.getStopFacility().getId(), id -> new HashSet<>())
-							.add(transitRoute);
-				}
 			}
 		}
 
 		WalkParameters walkParameters = TransitRouterService.createWalkParameters(config, walkConfiguration);
-		return new TransitIsochroneService(stopIndex, stopToRoute, walkParameters, availableModes);
+		TransitIsochroneData data = new TransitIsochroneData(schedule, stopIndex, walkParameters);
+
+		return new TransitIsochroneService(stopIndex, data, walkParameters, availableModes);
 	}
 }
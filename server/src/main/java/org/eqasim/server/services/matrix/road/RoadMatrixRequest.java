@@ -0,0 +1,29 @@
+package org.eqasim.server.services.matrix.road;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class RoadMatrixRequest {
+	@JsonProperty("request_index")
+	public int requestIndex = 0;
+
+	@JsonProperty("origin_x")
+	public double[] originX = new double[0];
+
+	@JsonProperty("origin_y")
+	public double[] originY = new double[0];
+
+	@JsonProperty("destination_x")
+	public double[] destinationX = new double[0];
+
+	@JsonProperty("destination_y")
+	public double[] destinationY = new double[0];
+
+	@JsonProperty("departure_time_s")
+	public double departureTime_s;
+
+	@JsonProperty("maximum_travel_time_min")
+	public Double maximumTravelTime_min = null;
+
+	@JsonProperty("binary")
+	public boolean binary = false;
+}
@@ -0,0 +1,80 @@
+package org.eqasim.server.services.matrix.road;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Travel times and distances between all origins and destinations. Matrix
+ * values are stored row by row, so the value for origin i and destination j is
+ * found at index i * destinations + j. Pairs that cannot be reached are NaN.
+ */
+public class RoadMatrixResponse {
+	@JsonProperty("request_index")
+	public int requestIndex = 0;
+
+	@JsonProperty("origins")
+	public int origins;
+
+	@JsonProperty("destinations")
+	public int destinations;
+
+	@JsonProperty("in_vehicle_time_min")
+	public float[] inVehicleTime_min;
+
+	@JsonProperty("in_vehicle_distance_km")
+	public float[] inVehicleDistance_km;
+
+	@JsonProperty("access_time_min")
+	public float[] accessTime_min;
+
+	@JsonProperty("access_distance_km")
+	public float[] accessDistance_km;
+
+	@JsonProperty("egress_time_min")
+	public float[] egressTime_min;
+
+	@JsonProperty("egress_distance_km")
+	public float[] egressDistance_km;
+
+	/**
+	 * Writes the response in a compact binary format: the request index and the
+	 * numbers of origins and destinations as 32-bit integers, followed by the
+	 * in-vehicle times and distances (origins x destinations) and the access
+	 * (origins) and egress (destinations) times and distances as 32-bit floats,
+	 * all in little-endian byte order.
+	 */
+	public void writeBinary(OutputStream outputStream) throws IOException {
+		DataOutputStream dataStream = new DataOutputStream(outputStream);
+
+		ByteBuffer header = ByteBuffer.allocate(3 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(requestIndex).putInt(origins).putInt(destinations);
+		dataStream.write(header.array());
+
+		for (float[] values : new float[][] { inVehicleTime_min, inVehicleDistance_km, accessTime_min,
+				accessDistance_km, egressTime_min, egressDistance_km }) {
+			writeValues(dataStream, values);
+		}
+
+		dataStream.flush();
+	}
+
+	static private void writeValues(DataOutputStream dataStream, float[] values) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(Float.BYTES * 8192).order(ByteOrder.LITTLE_ENDIAN);
+
+		for (int k = 0; k < values.length; k++) {
+			buffer.putFloat(values[k]);
+
+			if (!buffer.hasRemaining()) {
+				dataStream.write(buffer.array(), 0, buffer.position());
+				buffer.clear();
+			}
+		}
+
+		dataStream.write(buffer.array(), 0, buffer.position());
+	}
+}
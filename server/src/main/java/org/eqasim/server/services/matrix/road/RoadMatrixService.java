@@ -0,0 +1,174 @@
+package org.eqasim.server.services.matrix.road;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.eqasim.core.misc.LinkSnapper;
+import org.eqasim.server.execution.RoutingExecutor;
+import org.eqasim.server.services.WalkConfiguration;
+import org.eqasim.server.services.isochrone.road.RoadIsochroneGraph;
+import org.eqasim.server.services.isochrone.road.RoadIsochroneSearch;
+import org.eqasim.server.services.router.road.RoadRouterService;
+import org.eqasim.server.services.router.road.RoadRouterService.WalkParameters;
+import org.eqasim.server.services.travel_time.RoadTravelTime;
+import org.eqasim.server.services.travel_time.RoadTravelTimeManager;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.config.Config;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Calculates road travel time and distance matrices between sets of origins
+ * and destinations. Coordinates are snapped to links as in the
+ * {@link RoadRouterService}, using the shared {@link LinkSnapper}. For each
+ * origin, one search is performed on the shared road graph, departing after the
+ * access walk, which stops as soon as all destinations have been settled.
+ * Every origin is one task of the executor, so large matrices are interleaved
+ * with concurrent requests.
+ */
+public class RoadMatrixService {
+	private final RoutingExecutor executor;
+
+	private final LinkSnapper linkSnapper;
+	private final RoadIsochroneGraph graph;
+	private final WalkParameters walkParameters;
+	private final RoadTravelTimeManager travelTimeManager;
+
+	private final ConcurrentLinkedQueue<RoadIsochroneSearch> searchPool = new ConcurrentLinkedQueue<>();
+
+	RoadMatrixService(RoadIsochroneGraph graph, LinkSnapper linkSnapper, WalkParameters walkParameters,
+			RoadTravelTimeManager travelTimeManager, RoutingExecutor executor) {
+		this.graph = graph;
+		this.linkSnapper = linkSnapper;
+		this.walkParameters = walkParameters;
+		this.travelTimeManager = travelTimeManager;
+		this.executor = executor;
+	}
+
+	public RoadMatrixResponse processRequest(RoadMatrixRequest request)
+			throws InterruptedException, ExecutionException {
+		Preconditions.checkArgument(request.originX.length == request.originY.length);
+		Preconditions.checkArgument(request.destinationX.length == request.destinationY.length);
+
+		int origins = request.originX.length;
+		int destinations = request.destinationX.length;
+
+		RoadMatrixResponse response = new RoadMatrixResponse();
+		response.requestIndex = request.requestIndex;
+		response.origins = origins;
+		response.destinations = destinations;
+
+		response.accessTime_min = new float[origins];
+		response.accessDistance_km = new float[origins];
+		response.egressTime_min = new float[destinations];
+		response.egressDistance_km = new float[destinations];
+
+		int[] originNodes = new int[origins];
+		int[] destinationNodes = new int[destinations];
+
+		for (int i = 0; i < origins; i++) {
+			Coord coord = new Coord(request.originX[i], request.originY[i]);
+			Node node = linkSnapper.getNearestLink(coord).getToNode();
+			originNodes[i] = graph.getIndex(node);
+
+			double distance = CoordUtils.calcEuclideanDistance(coord, node.getCoord());
+			response.accessDistance_km[i] = (float) (distance * 1e-3);
+			response.accessTime_min[i] = (float) (getWalkTime(distance) / 60.0);
+		}
+
+		boolean[] isTarget = new boolean[graph.size()];
+		int targetCount = 0;
+
+		for (int j = 0; j < destinations; j++) {
+			Coord coord = new Coord(request.destinationX[j], request.destinationY[j]);
+			Node node = linkSnapper.getNearestLink(coord).getFromNode();
+			destinationNodes[j] = graph.getIndex(node);
+
+			if (!isTarget[destinationNodes[j]]) {
+				isTarget[destinationNodes[j]] = true;
+				targetCount++;
+			}
+
+			double distance = CoordUtils.calcEuclideanDistance(node.getCoord(), coord);
+			response.egressDistance_km[j] = (float) (distance * 1e-3);
+			response.egressTime_min[j] = (float) (getWalkTime(distance) / 60.0);
+		}
+
+		response.inVehicleTime_min = new float[origins * destinations];
+		response.inVehicleDistance_km = new float[origins * destinations];
+
+		double maximumTravelTime = request.maximumTravelTime_min == null ? Double.POSITIVE_INFINITY
+				: request.maximumTravelTime_min * 60.0;
+
+		RoadTravelTime travelTime = travelTimeManager.get();
+		double departureTime = request.departureTime_s;
+
+		int finalTargetCount = targetCount;
+
+		List<Callable<Void>> callables = new ArrayList<>(origins);
+
+		for (int origin = 0; origin < origins; origin++) {
+			int i = origin;
+
+			callables.add(() -> {
+				RoadIsochroneSearch search = searchPool.poll();
+
+				if (search == null) {
+					search = new RoadIsochroneSearch(graph);
+				}
+
+				try {
+					search.reset();
+					search.addOrigin(originNodes[i], 0.0, 0.0);
+					search.run(travelTime, departureTime + response.accessTime_min[i] * 60.0, maximumTravelTime,
+							isTarget, finalTargetCount);
+
+					fillRow(response, search, i, destinationNodes);
+				} finally {
+					searchPool.add(search);
+				}
+
+				return null;
+			});
+		}
+
+		for (Future<Void> future : executor.openSession().invokeAll(callables)) {
+			future.get();
+		}
+
+		return response;
+	}
+
+	private void fillRow(RoadMatrixResponse response, RoadIsochroneSearch search, int origin,
+			int[] destinationNodes) {
+		int offset = origin * destinationNodes.length;
+
+		for (int j = 0; j < destinationNodes.length; j++) {
+			double travelTime = search.getTravelTime(destinationNodes[j]);
+
+			if (travelTime < Double.POSITIVE_INFINITY) {
+				response.inVehicleTime_min[offset + j] = (float) (travelTime / 60.0);
+				response.inVehicleDistance_km[offset + j] = (float) (search.getDistance(destinationNodes[j]) * 1e-3);
+			} else {
+				response.inVehicleTime_min[offset + j] = Float.NaN;
+				response.inVehicleDistance_km[offset + j] = Float.NaN;
+			}
+		}
+	}
+
+	private double getWalkTime(double distance) {
+		return distance * walkParameters.beelineWalkFactor() / walkParameters.beelineWalkSpeed_m_s();
+	}
+
+	static public RoadMatrixService create(Config config, RoadIsochroneGraph graph, LinkSnapper linkSnapper,
+			WalkConfiguration configuration, RoadTravelTimeManager travelTimeManager, RoutingExecutor executor) {
+		WalkParameters walkParameters = RoadRouterService.createWalkParameters(config, configuration);
+		return new RoadMatrixService(graph, linkSnapper, walkParameters, travelTimeManager, executor);
+	}
+}
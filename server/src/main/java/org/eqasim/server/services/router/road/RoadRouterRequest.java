@@ -1,5 +1,7 @@
 package org.eqasim.server.services.router.road;
 
+import org.eqasim.server.services.GeometryFormat;
+
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class RoadRouterRequest {
@@ -26,6 +28,9 @@ public class RoadRouterRequest {
 
 	@JsonProperty("provide_geometry")
 	public boolean provideGeometry = false;
+
+	@JsonProperty("geometry_format")
+	public GeometryFormat geometryFormat = GeometryFormat.WKT;
 	
 	@JsonProperty("access_egress_radius_km")
 	public Double accessEgressRadius_km = null;
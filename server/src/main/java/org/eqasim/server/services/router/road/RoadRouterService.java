@@ -4,12 +4,16 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
+import org.eqasim.server.services.CacheConfiguration;
+import org.eqasim.server.services.GeometryWriter;
+import org.eqasim.server.services.RoutingCache;
 import org.eqasim.server.services.WalkConfiguration;
 import org.eqasim.server.services.router.road.RoadRouterResponse.LinkRecord;
+import org.eqasim.server.services.travel_time.RoadTravelTime;
+import org.eqasim.server.services.travel_time.RoadTravelTimeManager;
 import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.io.WKTWriter;
 import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
@@ -21,42 +25,109 @@ import org.matsim.core.router.costcalculators.OnlyTimeDependentTravelDisutility;
 import org.matsim.core.router.speedy.SpeedyALTFactory;
 import org.matsim.core.router.util.LeastCostPathCalculator;
 import org.matsim.core.router.util.LeastCostPathCalculator.Path;
-import org.matsim.core.router.util.TravelDisutility;
-import org.matsim.core.router.util.TravelTime;
-import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
 import org.matsim.core.utils.collections.QuadTree;
 import org.matsim.core.utils.collections.QuadTrees;
 import org.matsim.core.utils.geometry.CoordUtils;
 
 public class RoadRouterService {
-	private final static GeometryFactory geometryFactory = new GeometryFactory();
-
-	private final TravelTime travelTime = new FreeSpeedTravelTime();
-	private final TravelDisutility travelDisutility = new OnlyTimeDependentTravelDisutility(travelTime);
-
+	private final Network network;
 	private final WalkParameters walkParameters;
+	private final int threads;
 
 	private final QuadTree<? extends Link> linkIndex;
 
 	private final SpeedyALTFactory routerFactory = new SpeedyALTFactory();
-	private final ConcurrentLinkedQueue<LeastCostPathCalculator> routerPool = new ConcurrentLinkedQueue<>();
+	private volatile RouterState state;
+
+	private final RoutingCache<PathKey, Path> cache;
+	private final double departureTimeBucket_s;
 
-	RoadRouterService(Network network, QuadTree<? extends Link> linkIndex, WalkParameters walkParameters, int threads) {
+	RoadRouterService(Network network, QuadTree<? extends Link> linkIndex, WalkParameters walkParameters, int threads,
+			CacheConfiguration cacheConfiguration, RoadTravelTimeManager travelTimeManager) {
+		this.network = network;
 		this.walkParameters = walkParameters;
+		this.threads = threads;
 		this.linkIndex = linkIndex;
+		this.cache = new RoutingCache<>(cacheConfiguration.maximumSize);
+		this.departureTimeBucket_s = cacheConfiguration.departureTimeBucket_s;
+
+		this.state = createState(0, travelTimeManager.get());
+		travelTimeManager.addListener(this::updateTravelTime);
+	}
+
+	/**
+	 * Routers that operate on one travel time. When the travel time is replaced,
+	 * a new state is created and requests in progress keep using the old one.
+	 */
+	private record RouterState(int version, RoadTravelTime travelTime,
+			ConcurrentLinkedQueue<LeastCostPathCalculator> routerPool) {
+	}
+
+	private RouterState createState(int version, RoadTravelTime travelTime) {
+		RouterState state = new RouterState(version, travelTime, new ConcurrentLinkedQueue<>());
 
 		for (int k = 0; k < threads; k++) {
-			routerPool.add(createRouterInstance(network));
+			state.routerPool().add(createRouterInstance(travelTime));
 		}
+
+		return state;
 	}
 
-	private LeastCostPathCalculator createRouterInstance(Network network) {
-		return routerFactory.createPathCalculator(network, travelDisutility, travelTime);
+	private LeastCostPathCalculator createRouterInstance(RoadTravelTime travelTime) {
+		return routerFactory.createPathCalculator(network, new OnlyTimeDependentTravelDisutility(travelTime),
+				travelTime);
+	}
+
+	private void updateTravelTime(RoadTravelTime travelTime) {
+		state = createState(state.version() + 1, travelTime);
+		cache.clear();
+	}
+
+	/**
+	 * Paths are cached per pair of nodes, departure time bucket and travel time
+	 * version. With caching enabled, the path is calculated for the start of the
+	 * bucket in which the departure takes place. The times of the response are
+	 * always obtained by traversing the path from the actual departure time.
+	 */
+	private record PathKey(Id<Node> fromNodeId, Id<Node> toNodeId, double departureTime, int version) {
+	}
+
+	private Path calculatePath(RouterState state, Node fromNode, Node toNode, double departureTime) {
+		if (!cache.isEnabled()) {
+			return routePath(state, fromNode, toNode, departureTime);
+		}
+
+		double bucketTime = Math.floor(departureTime / departureTimeBucket_s) * departureTimeBucket_s;
+
+		return cache.get(new PathKey(fromNode.getId(), toNode.getId(), bucketTime, state.version()), key -> {
+			return routePath(state, fromNode, toNode, key.departureTime());
+		});
+	}
+
+	private Path routePath(RouterState state, Node fromNode, Node toNode, double departureTime) {
+		LeastCostPathCalculator router = state.routerPool().poll();
+
+		if (router == null) {
+			router = createRouterInstance(state.travelTime());
+		}
+
+		try {
+			return router.calcLeastCostPath(fromNode, toNode, departureTime, null, null);
+		} finally {
+			state.routerPool().add(router);
+		}
+	}
+
+	public RoutingCache<?, ?> getCache() {
+		return cache;
 	}
 
 	public RoadRouterResponse processRequest(RoadRouterRequest request) {
+		RouterState state = this.state;
 		RoadRouterResponse bestResponse = null;
 
+		GeometryWriter geometryWriter = request.provideGeometry ? new GeometryWriter(request.geometryFormat) : null;
+
 		Coord fromCoord = new Coord(request.originX, request.originY);
 		Coord toCoord = new Coord(request.destinationX, request.destinationY);
 
@@ -101,52 +172,53 @@ public class RoadRouterService {
 
 				double departureTime = request.departureTime_s + response.accessTime_min * 60.0;
 
-				LeastCostPathCalculator router = routerPool.poll();
-				Path path = router.calcLeastCostPath(fromNode, toNode, departureTime, null, null);
-				routerPool.add(router);
-
-				response.inVehicleTime_min = path.travelTime / 60.0;
-				response.inVehicleDistance_km = RouteUtils.calcDistance(path) * 1e-3;
-				response.arrivalTime_s = departureTime + path.travelTime;
-				response.totalTravelTime_min = (response.arrivalTime_s - request.departureTime_s) / 60.0;
+				Path path = calculatePath(state, fromNode, toNode, departureTime);
 
+				// The path may have been calculated for an earlier departure time, so the
+				// travel time is obtained from the traversal of its links
 				if (request.provideLinks) {
 					response.links = new LinkedList<>();
+				}
 
-					double currentTime = departureTime;
+				double currentTime = departureTime;
 
-					for (Link link : path.links) {
+				for (Link link : path.links) {
+					double enterTime = currentTime;
+					currentTime += state.travelTime().getLinkTravelTime(link, currentTime, null, null);
+
+					if (request.provideLinks) {
 						LinkRecord linkRecord = new LinkRecord();
 						linkRecord.id = link.getId().toString();
-						linkRecord.enterTime_s = currentTime;
-
-						currentTime += travelTime.getLinkTravelTime(link, currentTime, null, null);
+						linkRecord.enterTime_s = enterTime;
 						linkRecord.exitTime_s = currentTime;
 
 						response.links.add(linkRecord);
 					}
 				}
 
-				if (request.provideGeometry) {
-					WKTWriter writer = new WKTWriter();
+				response.inVehicleTime_min = (currentTime - departureTime) / 60.0;
+				response.inVehicleDistance_km = RouteUtils.calcDistance(path) * 1e-3;
+				response.arrivalTime_s = currentTime;
+				response.totalTravelTime_min = (response.arrivalTime_s - request.departureTime_s) / 60.0;
 
+				if (request.provideGeometry) {
 					Coordinate[] roadCoordinates = new Coordinate[path.nodes.size()];
 					for (int k = 0; k < path.nodes.size(); k++) {
 						Node node = path.nodes.get(k);
 						roadCoordinates[k] = new Coordinate(node.getCoord().getX(), node.getCoord().getY());
 					}
 
-					response.roadGeometry = writer.write(geometryFactory.createLineString(roadCoordinates));
+					response.roadGeometry = geometryWriter.writeLineString(roadCoordinates);
 
 					Coordinate[] accessCoordinates = new Coordinate[2];
 					accessCoordinates[0] = new Coordinate(request.originX, request.originY);
 					accessCoordinates[1] = new Coordinate(fromNode.getCoord().getX(), fromNode.getCoord().getY());
-					response.accessGeometry = writer.write(geometryFactory.createLineString(accessCoordinates));
+					response.accessGeometry = geometryWriter.writeLineString(accessCoordinates);
 
 					Coordinate[] egressCoordinates = new Coordinate[2];
 					egressCoordinates[0] = new Coordinate(toNode.getCoord().getX(), toNode.getCoord().getY());
 					egressCoordinates[1] = new Coordinate(request.destinationX, request.destinationY);
-					response.egressGeometry = writer.write(geometryFactory.createLineString(egressCoordinates));
+					response.egressGeometry = geometryWriter.writeLineString(egressCoordinates);
 				}
 
 				if (bestResponse == null || bestResponse.totalTravelTime_min > response.totalTravelTime_min) {
@@ -159,11 +231,12 @@ public class RoadRouterService {
 	}
 
 	static public RoadRouterService create(Config config, Network network, WalkConfiguration configuration,
-			int threads) {
+			CacheConfiguration cacheConfiguration, RoadTravelTimeManager travelTimeManager, int threads) {
 		WalkParameters walkParameters = createWalkParameters(config, configuration);
 		QuadTree<? extends Link> linkIndex = QuadTrees.createQuadTree(network.getLinks().values());
 
-		return new RoadRouterService(network, linkIndex, walkParameters, threads);
+		return new RoadRouterService(network, linkIndex, walkParameters, threads, cacheConfiguration,
+				travelTimeManager);
 	}
 
 	static public record WalkParameters(double beelineWalkFactor, double beelineWalkSpeed_m_s) {
@@ -1,5 +1,7 @@
 package org.eqasim.server.services.router.transit;
 
+import org.eqasim.server.services.GeometryFormat;
+
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class TransitRouterRequest {
@@ -27,6 +29,9 @@ public class TransitRouterRequest {
 	@JsonProperty("provide_geometry")
 	public boolean provideGeometry = false;
 
+	@JsonProperty("geometry_format")
+	public GeometryFormat geometryFormat = GeometryFormat.WKT;
+
 	@JsonProperty("utilities")
 	public TransitUtilities utilities = null;
 }
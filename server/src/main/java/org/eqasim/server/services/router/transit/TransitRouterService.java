@@ -1,25 +1,34 @@
 package org.eqasim.server.services.router.transit;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.eqasim.core.components.raptor.EqasimRaptorConfigGroup;
 import org.eqasim.core.components.raptor.EqasimRaptorUtils;
+import org.eqasim.core.misc.LinkSnapper;
+import org.eqasim.server.services.CacheConfiguration;
+import org.eqasim.server.services.GeometryWriter;
+import org.eqasim.server.services.RoutingCache;
 import org.eqasim.server.services.TransitConfiguration;
 import org.eqasim.server.services.WalkConfiguration;
 import org.eqasim.server.services.router.transit.TransitRouterResponse.Itinerary.ItineraryLeg.Type;
 import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.io.WKTWriter;
 import org.matsim.api.core.v01.Coord;
 import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Leg;
 import org.matsim.api.core.v01.population.PlanElement;
 import org.matsim.core.config.Config;
-import org.matsim.core.network.NetworkUtils;
+import org.matsim.api.core.v01.population.Route;
+import org.matsim.core.population.PopulationUtils;
 import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteUtils;
 import org.matsim.core.router.DefaultRoutingRequest;
 import org.matsim.core.utils.geometry.CoordUtils;
 import org.matsim.facilities.FacilitiesUtils;
@@ -29,12 +38,14 @@ import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
 import org.matsim.pt.transitSchedule.api.TransitSchedule;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.matsim.utils.objectattributes.attributable.AttributesImpl;
 
 import com.google.common.base.Verify;
 
 import ch.sbb.matsim.routing.pt.raptor.DefaultRaptorInVehicleCostCalculator;
 import ch.sbb.matsim.routing.pt.raptor.DefaultRaptorStopFinder;
 import ch.sbb.matsim.routing.pt.raptor.DefaultRaptorTransferCostCalculator;
+import ch.sbb.matsim.routing.pt.raptor.InitialStop;
 import ch.sbb.matsim.routing.pt.raptor.LeastCostRaptorRouteSelector;
 import ch.sbb.matsim.routing.pt.raptor.RaptorInVehicleCostCalculator;
 import ch.sbb.matsim.routing.pt.raptor.RaptorParameters;
@@ -48,7 +59,9 @@ import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData;
 import jakarta.annotation.Nullable;
 
 public class TransitRouterService {
-	private final static GeometryFactory geometryFactory = new GeometryFactory();
+	// Parameters only depend on the applied utilities, they are cached as long as
+	// the number of distinct utilities stays reasonable
+	private final static int MAXIMUM_CACHED_PARAMETERS = 1024;
 
 	private final RaptorRouteSelector routeSelector = new LeastCostRaptorRouteSelector();
 	private final RaptorInVehicleCostCalculator inVehicleCostCalculator = new DefaultRaptorInVehicleCostCalculator();
@@ -58,47 +71,283 @@ public class TransitRouterService {
 	private final Config config;
 	private final Network network;
 	private final TransitSchedule schedule;
+	private final LinkSnapper linkSnapper;
 
 	private final SwissRailRaptorData data;
 	private final TransitConfiguration configuration;
 	private final WalkConfiguration walkConfiguration;
 
+	private final RaptorParameters defaultParameters;
+	private final Map<TransitUtilities, RaptorParameters> parametersCache = new ConcurrentHashMap<>();
+
+	private final ConcurrentLinkedQueue<RouterInstance> routerPool = new ConcurrentLinkedQueue<>();
+
+	private final RoutingCache<SegmentKey, List<Leg>> cache;
+	private final RoutingCache<StopsKey, Stops> stopsCache;
+	private final double departureTimeBucket_s;
+
 	TransitRouterService(SwissRailRaptorData data, Config config, Network network, TransitConfiguration configuration,
-			WalkConfiguration walkConfiguration, TransitSchedule schedule) {
+			WalkConfiguration walkConfiguration, TransitSchedule schedule, LinkSnapper linkSnapper, int threads,
+			CacheConfiguration cacheConfiguration) {
 		this.data = data;
 		this.configuration = configuration;
 		this.config = config;
 		this.network = network;
 		this.walkConfiguration = walkConfiguration;
 		this.schedule = schedule;
+		this.linkSnapper = linkSnapper;
+
+		this.defaultParameters = createParameters(config, configuration, walkConfiguration, null, schedule);
+
+		this.cache = new RoutingCache<>(cacheConfiguration.maximumSize);
+		this.stopsCache = new RoutingCache<>(cacheConfiguration.maximumSize);
+		this.departureTimeBucket_s = cacheConfiguration.departureTimeBucket_s;
+
+		for (int k = 0; k < threads; k++) {
+			routerPool.add(createRouterInstance());
+		}
+	}
+
+	/**
+	 * A router with its internal state, which is reused across requests. The
+	 * parameters are set before each request.
+	 */
+	private class RouterInstance {
+		final SwissRailRaptor router;
+		RaptorParameters parameters;
+
+		RouterInstance() {
+			this.router = new SwissRailRaptor(data, person -> parameters, routeSelector, stopFinder,
+					inVehicleCostCalculator, transferCostCalculator);
+		}
+	}
+
+	private RouterInstance createRouterInstance() {
+		return new RouterInstance();
+	}
+
+	private RaptorParameters getParameters(@Nullable TransitUtilities utilities) {
+		if (utilities == null) {
+			return defaultParameters;
+		}
+
+		RaptorParameters parameters = parametersCache.get(utilities);
+
+		if (parameters == null) {
+			parameters = createParameters(config, configuration, walkConfiguration, utilities, schedule);
+
+			if (parametersCache.size() >= MAXIMUM_CACHED_PARAMETERS) {
+				parametersCache.clear();
+			}
+
+			parametersCache.put(utilities, parameters);
+		}
+
+		return parameters;
+	}
+
+	/**
+	 * The scheduled part of a route, from the first boarding to the last
+	 * alighting, is cached per boarding and alighting stop, exact time at which
+	 * the boarding stop is reached and utilities. All of its times are those of
+	 * the schedule.
+	 */
+	private record SegmentKey(Id<TransitStopFacility> accessStopId, Id<TransitStopFacility> egressStopId,
+			double stopTime, @Nullable TransitUtilities utilities) {
+	}
+
+	/**
+	 * The boarding and alighting stops are chosen once per snapped origin and
+	 * destination link, departure time bucket and utilities, by the last request
+	 * that was routed for them.
+	 */
+	private record StopsKey(Id<Link> fromLinkId, Id<Link> toLinkId, double departureTime,
+			@Nullable TransitUtilities utilities) {
+	}
+
+	private record Stops(Id<TransitStopFacility> accessStopId, Id<TransitStopFacility> egressStopId) {
+	}
+
+	private double quantizeDepartureTime(double value) {
+		return Math.floor(value / departureTimeBucket_s) * departureTimeBucket_s;
+	}
+
+	private List<? extends PlanElement> calculateRoute(Coord fromCoord, Link fromLink, Coord toCoord, Link toLink,
+			double departureTime, RaptorParameters parameters) {
+		Facility fromFacility = FacilitiesUtils.wrapLinkAndCoord(fromLink, fromCoord);
+		Facility toFacility = FacilitiesUtils.wrapLinkAndCoord(toLink, toCoord);
+
+		RouterInstance instance = routerPool.poll();
+
+		if (instance == null) {
+			instance = createRouterInstance();
+		}
+
+		try {
+			instance.parameters = parameters;
+			return instance.router.calcRoute(
+					DefaultRoutingRequest.withoutAttributes(fromFacility, toFacility, departureTime, null));
+		} finally {
+			routerPool.add(instance);
+		}
+	}
+
+	/**
+	 * Finds the access or egress walk to the given stop as the router calculates
+	 * it, or null if the stop is not within the search radius.
+	 */
+	@Nullable
+	private InitialStop findInitialStop(Facility fromFacility, Facility toFacility, double departureTime,
+			RaptorParameters parameters, RaptorStopFinder.Direction direction, Id<TransitStopFacility> stopId) {
+		for (InitialStop initialStop : stopFinder.findStops(fromFacility, toFacility, null, departureTime,
+				new AttributesImpl(), parameters, data, direction)) {
+			if (initialStop.stop.getId().equals(stopId)) {
+				return initialStop;
+			}
+		}
+
+		return null;
+	}
+
+	private Leg createWalkLeg(Id<Link> fromLinkId, Id<Link> toLinkId, double departureTime,
+			InitialStop initialStop) {
+		Route route = RouteUtils.createGenericRouteImpl(fromLinkId, toLinkId);
+		route.setDistance(initialStop.distance);
+		route.setTravelTime(initialStop.travelTime);
+
+		Leg leg = PopulationUtils.createLeg(TransportMode.walk);
+		leg.setDepartureTime(departureTime);
+		leg.setTravelTime(initialStop.travelTime);
+		leg.setRoute(route);
+
+		return leg;
+	}
+
+	/**
+	 * Composes the route from the cached scheduled part between the stops that
+	 * have been chosen for the snapped origin, destination and departure time
+	 * bucket. The access and egress walks to these stops are calculated for the
+	 * request. If the boarding stop is not reached at the exact time of a cached
+	 * part, or walking directly arrives earlier, the request is routed and the
+	 * scheduled part of the result is cached.
+	 */
+	private List<? extends PlanElement> calculateCachedRoute(Coord fromCoord, Link fromLink, Coord toCoord,
+			Link toLink, double departureTime, @Nullable TransitUtilities utilities, RaptorParameters parameters) {
+		Facility fromFacility = FacilitiesUtils.wrapLinkAndCoord(fromLink, fromCoord);
+		Facility toFacility = FacilitiesUtils.wrapLinkAndCoord(toLink, toCoord);
+
+		StopsKey stopsKey = new StopsKey(fromLink.getId(), toLink.getId(), quantizeDepartureTime(departureTime),
+				utilities);
+		Stops stops = stopsCache.getIfPresent(stopsKey);
+
+		if (stops != null) {
+			InitialStop access = findInitialStop(fromFacility, toFacility, departureTime, parameters,
+					RaptorStopFinder.Direction.ACCESS, stops.accessStopId());
+			InitialStop egress = findInitialStop(fromFacility, toFacility, departureTime, parameters,
+					RaptorStopFinder.Direction.EGRESS, stops.egressStopId());
+
+			List<Leg> segment = null;
+
+			if (access != null && egress != null) {
+				segment = cache.getIfPresent(new SegmentKey(stops.accessStopId(), stops.egressStopId(),
+						departureTime + access.travelTime, utilities));
+			}
+
+			if (segment != null) {
+				double arrivalTime = departureTime + access.travelTime;
+
+				for (Leg leg : segment) {
+					arrivalTime += leg.getRoute().getTravelTime().seconds();
+				}
+
+				double directWalkTime = CoordUtils.calcEuclideanDistance(fromCoord, toCoord)
+						/ parameters.getBeelineWalkSpeed();
+
+				if (departureTime + directWalkTime > arrivalTime + egress.travelTime) {
+					TransitStopFacility accessStop = schedule.getFacilities().get(stops.accessStopId());
+					TransitStopFacility egressStop = schedule.getFacilities().get(stops.egressStopId());
+
+					List<Leg> route = new ArrayList<>(segment.size() + 2);
+					route.add(createWalkLeg(fromLink.getId(), accessStop.getLinkId(), departureTime, access));
+					route.addAll(segment);
+					route.add(createWalkLeg(egressStop.getLinkId(), toLink.getId(), arrivalTime, egress));
+					return route;
+				}
+			}
+		}
+
+		List<? extends PlanElement> route = calculateRoute(fromCoord, fromLink, toCoord, toLink, departureTime,
+				parameters);
+
+		int firstIndex = -1;
+		int lastIndex = -1;
+
+		if (route != null) {
+			for (int index = 0; index < route.size(); index++) {
+				if (((Leg) route.get(index)).getRoute() instanceof TransitPassengerRoute) {
+					firstIndex = firstIndex < 0 ? index : firstIndex;
+					lastIndex = index;
+				}
+			}
+		}
+
+		if (firstIndex >= 0) {
+			TransitPassengerRoute firstRoute = (TransitPassengerRoute) ((Leg) route.get(firstIndex)).getRoute();
+			TransitPassengerRoute lastRoute = (TransitPassengerRoute) ((Leg) route.get(lastIndex)).getRoute();
+
+			double stopTime = departureTime;
+
+			for (int index = 0; index < firstIndex; index++) {
+				stopTime += ((Leg) route.get(index)).getRoute().getTravelTime().seconds();
+			}
+
+			List<Leg> segment = new ArrayList<>(lastIndex - firstIndex + 1);
+
+			for (int index = firstIndex; index <= lastIndex; index++) {
+				segment.add((Leg) route.get(index));
+			}
+
+			cache.put(new SegmentKey(firstRoute.getAccessStopId(), lastRoute.getEgressStopId(), stopTime, utilities),
+					List.copyOf(segment));
+			stopsCache.put(stopsKey, new Stops(firstRoute.getAccessStopId(), lastRoute.getEgressStopId()));
+		}
+
+		return route;
+	}
+
+	public RoutingCache<?, ?> getCache() {
+		return cache;
 	}
 
 	public TransitRouterResponse processRequest(TransitRouterRequest request, @Nullable TransitUtilities utilities) {
 		TransitRouterResponse response = new TransitRouterResponse();
 		response.requestIndex = request.requestIndex;
 
+		GeometryWriter geometryWriter = request.provideGeometry ? new GeometryWriter(request.geometryFormat) : null;
+
 		if (request.provideItinerary) {
 			response.itinerary = new TransitRouterResponse.Itinerary();
 		}
 
 		Coord fromCoord = new Coord(request.originX, request.originY);
 		Coord toCoord = new Coord(request.destinationX, request.destinationY);
+		double departureTime = request.departureTime_s;
 
-		Link fromLink = NetworkUtils.getNearestLink(network, fromCoord);
-		Link toLink = NetworkUtils.getNearestLink(network, toCoord);
-
-		Facility fromFacility = FacilitiesUtils.wrapLinkAndCoord(fromLink, fromCoord);
-		Facility toFacility = FacilitiesUtils.wrapLinkAndCoord(toLink, toCoord);
+		Link fromLink = linkSnapper.getNearestLink(fromCoord);
+		Link toLink = linkSnapper.getNearestLink(toCoord);
 
 		TransitUtilities appliedUtilities = mergeUtilities(utilities, request.utilities);
 
-		RaptorParameters parameters = createParameters(config, configuration, walkConfiguration, appliedUtilities,
-				schedule);
-		SwissRailRaptor router = new SwissRailRaptor(data, person -> parameters, routeSelector, stopFinder,
-				inVehicleCostCalculator, transferCostCalculator);
+		RaptorParameters parameters = getParameters(appliedUtilities);
 
-		List<? extends PlanElement> route = router.calcRoute(
-				DefaultRoutingRequest.withoutAttributes(fromFacility, toFacility, request.departureTime_s, null));
+		final List<? extends PlanElement> route;
+
+		if (cache.isEnabled()) {
+			route = calculateCachedRoute(fromCoord, fromLink, toCoord, toLink, departureTime, appliedUtilities,
+					parameters);
+		} else {
+			route = calculateRoute(fromCoord, fromLink, toCoord, toLink, departureTime, parameters);
+		}
 
 		if (route == null) {
 			double distance = CoordUtils.calcEuclideanDistance(fromCoord, toCoord);
@@ -108,7 +357,7 @@ public class TransitRouterService {
 			response.transferWalkDistance_km = distance * 1e-3;
 			response.transferWalkTime_min = travelTime / 60.0;
 			response.totalTravelTime_min = travelTime / 60.0;
-			response.arrivalTime_s = request.departureTime_s + travelTime;
+			response.arrivalTime_s = departureTime + travelTime;
 
 			if (request.provideItinerary) {
 				TransitRouterResponse.Itinerary.ItineraryLeg leg = new TransitRouterResponse.Itinerary.ItineraryLeg();
@@ -117,19 +366,17 @@ public class TransitRouterService {
 				leg.type = Type.transfer;
 				leg.mode = "walk";
 
-				leg.departureTime_s = request.departureTime_s;
-				leg.arrivalTime_s = request.departureTime_s + travelTime;
+				leg.departureTime_s = departureTime;
+				leg.arrivalTime_s = departureTime + travelTime;
 				leg.travelTime_min = travelTime / 60.0;
 				leg.distance_km = distance * 1e-3;
 
 				if (request.provideGeometry) {
-					WKTWriter writer = new WKTWriter();
-
 					Coordinate[] coordinates = new Coordinate[2];
 					coordinates[0] = new Coordinate(fromCoord.getX(), fromCoord.getY());
 					coordinates[1] = new Coordinate(toCoord.getX(), toCoord.getY());
 
-					leg.geometry = writer.write(geometryFactory.createLineString(coordinates));
+					leg.geometry = geometryWriter.writeLineString(coordinates);
 				}
 			}
 		} else if (route.size() == 1) {
@@ -143,7 +390,7 @@ public class TransitRouterService {
 			response.transferWalkDistance_km = distance * 1e-3;
 			response.transferWalkTime_min = travelTime / 60.0;
 			response.totalTravelTime_min = travelTime / 60.0;
-			response.arrivalTime_s = request.departureTime_s + travelTime;
+			response.arrivalTime_s = departureTime + travelTime;
 
 			if (request.provideItinerary) {
 				TransitRouterResponse.Itinerary.ItineraryLeg leg = new TransitRouterResponse.Itinerary.ItineraryLeg();
@@ -152,23 +399,21 @@ public class TransitRouterService {
 				leg.type = Type.transfer;
 				leg.mode = "walk";
 
-				leg.departureTime_s = request.departureTime_s;
-				leg.arrivalTime_s = request.departureTime_s + travelTime;
+				leg.departureTime_s = departureTime;
+				leg.arrivalTime_s = departureTime + travelTime;
 				leg.travelTime_min = travelTime / 60.0;
 				leg.distance_km = distance * 1e-3;
 
 				if (request.provideGeometry) {
-					WKTWriter writer = new WKTWriter();
-
 					Coordinate[] coordinates = new Coordinate[2];
 					coordinates[0] = new Coordinate(fromCoord.getX(), fromCoord.getY());
 					coordinates[1] = new Coordinate(toCoord.getX(), toCoord.getY());
 
-					leg.geometry = writer.write(geometryFactory.createLineString(coordinates));
+					leg.geometry = geometryWriter.writeLineString(coordinates);
 				}
 			}
 		} else {
-			double currentTime = request.departureTime_s;
+			double currentTime = departureTime;
 
 			int vehiclarLegs = 0;
 
@@ -210,8 +455,6 @@ public class TransitRouterService {
 						leg.distance_km = distance * 1e-3;
 
 						if (request.provideGeometry) {
-							WKTWriter writer = new WKTWriter();
-
 							final Coordinate previousCoordinate;
 							final Coordinate nextCoordinate;
 
@@ -250,7 +493,7 @@ public class TransitRouterService {
 							}
 
 							Coordinate[] coordinates = new Coordinate[] { previousCoordinate, nextCoordinate };
-							leg.geometry = writer.write(geometryFactory.createLineString(coordinates));
+							leg.geometry = geometryWriter.writeLineString(coordinates);
 						}
 					}
 
@@ -330,8 +573,7 @@ public class TransitRouterService {
 								coordinates[k] = new Coordinate(coords.get(k).getX(), coords.get(k).getY());
 							}
 
-							WKTWriter writer = new WKTWriter();
-							leg.geometry = writer.write(geometryFactory.createLineString(coordinates));
+							leg.geometry = geometryWriter.writeLineString(coordinates);
 						}
 
 						if (request.provideItinerary) { // stop before
@@ -348,14 +590,13 @@ public class TransitRouterService {
 							stop.name = stopFacility.getName();
 
 							stop.arrivalTime_s = currentTime;
-							stop.departureTime_s = passengerRoute.getBoardingTime().seconds();
+							stop.departureTime_s = boardingTime;
 
 							stop.waitTime_min = (stop.departureTime_s - stop.arrivalTime_s) / 60.0;
 
 							if (request.provideGeometry) {
-								WKTWriter writer = new WKTWriter();
 								Coordinate coordinate = new Coordinate(stop.x, stop.y);
-								stop.geometry = writer.write(geometryFactory.createPoint(coordinate));
+								stop.geometry = geometryWriter.writePoint(coordinate);
 							}
 						}
 
@@ -377,9 +618,8 @@ public class TransitRouterService {
 							stop.waitTime_min = 0.0;
 
 							if (request.provideGeometry) {
-								WKTWriter writer = new WKTWriter();
 								Coordinate coordinate = new Coordinate(stop.x, stop.y);
-								stop.geometry = writer.write(geometryFactory.createPoint(coordinate));
+								stop.geometry = geometryWriter.writePoint(coordinate);
 							}
 						}
 					}
@@ -484,11 +724,13 @@ public class TransitRouterService {
 	}
 
 	static public TransitRouterService create(Config config, Network network, TransitSchedule schedule,
-			TransitConfiguration configuration, WalkConfiguration walkConfiguration) {
+			LinkSnapper linkSnapper, TransitConfiguration configuration, WalkConfiguration walkConfiguration,
+			CacheConfiguration cacheConfiguration, int threads) {
 		RaptorStaticConfig staticConfig = createStaticConfig(config, configuration, walkConfiguration);
 		SwissRailRaptorData data = SwissRailRaptorData.create(schedule, null, staticConfig, network, null);
 
-		return new TransitRouterService(data, config, network, configuration, walkConfiguration, schedule);
+		return new TransitRouterService(data, config, network, configuration, walkConfiguration, schedule, linkSnapper,
+				threads, cacheConfiguration);
 	}
 
 	static public TransitUtilities mergeUtilities(TransitUtilities globalUtilities, TransitUtilities requestUtilities) {
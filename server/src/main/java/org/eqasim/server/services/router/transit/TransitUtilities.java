@@ -1,5 +1,7 @@
 package org.eqasim.server.services.router.transit;
 
+import java.util.Objects;
+
 public class TransitUtilities {
 	public Double rail_u_h = null;
 	public Double subway_u_h = null;
@@ -9,4 +11,27 @@ public class TransitUtilities {
 	public Double wait_u_h = null;
 	public Double walk_u_h = null;
 	public Double transfer_u = null;
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+
+		if (!(other instanceof TransitUtilities)) {
+			return false;
+		}
+
+		TransitUtilities utilities = (TransitUtilities) other;
+
+		return Objects.equals(rail_u_h, utilities.rail_u_h) && Objects.equals(subway_u_h, utilities.subway_u_h)
+				&& Objects.equals(bus_u_h, utilities.bus_u_h) && Objects.equals(tram_u_h, utilities.tram_u_h)
+				&& Objects.equals(other_u_h, utilities.other_u_h) && Objects.equals(wait_u_h, utilities.wait_u_h)
+				&& Objects.equals(walk_u_h, utilities.walk_u_h) && Objects.equals(transfer_u, utilities.transfer_u);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(rail_u_h, subway_u_h, bus_u_h, tram_u_h, other_u_h, wait_u_h, walk_u_h, transfer_u);
+	}
 }
@@ -0,0 +1,137 @@
+package org.eqasim.server.services.travel_time;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+
+import org.eqasim.core.components.travel_time.RecordedTravelTime;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * Immutable travel times per link and time bin, stored in one primitive array
+ * that is indexed by the index of the link id and the bin. An instance is
+ * shared by all routers and searches of the server. Times before the first bin
+ * use the first bin, times after the last bin use the last bin. Links that are
+ * not covered fall back to free-flow travel times.
+ */
+public class RoadTravelTime implements TravelTime {
+	private final double startTime;
+	private final double interval;
+	private final int bins;
+
+	private final double[] values;
+	private final int links;
+
+	private final String source;
+
+	RoadTravelTime(double startTime, double interval, int bins, double[] values, String source) {
+		this.startTime = startTime;
+		this.interval = interval;
+		this.bins = bins;
+		this.values = values;
+		this.links = values.length / bins;
+		this.source = source;
+	}
+
+	@Override
+	public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
+		int index = link.getId().index();
+
+		if (index < links) {
+			double value = values[index * bins + getBin(time)];
+
+			if (!Double.isNaN(value)) {
+				return value;
+			}
+		}
+
+		return link.getLength() / link.getFreespeed(time);
+	}
+
+	/**
+	 * Returns the travel time of the link with the given id index, which must be
+	 * part of the network from which the travel times have been created.
+	 */
+	public double getLinkTravelTime(int index, double time) {
+		return values[index * bins + getBin(time)];
+	}
+
+	private int getBin(double time) {
+		if (bins == 1 || time < startTime) {
+			return 0;
+		}
+
+		return Math.min(bins - 1, (int) ((time - startTime) / interval));
+	}
+
+	public double getStartTime() {
+		return startTime;
+	}
+
+	public double getInterval() {
+		return interval;
+	}
+
+	public int getBins() {
+		return bins;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * Samples the given travel time at the start of each bin for all links of the
+	 * network.
+	 */
+	static public RoadTravelTime create(Network network, TravelTime travelTime, double startTime, double endTime,
+			double interval, String source) {
+		int bins = Math.max(1, (int) Math.floor((endTime - startTime) / interval));
+		int links = Id.getNumberOfIds(Link.class);
+
+		double[] values = new double[links * bins];
+		Arrays.fill(values, Double.NaN);
+
+		for (Link link : network.getLinks().values()) {
+			int offset = link.getId().index() * bins;
+
+			for (int k = 0; k < bins; k++) {
+				values[offset + k] = travelTime.getLinkTravelTime(link, startTime + k * interval, null, null);
+			}
+		}
+
+		return new RoadTravelTime(startTime, interval, bins, values, source);
+	}
+
+	static public RoadTravelTime createFreeSpeed(Network network) {
+		return create(network, new FreeSpeedTravelTime(), 0.0, 1.0, 1.0, "free_speed");
+	}
+
+	/**
+	 * Reads travel times in the binary format of {@link RecordedTravelTime}.
+	 */
+	static public RoadTravelTime read(Network network, URL url) throws IOException {
+		try (InputStream inputStream = IOUtils.getInputStream(url)) {
+			return read(network, inputStream, url.toString());
+		}
+	}
+
+	/**
+	 * Reads uncompressed travel times in the binary format of
+	 * {@link RecordedTravelTime} from a stream, which is not closed.
+	 */
+	static public RoadTravelTime read(Network network, InputStream inputStream, String source) throws IOException {
+		RecordedTravelTime recordedTravelTime = RecordedTravelTime.readBinary(inputStream);
+
+		return create(network, recordedTravelTime, recordedTravelTime.getStartTime(),
+				recordedTravelTime.getEndTime(), recordedTravelTime.getInterval(), source);
+	}
+}
@@ -0,0 +1,37 @@
+package org.eqasim.server.services.travel_time;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Holds the road travel time that is currently used by the services. The
+ * travel time can be replaced while the server is running: requests that are
+ * already being processed finish with the travel time they started with, and
+ * listeners are notified so they can replace derived state (such as routers and
+ * caches).
+ */
+public class RoadTravelTimeManager {
+	private volatile RoadTravelTime travelTime;
+	private final List<Consumer<RoadTravelTime>> listeners = new CopyOnWriteArrayList<>();
+
+	public RoadTravelTimeManager(RoadTravelTime travelTime) {
+		this.travelTime = travelTime;
+	}
+
+	public RoadTravelTime get() {
+		return travelTime;
+	}
+
+	public void addListener(Consumer<RoadTravelTime> listener) {
+		listeners.add(listener);
+	}
+
+	public synchronized void update(RoadTravelTime travelTime) {
+		this.travelTime = travelTime;
+
+		for (Consumer<RoadTravelTime> listener : listeners) {
+			listener.accept(travelTime);
+		}
+	}
+}
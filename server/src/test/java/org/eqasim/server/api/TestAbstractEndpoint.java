@@ -0,0 +1,343 @@
+package org.eqasim.server.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+public class TestAbstractEndpoint {
+	private final ObjectMapper jsonMapper = new ObjectMapper();
+	private final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+
+	static public class Item {
+		@JsonProperty("request_index")
+		public int requestIndex;
+
+		@JsonProperty("value")
+		public int value;
+
+		public Item() {
+		}
+
+		Item(int requestIndex, int value) {
+			this.requestIndex = requestIndex;
+			this.value = value;
+		}
+	}
+
+	static private class Endpoint extends AbstractEndpoint {
+	}
+
+	/**
+	 * Collects the response and counts the written lines. If it is marked as
+	 * disconnected, every write fails like the stream of a client that has gone.
+	 */
+	static private class ResponseStream extends ServletOutputStream {
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private final AtomicInteger lines = new AtomicInteger();
+		private volatile boolean disconnected = false;
+
+		@Override
+		public void write(int b) throws IOException {
+			if (disconnected) {
+				throw new IOException("Client has disconnected");
+			}
+
+			buffer.write(b);
+
+			if (b == '\n') {
+				lines.incrementAndGet();
+			}
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener listener) {
+		}
+	}
+
+	private byte[] createBody(ObjectMapper mapper, int size) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		for (int k = 0; k < size; k++) {
+			body.write(mapper.writeValueAsBytes(new Item(k, k)));
+
+			if (mapper == jsonMapper) {
+				body.write('\n');
+			}
+		}
+
+		return body.toByteArray();
+	}
+
+	private Context createContext(byte[] body, String contentType, String accept, ResponseStream outputStream) {
+		Context ctx = Mockito.mock(Context.class);
+		Mockito.when(ctx.contentType()).thenReturn(contentType);
+		Mockito.when(ctx.header(Header.ACCEPT)).thenReturn(accept);
+		Mockito.when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(body));
+		Mockito.when(ctx.outputStream()).thenReturn(outputStream);
+		return ctx;
+	}
+
+	private List<Item> readItems(ObjectMapper mapper, ResponseStream outputStream) throws IOException {
+		return mapper.readerFor(Item.class).<Item>readValues(outputStream.buffer.toByteArray()).readAll();
+	}
+
+	static private Item process(Item request) {
+		return new Item(request.requestIndex, 2 * request.value);
+	}
+
+	@Test
+	public void testOrderOfCompletion() throws Exception {
+		ResponseStream outputStream = new ResponseStream();
+		Context ctx = createContext(createBody(jsonMapper, 20), null, null, outputStream);
+
+		// Tasks complete on submission, so the responses follow the requests
+		new Endpoint().processStream(ctx, Runnable::run, 4, Item.class, TestAbstractEndpoint::process);
+
+		List<Item> responses = readItems(jsonMapper, outputStream);
+		Assert.assertEquals(20, responses.size());
+
+		for (int k = 0; k < responses.size(); k++) {
+			Assert.assertEquals(k, responses.get(k).requestIndex);
+			Assert.assertEquals(2 * k, responses.get(k).value);
+		}
+	}
+
+	@Test
+	public void testConcurrentCompletion() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		try {
+			ResponseStream outputStream = new ResponseStream();
+			Context ctx = createContext(createBody(jsonMapper, 100), null, null, outputStream);
+
+			// Later requests are faster, so responses are written out of order
+			new Endpoint().processStream(ctx, executor, 8, Item.class, request -> {
+				sleep(100 - request.requestIndex);
+				return process(request);
+			});
+
+			Set<Integer> indices = new HashSet<>();
+
+			for (Item response : readItems(jsonMapper, outputStream)) {
+				Assert.assertTrue(indices.add(response.requestIndex));
+				Assert.assertEquals(2 * response.requestIndex, response.value);
+			}
+
+			Assert.assertEquals(100, indices.size());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+
+		try {
+			int maximumInFlight = 3;
+
+			ResponseStream outputStream = new ResponseStream();
+			Context ctx = createContext(createBody(jsonMapper, 50), null, null, outputStream);
+
+			AtomicInteger maximumObserved = new AtomicInteger();
+
+			new Endpoint().processStream(ctx, executor, maximumInFlight, Item.class, request -> {
+				// Requests that have been submitted, but whose responses are not written
+				int inFlight = request.requestIndex + 1 - outputStream.lines.get();
+				maximumObserved.accumulateAndGet(inFlight, Math::max);
+
+				sleep(1);
+				return process(request);
+			});
+
+			Assert.assertEquals(50, outputStream.lines.get());
+			Assert.assertTrue(maximumObserved.get() <= maximumInFlight);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidMaximumInFlight() throws Exception {
+		Context ctx = createContext(createBody(jsonMapper, 1), null, null, new ResponseStream());
+		new Endpoint().processStream(ctx, Runnable::run, 0, Item.class, TestAbstractEndpoint::process);
+	}
+
+	@Test
+	public void testJsonNegotiation() throws Exception {
+		ResponseStream outputStream = new ResponseStream();
+		Context ctx = createContext(createBody(jsonMapper, 3), "application/x-ndjson", "*/*", outputStream);
+
+		new Endpoint().processStream(ctx, Runnable::run, 4, Item.class, TestAbstractEndpoint::process);
+
+		Mockito.verify(ctx).contentType("application/x-ndjson");
+		Assert.assertEquals(3, outputStream.lines.get());
+		Assert.assertEquals(3, readItems(jsonMapper, outputStream).size());
+	}
+
+	@Test
+	public void testCborNegotiation() throws Exception {
+		// CBOR requests, CBOR responses
+		ResponseStream outputStream = new ResponseStream();
+		Context ctx = createContext(createBody(cborMapper, 3), "application/cbor", "application/cbor-seq",
+				outputStream);
+
+		new Endpoint().processStream(ctx, Runnable::run, 4, Item.class, TestAbstractEndpoint::process);
+
+		Mockito.verify(ctx).contentType("application/cbor-seq");
+		List<Item> responses = readItems(cborMapper, outputStream);
+		Assert.assertEquals(3, responses.size());
+		Assert.assertEquals(4, responses.get(2).value);
+
+		// JSON requests, CBOR responses
+		outputStream = new ResponseStream();
+		ctx = createContext(createBody(jsonMapper, 3), "application/x-ndjson", "application/cbor", outputStream);
+
+		new Endpoint().processStream(ctx, Runnable::run, 4, Item.class, TestAbstractEndpoint::process);
+
+		Mockito.verify(ctx).contentType("application/cbor-seq");
+		Assert.assertEquals(3, readItems(cborMapper, outputStream).size());
+
+		// CBOR requests, JSON responses
+		outputStream = new ResponseStream();
+		ctx = createContext(createBody(cborMapper, 3), "application/cbor", null, outputStream);
+
+		new Endpoint().processStream(ctx, Runnable::run, 4, Item.class, TestAbstractEndpoint::process);
+
+		Mockito.verify(ctx).contentType("application/x-ndjson");
+		Assert.assertEquals(3, readItems(jsonMapper, outputStream).size());
+	}
+
+	@Test
+	public void testCancellationOnDisconnect() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+			ResponseStream outputStream = new ResponseStream();
+			outputStream.disconnected = true;
+
+			Context ctx = createContext(createBody(jsonMapper, 4), null, null, outputStream);
+
+			// The first request completes once all requests have been submitted, the
+			// second one blocks the only thread until the end of the test
+			CountDownLatch submitted = new CountDownLatch(4);
+			CountDownLatch released = new CountDownLatch(1);
+			List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+
+			Executor countingExecutor = task -> {
+				executor.execute(task);
+				submitted.countDown();
+			};
+
+			Function<Item, Item> processor = request -> {
+				processed.add(request.requestIndex);
+				await(request.requestIndex == 0 ? submitted : released);
+				return process(request);
+			};
+
+			try {
+				new Endpoint().processStream(ctx, countingExecutor, 4, Item.class, processor);
+				Assert.fail();
+			} catch (IOException e) {
+				// Writing the first response fails
+			}
+
+			released.countDown();
+			executor.shutdown();
+			Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+			// The queued requests have been cancelled
+			Assert.assertTrue(processed.contains(0));
+			Assert.assertFalse(processed.contains(2));
+			Assert.assertFalse(processed.contains(3));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testCancellationOnInvalidRequest() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			body.write(createBody(jsonMapper, 3));
+			body.write("{ invalid".getBytes(StandardCharsets.UTF_8));
+
+			Context ctx = createContext(body.toByteArray(), null, null, new ResponseStream());
+
+			// The first request blocks the only thread until the end of the test
+			CountDownLatch released = new CountDownLatch(1);
+			List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+
+			Function<Item, Item> processor = request -> {
+				processed.add(request.requestIndex);
+				await(released);
+				return process(request);
+			};
+
+			try {
+				new Endpoint().processStream(ctx, executor, 4, Item.class, processor);
+				Assert.fail();
+			} catch (IOException e) {
+				// Parsing the last request fails
+			}
+
+			released.countDown();
+			executor.shutdown();
+			Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+			// Only the running request has been processed
+			Assert.assertEquals(List.of(0), processed);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	static private void sleep(long milliseconds) {
+		try {
+			Thread.sleep(milliseconds);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static private void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package org.eqasim.server.execution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.eqasim.server.execution.RoutingExecutor.Session;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestRoutingExecutor {
+	private final static int THREADS = 2;
+	private final static int LARGE_SESSION = 100;
+
+	/**
+	 * Submits a large session whose tasks are held until all workers are busy,
+	 * then a session with a single task. Returns the number of tasks of the large
+	 * session that have been started after the single task has been submitted and
+	 * before it has been started.
+	 */
+	private int runSmallAfterLarge(boolean fair) throws InterruptedException, ExecutionException {
+		RoutingExecutor executor = new RoutingExecutor(THREADS, fair);
+
+		List<String> started = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch busy = new CountDownLatch(THREADS);
+		CountDownLatch gate = new CountDownLatch(1);
+
+		try {
+			Session largeSession = executor.openSession();
+			List<Future<Void>> largeFutures = new ArrayList<>();
+
+			for (int k = 0; k < LARGE_SESSION; k++) {
+				largeFutures.add(largeSession.submit(() -> {
+					started.add("large");
+					busy.countDown();
+					gate.await();
+					return null;
+				}));
+			}
+
+			Assert.assertTrue(busy.await(10, TimeUnit.SECONDS));
+			Assert.assertEquals(LARGE_SESSION - THREADS, executor.getQueueSize());
+
+			Future<Void> smallFuture = executor.openSession().submit(() -> {
+				started.add("small");
+				return null;
+			});
+
+			gate.countDown();
+			smallFuture.get();
+
+			for (Future<Void> future : largeFutures) {
+				future.get();
+			}
+
+			return started.indexOf("small") - THREADS;
+		} finally {
+			executor.shutdown();
+			Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void testFairSessions() throws InterruptedException, ExecutionException {
+		// At most one task per worker
+		Assert.assertTrue(runSmallAfterLarge(true) <= THREADS);
+	}
+
+	@Test
+	public void testSharedQueue() throws InterruptedException, ExecutionException {
+		// Without fairness, the single task waits for the whole large session
+		Assert.assertEquals(LARGE_SESSION - THREADS, runSmallAfterLarge(false));
+	}
+
+	@Test
+	public void testInvokeAll() throws InterruptedException, ExecutionException {
+		RoutingExecutor executor = new RoutingExecutor(THREADS, true);
+
+		try {
+			List<Callable<Integer>> tasks = new ArrayList<>();
+
+			for (int k = 0; k < 50; k++) {
+				int value = k;
+				tasks.add(() -> {
+					if (value == 7) {
+						throw new IllegalStateException();
+					}
+
+					return value * value;
+				});
+			}
+
+			List<Future<Integer>> futures = executor.openSession().invokeAll(tasks);
+			Assert.assertEquals(50, futures.size());
+
+			for (int k = 0; k < 50; k++) {
+				Assert.assertTrue(futures.get(k).isDone());
+
+				if (k == 7) {
+					try {
+						futures.get(k).get();
+						Assert.fail();
+					} catch (ExecutionException e) {
+						Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+					}
+				} else {
+					Assert.assertEquals(k * k, (int) futures.get(k).get());
+				}
+			}
+
+			// A failing task does not stop the workers
+			Assert.assertEquals(3, (int) executor.openSession().submit(() -> 3).get());
+		} finally {
+			executor.shutdown();
+		}
+
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testShutdown() throws InterruptedException, ExecutionException {
+		RoutingExecutor executor = new RoutingExecutor(THREADS, true);
+
+		CountDownLatch gate = new CountDownLatch(1);
+		Session session = executor.openSession();
+		List<Future<Integer>> futures = new ArrayList<>();
+
+		for (int k = 0; k < 10; k++) {
+			int value = k;
+			futures.add(session.submit(() -> {
+				gate.await();
+				return value;
+			}));
+		}
+
+		executor.shutdown();
+		Assert.assertTrue(executor.isShutdown());
+		Assert.assertFalse(executor.isTerminated());
+		Assert.assertFalse(executor.awaitTermination(50, TimeUnit.MILLISECONDS));
+
+		try {
+			session.submit(() -> 0);
+			Assert.fail();
+		} catch (RejectedExecutionException e) {
+		}
+
+		try {
+			executor.openSession().invokeAll(List.of(() -> 0));
+			Assert.fail();
+		} catch (RejectedExecutionException e) {
+		}
+
+		// Pending tasks are still processed
+		gate.countDown();
+
+		for (int k = 0; k < 10; k++) {
+			Assert.assertEquals(k, (int) futures.get(k).get());
+		}
+
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assert.assertTrue(executor.isTerminated());
+	}
+
+	@Test
+	public void testShutdownNow() throws InterruptedException {
+		RoutingExecutor executor = new RoutingExecutor(THREADS, true);
+
+		CountDownLatch busy = new CountDownLatch(THREADS);
+		Session session = executor.openSession();
+		List<Future<Void>> futures = new ArrayList<>();
+
+		for (int k = 0; k < 10; k++) {
+			futures.add(session.submit(() -> {
+				busy.countDown();
+				Thread.sleep(60000);
+				return null;
+			}));
+		}
+
+		Assert.assertTrue(busy.await(10, TimeUnit.SECONDS));
+
+		// Running tasks are interrupted, pending tasks are returned and cancelled
+		Assert.assertEquals(10 - THREADS, executor.shutdownNow().size());
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		for (Future<Void> future : futures) {
+			Assert.assertTrue(future.isDone());
+		}
+
+		Assert.assertEquals(0, executor.getQueueSize());
+	}
+}
@@ -0,0 +1,88 @@
+package org.eqasim.server.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHistogram {
+	@Test
+	public void testBuckets() {
+		// Powers of two up to 2^5, the last bucket ends at 2^6 - 1
+		Histogram histogram = new Histogram(5);
+		int lastBucket = histogram.getNumberOfBuckets() - 1;
+
+		Assert.assertEquals(20, histogram.getNumberOfBuckets());
+		Assert.assertEquals(63, histogram.getUpperBound(lastBucket));
+
+		for (long value = 0; value < 64; value++) {
+			histogram.record(value);
+		}
+
+		// Every value is recorded once, so the cumulative count of a bucket is its
+		// upper bound plus one
+		long cumulative = 0;
+
+		for (int bucket = 0; bucket <= lastBucket; bucket++) {
+			cumulative += histogram.getCount(bucket);
+			Assert.assertEquals(histogram.getUpperBound(bucket) + 1, cumulative);
+		}
+	}
+
+	@Test
+	public void testBucketWidth() {
+		Histogram histogram = new Histogram(27);
+
+		// Single values up to four, then four buckets per power of two
+		for (int bucket = 0; bucket < 8; bucket++) {
+			Assert.assertEquals(bucket, histogram.getUpperBound(bucket));
+		}
+
+		Assert.assertEquals(9, histogram.getUpperBound(8));
+		Assert.assertEquals(11, histogram.getUpperBound(9));
+		Assert.assertEquals(15, histogram.getUpperBound(11));
+		Assert.assertEquals(19, histogram.getUpperBound(12));
+
+		for (int bucket = 4; bucket < histogram.getNumberOfBuckets(); bucket++) {
+			long lowerBound = histogram.getUpperBound(bucket - 1) + 1;
+			long width = histogram.getUpperBound(bucket) - lowerBound + 1;
+
+			Assert.assertTrue(width > 0);
+			Assert.assertTrue(width <= 0.25 * lowerBound);
+		}
+	}
+
+	@Test
+	public void testOverflow() {
+		Histogram histogram = new Histogram(5);
+		int lastBucket = histogram.getNumberOfBuckets() - 1;
+
+		histogram.record(63);
+		histogram.record(64);
+		histogram.record(1L << 40);
+		histogram.record(Long.MAX_VALUE);
+
+		Assert.assertEquals(4, histogram.getCount(lastBucket));
+		Assert.assertEquals(0, histogram.getCount(lastBucket - 1));
+		Assert.assertEquals(4, histogram.getCount());
+	}
+
+	@Test
+	public void testNegative() {
+		// Negative values are counted in the first bucket
+		Histogram histogram = new Histogram(5);
+		histogram.record(-5);
+
+		Assert.assertEquals(1, histogram.getCount(0));
+	}
+
+	@Test
+	public void testCountAndSum() {
+		Histogram histogram = new Histogram(10);
+
+		histogram.record(3);
+		histogram.record(100);
+		histogram.record(5000);
+
+		Assert.assertEquals(3, histogram.getCount());
+		Assert.assertEquals(5103, histogram.getSum());
+	}
+}
@@ -0,0 +1,190 @@
+package org.eqasim.server.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eqasim.server.execution.RoutingExecutor;
+import org.eqasim.server.services.RoutingCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestServerMetrics {
+	static private final String PREFIX = "eqasim_server_";
+
+	private String write(ServerMetrics metrics) throws IOException {
+		StringWriter writer = new StringWriter();
+		metrics.write(writer);
+		return writer.toString();
+	}
+
+	/**
+	 * Returns the samples of the output by name and labels, in order of
+	 * appearance.
+	 */
+	private Map<String, String> parseSamples(String output) {
+		Map<String, String> samples = new LinkedHashMap<>();
+
+		for (String line : output.split("\n")) {
+			if (!line.startsWith("#")) {
+				int separator = line.lastIndexOf(' ');
+				Assert.assertNull(line, samples.put(line.substring(0, separator), line.substring(separator + 1)));
+			}
+		}
+
+		return samples;
+	}
+
+	/**
+	 * Returns the upper bounds and cumulative counts of the buckets of one
+	 * histogram, in order of appearance.
+	 */
+	private List<double[]> getBuckets(Map<String, String> samples, String name, String labels) {
+		String prefix = PREFIX + name + "_bucket{" + labels + ",le=\"";
+		List<double[]> buckets = new ArrayList<>();
+
+		for (var entry : samples.entrySet()) {
+			if (entry.getKey().startsWith(prefix)) {
+				String bound = entry.getKey().substring(prefix.length(), entry.getKey().length() - 2);
+				double upperBound = bound.equals("+Inf") ? Double.POSITIVE_INFINITY : Double.parseDouble(bound);
+				buckets.add(new double[] { upperBound, Double.parseDouble(entry.getValue()) });
+			}
+		}
+
+		return buckets;
+	}
+
+	@Test
+	public void testLatencies() throws IOException {
+		ServerMetrics metrics = new ServerMetrics();
+		EndpointMetrics endpoint = metrics.addEndpoint("road", "/road", "/road/stream");
+
+		Assert.assertSame(endpoint, metrics.getEndpointByPath("/road/stream"));
+		Assert.assertNull(metrics.getEndpointByPath("/transit"));
+
+		// Durations in nanoseconds, recorded in microseconds
+		long[] durations_us = { 3, 1500, 20000, 1L << 40 };
+
+		for (long duration_us : durations_us) {
+			endpoint.recordQueue(duration_us * 1000);
+		}
+
+		String labels = "endpoint=\"road\",phase=\"queue\"";
+		Map<String, String> samples = parseSamples(write(metrics));
+		List<double[]> buckets = getBuckets(samples, "request_duration_seconds", labels);
+
+		Assert.assertEquals(new Histogram(27).getNumberOfBuckets(), buckets.size());
+
+		// The bounds are given in seconds, the last one is only written as +Inf
+		Assert.assertEquals(0.0, buckets.get(0)[0], 0.0);
+		Assert.assertEquals(3e-6, buckets.get(3)[0], 1e-15);
+		Assert.assertEquals(Double.POSITIVE_INFINITY, buckets.get(buckets.size() - 1)[0], 0.0);
+
+		for (int k = 0; k < buckets.size(); k++) {
+			double upperBound = buckets.get(k)[0];
+			long expected = 0;
+
+			for (long duration_us : durations_us) {
+				// The value of 2^40 us exceeds the maximum and is only counted as +Inf
+				if (duration_us * 1e-6 <= upperBound * (1.0 + 1e-9)) {
+					expected++;
+				}
+			}
+
+			Assert.assertEquals(expected, buckets.get(k)[1], 0.0);
+
+			if (k > 0) {
+				Assert.assertTrue(upperBound > buckets.get(k - 1)[0]);
+			}
+		}
+
+		String key = PREFIX + "request_duration_seconds";
+		Assert.assertEquals("4", samples.get(key + "_count{" + labels + "}"));
+		Assert.assertEquals((3 + 1500 + 20000 + (1L << 40)) * 1e-6,
+				Double.parseDouble(samples.get(key + "_sum{" + labels + "}")), 1e-6);
+
+		// Phases without measurements are written with empty buckets
+		String processingLabels = "endpoint=\"road\",phase=\"processing\"";
+		Assert.assertEquals("0", samples.get(key + "_bucket{" + processingLabels + ",le=\"+Inf\"}"));
+		Assert.assertEquals("0", samples.get(key + "_count{" + processingLabels + "}"));
+		Assert.assertEquals("0", samples.get(key + "_sum{" + processingLabels + "}"));
+	}
+
+	@Test
+	public void testBatchSizeAndInFlight() throws IOException {
+		ServerMetrics metrics = new ServerMetrics();
+		EndpointMetrics road = metrics.addEndpoint("road", "/road");
+		EndpointMetrics transit = metrics.addEndpoint("transit", "/transit");
+
+		road.recordBatchSize(5);
+		road.recordBatchSize(100);
+
+		road.startRequest();
+		road.startRequest();
+		road.finishRequest(2000000000L);
+		transit.startRequest();
+
+		String output = write(metrics);
+		Map<String, String> samples = parseSamples(output);
+
+		// Batch sizes are not scaled
+		String labels = "endpoint=\"road\"";
+		Assert.assertEquals("1", samples.get(PREFIX + "batch_size_bucket{" + labels + ",le=\"5\"}"));
+		Assert.assertEquals("1", samples.get(PREFIX + "batch_size_bucket{" + labels + ",le=\"95\"}"));
+		Assert.assertEquals("2", samples.get(PREFIX + "batch_size_bucket{" + labels + ",le=\"111\"}"));
+		Assert.assertEquals("2", samples.get(PREFIX + "batch_size_count{" + labels + "}"));
+		Assert.assertEquals("105", samples.get(PREFIX + "batch_size_sum{" + labels + "}"));
+
+		Assert.assertEquals("1", samples.get(PREFIX + "requests_in_flight{endpoint=\"road\"}"));
+		Assert.assertEquals("1", samples.get(PREFIX + "requests_in_flight{endpoint=\"transit\"}"));
+		Assert.assertEquals("1",
+				samples.get(PREFIX + "request_duration_seconds_count{endpoint=\"road\",phase=\"total\"}"));
+		Assert.assertEquals(2.0, Double.parseDouble(
+				samples.get(PREFIX + "request_duration_seconds_sum{endpoint=\"road\",phase=\"total\"}")), 1e-9);
+
+		// One header per metric, followed by the samples of all endpoints
+		Assert.assertTrue(output.startsWith("# HELP " + PREFIX + "request_duration_seconds "));
+		Assert.assertTrue(output.contains("# TYPE " + PREFIX + "batch_size histogram\n"));
+		Assert.assertTrue(output.contains("# TYPE " + PREFIX + "requests_in_flight gauge\n"));
+		Assert.assertEquals(output.indexOf("# TYPE " + PREFIX + "batch_size "),
+				output.lastIndexOf("# TYPE " + PREFIX + "batch_size "));
+
+		// Neither an executor nor caches are registered
+		Assert.assertFalse(output.contains("executor_"));
+		Assert.assertFalse(output.contains("cache_"));
+	}
+
+	@Test
+	public void testExecutorAndCaches() throws IOException {
+		RoutingExecutor executor = new RoutingExecutor(3, false);
+
+		try {
+			RoutingCache<String, Integer> cache = new RoutingCache<>(10);
+			cache.get("a", key -> 1);
+			cache.get("a", key -> 1);
+			cache.get("b", key -> 2);
+			cache.get("a", key -> 1);
+
+			ServerMetrics metrics = new ServerMetrics();
+			metrics.setExecutor(executor);
+			metrics.addCache("road", cache);
+
+			String output = write(metrics);
+			Map<String, String> samples = parseSamples(output);
+
+			Assert.assertEquals("3", samples.get(PREFIX + "executor_threads"));
+			Assert.assertEquals("0", samples.get(PREFIX + "executor_queue_size"));
+			Assert.assertTrue(output.contains("# TYPE " + PREFIX + "cache_hits_total counter\n"));
+
+			Assert.assertEquals("2", samples.get(PREFIX + "cache_hits_total{cache=\"road\"}"));
+			Assert.assertEquals("2", samples.get(PREFIX + "cache_misses_total{cache=\"road\"}"));
+			Assert.assertEquals("2", samples.get(PREFIX + "cache_size{cache=\"road\"}"));
+			Assert.assertEquals("0.5", samples.get(PREFIX + "cache_hit_rate{cache=\"road\"}"));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package org.eqasim.server.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+
+public class TestGeometryWriter {
+	/**
+	 * Decodes a polyline into the coordinates in network units, x before y.
+	 */
+	static private List<Coordinate> decode(String polyline) {
+		List<Coordinate> coordinates = new ArrayList<>();
+
+		long[] values = new long[2];
+		int index = 0;
+
+		while (index < polyline.length()) {
+			for (int dimension = 0; dimension < 2; dimension++) {
+				long result = 0;
+				int shift = 0;
+				int chunk;
+
+				do {
+					chunk = polyline.charAt(index++) - 63;
+					result |= (long) (chunk & 0x1f) << shift;
+					shift += 5;
+				} while (chunk >= 0x20);
+
+				values[dimension] += (result & 1) != 0 ? ~(result >> 1) : result >> 1;
+			}
+
+			coordinates.add(new Coordinate(values[0] / GeometryWriter.POLYLINE_FACTOR,
+					values[1] / GeometryWriter.POLYLINE_FACTOR));
+		}
+
+		return coordinates;
+	}
+
+	@Test
+	public void testReferencePolyline() {
+		// Points of the reference example of the Google polyline format, which
+		// encodes latitude before longitude at a factor of 1e5. The writer encodes x
+		// before y at a factor of 10, so the points are passed as x = latitude and
+		// y = longitude and scaled by 1e4.
+		Coordinate[] coordinates = { //
+				new Coordinate(38.5 * 1e4, -120.2 * 1e4), //
+				new Coordinate(40.7 * 1e4, -120.95 * 1e4), //
+				new Coordinate(43.252 * 1e4, -126.453 * 1e4) //
+		};
+
+		GeometryWriter writer = new GeometryWriter(GeometryFormat.POLYLINE);
+		Assert.assertEquals("_p~iF~ps|U_ulLnnqC_mqNvxq`@", writer.writeLineString(coordinates));
+	}
+
+	@Test
+	public void testCoordinateOrder() {
+		GeometryWriter writer = new GeometryWriter(GeometryFormat.POLYLINE);
+
+		// 1.0 is encoded as 10 ("S"), -2.0 as -20 ("f@")
+		Assert.assertEquals("Sf@", writer.writePoint(new Coordinate(1.0, -2.0)));
+		Assert.assertEquals("f@S", writer.writePoint(new Coordinate(-2.0, 1.0)));
+	}
+
+	@Test
+	public void testRoundTrip() {
+		Random random = new Random(0);
+		GeometryWriter writer = new GeometryWriter(GeometryFormat.POLYLINE);
+
+		for (int k = 0; k < 100; k++) {
+			Coordinate[] coordinates = new Coordinate[1 + random.nextInt(20)];
+
+			// Coordinates in both directions around the origin, so that deltas and
+			// absolute values are negative as well
+			for (int i = 0; i < coordinates.length; i++) {
+				coordinates[i] = new Coordinate((random.nextDouble() - 0.5) * 2e6,
+						(random.nextDouble() - 0.5) * 2e6);
+			}
+
+			List<Coordinate> decoded = decode(writer.writeLineString(coordinates));
+			Assert.assertEquals(coordinates.length, decoded.size());
+
+			for (int i = 0; i < coordinates.length; i++) {
+				// Rounded to one decimal
+				Assert.assertEquals(coordinates[i].x, decoded.get(i).x, 0.05 + 1e-9);
+				Assert.assertEquals(coordinates[i].y, decoded.get(i).y, 0.05 + 1e-9);
+
+				Assert.assertEquals(Math.round(coordinates[i].x * GeometryWriter.POLYLINE_FACTOR),
+						Math.round(decoded.get(i).x * GeometryWriter.POLYLINE_FACTOR));
+			}
+		}
+	}
+
+	@Test
+	public void testReuse() {
+		// The builder is shared between calls of one writer
+		GeometryWriter writer = new GeometryWriter(GeometryFormat.POLYLINE);
+		Coordinate[] coordinates = { new Coordinate(651234.5, 6862345.6), new Coordinate(651200.1, 6862400.0) };
+
+		String first = writer.writeLineString(coordinates);
+		writer.writePoint(new Coordinate(1.0, 1.0));
+
+		Assert.assertEquals(first, writer.writeLineString(coordinates));
+		Assert.assertEquals(first, new GeometryWriter(GeometryFormat.POLYLINE).writeLineString(coordinates));
+	}
+
+	@Test
+	public void testWkt() {
+		GeometryWriter writer = new GeometryWriter(GeometryFormat.WKT);
+
+		Assert.assertEquals("LINESTRING (1 2, 3.5 -4)",
+				writer.writeLineString(new Coordinate[] { new Coordinate(1.0, 2.0), new Coordinate(3.5, -4.0) }));
+		Assert.assertEquals("POINT (1 2)", writer.writePoint(new Coordinate(1.0, 2.0)));
+	}
+}
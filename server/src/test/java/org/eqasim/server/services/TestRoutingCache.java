@@ -0,0 +1,76 @@
+package org.eqasim.server.services;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestRoutingCache {
+	@Test
+	public void testDisabled() {
+		RoutingCache<String, Integer> cache = new RoutingCache<>(0);
+		AtomicInteger calls = new AtomicInteger();
+
+		Assert.assertFalse(cache.isEnabled());
+		Assert.assertEquals(1, (int) cache.get("a", key -> calls.incrementAndGet()));
+		Assert.assertEquals(2, (int) cache.get("a", key -> calls.incrementAndGet()));
+
+		cache.put("b", 5);
+		Assert.assertNull(cache.getIfPresent("b"));
+
+		RoutingCache.Stats stats = cache.getStats();
+		Assert.assertEquals(0, stats.size());
+		Assert.assertEquals(0, stats.hits());
+		Assert.assertEquals(0, stats.misses());
+		Assert.assertEquals(0.0, stats.hitRate(), 0.0);
+	}
+
+	@Test
+	public void testHitsAndMisses() {
+		RoutingCache<String, Integer> cache = new RoutingCache<>(10);
+		AtomicInteger calls = new AtomicInteger();
+
+		Assert.assertEquals(1, (int) cache.get("a", key -> calls.incrementAndGet()));
+		Assert.assertEquals(1, (int) cache.get("a", key -> calls.incrementAndGet()));
+		Assert.assertEquals(2, (int) cache.get("b", key -> calls.incrementAndGet()));
+		Assert.assertEquals(2, calls.get());
+
+		Assert.assertNull(cache.getIfPresent("c"));
+		cache.put("c", 3);
+		Assert.assertEquals(3, (int) cache.getIfPresent("c"));
+
+		RoutingCache.Stats stats = cache.getStats();
+		Assert.assertEquals(3, stats.size());
+		Assert.assertEquals(10, stats.maximumSize());
+		Assert.assertEquals(2, stats.hits());
+		Assert.assertEquals(3, stats.misses());
+		Assert.assertEquals(0.4, stats.hitRate(), 1e-12);
+
+		cache.clear();
+		Assert.assertEquals(0, cache.getStats().size());
+		Assert.assertNull(cache.getIfPresent("c"));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() {
+		RoutingCache<String, Integer> cache = new RoutingCache<>(2);
+
+		cache.put("a", 1);
+		cache.put("b", 2);
+
+		// Accessing a makes b the least recently used entry
+		Assert.assertEquals(1, (int) cache.get("a", key -> -1));
+		cache.put("c", 3);
+
+		Assert.assertEquals(2, cache.getStats().size());
+		Assert.assertNull(cache.getIfPresent("b"));
+		Assert.assertEquals(1, (int) cache.getIfPresent("a"));
+		Assert.assertEquals(3, (int) cache.getIfPresent("c"));
+
+		// The loader fills the cache and evicts the least recently used entry a
+		Assert.assertEquals(4, (int) cache.get("d", key -> 4));
+		Assert.assertNull(cache.getIfPresent("a"));
+		Assert.assertEquals(3, (int) cache.getIfPresent("c"));
+		Assert.assertEquals(4, (int) cache.getIfPresent("d"));
+	}
+}
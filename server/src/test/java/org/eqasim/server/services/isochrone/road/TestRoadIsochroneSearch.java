@@ -0,0 +1,314 @@
+package org.eqasim.server.services.isochrone.road;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.eqasim.server.services.router.road.RoadRouterService.WalkParameters;
+import org.eqasim.server.services.travel_time.RoadTravelTime;
+import org.eqasim.server.services.travel_time.RoadTravelTimeManager;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.collections.QuadTrees;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+/**
+ * Compares the labels of the Dijkstra search with a brute-force reference that
+ * relaxes all links until no label changes, on small random networks with
+ * travel times that increase over the day.
+ */
+public class TestRoadIsochroneSearch {
+	private final static double EPSILON = 1e-6;
+	private final static double START_TIME = 8.0 * 3600.0;
+	private final static double END_TIME = 10.0 * 3600.0;
+	private final static double INTERVAL = 600.0;
+
+	private Network createNetwork(Random random, int gridSize) {
+		Network network = NetworkUtils.createNetwork();
+		Node[][] nodes = new Node[gridSize][gridSize];
+
+		for (int i = 0; i < gridSize; i++) {
+			for (int j = 0; j < gridSize; j++) {
+				nodes[i][j] = NetworkUtils.createAndAddNode(network, Id.createNodeId("node:" + i + ":" + j),
+						new Coord(i * 500.0 + random.nextDouble() * 200.0, j * 500.0 + random.nextDouble() * 200.0));
+			}
+		}
+
+		for (int i = 0; i < gridSize; i++) {
+			for (int j = 0; j < gridSize; j++) {
+				if (i + 1 < gridSize) {
+					addLinks(random, network, nodes[i][j], nodes[i + 1][j]);
+				}
+
+				if (j + 1 < gridSize) {
+					addLinks(random, network, nodes[i][j], nodes[i][j + 1]);
+				}
+			}
+		}
+
+		return network;
+	}
+
+	private void addLinks(Random random, Network network, Node first, Node second) {
+		for (Node[] pair : new Node[][] { { first, second }, { second, first } }) {
+			// Some links are one-way
+			if (random.nextDouble() < 0.8) {
+				double length = CoordUtils.calcEuclideanDistance(pair[0].getCoord(), pair[1].getCoord())
+						* (1.0 + 0.3 * random.nextDouble());
+
+				NetworkUtils.createAndAddLink(network,
+						Id.createLinkId(pair[0].getId() + ":" + pair[1].getId()), pair[0], pair[1], length,
+						5.0 + 25.0 * random.nextDouble(), 1000.0, 1.0);
+			}
+		}
+	}
+
+	/**
+	 * Free-flow travel times that grow over the day. As they never decrease, a
+	 * later departure never arrives earlier and Dijkstra is exact.
+	 */
+	private RoadTravelTime createTravelTime(Network network) {
+		return RoadTravelTime.create(network, (link, time, person, vehicle) -> {
+			return link.getLength() / link.getFreespeed() * (1.0 + (time - START_TIME) / 3600.0);
+		}, START_TIME, END_TIME, INTERVAL, "test");
+	}
+
+	private record Origin(int node, double accessTime, double accessDistance) {
+	}
+
+	/**
+	 * Travel times and access times of the reference, which are infinite for the
+	 * nodes that cannot be reached within the maximum travel time. Origins keep
+	 * their access time even if it exceeds the maximum travel time.
+	 */
+	private record Reference(double[] travelTime, double[] accessTime) {
+	}
+
+	private Reference runReference(RoadIsochroneGraph graph, RoadTravelTime travelTime, List<Origin> origins,
+			double departureTime, double maximumTravelTime) {
+		double[] nodeTravelTime = new double[graph.size];
+		double[] nodeAccessTime = new double[graph.size];
+		Arrays.fill(nodeTravelTime, Double.POSITIVE_INFINITY);
+
+		for (Origin origin : origins) {
+			if (origin.accessTime() < nodeTravelTime[origin.node()]) {
+				nodeTravelTime[origin.node()] = origin.accessTime();
+				nodeAccessTime[origin.node()] = origin.accessTime();
+			}
+		}
+
+		boolean changed = true;
+
+		while (changed) {
+			changed = false;
+
+			for (int node = 0; node < graph.size; node++) {
+				if (Double.isInfinite(nodeTravelTime[node])) {
+					continue;
+				}
+
+				for (int edge = graph.edgeStart[node]; edge < graph.edgeStart[node + 1]; edge++) {
+					int next = graph.edgeTarget[edge];
+					double nextTravelTime = nodeTravelTime[node] + travelTime
+							.getLinkTravelTime(graph.edgeLinkIndex[edge], departureTime + nodeTravelTime[node]);
+
+					if (nextTravelTime < nodeTravelTime[next] - EPSILON && nextTravelTime <= maximumTravelTime) {
+						nodeTravelTime[next] = nextTravelTime;
+						nodeAccessTime[next] = nodeAccessTime[node];
+						changed = true;
+					}
+				}
+			}
+		}
+
+		return new Reference(nodeTravelTime, nodeAccessTime);
+	}
+
+	private void runSearch(RoadIsochroneSearch search, RoadTravelTime travelTime, List<Origin> origins,
+			double departureTime, double maximumTravelTime) {
+		search.reset();
+
+		for (Origin origin : origins) {
+			search.addOrigin(origin.node(), origin.accessTime(), origin.accessDistance());
+		}
+
+		search.run(travelTime, departureTime, maximumTravelTime);
+	}
+
+	private void assertEquivalent(RoadIsochroneGraph graph, RoadIsochroneSearch search, Reference reference) {
+		Set<Integer> settled = new HashSet<>();
+		double previousTravelTime = Double.NEGATIVE_INFINITY;
+
+		for (int k = 0; k < search.settledCount; k++) {
+			int node = search.settled[k];
+			Assert.assertTrue(settled.add(node));
+
+			// Nodes are settled in the order of their travel times
+			Assert.assertTrue(search.travelTime[node] >= previousTravelTime);
+			previousTravelTime = search.travelTime[node];
+		}
+
+		for (int node = 0; node < graph.size; node++) {
+			double expected = reference.travelTime()[node];
+
+			if (Double.isInfinite(expected)) {
+				Assert.assertFalse(settled.contains(node));
+				Assert.assertTrue(Double.isInfinite(search.getTravelTime(node)));
+			} else {
+				Assert.assertTrue(settled.contains(node));
+				Assert.assertEquals(expected, search.getTravelTime(node), EPSILON);
+				Assert.assertEquals(reference.accessTime()[node], search.accessTime[node], EPSILON);
+			}
+		}
+	}
+
+	private List<Origin> createOrigins(Random random, RoadIsochroneGraph graph, int count) {
+		List<Origin> origins = new ArrayList<>();
+
+		for (int k = 0; k < count; k++) {
+			double accessDistance = random.nextDouble() * 300.0;
+			origins.add(new Origin(random.nextInt(graph.size), accessDistance / 1.2, accessDistance));
+		}
+
+		return origins;
+	}
+
+	@Test
+	public void testRandomNetworks() {
+		Random random = new Random(0);
+
+		for (int run = 0; run < 20; run++) {
+			Network network = createNetwork(random, 6);
+			RoadIsochroneGraph graph = new RoadIsochroneGraph(network);
+			RoadTravelTime travelTime = createTravelTime(network);
+
+			// The same instance is reused for all queries on the network
+			RoadIsochroneSearch search = new RoadIsochroneSearch(graph);
+
+			for (int query = 0; query < 10; query++) {
+				List<Origin> origins = createOrigins(random, graph, 1 + random.nextInt(3));
+				double departureTime = START_TIME - 1800.0 + random.nextDouble() * 3.0 * 3600.0;
+				double maximumTravelTime = 60.0 + random.nextDouble() * 900.0;
+
+				runSearch(search, travelTime, origins, departureTime, maximumTravelTime);
+				assertEquivalent(graph, search,
+						runReference(graph, travelTime, origins, departureTime, maximumTravelTime));
+			}
+		}
+	}
+
+	@Test
+	public void testTargets() {
+		Random random = new Random(1);
+
+		Network network = createNetwork(random, 6);
+		RoadIsochroneGraph graph = new RoadIsochroneGraph(network);
+		RoadTravelTime travelTime = createTravelTime(network);
+		RoadIsochroneSearch search = new RoadIsochroneSearch(graph);
+
+		for (int query = 0; query < 20; query++) {
+			List<Origin> origins = createOrigins(random, graph, 1);
+			Reference reference = runReference(graph, travelTime, origins, START_TIME, Double.POSITIVE_INFINITY);
+
+			boolean[] isTarget = new boolean[graph.size];
+			int targetCount = 0;
+
+			for (int k = 0; k < 3; k++) {
+				int node = random.nextInt(graph.size);
+
+				if (!isTarget[node] && Double.isFinite(reference.travelTime()[node])) {
+					isTarget[node] = true;
+					targetCount++;
+				}
+			}
+
+			search.reset();
+			search.addOrigin(origins.get(0).node(), origins.get(0).accessTime(), origins.get(0).accessDistance());
+			search.run(travelTime, START_TIME, Double.POSITIVE_INFINITY, isTarget, targetCount);
+
+			for (int node = 0; node < graph.size; node++) {
+				if (isTarget[node]) {
+					Assert.assertEquals(reference.travelTime()[node], search.getTravelTime(node), EPSILON);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testRestrictedNodesIgnoreNull() {
+		Network network = NetworkUtils.createNetwork();
+		Node a = NetworkUtils.createAndAddNode(network, Id.createNodeId("restriction:a"), new Coord(0.0, 0.0));
+		Node b = NetworkUtils.createAndAddNode(network, Id.createNodeId("restriction:b"), new Coord(100.0, 0.0));
+		Node c = NetworkUtils.createAndAddNode(network, Id.createNodeId("restriction:c"), new Coord(200.0, 0.0));
+
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("restriction:ab"), a, b, 100.0, 10.0, 1000.0, 1.0)
+				.getAttributes().putAttribute("osm:way:highway", "motorway");
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("restriction:bc"), b, c, 100.0, 10.0, 1000.0, 1.0)
+				.getAttributes().putAttribute("osm:way:highway", "residential");
+
+		RoadIsochroneGraph graph = new RoadIsochroneGraph(network);
+
+		Set<String> highwayTypes = new HashSet<>();
+		highwayTypes.add("motorway");
+		highwayTypes.add(null);
+
+		BitSet restrictedNodes = graph.getRestrictedNodes(highwayTypes);
+		Assert.assertEquals(restrictedNodes, graph.getRestrictedNodes(Set.of("motorway")));
+
+		Assert.assertTrue(restrictedNodes.get(graph.getIndex(a)));
+		Assert.assertFalse(restrictedNodes.get(graph.getIndex(b)));
+		Assert.assertFalse(restrictedNodes.get(graph.getIndex(c)));
+	}
+
+	/*
+	 * The direct link from a to b is slow, while b is reached quickly through c.
+	 * The point in the middle of the pair a-b is therefore reached earlier on the
+	 * link from b to a, and only that one is kept.
+	 */
+	@Test
+	public void testSegmentsKeepEarliestDirection() {
+		Network network = NetworkUtils.createNetwork();
+		Node a = NetworkUtils.createAndAddNode(network, Id.createNodeId("segment:a"), new Coord(0.0, 0.0));
+		Node b = NetworkUtils.createAndAddNode(network, Id.createNodeId("segment:b"), new Coord(1000.0, 0.0));
+		Node c = NetworkUtils.createAndAddNode(network, Id.createNodeId("segment:c"), new Coord(500.0, 100.0));
+
+		double detourLength = CoordUtils.calcEuclideanDistance(a.getCoord(), c.getCoord());
+
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("segment:ab"), a, b, 1000.0, 1.0, 1000.0, 1.0);
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("segment:ba"), b, a, 1000.0, 10.0, 1000.0, 1.0);
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("segment:ac"), a, c, detourLength, 50.0, 1000.0, 1.0);
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("segment:cb"), c, b, detourLength, 50.0, 1000.0, 1.0);
+
+		RoadIsochroneService service = new RoadIsochroneService(new RoadIsochroneGraph(network),
+				QuadTrees.createQuadTree(network.getNodes().values()), new WalkParameters(1.3, 1.2),
+				new RoadTravelTimeManager(RoadTravelTime.createFreeSpeed(network)));
+
+		RoadIsochroneRequest request = new RoadIsochroneRequest();
+		request.originX = 0.0;
+		request.originY = 0.0;
+		request.departureTime_s = START_TIME;
+		request.maximumTravelTime_min = 60.0;
+		request.segmentLength_km = 0.4;
+
+		RoadIsochroneResponse response = service.processRequest(request);
+
+		// Nodes a, b, c and one point in the middle of a-b, the links to c are too short
+		Assert.assertEquals(4, response.points.size());
+
+		List<RoadIsochroneResponse.Point> segmentPoints = response.points.stream()
+				.filter(point -> point.x == 500.0 && point.y == 0.0).toList();
+		Assert.assertEquals(1, segmentPoints.size());
+
+		double travelTimeToB = 2.0 * detourLength / 50.0;
+		Assert.assertEquals((travelTimeToB + 50.0) / 60.0, segmentPoints.get(0).totalTravelTime_min, EPSILON);
+	}
+}
@@ -0,0 +1,464 @@
+package org.eqasim.server.services.isochrone.transit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.eqasim.server.services.router.transit.TransitRouterService.WalkParameters;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.core.utils.collections.QuadTree;
+import org.matsim.core.utils.collections.QuadTrees;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.pt.transitSchedule.TransitScheduleFactoryImpl;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+/**
+ * Compares the labels of the RAPTOR search with a brute-force reference that
+ * enumerates all journeys on small schedules. Among the journeys with the
+ * earliest arrival and the fewest vehicle legs at a stop, several may differ
+ * in their wait, access and transfer times or boarding stop, so the label of
+ * the search must match one of them.
+ */
+public class TestTransitIsochroneSearch {
+	private final static double EPSILON = 1e-6;
+	private final static double DEPARTURE_TIME = 8.0 * 3600.0;
+	private final static WalkParameters WALK_PARAMETERS = new WalkParameters(1.3, 1.2);
+
+	private final TransitScheduleFactory factory = new TransitScheduleFactoryImpl();
+
+	private TransitStopFacility addStop(TransitSchedule schedule, String id, double x, double y) {
+		TransitStopFacility facility = factory.createTransitStopFacility(Id.create(id, TransitStopFacility.class),
+				new Coord(x, y), false);
+		schedule.addStopFacility(facility);
+		return facility;
+	}
+
+	/**
+	 * Adds a route along the given stops. The offsets are the arrival offsets,
+	 * vehicles stay at each intermediate stop for the given dwell time.
+	 */
+	private void addRoute(TransitSchedule schedule, String id, String mode, List<TransitStopFacility> facilities,
+			double[] offsets, double dwellTime, double... departureTimes) {
+		List<TransitRouteStop> stops = new ArrayList<>();
+
+		for (int k = 0; k < facilities.size(); k++) {
+			double departureOffset = k == facilities.size() - 1 ? offsets[k] : offsets[k] + dwellTime;
+			stops.add(factory.createTransitRouteStop(facilities.get(k), offsets[k], departureOffset));
+		}
+
+		TransitRoute route = factory.createTransitRoute(Id.create(id, TransitRoute.class), null, stops, mode);
+
+		for (int k = 0; k < departureTimes.length; k++) {
+			route.addDeparture(factory.createDeparture(Id.create(id + ":" + k, Departure.class), departureTimes[k]));
+		}
+
+		TransitLine line = factory.createTransitLine(Id.create(id, TransitLine.class));
+		line.addRoute(route);
+		schedule.addTransitLine(line);
+	}
+
+	private TransitIsochroneData createData(TransitSchedule schedule) {
+		QuadTree<TransitStopFacility> stopIndex = QuadTrees.createQuadTree(schedule.getFacilities().values(),
+				e -> e.getCoord(), 0.0);
+		return new TransitIsochroneData(schedule, stopIndex, WALK_PARAMETERS);
+	}
+
+	private TransitIsochroneSearch runSearch(TransitIsochroneData data, Map<TransitStopFacility, Double> origins,
+			double maximumTravelTime, int maximumRounds, Set<String> restrictedModes,
+			double maximumTransferDistance) {
+		TransitIsochroneSearch search = new TransitIsochroneSearch(data);
+		search.reset();
+
+		for (var origin : origins.entrySet()) {
+			search.addOrigin(data.getIndex(origin.getKey()), origin.getValue());
+		}
+
+		search.run(DEPARTURE_TIME, maximumTravelTime, maximumRounds, data.getRestrictedModes(restrictedModes),
+				data.getTransferGraph(maximumTransferDistance));
+
+		return search;
+	}
+
+	static private record Label(double travelTime, double accessTime, double transferTime, double waitTime,
+			int transfers, TransitStopFacility boardingStop, boolean isOrigin) {
+	}
+
+	/**
+	 * Enumerates all journeys with at most the given number of vehicle legs. At
+	 * every stop, each route is boarded with its first departure after the time
+	 * at which the stop is reached, since later departures can only arrive later.
+	 * After each leg, the journey may walk to one stop within the transfer
+	 * distance before boarding the next vehicle.
+	 */
+	static private class Reference {
+		final TransitSchedule schedule;
+		final double maximumTransferDistance;
+		final int maximumLegs;
+		final Set<String> restrictedModes;
+
+		final Map<TransitStopFacility, List<Label>> labels = new HashMap<>();
+
+		Reference(TransitSchedule schedule, Map<TransitStopFacility, Double> origins, int maximumLegs,
+				Set<String> restrictedModes, double maximumTransferDistance) {
+			this.schedule = schedule;
+			this.maximumLegs = maximumLegs;
+			this.restrictedModes = restrictedModes;
+			this.maximumTransferDistance = maximumTransferDistance;
+
+			for (var origin : origins.entrySet()) {
+				TransitStopFacility stop = origin.getKey();
+				double accessTime = origin.getValue();
+
+				record(stop, new Label(accessTime, accessTime, 0.0, 0.0, 0, stop, true));
+				continueFrom(stop, accessTime, accessTime, 0.0, 0.0, 0);
+			}
+		}
+
+		private void record(TransitStopFacility stop, Label label) {
+			labels.computeIfAbsent(stop, s -> new ArrayList<>()).add(label);
+		}
+
+		private void continueFrom(TransitStopFacility stop, double time, double accessTime, double transferTime,
+				double waitTime, int legs) {
+			if (legs == maximumLegs) {
+				return;
+			}
+
+			board(stop, time, accessTime, transferTime, waitTime, legs);
+
+			for (TransitStopFacility target : schedule.getFacilities().values()) {
+				double distance = CoordUtils.calcEuclideanDistance(stop.getCoord(), target.getCoord());
+
+				if (target != stop && distance <= maximumTransferDistance) {
+					double walkTime = distance * WALK_PARAMETERS.beelineWalkFactor()
+							/ WALK_PARAMETERS.beelineWalkSpeed_m_s();
+
+					board(target, time + walkTime, accessTime, transferTime + walkTime, waitTime, legs);
+				}
+			}
+		}
+
+		private void board(TransitStopFacility stop, double time, double accessTime, double transferTime,
+				double waitTime, int legs) {
+			for (TransitLine line : schedule.getTransitLines().values()) {
+				for (TransitRoute route : line.getRoutes().values()) {
+					if (restrictedModes.contains(route.getTransportMode())) {
+						continue;
+					}
+
+					List<TransitRouteStop> stops = route.getStops();
+
+					for (int position = 0; position < stops.size(); position++) {
+						if (stops.get(position).getStopFacility() != stop) {
+							continue;
+						}
+
+						double boardingTime = Double.POSITIVE_INFINITY;
+						double routeDepartureTime = Double.NaN;
+
+						for (Departure departure : route.getDepartures().values()) {
+							double candidate = departure.getDepartureTime()
+									+ stops.get(position).getDepartureOffset().seconds() - DEPARTURE_TIME;
+
+							if (candidate >= time && candidate < boardingTime) {
+								boardingTime = candidate;
+								routeDepartureTime = departure.getDepartureTime();
+							}
+						}
+
+						if (boardingTime == Double.POSITIVE_INFINITY) {
+							continue;
+						}
+
+						double legWaitTime = waitTime + boardingTime - time;
+
+						for (int next = position + 1; next < stops.size(); next++) {
+							TransitStopFacility alightingStop = stops.get(next).getStopFacility();
+							double arrivalTime = routeDepartureTime + stops.get(next).getArrivalOffset().seconds()
+									- DEPARTURE_TIME;
+
+							record(alightingStop, new Label(arrivalTime, accessTime, transferTime, legWaitTime, legs,
+									stop, false));
+							continueFrom(alightingStop, arrivalTime, accessTime, transferTime, legWaitTime, legs + 1);
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Returns the labels with the earliest arrival and, among them, the fewest
+		 * transfers, or an empty list if the stop cannot be reached in time.
+		 */
+		List<Label> getBest(TransitStopFacility stop, double maximumTravelTime) {
+			List<Label> candidates = new ArrayList<>();
+
+			for (Label label : labels.getOrDefault(stop, List.of())) {
+				if (label.travelTime() <= maximumTravelTime) {
+					candidates.add(label);
+				}
+			}
+
+			double bestTravelTime = candidates.stream().mapToDouble(Label::travelTime).min()
+					.orElse(Double.POSITIVE_INFINITY);
+			List<Label> earliest = candidates.stream()
+					.filter(label -> label.travelTime() <= bestTravelTime + EPSILON).toList();
+
+			int bestTransfers = earliest.stream().mapToInt(Label::transfers).min().orElse(0);
+			return earliest.stream().filter(label -> label.transfers() == bestTransfers).toList();
+		}
+	}
+
+	private void assertEquivalent(TransitSchedule schedule, TransitIsochroneData data,
+			Map<TransitStopFacility, Double> origins, double maximumTravelTime, int maximumRounds,
+			Set<String> restrictedModes, double maximumTransferDistance) {
+		TransitIsochroneSearch search = runSearch(data, origins, maximumTravelTime, maximumRounds, restrictedModes,
+				maximumTransferDistance);
+		Reference reference = new Reference(schedule, origins, maximumRounds, restrictedModes,
+				maximumTransferDistance);
+
+		for (TransitStopFacility stop : schedule.getFacilities().values()) {
+			int index = data.getIndex(stop);
+			List<Label> expected = reference.getBest(stop, maximumTravelTime);
+
+			if (expected.isEmpty()) {
+				Assert.assertEquals(stop.getId().toString(), Double.POSITIVE_INFINITY, search.travelTime[index], 0.0);
+				continue;
+			}
+
+			Label actual = new Label(search.travelTime[index], search.accessTime[index], search.transferTime[index],
+					search.waitTime[index], search.transfers[index], data.stops[search.boardingStop[index]],
+					search.isOrigin[index]);
+
+			boolean found = false;
+
+			for (Label candidate : expected) {
+				found |= Math.abs(candidate.travelTime() - actual.travelTime()) <= EPSILON //
+						&& Math.abs(candidate.accessTime() - actual.accessTime()) <= EPSILON //
+						&& Math.abs(candidate.transferTime() - actual.transferTime()) <= EPSILON //
+						&& Math.abs(candidate.waitTime() - actual.waitTime()) <= EPSILON //
+						&& candidate.transfers() == actual.transfers() //
+						&& candidate.boardingStop() == actual.boardingStop() //
+						&& candidate.isOrigin() == actual.isOrigin();
+			}
+
+			Assert.assertTrue("Stop " + stop.getId() + ": " + actual + " not in " + expected, found);
+
+			// In-vehicle time is derived from the other components
+			Assert.assertTrue(actual.travelTime() - actual.accessTime() - actual.transferTime()
+					- actual.waitTime() >= -EPSILON);
+		}
+	}
+
+	@Test
+	public void testBoardingAfterWalkingTransfer() {
+		TransitSchedule schedule = factory.createTransitSchedule();
+
+		TransitStopFacility stopA = addStop(schedule, "A", 0.0, 0.0);
+		TransitStopFacility stopB = addStop(schedule, "B", 2000.0, 0.0);
+		TransitStopFacility stopC = addStop(schedule, "C", 2120.0, 0.0);
+		TransitStopFacility stopD = addStop(schedule, "D", 5000.0, 0.0);
+
+		// Ready at B after 360s, at C after the walk of 120m
+		addRoute(schedule, "AB", "bus", List.of(stopA, stopB), new double[] { 0.0, 300.0 }, 0.0,
+				DEPARTURE_TIME + 60.0);
+
+		// The first departure leaves before C can be reached
+		addRoute(schedule, "CD", "rail", List.of(stopC, stopD), new double[] { 0.0, 600.0 }, 0.0,
+				DEPARTURE_TIME + 400.0, DEPARTURE_TIME + 700.0, DEPARTURE_TIME + 1300.0);
+
+		TransitIsochroneData data = createData(schedule);
+		Map<TransitStopFacility, Double> origins = Map.of(stopA, 0.0);
+
+		TransitIsochroneSearch search = runSearch(data, origins, Double.POSITIVE_INFINITY, Integer.MAX_VALUE,
+				Set.of(), 200.0);
+
+		double walkTime = 120.0 * WALK_PARAMETERS.beelineWalkFactor() / WALK_PARAMETERS.beelineWalkSpeed_m_s();
+
+		int indexB = data.getIndex(stopB);
+		Assert.assertEquals(360.0, search.travelTime[indexB], EPSILON);
+		Assert.assertEquals(60.0, search.waitTime[indexB], EPSILON);
+		Assert.assertEquals(0, search.transfers[indexB]);
+		Assert.assertEquals(stopA, data.stops[search.boardingStop[indexB]]);
+
+		// C is only reached on foot, so it has no label
+		Assert.assertEquals(Double.POSITIVE_INFINITY, search.travelTime[data.getIndex(stopC)], 0.0);
+
+		// The second vehicle is boarded at the stop that is reached by walking
+		int indexD = data.getIndex(stopD);
+		Assert.assertEquals(1300.0, search.travelTime[indexD], EPSILON);
+		Assert.assertEquals(walkTime, search.transferTime[indexD], EPSILON);
+		Assert.assertEquals(60.0 + 700.0 - 360.0 - walkTime, search.waitTime[indexD], EPSILON);
+		Assert.assertEquals(0.0, search.accessTime[indexD], EPSILON);
+		Assert.assertEquals(1, search.transfers[indexD]);
+		Assert.assertEquals(stopC, data.stops[search.boardingStop[indexD]]);
+		Assert.assertFalse(search.isOrigin[indexD]);
+
+		// Only one vehicle leg
+		search = runSearch(data, origins, Double.POSITIVE_INFINITY, 1, Set.of(), 200.0);
+		Assert.assertEquals(Double.POSITIVE_INFINITY, search.travelTime[indexD], 0.0);
+
+		// Restricted second mode
+		search = runSearch(data, origins, Double.POSITIVE_INFINITY, Integer.MAX_VALUE, Set.of("rail"), 200.0);
+		Assert.assertEquals(Double.POSITIVE_INFINITY, search.travelTime[indexD], 0.0);
+
+		// Transfer distance too short
+		search = runSearch(data, origins, Double.POSITIVE_INFINITY, Integer.MAX_VALUE, Set.of(), 100.0);
+		Assert.assertEquals(Double.POSITIVE_INFINITY, search.travelTime[indexD], 0.0);
+
+		assertEquivalent(schedule, data, origins, Double.POSITIVE_INFINITY, 3, Set.of(), 200.0);
+	}
+
+	@Test
+	public void testWalkFromOrigin() {
+		TransitSchedule schedule = factory.createTransitSchedule();
+
+		TransitStopFacility stopA = addStop(schedule, "A", 0.0, 0.0);
+		TransitStopFacility stopB = addStop(schedule, "B", 150.0, 0.0);
+		TransitStopFacility stopC = addStop(schedule, "C", 3000.0, 0.0);
+
+		addRoute(schedule, "BC", "bus", List.of(stopB, stopC), new double[] { 0.0, 400.0 }, 0.0,
+				DEPARTURE_TIME + 500.0);
+
+		TransitIsochroneData data = createData(schedule);
+		Map<TransitStopFacility, Double> origins = Map.of(stopA, 30.0);
+
+		TransitIsochroneSearch search = runSearch(data, origins, Double.POSITIVE_INFINITY, 1, Set.of(), 200.0);
+		double walkTime = 150.0 * WALK_PARAMETERS.beelineWalkFactor() / WALK_PARAMETERS.beelineWalkSpeed_m_s();
+
+		int indexA = data.getIndex(stopA);
+		Assert.assertTrue(search.isOrigin[indexA]);
+		Assert.assertEquals(30.0, search.travelTime[indexA], EPSILON);
+		Assert.assertEquals(30.0, search.accessTime[indexA], EPSILON);
+
+		int indexC = data.getIndex(stopC);
+		Assert.assertEquals(900.0, search.travelTime[indexC], EPSILON);
+		Assert.assertEquals(30.0, search.accessTime[indexC], EPSILON);
+		Assert.assertEquals(walkTime, search.transferTime[indexC], EPSILON);
+		Assert.assertEquals(500.0 - 30.0 - walkTime, search.waitTime[indexC], EPSILON);
+		Assert.assertEquals(0, search.transfers[indexC]);
+		Assert.assertEquals(stopB, data.stops[search.boardingStop[indexC]]);
+
+		// Maximum travel time
+		search = runSearch(data, origins, 899.0, 1, Set.of(), 200.0);
+		Assert.assertEquals(Double.POSITIVE_INFINITY, search.travelTime[indexC], 0.0);
+	}
+
+	private void runRandom(long seed) {
+		Random random = new Random(seed);
+		TransitSchedule schedule = factory.createTransitSchedule();
+
+		int numberOfStops = 6 + random.nextInt(5);
+		List<TransitStopFacility> stops = new ArrayList<>();
+
+		for (int k = 0; k < numberOfStops; k++) {
+			stops.add(addStop(schedule, "s" + k, random.nextDouble() * 1500.0, random.nextDouble() * 1500.0));
+		}
+
+		int numberOfRoutes = 3 + random.nextInt(4);
+		List<String> modes = List.of("bus", "rail");
+
+		for (int r = 0; r < numberOfRoutes; r++) {
+			List<TransitStopFacility> routeStops = new ArrayList<>(stops);
+			Collections.shuffle(routeStops, random);
+			routeStops = routeStops.subList(0, 2 + random.nextInt(4));
+
+			double[] offsets = new double[routeStops.size()];
+
+			for (int k = 1; k < offsets.length; k++) {
+				offsets[k] = offsets[k - 1] + 60.0 + random.nextDouble() * 400.0;
+			}
+
+			double[] departureTimes = new double[1 + random.nextInt(4)];
+
+			for (int k = 0; k < departureTimes.length; k++) {
+				departureTimes[k] = DEPARTURE_TIME - 600.0 + random.nextDouble() * 3600.0;
+			}
+
+			addRoute(schedule, "r" + r, modes.get(random.nextInt(modes.size())), routeStops, offsets,
+					random.nextDouble() * 60.0, departureTimes);
+		}
+
+		Map<TransitStopFacility, Double> origins = new LinkedHashMap<>();
+		int numberOfOrigins = 1 + random.nextInt(2);
+
+		for (int k = 0; k < numberOfOrigins; k++) {
+			origins.put(stops.get(random.nextInt(numberOfStops)), random.nextDouble() * 200.0);
+		}
+
+		double maximumTravelTime = random.nextBoolean() ? Double.POSITIVE_INFINITY
+				: 600.0 + random.nextDouble() * 2400.0;
+		int maximumRounds = 1 + random.nextInt(4);
+		Set<String> restrictedModes = random.nextInt(4) == 0 ? Set.of("rail") : Set.of();
+		double maximumTransferDistance = random.nextDouble() * 500.0;
+
+		assertEquivalent(schedule, createData(schedule), origins, maximumTravelTime, maximumRounds, restrictedModes,
+				maximumTransferDistance);
+	}
+
+	@Test
+	public void testRandomSchedules() {
+		for (long seed = 0; seed < 500; seed++) {
+			runRandom(seed);
+		}
+	}
+
+	@Test
+	public void testReuse() {
+		Random random = new Random(0);
+		TransitSchedule schedule = factory.createTransitSchedule();
+
+		List<TransitStopFacility> stops = new ArrayList<>();
+
+		for (int k = 0; k < 8; k++) {
+			stops.add(addStop(schedule, "s" + k, random.nextDouble() * 1000.0, random.nextDouble() * 1000.0));
+		}
+
+		addRoute(schedule, "r0", "bus", stops.subList(0, 5), new double[] { 0.0, 100.0, 250.0, 400.0, 500.0 },
+				20.0, DEPARTURE_TIME + 100.0, DEPARTURE_TIME + 900.0);
+		addRoute(schedule, "r1", "bus", stops.subList(3, 8), new double[] { 0.0, 120.0, 200.0, 330.0, 450.0 },
+				20.0, DEPARTURE_TIME + 300.0, DEPARTURE_TIME + 1200.0);
+
+		TransitIsochroneData data = createData(schedule);
+		TransitIsochroneSearch search = new TransitIsochroneSearch(data);
+
+		// A search instance that is reset gives the same labels as a new one
+		for (TransitStopFacility origin : stops) {
+			search.reset();
+			search.addOrigin(data.getIndex(origin), 0.0);
+			search.run(DEPARTURE_TIME, Double.POSITIVE_INFINITY, 3, data.getRestrictedModes(Set.of()),
+					data.getTransferGraph(300.0));
+
+			TransitIsochroneSearch fresh = runSearch(data, Map.of(origin, 0.0), Double.POSITIVE_INFINITY, 3, Set.of(),
+					300.0);
+
+			Assert.assertArrayEquals(fresh.travelTime, search.travelTime, 0.0);
+
+			// Labels of stops that have not been reached are not reset
+			for (int index = 0; index < data.stopCount; index++) {
+				if (search.travelTime[index] < Double.POSITIVE_INFINITY) {
+					Assert.assertEquals(fresh.accessTime[index], search.accessTime[index], 0.0);
+					Assert.assertEquals(fresh.transferTime[index], search.transferTime[index], 0.0);
+					Assert.assertEquals(fresh.waitTime[index], search.waitTime[index], 0.0);
+					Assert.assertEquals(fresh.transfers[index], search.transfers[index]);
+					Assert.assertEquals(fresh.boardingStop[index], search.boardingStop[index]);
+					Assert.assertEquals(fresh.isOrigin[index], search.isOrigin[index]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package org.eqasim.server.services.isochrone.transit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eqasim.server.services.TransitConfiguration;
+import org.eqasim.server.services.WalkConfiguration;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleReader;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.io.Resources;
+
+/**
+ * Time per transit isochrone request on the Corsica schedule of the
+ * ile_de_france module. Requests start at random stops in the morning and are
+ * processed in a fixed sequence. Run with
+ *
+ * mvn -pl server test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.eqasim.server.services.isochrone.transit.TransitIsochroneBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransitIsochroneBenchmark {
+	private final static int REQUESTS = 256;
+
+	@Param({ "0", "2", "5" })
+	public int maximumTransfers;
+
+	@Param({ "0.4", "1.0" })
+	public double maximumTransferDistance_km;
+
+	private TransitIsochroneService service;
+	private final List<TransitIsochroneRequest> requests = new ArrayList<>();
+	private int nextRequest = 0;
+
+	@Setup
+	public void setup() {
+		Config config = ConfigUtils.createConfig();
+		config.transit().setUseTransit(true);
+
+		Scenario scenario = ScenarioUtils.createScenario(config);
+		new TransitScheduleReader(scenario).readURL(Resources.getResource("corsica/corsica_transit_schedule.xml.gz"));
+
+		TransitSchedule schedule = scenario.getTransitSchedule();
+		service = TransitIsochroneService.create(config, schedule, new TransitConfiguration(),
+				new WalkConfiguration());
+
+		List<TransitStopFacility> stops = new ArrayList<>(schedule.getFacilities().values());
+		Random random = new Random(0);
+
+		for (int k = 0; k < REQUESTS; k++) {
+			TransitStopFacility origin = stops.get(random.nextInt(stops.size()));
+
+			TransitIsochroneRequest request = new TransitIsochroneRequest();
+			request.originX = origin.getCoord().getX() + random.nextDouble() * 200.0 - 100.0;
+			request.originY = origin.getCoord().getY() + random.nextDouble() * 200.0 - 100.0;
+			request.departureTime_s = 6.0 * 3600.0 + random.nextDouble() * 4.0 * 3600.0;
+			request.maximumTravelTime_min = 120.0;
+			request.maximumTransfers = maximumTransfers;
+			request.maximumTransferDistance_km = maximumTransferDistance_km;
+			request.considerAccess = true;
+
+			requests.add(request);
+		}
+	}
+
+	@Benchmark
+	public int request() {
+		TransitIsochroneRequest request = requests.get(nextRequest);
+		nextRequest = (nextRequest + 1) % REQUESTS;
+
+		return service.processRequest(request).stops.size();
+	}
+
+	static public void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder() //
+				.include(TransitIsochroneBenchmark.class.getSimpleName()) //
+				.build();
+
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,216 @@
+package org.eqasim.server.services.router.transit;
+
+import java.util.List;
+import java.util.Set;
+
+import org.eqasim.core.misc.LinkSnapper;
+import org.eqasim.server.services.CacheConfiguration;
+import org.eqasim.server.services.RoutingCache;
+import org.eqasim.server.services.TransitConfiguration;
+import org.eqasim.server.services.WalkConfiguration;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+/**
+ * Compares the responses of a router with a cache to those of a router without
+ * one on a single bus line between two stops. The origins are placed around the
+ * boarding stop and the destinations around the alighting stop, so all requests
+ * snap to the same links.
+ */
+public class TestTransitRouterService {
+	private final static double EPSILON = 1e-6;
+	private final static double FIRST_DEPARTURE = 8.0 * 3600.0;
+	private final static double INTERVAL = 600.0;
+	private final static double DEPARTURE_TIME = 8.0 * 3600.0 + 300.0;
+
+	private Scenario createScenario() {
+		Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+
+		Network network = scenario.getNetwork();
+		NetworkFactory networkFactory = network.getFactory();
+
+		Node[] nodes = new Node[4];
+		double[] x = { 0.0, 100.0, 5000.0, 5100.0 };
+
+		for (int k = 0; k < nodes.length; k++) {
+			nodes[k] = networkFactory.createNode(Id.createNodeId(k), new Coord(x[k], 0.0));
+			network.addNode(nodes[k]);
+		}
+
+		String[] names = { "origin", "line", "destination" };
+
+		for (int k = 0; k < names.length; k++) {
+			Link link = networkFactory.createLink(Id.createLinkId(names[k]), nodes[k], nodes[k + 1]);
+			link.setLength(x[k + 1] - x[k]);
+			link.setFreespeed(15.0);
+			link.setCapacity(1000.0);
+			link.setAllowedModes(Set.of("car", "bus"));
+			network.addLink(link);
+		}
+
+		TransitSchedule schedule = scenario.getTransitSchedule();
+		TransitScheduleFactory factory = schedule.getFactory();
+
+		TransitStopFacility accessStop = factory.createTransitStopFacility(Id.create("access", TransitStopFacility.class),
+				new Coord(50.0, 0.0), false);
+		accessStop.setLinkId(Id.createLinkId("origin"));
+		schedule.addStopFacility(accessStop);
+
+		TransitStopFacility egressStop = factory.createTransitStopFacility(Id.create("egress", TransitStopFacility.class),
+				new Coord(5050.0, 0.0), false);
+		egressStop.setLinkId(Id.createLinkId("destination"));
+		schedule.addStopFacility(egressStop);
+
+		TransitRoute route = factory.createTransitRoute(Id.create("route", TransitRoute.class),
+				RouteUtils.createLinkNetworkRouteImpl(Id.createLinkId("origin"), List.of(Id.createLinkId("line")),
+						Id.createLinkId("destination")),
+				List.of(factory.createTransitRouteStop(accessStop, 0.0, 0.0),
+						factory.createTransitRouteStop(egressStop, 300.0, 300.0)),
+				"bus");
+
+		for (int k = 0; k < 12; k++) {
+			route.addDeparture(
+					factory.createDeparture(Id.create("departure" + k, Departure.class), FIRST_DEPARTURE + k * INTERVAL));
+		}
+
+		TransitLine line = factory.createTransitLine(Id.create("line", TransitLine.class));
+		line.addRoute(route);
+		schedule.addTransitLine(line);
+
+		return scenario;
+	}
+
+	private TransitRouterService createService(Scenario scenario, int maximumSize) {
+		CacheConfiguration cacheConfiguration = new CacheConfiguration();
+		cacheConfiguration.maximumSize = maximumSize;
+
+		return TransitRouterService.create(scenario.getConfig(), scenario.getNetwork(), scenario.getTransitSchedule(),
+				new LinkSnapper(scenario.getNetwork()), new TransitConfiguration(), new WalkConfiguration(),
+				cacheConfiguration, 1);
+	}
+
+	private TransitRouterRequest createRequest(double originY, double destinationY, double departureTime) {
+		TransitRouterRequest request = new TransitRouterRequest();
+		request.originX = 50.0;
+		request.originY = originY;
+		request.destinationX = 5050.0;
+		request.destinationY = destinationY;
+		request.departureTime_s = departureTime;
+		request.provideItinerary = true;
+		return request;
+	}
+
+	private void assertSameResponse(TransitRouterResponse expected, TransitRouterResponse actual) {
+		Assert.assertFalse(actual.isOnlyWalk);
+		Assert.assertEquals(expected.transfers, actual.transfers);
+
+		Assert.assertEquals(expected.accessWalkTime_min, actual.accessWalkTime_min, EPSILON);
+		Assert.assertEquals(expected.accessWalkDistance_km, actual.accessWalkDistance_km, EPSILON);
+		Assert.assertEquals(expected.initialWaitTime_min, actual.initialWaitTime_min, EPSILON);
+		Assert.assertEquals(expected.inVehicleTravelTime_min, actual.inVehicleTravelTime_min, EPSILON);
+		Assert.assertEquals(expected.inVehicleDistance_km, actual.inVehicleDistance_km, EPSILON);
+		Assert.assertEquals(expected.egressWalkTime_min, actual.egressWalkTime_min, EPSILON);
+		Assert.assertEquals(expected.egressWalkDistance_km, actual.egressWalkDistance_km, EPSILON);
+		Assert.assertEquals(expected.totalTravelTime_min, actual.totalTravelTime_min, EPSILON);
+		Assert.assertEquals(expected.arrivalTime_s, actual.arrivalTime_s, EPSILON);
+
+		Assert.assertEquals(expected.itinerary.stops.size(), actual.itinerary.stops.size());
+
+		for (int k = 0; k < expected.itinerary.stops.size(); k++) {
+			var expectedStop = expected.itinerary.stops.get(k);
+			var actualStop = actual.itinerary.stops.get(k);
+
+			Assert.assertEquals(expectedStop.id, actualStop.id);
+			Assert.assertEquals(expectedStop.arrivalTime_s, actualStop.arrivalTime_s, EPSILON);
+			Assert.assertEquals(expectedStop.departureTime_s, actualStop.departureTime_s, EPSILON);
+		}
+	}
+
+	/**
+	 * Asserts that the vehicle is boarded at a scheduled departure.
+	 */
+	private void assertScheduledBoarding(TransitRouterResponse response) {
+		var boardingStop = response.itinerary.stops.get(0);
+		Assert.assertEquals("access", boardingStop.id);
+
+		double offset = (boardingStop.departureTime_s - FIRST_DEPARTURE) % INTERVAL;
+		Assert.assertEquals(0.0, offset, EPSILON);
+	}
+
+	private RoutingCache.Stats process(TransitRouterService cachedService, TransitRouterService referenceService,
+			TransitRouterRequest request) {
+		TransitRouterResponse expected = referenceService.processRequest(request, null);
+		TransitRouterResponse actual = cachedService.processRequest(request, null);
+
+		assertSameResponse(expected, actual);
+		assertScheduledBoarding(actual);
+
+		return cachedService.getCache().getStats();
+	}
+
+	@Test
+	public void testRepeatedRequest() {
+		Scenario scenario = createScenario();
+		TransitRouterService cachedService = createService(scenario, 100);
+		TransitRouterService referenceService = createService(scenario, 0);
+
+		TransitRouterRequest request = createRequest(50.0, 30.0, DEPARTURE_TIME);
+
+		RoutingCache.Stats stats = process(cachedService, referenceService, request);
+		Assert.assertEquals(0, stats.hits());
+		Assert.assertEquals(1, stats.size());
+
+		stats = process(cachedService, referenceService, request);
+		Assert.assertEquals(1, stats.hits());
+		Assert.assertEquals(1, stats.size());
+	}
+
+	@Test
+	public void testSameAccessTime() {
+		Scenario scenario = createScenario();
+		TransitRouterService cachedService = createService(scenario, 100);
+		TransitRouterService referenceService = createService(scenario, 0);
+
+		process(cachedService, referenceService, createRequest(50.0, 30.0, DEPARTURE_TIME));
+
+		// The boarding stop is reached at the same time, the scheduled part is reused
+		// and the egress walk is calculated for the other destination
+		RoutingCache.Stats stats = process(cachedService, referenceService, createRequest(-50.0, -80.0, DEPARTURE_TIME));
+		Assert.assertEquals(1, stats.hits());
+	}
+
+	@Test
+	public void testOtherAccessTime() {
+		Scenario scenario = createScenario();
+		TransitRouterService cachedService = createService(scenario, 100);
+		TransitRouterService referenceService = createService(scenario, 0);
+
+		process(cachedService, referenceService, createRequest(50.0, 30.0, DEPARTURE_TIME));
+
+		// Another distance to the boarding stop
+		RoutingCache.Stats stats = process(cachedService, referenceService, createRequest(20.0, 30.0, DEPARTURE_TIME));
+		Assert.assertEquals(0, stats.hits());
+		Assert.assertEquals(1, stats.misses());
+
+		// Another departure time within the same departure time bucket
+		stats = process(cachedService, referenceService, createRequest(50.0, 30.0, DEPARTURE_TIME + 30.0));
+		Assert.assertEquals(0, stats.hits());
+		Assert.assertEquals(2, stats.misses());
+	}
+}
@@ -1,8 +1,12 @@
 package org.eqasim.vdf;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
+import org.eqasim.vdf.handlers.VDFWeightedHandler.WeightingType;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ReflectiveConfigGroup;
@@ -21,14 +25,28 @@ public class VDFConfigGroup extends ReflectiveConfigGroup {
 	static private final String BPR_FACTOR = "bpr:factor";
 	static private final String BPR_EXPONENT = "bpr:exponent";
 
+	static private final String FUNCTION = "function";
+	static private final String ROAD_CLASS_FUNCTIONS = "roadClassFunctions";
+	static private final String CONICAL_ALPHA = "conical:alpha";
+	static private final String AKCELIK_DELAY_PARAMETER = "akcelik:delayParameter";
+	static private final String DAVIDSON_DELAY_PARAMETER = "davidson:delayParameter";
+	static private final String DAVIDSON_SATURATION = "davidson:saturation";
+
 	static private final String MODES = "modes";
 
 	static private final String HANDLER = "handler";
+	static private final String WEIGHTING = "weighting";
+	static private final String WEIGHTING_DECAY = "weighting:decay";
 	static private final String INPUT_FILE = "inputFile";
 	static private final String WRITE_INTERVAL = "writeInterval";
 	static private final String WRITE_FLOW_INTERVAL = "writeFlowInterval";
+	static private final String FLOW_COMPRESSION = "flowCompression";
+	static private final String WRITE_FLOW_BINARY = "writeFlowBinary";
 	
 	static private final String GENERATE_NETWORK_EVENTS = "generateNetworkEvents";
+	static private final String CONCURRENT_COUNTING = "concurrentCounting";
+	static private final String UPDATE_TOLERANCE = "updateTolerance";
+	static private final String INTERPOLATE_TRAVEL_TIMES = "interpolateTravelTimes";
 
 	private double startTime = 0.0 * 3600.0;
 	private double endTime = 24.0 * 3600.0;
@@ -39,6 +57,17 @@ public class VDFConfigGroup extends ReflectiveConfigGroup {
 	private double bprFactor = 0.15;
 	private double bprExponent = 4.0;
 
+	public enum FunctionType {
+		BPR, Conical, Akcelik, Davidson
+	}
+
+	private FunctionType function = FunctionType.BPR;
+	private Map<String, FunctionType> roadClassFunctions = new HashMap<>();
+	private double conicalAlpha = 4.0;
+	private double akcelikDelayParameter = 0.1;
+	private double davidsonDelayParameter = 0.25;
+	private double davidsonSaturation = 0.95;
+
 	private Set<String> modes = Set.of(TransportMode.car, "car_passenger");
 
 	private double capacityFactor = 1.0;
@@ -46,15 +75,28 @@ public class VDFConfigGroup extends ReflectiveConfigGroup {
 	private String inputFile = null;
 	private int writeInterval = 0;
 	private int writeFlowInterval = 0;
+
+	public enum FlowCompression {
+		None, Gzip, Zstd
+	}
+
+	private FlowCompression flowCompression = FlowCompression.None;
+	private boolean writeFlowBinary = false;
 	
 	private boolean generateNetworkEvents = true;
+	private boolean concurrentCounting = false;
+	private double updateTolerance = 0.0;
+	private boolean interpolateTravelTimes = false;
 
 	public enum HandlerType {
-		Horizon, Interpolation
+		Horizon, Interpolation, Weighted
 	}
 
 	private HandlerType handler = HandlerType.Horizon;
 
+	private WeightingType weighting = WeightingType.Exponential;
+	private double weightingDecay = 0.9;
+
 	public VDFConfigGroup() {
 		super(GROUP_NAME);
 	}
@@ -172,6 +214,91 @@ public class VDFConfigGroup extends ReflectiveConfigGroup {
 		this.modes.addAll(modes);
 	}
 
+	@StringGetter(FUNCTION)
+	public FunctionType getFunction() {
+		return function;
+	}
+
+	@StringSetter(FUNCTION)
+	public void setFunction(FunctionType function) {
+		this.function = function;
+	}
+
+	public Map<String, FunctionType> getRoadClassFunctions() {
+		return roadClassFunctions;
+	}
+
+	public void setRoadClassFunctions(Map<String, FunctionType> roadClassFunctions) {
+		this.roadClassFunctions.clear();
+		this.roadClassFunctions.putAll(roadClassFunctions);
+	}
+
+	@StringGetter(ROAD_CLASS_FUNCTIONS)
+	public String getRoadClassFunctionsAsString() {
+		return roadClassFunctions.entrySet().stream().map(entry -> entry.getKey() + ":" + entry.getValue())
+				.collect(Collectors.joining(","));
+	}
+
+	@StringSetter(ROAD_CLASS_FUNCTIONS)
+	public void setRoadClassFunctionsAsString(String roadClassFunctions) {
+		this.roadClassFunctions.clear();
+
+		for (String item : roadClassFunctions.split(",")) {
+			if (item.isBlank()) {
+				continue;
+			}
+
+			String[] parts = item.split(":");
+
+			if (parts.length != 2) {
+				throw new IllegalStateException(
+						"Road class functions must be given as roadClass:function, but found: " + item);
+			}
+
+			this.roadClassFunctions.put(parts[0].trim(), FunctionType.valueOf(parts[1].trim()));
+		}
+	}
+
+	@StringGetter(CONICAL_ALPHA)
+	public double getConicalAlpha() {
+		return conicalAlpha;
+	}
+
+	@StringSetter(CONICAL_ALPHA)
+	public void setConicalAlpha(double conicalAlpha) {
+		this.conicalAlpha = conicalAlpha;
+	}
+
+	@StringGetter(AKCELIK_DELAY_PARAMETER)
+	public double getAkcelikDelayParameter() {
+		return akcelikDelayParameter;
+	}
+
+	@StringSetter(AKCELIK_DELAY_PARAMETER)
+	public void setAkcelikDelayParameter(double akcelikDelayParameter) {
+		this.akcelikDelayParameter = akcelikDelayParameter;
+	}
+
+	@StringGetter(DAVIDSON_DELAY_PARAMETER)
+	public double getDavidsonDelayParameter() {
+		return davidsonDelayParameter;
+	}
+
+	@StringSetter(DAVIDSON_DELAY_PARAMETER)
+	public void setDavidsonDelayParameter(double davidsonDelayParameter) {
+		this.davidsonDelayParameter = davidsonDelayParameter;
+	}
+
+	@StringGetter(DAVIDSON_SATURATION)
+	public double getDavidsonSaturation() {
+		return davidsonSaturation;
+	}
+
+	@StringSetter(DAVIDSON_SATURATION)
+	public void setDavidsonSaturation(double davidsonSaturation) {
+		this.davidsonSaturation = davidsonSaturation;
+	}
+
 	@StringGetter(MODES)
 	public String getModesAsString() {
 		return String.join(",", modes);
@@ -193,6 +320,26 @@ public class VDFConfigGroup extends ReflectiveConfigGroup {
 		this.handler = handler;
 	}
 
+	@StringGetter(WEIGHTING)
+	public WeightingType getWeighting() {
+		return weighting;
+	}
+
+	@StringSetter(WEIGHTING)
+	public void setWeighting(WeightingType weighting) {
+		this.weighting = weighting;
+	}
+
+	@StringGetter(WEIGHTING_DECAY)
+	public double getWeightingDecay() {
+		return weightingDecay;
+	}
+
+	@StringSetter(WEIGHTING_DECAY)
+	public void setWeightingDecay(double weightingDecay) {
+		this.weightingDecay = weightingDecay;
+	}
+
 	@StringGetter(INPUT_FILE)
 	public String getInputFile() {
 		return inputFile;
@@ -223,6 +370,26 @@ public class VDFConfigGroup extends ReflectiveConfigGroup {
 		this.writeFlowInterval = val;
 	}
 	
+	@StringGetter(FLOW_COMPRESSION)
+	public FlowCompression getFlowCompression() {
+		return flowCompression;
+	}
+
+	@StringSetter(FLOW_COMPRESSION)
+	public void setFlowCompression(FlowCompression flowCompression) {
+		this.flowCompression = flowCompression;
+	}
+
+	@StringGetter(WRITE_FLOW_BINARY)
+	public boolean getWriteFlowBinary() {
+		return writeFlowBinary;
+	}
+
+	@StringSetter(WRITE_FLOW_BINARY)
+	public void setWriteFlowBinary(boolean writeFlowBinary) {
+		this.writeFlowBinary = writeFlowBinary;
+	}
+
 	@StringGetter(GENERATE_NETWORK_EVENTS)
 	public boolean getNetworkEvents() {
 		return generateNetworkEvents;
@@ -233,6 +400,36 @@ public class VDFConfigGroup extends ReflectiveConfigGroup {
 		this.generateNetworkEvents = val;
 	}
 
+	@StringGetter(CONCURRENT_COUNTING)
+	public boolean getConcurrentCounting() {
+		return concurrentCounting;
+	}
+
+	@StringSetter(CONCURRENT_COUNTING)
+	public void setConcurrentCounting(boolean concurrentCounting) {
+		this.concurrentCounting = concurrentCounting;
+	}
+
+	@StringGetter(UPDATE_TOLERANCE)
+	public double getUpdateTolerance() {
+		return updateTolerance;
+	}
+
+	@StringSetter(UPDATE_TOLERANCE)
+	public void setUpdateTolerance(double updateTolerance) {
+		this.updateTolerance = updateTolerance;
+	}
+
+	@StringGetter(INTERPOLATE_TRAVEL_TIMES)
+	public boolean getInterpolateTravelTimes() {
+		return interpolateTravelTimes;
+	}
+
+	@StringSetter(INTERPOLATE_TRAVEL_TIMES)
+	public void setInterpolateTravelTimes(boolean interpolateTravelTimes) {
+		this.interpolateTravelTimes = interpolateTravelTimes;
+	}
+
 	public static VDFConfigGroup getOrCreate(Config config) {
 		VDFConfigGroup group = (VDFConfigGroup) config.getModules().get(GROUP_NAME);
 
@@ -1,13 +1,21 @@
 package org.eqasim.vdf;
 
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.eqasim.core.components.config.EqasimConfigGroup;
+import org.eqasim.vdf.VDFConfigGroup.FunctionType;
 import org.eqasim.vdf.handlers.VDFHorizonHandler;
 import org.eqasim.vdf.handlers.VDFInterpolationHandler;
 import org.eqasim.vdf.handlers.VDFTrafficHandler;
+import org.eqasim.vdf.handlers.VDFWeightedHandler;
 import org.eqasim.vdf.travel_time.VDFTravelTime;
+import org.eqasim.vdf.travel_time.function.AkcelikFunction;
 import org.eqasim.vdf.travel_time.function.BPRFunction;
+import org.eqasim.vdf.travel_time.function.ConicalFunction;
+import org.eqasim.vdf.travel_time.function.DavidsonFunction;
+import org.eqasim.vdf.travel_time.function.RoadClassFunction;
 import org.eqasim.vdf.travel_time.function.VolumeDelayFunction;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.core.config.ConfigGroup;
@@ -28,7 +36,6 @@ public class VDFModule extends AbstractModule {
 		}
 
 		addControlerListenerBinding().to(VDFUpdateListener.class);
-		bind(VolumeDelayFunction.class).to(BPRFunction.class);
 
 		switch (vdfConfig.getHandler()) {
 		case Horizon:
@@ -39,6 +46,10 @@ public class VDFModule extends AbstractModule {
 			bind(VDFTrafficHandler.class).to(VDFInterpolationHandler.class);
 			addEventHandlerBinding().to(VDFInterpolationHandler.class);
 			break;
+		case Weighted:
+			bind(VDFTrafficHandler.class).to(VDFWeightedHandler.class);
+			addEventHandlerBinding().to(VDFWeightedHandler.class);
+			break;
 		default:
 			throw new IllegalStateException();
 		}
@@ -52,7 +63,8 @@ public class VDFModule extends AbstractModule {
 		URL inputFile = config.getInputFile() == null ? null
 				: ConfigGroup.getInputFileURL(getConfig().getContext(), config.getInputFile());
 		return new VDFUpdateListener(network, scope, handler, travelTime, outputHierarchy, config.getWriteInterval(),
-				config.getWriteFlowInterval(), inputFile);
+				config.getWriteFlowInterval(), config.getFlowCompression(), config.getWriteFlowBinary(),
+				getConfig().global().getNumberOfThreads(), inputFile);
 	}
 
 	@Provides
@@ -66,20 +78,31 @@ public class VDFModule extends AbstractModule {
 	public VDFTravelTime provideVDFTravelTime(VDFConfigGroup config, VDFScope scope, Network network,
 			VolumeDelayFunction vdf, QSimConfigGroup qsimConfig, EqasimConfigGroup eqasimConfig) {
 		return new VDFTravelTime(scope, config.getMinimumSpeed(), config.getCapacityFactor(),
-				eqasimConfig.getSampleSize(), network, vdf, eqasimConfig.getCrossingPenalty());
+				eqasimConfig.getSampleSize(), network, vdf, eqasimConfig.getCrossingPenalty(),
+				config.getUpdateTolerance(), getConfig().global().getNumberOfThreads(),
+				config.getInterpolateTravelTimes());
 	}
 
 	@Provides
 	@Singleton
 	public VDFHorizonHandler provideVDFHorizonHandler(VDFConfigGroup config, Network network, VDFScope scope) {
-		return new VDFHorizonHandler(network, scope, config.getHorizon(), getConfig().global().getNumberOfThreads());
+		return new VDFHorizonHandler(network, scope, config.getHorizon(), getConfig().global().getNumberOfThreads(),
+				config.getConcurrentCounting());
 	}
 
 	@Provides
 	@Singleton
 	public VDFInterpolationHandler provideVDFInterpolationHandler(VDFConfigGroup config, Network network,
 			VDFScope scope) {
-		return new VDFInterpolationHandler(network, scope, 1.0 / config.getHorizon());
+		return new VDFInterpolationHandler(network, scope, 1.0 / config.getHorizon(),
+				config.getConcurrentCounting());
+	}
+
+	@Provides
+	@Singleton
+	public VDFWeightedHandler provideVDFWeightedHandler(VDFConfigGroup config, Network network, VDFScope scope) {
+		return new VDFWeightedHandler(network, scope, config.getWeighting(), config.getWeightingDecay(),
+				getConfig().global().getNumberOfThreads(), config.getConcurrentCounting());
 	}
 
 	@Provides
@@ -87,4 +110,43 @@ public class VDFModule extends AbstractModule {
 	public BPRFunction provideBPRFunction(VDFConfigGroup config) {
 		return new BPRFunction(config.getBprFactor(), config.getBprExponent());
 	}
+
+	@Provides
+	@Singleton
+	public VolumeDelayFunction provideVolumeDelayFunction(VDFConfigGroup config, VDFScope scope, Network network,
+			BPRFunction bprFunction) {
+		Map<FunctionType, VolumeDelayFunction> functions = new HashMap<>();
+		functions.put(FunctionType.BPR, bprFunction);
+
+		VolumeDelayFunction defaultFunction = functions.computeIfAbsent(config.getFunction(),
+				type -> createFunction(type, config, scope));
+
+		if (config.getRoadClassFunctions().isEmpty()) {
+			return defaultFunction;
+		}
+
+		Map<String, VolumeDelayFunction> roadClassFunctions = new HashMap<>();
+
+		for (var entry : config.getRoadClassFunctions().entrySet()) {
+			roadClassFunctions.put(entry.getKey(),
+					functions.computeIfAbsent(entry.getValue(), type -> createFunction(type, config, scope)));
+		}
+
+		return new RoadClassFunction(network, defaultFunction, roadClassFunctions);
+	}
+
+	private VolumeDelayFunction createFunction(FunctionType type, VDFConfigGroup config, VDFScope scope) {
+		switch (type) {
+		case BPR:
+			return new BPRFunction(config.getBprFactor(), config.getBprExponent());
+		case Conical:
+			return new ConicalFunction(config.getConicalAlpha());
+		case Akcelik:
+			return new AkcelikFunction(config.getAkcelikDelayParameter(), scope.getIntervalTime());
+		case Davidson:
+			return new DavidsonFunction(config.getDavidsonDelayParameter(), config.getDavidsonSaturation());
+		default:
+			throw new IllegalStateException();
+		}
+	}
 }
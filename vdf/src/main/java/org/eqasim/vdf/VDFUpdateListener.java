@@ -7,6 +7,7 @@ import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.eqasim.vdf.VDFConfigGroup.FlowCompression;
 import org.eqasim.vdf.analysis.FlowWriter;
 import org.eqasim.vdf.handlers.VDFTrafficHandler;
 import org.eqasim.vdf.travel_time.VDFTravelTime;
@@ -27,7 +28,8 @@ public class VDFUpdateListener implements IterationEndsListener, StartupListener
 	private final static Logger logger = LogManager.getLogger(VDFUpdateListener.class);
 
 	private final String VDF_FILE = "vdf.bin";
-	private final String FLOW_FILE = "vdf_flow.csv";
+	private final String FLOW_BINARY_FILE = "vdf_flow.bin";
+	private final String flowFile;
 
 	private final VDFScope scope;
 	private final VDFTrafficHandler handler;
@@ -35,21 +37,40 @@ public class VDFUpdateListener implements IterationEndsListener, StartupListener
 
 	private final int writeInterval;
 	private final int writeFlowInterval;
+	private final boolean writeFlowBinary;
+	private final int numberOfThreads;
 	private final URL inputFile;
 
 	private final OutputDirectoryHierarchy outputHierarchy;
 	private final Network network;
 
 	public VDFUpdateListener(Network network, VDFScope scope, VDFTrafficHandler handler, VDFTravelTime travelTime,
-			OutputDirectoryHierarchy outputHierarchy, int writeInterval, int writeFlowInterval, URL inputFile) {
+			OutputDirectoryHierarchy outputHierarchy, int writeInterval, int writeFlowInterval,
+			FlowCompression flowCompression, boolean writeFlowBinary, int numberOfThreads, URL inputFile) {
 		this.network = network;
 		this.scope = scope;
 		this.handler = handler;
 		this.travelTime = travelTime;
 		this.writeInterval = writeInterval;
 		this.writeFlowInterval = writeFlowInterval;
+		this.writeFlowBinary = writeFlowBinary;
+		this.numberOfThreads = numberOfThreads;
 		this.outputHierarchy = outputHierarchy;
 		this.inputFile = inputFile;
+
+		switch (flowCompression) {
+		case None:
+			this.flowFile = "vdf_flow.csv";
+			break;
+		case Gzip:
+			this.flowFile = "vdf_flow.csv.gz";
+			break;
+		case Zstd:
+			this.flowFile = "vdf_flow.csv.zst";
+			break;
+		default:
+			throw new IllegalStateException();
+		}
 	}
 
 	@Override
@@ -68,11 +89,21 @@ public class VDFUpdateListener implements IterationEndsListener, StartupListener
 		}
 
 		if (writeFlowInterval > 0 && (event.getIteration() % writeFlowInterval == 0 || event.isLastIteration())) {
-			File flowFile = new File(outputHierarchy.getIterationFilename(event.getIteration(), FLOW_FILE));
+			File outputFile = new File(outputHierarchy.getIterationFilename(event.getIteration(), flowFile));
+			FlowWriter flowWriter = new FlowWriter(data, network, scope, numberOfThreads);
 
-			logger.info("Writing flow information to " + flowFile.toString() + "...");
-			new FlowWriter(data, network, scope).write(flowFile);
+			logger.info("Writing flow information to " + outputFile.toString() + "...");
+			flowWriter.write(outputFile);
 			logger.info("  Done");
+
+			if (writeFlowBinary) {
+				File binaryFile = new File(
+						outputHierarchy.getIterationFilename(event.getIteration(), FLOW_BINARY_FILE));
+
+				logger.info("Writing binary flow information to " + binaryFile.toString() + "...");
+				flowWriter.writeBinary(binaryFile);
+				logger.info("  Done");
+			}
 		}
 	}
 
@@ -101,11 +132,13 @@ public class VDFUpdateListener implements IterationEndsListener, StartupListener
 				Files.copy(fromFile, toFile);
 			}
 
-			File fromFlowFile = new File(outputHierarchy.getIterationFilename(event.getIteration(), FLOW_FILE));
-			File toFlowFile = new File(outputHierarchy.getOutputFilename(FLOW_FILE));
+			for (String fileName : List.of(flowFile, FLOW_BINARY_FILE)) {
+				File fromFlowFile = new File(outputHierarchy.getIterationFilename(event.getIteration(), fileName));
+				File toFlowFile = new File(outputHierarchy.getOutputFilename(fileName));
 
-			if (fromFlowFile.exists()) {
-				Files.copy(fromFlowFile, toFlowFile);
+				if (fromFlowFile.exists()) {
+					Files.copy(fromFlowFile, toFlowFile);
+				}
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
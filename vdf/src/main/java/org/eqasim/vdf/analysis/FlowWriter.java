@@ -2,51 +2,123 @@ package org.eqasim.vdf.analysis;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import org.eqasim.vdf.VDFScope;
+import org.eqasim.vdf.data.IntervalArrayList;
+import org.eqasim.vdf.data.ParallelRows;
+import org.eqasim.vdf.data.VDFLinkIndex;
+import org.eqasim.vdf.io.VDFStateFormat;
+import org.eqasim.vdf.io.VDFStateFormat.Kind;
+import org.eqasim.vdf.io.VDFStateWriter;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.IdMap;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.utils.io.IOUtils;
 
+/**
+ * Writes the flows per link and interval. The CSV output is streamed in batches
+ * of links whose rows are formatted in parallel and then written in order, so
+ * the output does not depend on the number of threads. Compression is chosen
+ * by the file extension (for instance .gz or .zst).
+ */
 public class FlowWriter {
+	private final static int LINKS_PER_THREAD = 4096;
+
 	private final IdMap<Link, List<Double>> flows;
 	private final Network network;
 	private final VDFScope scope;
+	private final int numberOfThreads;
 
-	public FlowWriter(IdMap<Link, List<Double>> flows, Network network, VDFScope scope) {
+	public FlowWriter(IdMap<Link, List<Double>> flows, Network network, VDFScope scope, int numberOfThreads) {
 		this.flows = flows;
 		this.network = network;
 		this.scope = scope;
+		this.numberOfThreads = numberOfThreads;
 	}
 
 	public void write(File path) {
-		try {
-			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path)));
+		List<Id<Link>> linkIds = new ArrayList<>(flows.keySet());
+		int batchSize = LINKS_PER_THREAD * Math.max(1, numberOfThreads);
 
+		try (BufferedWriter writer = IOUtils.getBufferedWriter(path.toString())) {
 			writer.write(String.join(";", new String[] { "link_id", "interval", "start_time", "flow", "lanes", "osm" })
 					+ "\n");
 
-			for (Map.Entry<Id<Link>, List<Double>> item : flows.entrySet()) {
-				for (int interval = 0; interval < scope.getIntervals(); interval++) {
-					writer.write(String.join(";", new String[] { //
-							item.getKey().toString(), //
-							String.valueOf(interval), //
-							String.valueOf(scope.getStartTime() + interval * scope.getIntervalTime()), //
-							String.valueOf(item.getValue().get(interval)), //
-							String.valueOf(network.getLinks().get(item.getKey()).getNumberOfLanes()), //
-							String.valueOf(network.getLinks().get(item.getKey()).getAttributes()
-									.getAttribute("osm:way:highway")) //
-					}) + "\n");
+			for (int batchStart = 0; batchStart < linkIds.size(); batchStart += batchSize) {
+				int batchOffset = batchStart;
+				int batchLinks = Math.min(batchSize, linkIds.size() - batchStart);
+
+				// Chunks are indexed by their first row in the batch
+				StringBuilder[] chunks = new StringBuilder[batchLinks];
+
+				ParallelRows.run(batchLinks, numberOfThreads, (startRow, endRow) -> {
+					if (startRow < endRow) {
+						StringBuilder chunk = new StringBuilder();
+
+						for (int row = startRow; row < endRow; row++) {
+							formatLink(chunk, linkIds.get(batchOffset + row));
+						}
+
+						chunks[startRow] = chunk;
+					}
+				});
+
+				for (StringBuilder chunk : chunks) {
+					if (chunk != null) {
+						writer.append(chunk);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void formatLink(StringBuilder builder, Id<Link> linkId) {
+		Link link = network.getLinks().get(linkId);
+		List<Double> linkFlows = flows.get(linkId);
+
+		String linkIdValue = linkId.toString();
+		double lanes = link.getNumberOfLanes();
+		Object osm = link.getAttributes().getAttribute("osm:way:highway");
+
+		for (int interval = 0; interval < scope.getIntervals(); interval++) {
+			builder.append(linkIdValue).append(';');
+			builder.append(interval).append(';');
+			builder.append(scope.getStartTime() + interval * scope.getIntervalTime()).append(';');
+			builder.append(IntervalArrayList.getValue(linkFlows, interval)).append(';');
+			builder.append(lanes).append(';');
+			builder.append(osm).append('\n');
+		}
+	}
+
+	/**
+	 * Writes the flows as one block in the columnar binary format of
+	 * {@link VDFStateFormat}, which can be memory-mapped for further analysis.
+	 * Links without flows are written with zero values.
+	 */
+	public void writeBinary(File path) {
+		VDFLinkIndex linkIndex = new VDFLinkIndex(network);
+		int intervals = scope.getIntervals();
+
+		double[] values = new double[linkIndex.size() * intervals];
+
+		for (int row = 0; row < linkIndex.size(); row++) {
+			List<Double> linkFlows = flows.get(linkIndex.getLinkId(row));
+
+			if (linkFlows != null) {
+				for (int interval = 0; interval < intervals; interval++) {
+					values[row * intervals + interval] = IntervalArrayList.getValue(linkFlows, interval);
 				}
 			}
+		}
 
-			writer.close();
+		try {
+			new VDFStateWriter(scope, linkIndex, Kind.Flows, 0, 0).write(path, List.of(values));
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
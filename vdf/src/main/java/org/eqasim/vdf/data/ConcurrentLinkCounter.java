@@ -0,0 +1,26 @@
+package org.eqasim.vdf.data;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counter based on atomic increments of the individual link-interval
+ * cells, so that threads only contend when they enter the same link in the same
+ * interval at the same time.
+ */
+public class ConcurrentLinkCounter implements LinkCounter {
+	private final AtomicLongArray counts;
+
+	public ConcurrentLinkCounter(int size) {
+		this.counts = new AtomicLongArray(size);
+	}
+
+	@Override
+	public void increment(int position) {
+		counts.incrementAndGet(position);
+	}
+
+	@Override
+	public double take(int position) {
+		return counts.getAndSet(position, 0);
+	}
+}
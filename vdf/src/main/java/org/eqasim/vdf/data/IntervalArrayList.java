@@ -0,0 +1,56 @@
+package org.eqasim.vdf.data;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Fixed-size list view on a block of a primitive array.
+ */
+public class IntervalArrayList extends AbstractList<Double> implements RandomAccess {
+	private final double[] values;
+	private final int offset;
+	private final int size;
+
+	public IntervalArrayList(double[] values, int offset, int size) {
+		Objects.checkFromIndexSize(offset, size, values.length);
+
+		this.values = values;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	@Override
+	public Double get(int index) {
+		return values[offset + Objects.checkIndex(index, size)];
+	}
+
+	public double getDouble(int index) {
+		return values[offset + Objects.checkIndex(index, size)];
+	}
+
+	@Override
+	public Double set(int index, Double value) {
+		int position = offset + Objects.checkIndex(index, size);
+		double previous = values[position];
+		values[position] = value;
+		return previous;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Reads a value from a list without boxing if the list is backed by an array.
+	 */
+	static public double getValue(List<Double> list, int index) {
+		if (list instanceof IntervalArrayList arrayList) {
+			return arrayList.getDouble(index);
+		} else {
+			return list.get(index);
+		}
+	}
+}
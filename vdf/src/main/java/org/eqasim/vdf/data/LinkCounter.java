@@ -0,0 +1,17 @@
+package org.eqasim.vdf.data;
+
+/**
+ * Counts link entries in a flat array of size links x intervals.
+ */
+public interface LinkCounter {
+	void increment(int position);
+
+	/**
+	 * Returns the current count at the position and resets it to zero.
+	 */
+	double take(int position);
+
+	static LinkCounter create(int size, boolean concurrent) {
+		return concurrent ? new ConcurrentLinkCounter(size) : new SynchronizedLinkCounter(size);
+	}
+}
@@ -0,0 +1,41 @@
+package org.eqasim.vdf.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the rows of a flat links x intervals array into contiguous chunks and
+ * processes them on multiple threads.
+ */
+public class ParallelRows {
+	public interface Worker {
+		void process(int startRow, int endRow);
+	}
+
+	static public void run(int rows, int numberOfThreads, Worker worker) {
+		if (numberOfThreads < 2) {
+			worker.process(0, rows);
+		} else {
+			List<Thread> threads = new ArrayList<>(numberOfThreads);
+			int rowsPerThread = (rows + numberOfThreads - 1) / numberOfThreads;
+
+			for (int k = 0; k < numberOfThreads; k++) {
+				int startRow = Math.min(rows, k * rowsPerThread);
+				int endRow = Math.min(rows, (k + 1) * rowsPerThread);
+				threads.add(new Thread(() -> worker.process(startRow, endRow)));
+			}
+
+			for (int k = 0; k < numberOfThreads; k++) {
+				threads.get(k).start();
+			}
+
+			try {
+				for (int k = 0; k < numberOfThreads; k++) {
+					threads.get(k).join();
+				}
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
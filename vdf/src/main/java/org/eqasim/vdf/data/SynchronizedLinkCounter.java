@@ -0,0 +1,25 @@
+package org.eqasim.vdf.data;
+
+/**
+ * Counter that serializes all increments on one monitor. Cheapest option if
+ * events are processed by a single thread.
+ */
+public class SynchronizedLinkCounter implements LinkCounter {
+	private final double[] counts;
+
+	public SynchronizedLinkCounter(int size) {
+		this.counts = new double[size];
+	}
+
+	@Override
+	public synchronized void increment(int position) {
+		counts[position] += 1.0;
+	}
+
+	@Override
+	public double take(int position) {
+		double value = counts[position];
+		counts[position] = 0.0;
+		return value;
+	}
+}
@@ -0,0 +1,72 @@
+package org.eqasim.vdf.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.IdMap;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+
+/**
+ * Assigns a compact row to every link of the network so that per-link and
+ * per-interval values can be kept in flat primitive arrays of size links x
+ * intervals. Rows are looked up through the global index of the link id.
+ */
+public class VDFLinkIndex {
+	private final List<Id<Link>> linkIds;
+	private final int[] rows;
+
+	public VDFLinkIndex(Network network) {
+		this.linkIds = new ArrayList<>(network.getLinks().keySet());
+
+		int maximumIndex = -1;
+		for (Id<Link> linkId : linkIds) {
+			maximumIndex = Math.max(maximumIndex, linkId.index());
+		}
+
+		this.rows = new int[maximumIndex + 1];
+		Arrays.fill(rows, -1);
+
+		for (int row = 0; row < linkIds.size(); row++) {
+			rows[linkIds.get(row).index()] = row;
+		}
+	}
+
+	public int size() {
+		return linkIds.size();
+	}
+
+	/**
+	 * Returns the row of the link or -1 if the link is not part of the network.
+	 */
+	public int getRow(Id<Link> linkId) {
+		int index = linkId.index();
+		return index < rows.length ? rows[index] : -1;
+	}
+
+	public Id<Link> getLinkId(int row) {
+		return linkIds.get(row);
+	}
+
+	public List<Id<Link>> getLinkIds() {
+		return Collections.unmodifiableList(linkIds);
+	}
+
+	/**
+	 * Creates a map of list views on a flat array in which the values of each link
+	 * are stored in one contiguous block of intervals. The views are not copies,
+	 * they reflect all later changes to the array.
+	 */
+	public IdMap<Link, List<Double>> createView(double[] values, int intervals) {
+		IdMap<Link, List<Double>> view = new IdMap<>(Link.class);
+
+		for (int row = 0; row < linkIds.size(); row++) {
+			view.put(linkIds.get(row), new IntervalArrayList(values, row * intervals, intervals));
+		}
+
+		return view;
+	}
+}
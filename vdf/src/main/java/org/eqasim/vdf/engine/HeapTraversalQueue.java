@@ -0,0 +1,55 @@
+package org.eqasim.vdf.engine;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Traversal queue backed by a binary heap, so items are returned in the exact
+ * order of their arrival times.
+ */
+public class HeapTraversalQueue<T> implements TraversalQueue<T> {
+	private final ToDoubleFunction<T> arrivalTime;
+	private final PriorityQueue<T> queue;
+
+	public HeapTraversalQueue(ToDoubleFunction<T> arrivalTime) {
+		this.arrivalTime = arrivalTime;
+		this.queue = new PriorityQueue<>(Comparator.comparingDouble(arrivalTime));
+	}
+
+	@Override
+	public void add(T item) {
+		queue.add(item);
+	}
+
+	@Override
+	public boolean hasDue(double now) {
+		return !queue.isEmpty() && arrivalTime.applyAsDouble(queue.peek()) <= now;
+	}
+
+	@Override
+	public T pollDue(double now) {
+		return hasDue(now) ? queue.poll() : null;
+	}
+
+	@Override
+	public int size() {
+		return queue.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	@Override
+	public void clear() {
+		queue.clear();
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return queue.iterator();
+	}
+}
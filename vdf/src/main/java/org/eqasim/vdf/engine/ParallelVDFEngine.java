@@ -0,0 +1,211 @@
+package org.eqasim.vdf.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eqasim.vdf.handlers.VDFTrafficHandler;
+import org.eqasim.vdf.travel_time.VDFTravelTime;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.PersonStuckEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.api.experimental.events.TeleportationArrivalEvent;
+import org.matsim.core.mobsim.framework.MobsimAgent;
+import org.matsim.core.mobsim.framework.MobsimDriverAgent;
+import org.matsim.core.mobsim.framework.PlanAgent;
+import org.matsim.core.mobsim.qsim.InternalInterface;
+import org.matsim.core.mobsim.qsim.interfaces.DepartureHandler;
+import org.matsim.core.mobsim.qsim.interfaces.MobsimEngine;
+import org.matsim.core.population.routes.NetworkRoute;
+
+/**
+ * Multi-threaded variant of the {@link VDFEngine} for the case in which no
+ * network events are generated. Agents are partitioned by their index. Routes
+ * of departing agents are traversed and registered with the traffic handler by
+ * the partition workers, which also collect the agents that are due to arrive.
+ * Arrivals are then processed on the simulation thread, ordered by arrival time
+ * and agent index, so the generated events do not depend on the scheduling of
+ * the workers.
+ */
+public class ParallelVDFEngine implements DepartureHandler, MobsimEngine {
+	private final List<String> modes;
+
+	private final VDFRouteTraverser traverser;
+
+	private final int numberOfThreads;
+	private final List<Partition> partitions;
+
+	private ExecutorService executor;
+	private InternalInterface internalInterface;
+
+	public ParallelVDFEngine(Collection<String> modes, VDFTravelTime travelTime, Network network,
+			VDFTrafficHandler handler, int numberOfThreads, TraversalQueue.QueueType queueType) {
+		this.modes = new ArrayList<>(modes);
+		this.traverser = new VDFRouteTraverser(travelTime, network, handler);
+		this.numberOfThreads = numberOfThreads;
+
+		this.partitions = new ArrayList<>(numberOfThreads);
+
+		for (int k = 0; k < numberOfThreads; k++) {
+			partitions.add(new Partition(queueType));
+		}
+	}
+
+	@Override
+	public boolean handleDeparture(double now, MobsimAgent agent, Id<Link> linkId) {
+		Leg leg = (Leg) ((PlanAgent) agent).getCurrentPlanElement();
+
+		if (!modes.contains(leg.getMode())) {
+			return false;
+		}
+
+		Traversal traversal = new Traversal();
+		traversal.agent = (MobsimDriverAgent) agent;
+		traversal.agentIndex = agent.getId().index();
+		traversal.route = (NetworkRoute) leg.getRoute();
+		traversal.linkId = traversal.route.getEndLinkId();
+		traversal.departureTime = now;
+		traversal.modeIndex = modes.indexOf(leg.getMode());
+		traversal.distance = traversal.route.getDistance();
+
+		// The route is traversed by the partition workers in the next time step
+		partitions.get(traversal.agentIndex % numberOfThreads).departures.add(traversal);
+
+		return true;
+	}
+
+	@Override
+	public void doSimStep(double now) {
+		boolean hasWork = false;
+
+		for (Partition partition : partitions) {
+			hasWork |= partition.hasWork(now);
+		}
+
+		if (!hasWork) {
+			return;
+		}
+
+		List<Callable<List<Traversal>>> tasks = new ArrayList<>(numberOfThreads);
+
+		for (Partition partition : partitions) {
+			tasks.add(() -> partition.process(now));
+		}
+
+		List<Traversal> arrivals = new ArrayList<>();
+
+		try {
+			for (Future<List<Traversal>> result : executor.invokeAll(tasks)) {
+				arrivals.addAll(result.get());
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		}
+
+		arrivals.sort(new ArrivalComparator());
+
+		EventsManager eventsManager = internalInterface.getMobsim().getEventsManager();
+
+		for (Traversal traversal : arrivals) {
+			eventsManager.processEvent(new TeleportationArrivalEvent(now, traversal.agent.getId(), traversal.distance,
+					modes.get(traversal.modeIndex)));
+			traversal.agent.notifyArrivalOnLinkByNonNetworkMode(traversal.linkId);
+
+			traversal.agent.endLegAndComputeNextState(now);
+			internalInterface.arrangeNextAgentState(traversal.agent);
+		}
+	}
+
+	@Override
+	public void onPrepareSim() {
+		executor = Executors.newFixedThreadPool(numberOfThreads);
+	}
+
+	@Override
+	public void afterSim() {
+		executor.shutdownNow();
+
+		EventsManager eventsManager = internalInterface.getMobsim().getEventsManager();
+		double now = internalInterface.getMobsim().getSimTimer().getTimeOfDay();
+
+		for (Partition partition : partitions) {
+			List<Traversal> remaining = new ArrayList<>(partition.departures);
+			partition.traversals.forEach(remaining::add);
+
+			for (Traversal traversal : remaining) {
+				eventsManager.processEvent(new PersonStuckEvent(now, traversal.agent.getId(),
+						traversal.agent.getCurrentLinkId(), modes.get(traversal.modeIndex)));
+			}
+
+			partition.departures.clear();
+			partition.traversals.clear();
+		}
+	}
+
+	@Override
+	public void setInternalInterface(InternalInterface internalInterface) {
+		this.internalInterface = internalInterface;
+	}
+
+	private class Partition {
+		final List<Traversal> departures = new ArrayList<>();
+		final TraversalQueue<Traversal> traversals;
+
+		Partition(TraversalQueue.QueueType queueType) {
+			this.traversals = TraversalQueue.create(queueType, traversal -> traversal.arrivalTime);
+		}
+
+		boolean hasWork(double now) {
+			return !departures.isEmpty() || traversals.hasDue(now);
+		}
+
+		List<Traversal> process(double now) {
+			for (Traversal traversal : departures) {
+				traversal.arrivalTime = traverser.traverseRoute(traversal.departureTime, traversal.route,
+						traversal.agent);
+				traversal.route = null;
+				traversals.add(traversal);
+			}
+
+			departures.clear();
+
+			List<Traversal> arrivals = new ArrayList<>();
+
+			Traversal traversal;
+
+			while ((traversal = traversals.pollDue(now)) != null) {
+				arrivals.add(traversal);
+			}
+
+			return arrivals;
+		}
+	}
+
+	private class Traversal {
+		MobsimDriverAgent agent;
+		int agentIndex;
+		NetworkRoute route;
+		Id<Link> linkId;
+		double departureTime;
+		double arrivalTime;
+		int modeIndex;
+		double distance;
+	}
+
+	private class ArrivalComparator implements Comparator<Traversal> {
+		@Override
+		public int compare(Traversal a, Traversal b) {
+			int result = Double.compare(a.arrivalTime, b.arrivalTime);
+			return result != 0 ? result : Integer.compare(a.agentIndex, b.agentIndex);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package org.eqasim.vdf.engine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.ToDoubleFunction;
+
+import com.google.common.collect.Iterables;
+
+/**
+ * Traversal queue that sorts items into buckets of one second, arranged as a
+ * wheel that covers the next seconds of the simulation. An item is due in the
+ * first whole second at or after its arrival time, which is when the simulation
+ * would process it with a heap as well. Adding and removing items is constant
+ * in time, except for items that arrive beyond the range of the wheel: they are
+ * kept in an overflow heap and moved into the wheel once it has advanced far
+ * enough.
+ *
+ * In contrast to the heap, items that are due in the same second are returned
+ * in the order in which they have been added rather than by their exact arrival
+ * time.
+ */
+public class TimeWheelTraversalQueue<T> implements TraversalQueue<T> {
+	static public final int DEFAULT_WHEEL_SIZE = 4096;
+
+	private final ToDoubleFunction<T> arrivalTime;
+
+	private final List<ArrayDeque<T>> buckets;
+	private final int wheelSize;
+
+	private final PriorityQueue<T> overflow;
+
+	// The wheel is only positioned with the first call to pollDue, until then all
+	// items are kept in the overflow heap
+	private boolean isStarted = false;
+	private long currentSecond;
+
+	private int size = 0;
+
+	public TimeWheelTraversalQueue(ToDoubleFunction<T> arrivalTime, int wheelSize) {
+		this.arrivalTime = arrivalTime;
+		this.wheelSize = wheelSize;
+		this.overflow = new PriorityQueue<>(Comparator.comparingDouble(arrivalTime));
+
+		this.buckets = new ArrayList<>(wheelSize);
+
+		for (int k = 0; k < wheelSize; k++) {
+			buckets.add(new ArrayDeque<>());
+		}
+	}
+
+	/**
+	 * Returns the second in which the item is due. Items that are already late are
+	 * due in the current second.
+	 */
+	private long getDueSecond(T item) {
+		return Math.max(currentSecond, (long) Math.ceil(arrivalTime.applyAsDouble(item)));
+	}
+
+	private ArrayDeque<T> getBucket(long second) {
+		return buckets.get((int) Math.floorMod(second, (long) wheelSize));
+	}
+
+	@Override
+	public void add(T item) {
+		size++;
+
+		if (isStarted) {
+			long second = getDueSecond(item);
+
+			if (second - currentSecond < wheelSize) {
+				getBucket(second).add(item);
+				return;
+			}
+		}
+
+		overflow.add(item);
+	}
+
+	private void moveOverflow() {
+		while (!overflow.isEmpty()) {
+			long second = getDueSecond(overflow.peek());
+
+			if (second - currentSecond < wheelSize) {
+				getBucket(second).add(overflow.poll());
+			} else {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Advances the wheel up to the given time and returns the first bucket that
+	 * contains due items, or null if there is none. The wheel never moves beyond
+	 * the current time, so items that are added with an arrival time in the current
+	 * second are still returned in this time step.
+	 */
+	private ArrayDeque<T> advance(double now) {
+		long limit = (long) Math.floor(now);
+
+		if (!isStarted) {
+			isStarted = true;
+			currentSecond = limit;
+			moveOverflow();
+		}
+
+		while (currentSecond <= limit) {
+			ArrayDeque<T> bucket = getBucket(currentSecond);
+
+			if (!bucket.isEmpty()) {
+				return bucket;
+			}
+
+			if (currentSecond == limit || size == 0) {
+				break;
+			}
+
+			currentSecond++;
+			moveOverflow();
+		}
+
+		return null;
+	}
+
+	@Override
+	public boolean hasDue(double now) {
+		return advance(now) != null;
+	}
+
+	@Override
+	public T pollDue(double now) {
+		ArrayDeque<T> bucket = advance(now);
+
+		if (bucket == null) {
+			return null;
+		}
+
+		size--;
+		return bucket.poll();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public void clear() {
+		buckets.forEach(ArrayDeque::clear);
+		overflow.clear();
+		size = 0;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return Iterables.concat(Iterables.concat(buckets), overflow).iterator();
+	}
+}
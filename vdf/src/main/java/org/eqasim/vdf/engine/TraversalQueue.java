@@ -0,0 +1,44 @@
+package org.eqasim.vdf.engine;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Queue of link traversals that are processed once their arrival time has been
+ * reached by the simulation.
+ */
+public interface TraversalQueue<T> extends Iterable<T> {
+	void add(T item);
+
+	/**
+	 * Returns whether an item with an arrival time before or at the given time is
+	 * waiting in the queue.
+	 */
+	boolean hasDue(double now);
+
+	/**
+	 * Removes and returns an item with an arrival time before or at the given time,
+	 * or null if there is none.
+	 */
+	T pollDue(double now);
+
+	int size();
+
+	boolean isEmpty();
+
+	void clear();
+
+	public enum QueueType {
+		Heap, TimeWheel
+	}
+
+	static <T> TraversalQueue<T> create(QueueType type, ToDoubleFunction<T> arrivalTime) {
+		switch (type) {
+		case Heap:
+			return new HeapTraversalQueue<>(arrivalTime);
+		case TimeWheel:
+			return new TimeWheelTraversalQueue<>(arrivalTime, TimeWheelTraversalQueue.DEFAULT_WHEEL_SIZE);
+		default:
+			throw new IllegalStateException("Unknown queue type: " + type);
+		}
+	}
+}
@@ -2,9 +2,7 @@ package org.eqasim.vdf.engine;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Comparator;
 import java.util.List;
-import java.util.PriorityQueue;
 
 import org.eqasim.vdf.handlers.VDFTrafficHandler;
 import org.eqasim.vdf.travel_time.VDFTravelTime;
@@ -19,10 +17,8 @@ import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.Leg;
-import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.api.experimental.events.TeleportationArrivalEvent;
-import org.matsim.core.mobsim.framework.HasPerson;
 import org.matsim.core.mobsim.framework.MobsimAgent;
 import org.matsim.core.mobsim.framework.MobsimDriverAgent;
 import org.matsim.core.mobsim.framework.PlanAgent;
@@ -30,28 +26,24 @@ import org.matsim.core.mobsim.qsim.InternalInterface;
 import org.matsim.core.mobsim.qsim.interfaces.DepartureHandler;
 import org.matsim.core.mobsim.qsim.interfaces.MobsimEngine;
 import org.matsim.core.population.routes.NetworkRoute;
-import org.matsim.vehicles.Vehicle;
 
 public class VDFEngine implements DepartureHandler, MobsimEngine {
 	private final List<String> modes;
 
-	private final VDFTravelTime travelTime;
-	private final Network network;
+	private final VDFRouteTraverser traverser;
 
-	private final PriorityQueue<Traversal> traversals = new PriorityQueue<>(new TraversalComparator());
+	private final TraversalQueue<Traversal> traversals;
 
 	private InternalInterface internalInterface;
 
-	private final VDFTrafficHandler handler;
 	private final boolean generateNetworkEvents;
 
 	public VDFEngine(Collection<String> modes, VDFTravelTime travelTime, Network network, VDFTrafficHandler handler,
-			boolean generateNetworkEvents) {
+			boolean generateNetworkEvents, TraversalQueue.QueueType queueType) {
 		this.modes = new ArrayList<>(modes);
-		this.travelTime = travelTime;
-		this.network = network;
-		this.handler = handler;
+		this.traverser = new VDFRouteTraverser(travelTime, network, handler);
 		this.generateNetworkEvents = generateNetworkEvents;
+		this.traversals = TraversalQueue.create(queueType, traversal -> traversal.arrivalTime);
 	}
 
 	@Override
@@ -73,7 +65,7 @@ public class VDFEngine implements DepartureHandler, MobsimEngine {
 			Traversal traversal = new Traversal();
 			traversal.agent = (MobsimDriverAgent) agent;
 			traversal.linkId = agent.getCurrentLinkId();
-			traversal.arrivalTime = now + getTraversalTime(now, linkId, driverAgent);
+			traversal.arrivalTime = now + traverser.getTraversalTime(now, linkId, driverAgent);
 			traversal.modeIndex = modes.indexOf(leg.getMode());
 			traversals.add(traversal);
 
@@ -81,17 +73,11 @@ public class VDFEngine implements DepartureHandler, MobsimEngine {
 					Id.createVehicleId(agent.getId()), modes.get(traversal.modeIndex), 1.0));
 		} else { // We have a handler and register traversals directly
 			NetworkRoute route = (NetworkRoute) leg.getRoute();
-			now += getTraversalTime(now, route.getStartLinkId(), driverAgent);
-
-			for (Id<Link> nextLinkId : route.getLinkIds()) {
-				handler.processEnterLink(now, nextLinkId);
-				now += getTraversalTime(now, nextLinkId, driverAgent);
-			}
 
 			Traversal traversal = new Traversal();
 			traversal.agent = (MobsimDriverAgent) agent;
 			traversal.linkId = route.getEndLinkId();
-			traversal.arrivalTime = now;
+			traversal.arrivalTime = traverser.traverseRoute(now, route, driverAgent);
 			traversal.modeIndex = modes.indexOf(leg.getMode());
 			traversal.distance = route.getDistance();
 			traversals.add(traversal);
@@ -106,8 +92,7 @@ public class VDFEngine implements DepartureHandler, MobsimEngine {
 		EventsManager eventsManager = internalInterface.getMobsim().getEventsManager();
 		Traversal traversal = null;
 
-		while (!traversals.isEmpty() && traversals.peek().arrivalTime <= now) {
-			traversal = traversals.poll();
+		while ((traversal = traversals.pollDue(now)) != null) {
 
 			if (generateNetworkEvents) {
 				if (traversal.agent.isWantingToArriveOnCurrentLink()) {
@@ -125,7 +110,7 @@ public class VDFEngine implements DepartureHandler, MobsimEngine {
 							new LinkLeaveEvent(now, Id.createVehicleId(traversal.agent.getId()), traversal.linkId));
 
 					traversal.linkId = traversal.agent.chooseNextLinkId();
-					traversal.arrivalTime = now + getTraversalTime(now, traversal.linkId, traversal.agent);
+					traversal.arrivalTime = now + traverser.getTraversalTime(now, traversal.linkId, traversal.agent);
 					traversals.add(traversal);
 
 					traversal.agent.notifyMoveOverNode(traversal.linkId);
@@ -160,14 +145,6 @@ public class VDFEngine implements DepartureHandler, MobsimEngine {
 		}
 	}
 
-	double getTraversalTime(double now, Id<Link> linkId, MobsimDriverAgent agent) {
-		Person person = ((HasPerson) agent).getPerson();
-		Vehicle vehicle = null; // agent.getVehicle().getVehicle();
-		Link link = network.getLinks().get(linkId);
-
-		return travelTime.getLinkTravelTime(link, now, person, vehicle);
-	}
-
 	@Override
 	public void setInternalInterface(InternalInterface internalInterface) {
 		this.internalInterface = internalInterface;
@@ -180,11 +157,4 @@ public class VDFEngine implements DepartureHandler, MobsimEngine {
 		int modeIndex;
 		double distance;
 	}
-
-	private class TraversalComparator implements Comparator<Traversal> {
-		@Override
-		public int compare(Traversal a, Traversal b) {
-			return Double.compare(a.arrivalTime, b.arrivalTime);
-		}
-	}
 }
@@ -3,6 +3,7 @@ package org.eqasim.vdf.engine;
 import java.util.Arrays;
 import java.util.Set;
 
+import org.eqasim.vdf.engine.TraversalQueue.QueueType;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ReflectiveConfigGroup;
@@ -12,10 +13,14 @@ public class VDFEngineConfigGroup extends ReflectiveConfigGroup {
 
 	static private final String MODES = "modes";
 	static private final String GENERATE_NETWORK_EVENTS = "generateNetworkEvents";
+	static private final String NUMBER_OF_THREADS = "numberOfThreads";
+	static private final String QUEUE_TYPE = "queueType";
 
 	private Set<String> modes = Set.of(TransportMode.car);
 
 	private boolean generateNetworkEvents = true;
+	private int numberOfThreads = 1;
+	private QueueType queueType = QueueType.Heap;
 
 	public VDFEngineConfigGroup() {
 		super(GROUP_NAME);
@@ -51,6 +56,26 @@ public class VDFEngineConfigGroup extends ReflectiveConfigGroup {
 		this.generateNetworkEvents = val;
 	}
 
+	@StringGetter(NUMBER_OF_THREADS)
+	public int getNumberOfThreads() {
+		return numberOfThreads;
+	}
+
+	@StringSetter(NUMBER_OF_THREADS)
+	public void setNumberOfThreads(int numberOfThreads) {
+		this.numberOfThreads = numberOfThreads;
+	}
+
+	@StringGetter(QUEUE_TYPE)
+	public QueueType getQueueType() {
+		return queueType;
+	}
+
+	@StringSetter(QUEUE_TYPE)
+	public void setQueueType(QueueType queueType) {
+		this.queueType = queueType;
+	}
+
 	public static VDFEngineConfigGroup getOrCreate(Config config) {
 		VDFEngineConfigGroup group = (VDFEngineConfigGroup) config.getModules().get(GROUP_NAME);
 
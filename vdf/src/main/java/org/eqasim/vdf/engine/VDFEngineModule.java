@@ -22,17 +22,36 @@ public class VDFEngineModule extends AbstractModule {
 			Verify.verify(!getConfig().routing().getTeleportedModeParams().containsKey(mode));
 		}
 
+		boolean isParallel = engineConfig.getNumberOfThreads() > 1;
+
+		if (isParallel) {
+			Verify.verify(!engineConfig.getGenerateNetworkEvents(),
+					"The parallel VDF engine cannot generate network events");
+		}
+
 		installQSimModule(new AbstractQSimModule() {
 			@Override
 			protected void configureQSim() {
-				addQSimComponentBinding(COMPONENT_NAME).to(VDFEngine.class);
+				if (isParallel) {
+					addQSimComponentBinding(COMPONENT_NAME).to(ParallelVDFEngine.class);
+				} else {
+					addQSimComponentBinding(COMPONENT_NAME).to(VDFEngine.class);
+				}
 			}
 
 			@Provides
 			@Singleton
 			public VDFEngine provideVDFEngine(VDFTravelTime travelTime, Network network, VDFTrafficHandler handler) {
 				return new VDFEngine(engineConfig.getModes(), travelTime, network, handler,
-						engineConfig.getGenerateNetworkEvents());
+						engineConfig.getGenerateNetworkEvents(), engineConfig.getQueueType());
+			}
+
+			@Provides
+			@Singleton
+			public ParallelVDFEngine provideParallelVDFEngine(VDFTravelTime travelTime, Network network,
+					VDFTrafficHandler handler) {
+				return new ParallelVDFEngine(engineConfig.getModes(), travelTime, network, handler,
+						engineConfig.getNumberOfThreads(), engineConfig.getQueueType());
 			}
 		});
 	}
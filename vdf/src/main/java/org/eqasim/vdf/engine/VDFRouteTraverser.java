@@ -0,0 +1,53 @@
+package org.eqasim.vdf.engine;
+
+import org.eqasim.vdf.handlers.VDFTrafficHandler;
+import org.eqasim.vdf.travel_time.VDFTravelTime;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.mobsim.framework.HasPerson;
+import org.matsim.core.mobsim.framework.MobsimDriverAgent;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * Link traversal shared by the {@link VDFEngine} and the
+ * {@link ParallelVDFEngine}. Traversal times are obtained from the VDF travel
+ * times at the time at which a link is entered.
+ */
+class VDFRouteTraverser {
+	private final VDFTravelTime travelTime;
+	private final Network network;
+	private final VDFTrafficHandler handler;
+
+	VDFRouteTraverser(VDFTravelTime travelTime, Network network, VDFTrafficHandler handler) {
+		this.travelTime = travelTime;
+		this.network = network;
+		this.handler = handler;
+	}
+
+	double getTraversalTime(double now, Id<Link> linkId, MobsimDriverAgent agent) {
+		Person person = ((HasPerson) agent).getPerson();
+		Vehicle vehicle = null; // agent.getVehicle().getVehicle();
+		Link link = network.getLinks().get(linkId);
+
+		return travelTime.getLinkTravelTime(link, now, person, vehicle);
+	}
+
+	/**
+	 * Traverses the route without generating network events, registers every
+	 * entered link with the traffic handler and returns the arrival time at the
+	 * end of the route.
+	 */
+	double traverseRoute(double departureTime, NetworkRoute route, MobsimDriverAgent agent) {
+		double time = departureTime + getTraversalTime(departureTime, route.getStartLinkId(), agent);
+
+		for (Id<Link> nextLinkId : route.getLinkIds()) {
+			handler.processEnterLink(time, nextLinkId);
+			time += getTraversalTime(time, nextLinkId, agent);
+		}
+
+		return time;
+	}
+}
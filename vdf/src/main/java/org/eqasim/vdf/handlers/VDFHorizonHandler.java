@@ -1,22 +1,25 @@
 package org.eqasim.vdf.handlers;
 
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eqasim.vdf.VDFScope;
+import org.eqasim.vdf.data.LinkCounter;
+import org.eqasim.vdf.data.ParallelRows;
+import org.eqasim.vdf.data.VDFLinkIndex;
 import org.eqasim.vdf.io.VDFReaderInterface;
+import org.eqasim.vdf.io.VDFStateFormat;
+import org.eqasim.vdf.io.VDFStateFormat.Header;
+import org.eqasim.vdf.io.VDFStateFormat.Kind;
+import org.eqasim.vdf.io.VDFStateReader;
+import org.eqasim.vdf.io.VDFStateWriter;
 import org.eqasim.vdf.io.VDFWriterInterface;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.IdMap;
@@ -28,123 +31,138 @@ import org.matsim.core.utils.io.IOUtils;
 
 import com.google.common.base.Verify;
 
+/**
+ * Averages the flows over a horizon of previous iterations. All values are kept
+ * in flat arrays of size links x intervals: the history is a ring buffer over
+ * the slices and a running sum over the ring is maintained, so aggregation is
+ * linear in the number of values and does not depend on the horizon.
+ */
 public class VDFHorizonHandler implements VDFTrafficHandler, LinkEnterEventHandler {
 	private final VDFScope scope;
 
-	private final Network network;
 	private final int horizon;
 	private final int numberOfThreads;
 
-	private final IdMap<Link, List<Double>> counts = new IdMap<>(Link.class);
-	private final List<IdMap<Link, List<Double>>> state = new LinkedList<>();
+	private final VDFLinkIndex linkIndex;
+	private final int intervals;
+	private final int size;
+
+	private final LinkCounter counts;
+
+	// As in previous versions, the history is trimmed to the horizon before the
+	// current slice is added, so it holds up to horizon + 1 slices
+	private final double[][] history;
+	private int slices = 0;
+	private int nextSlice = 0;
+
+	private final double[] sum;
+	private final double[] aggregated;
+	private final IdMap<Link, List<Double>> aggregatedView;
 
 	private final static Logger logger = LogManager.getLogger(VDFHorizonHandler.class);
 
-	public VDFHorizonHandler(Network network, VDFScope scope, int horizon, int numberOfThreads) {
+	public VDFHorizonHandler(Network network, VDFScope scope, int horizon, int numberOfThreads,
+			boolean concurrentCounting) {
 		this.scope = scope;
-		this.network = network;
 		this.horizon = horizon;
 		this.numberOfThreads = numberOfThreads;
 
-		for (Id<Link> linkId : network.getLinks().keySet()) {
-			counts.put(linkId, new ArrayList<>(Collections.nCopies(scope.getIntervals(), 0.0)));
-		}
+		this.linkIndex = new VDFLinkIndex(network);
+		this.intervals = scope.getIntervals();
+		this.size = linkIndex.size() * intervals;
+
+		this.counts = LinkCounter.create(size, concurrentCounting);
+		this.history = new double[horizon + 1][size];
+		this.sum = new double[size];
+		this.aggregated = new double[size];
+		this.aggregatedView = linkIndex.createView(aggregated, intervals);
 	}
 
 	@Override
-	public synchronized void handleEvent(LinkEnterEvent event) {
+	public void handleEvent(LinkEnterEvent event) {
 		processEnterLink(event.getTime(), event.getLinkId());
 	}
 
 	public void processEnterLink(double time, Id<Link> linkId) {
 		int i = scope.getIntervalIndex(time);
-		double currentValue = counts.get(linkId).get(i);
-		counts.get(linkId).set(i, currentValue + 1);
+		counts.increment(linkIndex.getRow(linkId) * intervals + i);
 	}
 
 	@Override
 	public IdMap<Link, List<Double>> aggregate() {
-		while (state.size() > horizon) {
-			state.remove(0);
-		}
-
-		logger.info(String.format("Starting aggregation of %d slices", state.size()));
+		double[] slice = history[nextSlice];
+		boolean isFull = slices == history.length;
 
-		// Make a copy to add to the history
-
-		IdMap<Link, List<Double>> copy = new IdMap<>(Link.class);
-
-		for (Map.Entry<Id<Link>, List<Double>> entry : counts.entrySet()) {
-			copy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+		if (!isFull) {
+			slices++;
 		}
 
-		state.add(copy);
+		nextSlice = (nextSlice + 1) % history.length;
 
-		IdMap<Link, List<Double>> aggregated = new IdMap<>(Link.class);
+		// Recompute the sum from scratch once per turn of the ring to avoid the
+		// accumulation of rounding errors
+		boolean isRefresh = nextSlice == 0;
 
-		for (Id<Link> linkId : network.getLinks().keySet()) {
-			// Reset current counts
-			counts.put(linkId, new ArrayList<>(Collections.nCopies(scope.getIntervals(), 0.0)));
+		logger.info(String.format("Starting aggregation of %d slices", slices));
 
-			// Initialize aggregated counts
-			aggregated.put(linkId, new ArrayList<>(Collections.nCopies(scope.getIntervals(), 0.0)));
-		}
+		ParallelRows.run(linkIndex.size(), numberOfThreads, (startRow, endRow) -> {
+			int start = startRow * intervals;
+			int end = endRow * intervals;
 
-		// Aggregate
-		Iterator<Id<Link>> linkIterator = network.getLinks().keySet().iterator();
+			for (int k = start; k < end; k++) {
+				if (isFull) {
+					sum[k] -= slice[k];
+				}
 
-		Runnable worker = () -> {
-			Id<Link> currentLinkId = null;
+				slice[k] = counts.take(k);
+				sum[k] += slice[k];
+			}
 
-			while (true) {
-				// Fetch new link in queue
-				synchronized (linkIterator) {
-					if (linkIterator.hasNext()) {
-						currentLinkId = linkIterator.next();
-					} else {
-						break; // Done
-					}
-				}
+			if (isRefresh) {
+				Arrays.fill(sum, start, end, 0.0);
 
-				// Go through history for this link and aggregate by time slot
-				for (int k = 0; k < state.size(); k++) {
-					IdMap<Link, List<Double>> historyItem = state.get(k);
-					List<Double> linkValues = historyItem.get(currentLinkId);
-					List<Double> linkAggregator = aggregated.get(currentLinkId);
+				for (int s = 0; s < slices; s++) {
+					double[] item = history[s];
 
-					for (int i = 0; i < linkValues.size(); i++) {
-						linkAggregator.set(i,
-								linkAggregator.get(i) + (double) linkValues.get(i) / (double) state.size());
+					for (int k = start; k < end; k++) {
+						sum[k] += item[k];
 					}
 				}
 			}
-		};
-
-		if (numberOfThreads < 2) {
-			worker.run();
-		} else {
-			List<Thread> threads = new ArrayList<>(numberOfThreads);
 
-			for (int k = 0; k < numberOfThreads; k++) {
-				threads.add(new Thread(worker));
+			for (int k = start; k < end; k++) {
+				aggregated[k] = sum[k] / slices;
 			}
+		});
 
-			for (int k = 0; k < numberOfThreads; k++) {
-				threads.get(k).start();
-			}
+		logger.info(String.format("  Finished aggregation"));
 
-			try {
-				for (int k = 0; k < numberOfThreads; k++) {
-					threads.get(k).join();
-				}
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
-			}
+		return aggregatedView;
+	}
+
+	/**
+	 * Returns the slice with the given age, 0 being the oldest slice in the
+	 * history.
+	 */
+	private double[] getSlice(int age) {
+		int position = (nextSlice - slices + age + history.length) % history.length;
+		return history[position];
+	}
+
+	/**
+	 * Appends a slice to the history while reading. Only the most recent slices are
+	 * kept if more are read than fit into the history.
+	 */
+	private double[] appendSlice() {
+		if (slices == history.length) {
+			slices--;
 		}
 
-		logger.info(String.format("  Finished aggregation"));
+		double[] slice = history[nextSlice];
+		nextSlice = (nextSlice + 1) % history.length;
+		slices++;
 
-		return aggregated;
+		return slice;
 	}
 
 	@Override
@@ -160,93 +178,100 @@ public class VDFHorizonHandler implements VDFTrafficHandler, LinkEnterEventHandl
 	public class Reader implements VDFReaderInterface {
 		@Override
 		public void readFile(URL inputFile) {
-			state.clear();
+			slices = 0;
+			nextSlice = 0;
 
 			try {
-				DataInputStream inputStream = new DataInputStream(IOUtils.getInputStream(inputFile));
+				if (VDFStateReader.isStateFile(inputFile)) {
+					Header header = new VDFStateReader(scope, linkIndex).read(inputFile, blockIndex -> appendSlice());
+					Verify.verify(header.kind() == Kind.Horizon, "Expected a horizon VDF state, but found %s",
+							header.kind());
+					Verify.verify(header.horizon() == horizon);
+
+					logger.info(String.format("Loaded %d slices with %d links", header.blocks(), header.links()));
+				} else {
+					readLegacyFile(inputFile);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
 
-				Verify.verify(inputStream.readDouble() == scope.getStartTime());
-				Verify.verify(inputStream.readDouble() == scope.getEndTime());
-				Verify.verify(inputStream.readDouble() == scope.getIntervalTime());
-				Verify.verify(inputStream.readInt() == scope.getIntervals());
-				Verify.verify(inputStream.readInt() == horizon);
+			Arrays.fill(sum, 0.0);
 
-				int slices = (int) inputStream.readInt();
-				int links = (int) inputStream.readInt();
+			for (int age = 0; age < slices; age++) {
+				double[] slice = getSlice(age);
 
-				List<Id<Link>> linkIds = new ArrayList<>(links);
-				for (int linkIndex = 0; linkIndex < links; linkIndex++) {
-					linkIds.add(Id.createLinkId(inputStream.readUTF()));
+				double totalLinkValue = 0.0;
+				double maximumLinkValue = 0.0;
+
+				for (int k = 0; k < size; k++) {
+					sum[k] += slice[k];
+					totalLinkValue += slice[k];
+					maximumLinkValue = Math.max(maximumLinkValue, slice[k]);
 				}
 
-				logger.info(String.format("Loading %d slices with %d links", slices, links));
+				logger.info(String.format("  Slice %d: avg. value %f; max. value %f", age,
+						totalLinkValue / linkIndex.size(), maximumLinkValue));
+			}
+		}
 
-				for (int sliceIndex = 0; sliceIndex < slices; sliceIndex++) {
-					IdMap<Link, List<Double>> slice = new IdMap<>(Link.class);
-					state.add(slice);
+		/**
+		 * Reads the format that has been used before the introduction of
+		 * {@link VDFStateFormat}.
+		 */
+		private void readLegacyFile(URL inputFile) throws IOException {
+			DataInputStream inputStream = new DataInputStream(IOUtils.getInputStream(inputFile));
+
+			Verify.verify(inputStream.readDouble() == scope.getStartTime());
+			Verify.verify(inputStream.readDouble() == scope.getEndTime());
+			Verify.verify(inputStream.readDouble() == scope.getIntervalTime());
+			Verify.verify(inputStream.readInt() == scope.getIntervals());
+			Verify.verify(inputStream.readInt() == horizon);
+
+			int fileSlices = (int) inputStream.readInt();
+			int links = (int) inputStream.readInt();
+
+			int[] rows = new int[links];
+			for (int linkIndex = 0; linkIndex < links; linkIndex++) {
+				rows[linkIndex] = VDFHorizonHandler.this.linkIndex.getRow(Id.createLinkId(inputStream.readUTF()));
+			}
 
-					double totalLinkValue = 0.0;
-					double maximumLinkValue = 0.0;
+			logger.info(String.format("Loading %d slices with %d links from legacy format", fileSlices, links));
 
-					for (int linkIndex = 0; linkIndex < links; linkIndex++) {
-						List<Double> linkValues = new LinkedList<>();
+			for (int sliceIndex = 0; sliceIndex < fileSlices; sliceIndex++) {
+				double[] slice = appendSlice();
+				Arrays.fill(slice, 0.0);
 
-						Id<Link> linkId = linkIds.get(linkIndex);
-						slice.put(linkId, linkValues);
+				for (int linkIndex = 0; linkIndex < links; linkIndex++) {
+					int row = rows[linkIndex];
 
-						for (int valueIndex = 0; valueIndex < scope.getIntervals(); valueIndex++) {
-							double linkValue = inputStream.readDouble();
+					for (int valueIndex = 0; valueIndex < intervals; valueIndex++) {
+						double linkValue = inputStream.readDouble();
 
-							linkValues.add(linkValue);
-							totalLinkValue += linkValue;
-							maximumLinkValue = Math.max(maximumLinkValue, linkValue);
+						if (row >= 0) {
+							slice[row * intervals + valueIndex] = linkValue;
 						}
 					}
-
-					logger.info(String.format("  Slice %d: avg. value %f; max. value %f", sliceIndex,
-							totalLinkValue / links, maximumLinkValue));
 				}
-
-				Verify.verify(inputStream.available() == 0);
-				inputStream.close();
-			} catch (IOException e) {
-				throw new RuntimeException(e);
 			}
+
+			// available() is not reliable for compressed streams
+			Verify.verify(inputStream.read() == -1);
+			inputStream.close();
 		}
 	}
 
 	public class Writer implements VDFWriterInterface {
 		@Override
 		public void writeFile(File outputFile) {
-			try {
-				DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(outputFile.toString()));
-
-				outputStream.writeDouble(scope.getStartTime());
-				outputStream.writeDouble(scope.getEndTime());
-				outputStream.writeDouble(scope.getIntervalTime());
-				outputStream.writeInt(scope.getIntervals());
-				outputStream.writeInt(horizon);
-				outputStream.writeInt(state.size());
-				outputStream.writeInt(counts.size());
-
-				List<Id<Link>> linkIds = new ArrayList<>(counts.keySet());
-				for (int linkIndex = 0; linkIndex < linkIds.size(); linkIndex++) {
-					outputStream.writeUTF(linkIds.get(linkIndex).toString());
-				}
-
-				for (int sliceIndex = 0; sliceIndex < state.size(); sliceIndex++) {
-					IdMap<Link, List<Double>> slice = state.get(sliceIndex);
+			List<double[]> blocks = new ArrayList<>(slices);
 
-					for (Id<Link> linkId : linkIds) {
-						List<Double> linkValues = slice.get(linkId);
-
-						for (int valueIndex = 0; valueIndex < scope.getIntervals(); valueIndex++) {
-							outputStream.writeDouble(linkValues.get(valueIndex));
-						}
-					}
-				}
+			for (int age = 0; age < slices; age++) {
+				blocks.add(getSlice(age));
+			}
 
-				outputStream.close();
+			try {
+				new VDFStateWriter(scope, linkIndex, Kind.Horizon, horizon, 0).write(outputFile, blocks);
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			}
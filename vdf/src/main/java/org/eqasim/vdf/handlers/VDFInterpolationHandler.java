@@ -1,17 +1,21 @@
 package org.eqasim.vdf.handlers;
 
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import org.eqasim.vdf.VDFScope;
+import org.eqasim.vdf.data.LinkCounter;
+import org.eqasim.vdf.data.VDFLinkIndex;
 import org.eqasim.vdf.io.VDFReaderInterface;
+import org.eqasim.vdf.io.VDFStateFormat;
+import org.eqasim.vdf.io.VDFStateFormat.Header;
+import org.eqasim.vdf.io.VDFStateFormat.Kind;
+import org.eqasim.vdf.io.VDFStateReader;
+import org.eqasim.vdf.io.VDFStateWriter;
 import org.eqasim.vdf.io.VDFWriterInterface;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.IdMap;
@@ -28,41 +32,50 @@ public class VDFInterpolationHandler implements VDFTrafficHandler, LinkEnterEven
 
 	private final double updateFactor;
 
-	private final IdMap<Link, List<Double>> interpolatedCounts = new IdMap<>(Link.class);
-	private final IdMap<Link, List<Double>> currentCounts = new IdMap<>(Link.class);
+	private final VDFLinkIndex linkIndex;
+	private final int intervals;
+	private final int size;
 
-	public VDFInterpolationHandler(Network network, VDFScope scope, double updateFactor) {
+	private final LinkCounter counts;
+	private final double[] currentCounts;
+
+	private final double[] interpolatedCounts;
+	private final IdMap<Link, List<Double>> interpolatedView;
+
+	public VDFInterpolationHandler(Network network, VDFScope scope, double updateFactor,
+			boolean concurrentCounting) {
 		this.scope = scope;
 		this.updateFactor = updateFactor;
 
-		for (Id<Link> linkId : network.getLinks().keySet()) {
-			interpolatedCounts.put(linkId, new ArrayList<>(Collections.nCopies(scope.getIntervals(), 0.0)));
-			currentCounts.put(linkId, new ArrayList<>(Collections.nCopies(scope.getIntervals(), 0.0)));
-		}
+		this.linkIndex = new VDFLinkIndex(network);
+		this.intervals = scope.getIntervals();
+		this.size = linkIndex.size() * intervals;
+
+		this.counts = LinkCounter.create(size, concurrentCounting);
+		this.currentCounts = new double[size];
+
+		this.interpolatedCounts = new double[size];
+		this.interpolatedView = linkIndex.createView(interpolatedCounts, intervals);
 	}
 
 	@Override
-	public synchronized void handleEvent(LinkEnterEvent event) {
+	public void handleEvent(LinkEnterEvent event) {
 		processEnterLink(event.getTime(), event.getLinkId());
 	}
 
 	public void processEnterLink(double time, Id<Link> linkId) {
 		int i = scope.getIntervalIndex(time);
-		double currentValue = currentCounts.get(linkId).get(i);
-		currentCounts.get(linkId).set(i, currentValue + 1);
+		counts.increment(linkIndex.getRow(linkId) * intervals + i);
 	}
 
 	@Override
 	public IdMap<Link, List<Double>> aggregate() {
-		interpolatedCounts.forEach((id, interpolated) -> {
-			List<Double> current = currentCounts.get(id);
-
-			for (int i = 0; i < interpolated.size(); i++) {
-				interpolated.set(i, (1.0 - updateFactor) * interpolated.get(i) + updateFactor * current.get(i));
-			}
-		});
+		for (int k = 0; k < size; k++) {
+			currentCounts[k] += counts.take(k);
+			interpolatedCounts[k] = (1.0 - updateFactor) * interpolatedCounts[k] + updateFactor * currentCounts[k];
+		}
 
-		return interpolatedCounts;
+		return interpolatedView;
 	}
 
 	@Override
@@ -79,28 +92,56 @@ public class VDFInterpolationHandler implements VDFTrafficHandler, LinkEnterEven
 		@Override
 		public void readFile(URL inputFile) {
 			try {
-				DataInputStream inputStream = new DataInputStream(IOUtils.getInputStream(inputFile));
+				if (VDFStateReader.isStateFile(inputFile)) {
+					Header header = new VDFStateReader(scope, linkIndex).read(inputFile,
+							blockIndex -> interpolatedCounts);
+					Verify.verify(header.kind() == Kind.Interpolation,
+							"Expected an interpolation VDF state, but found %s", header.kind());
+					Verify.verify(header.blocks() == 1);
+				} else {
+					readLegacyFile(inputFile);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
 
-				Verify.verify(inputStream.readDouble() == scope.getStartTime());
-				Verify.verify(inputStream.readDouble() == scope.getEndTime());
-				Verify.verify(inputStream.readDouble() == scope.getIntervalTime());
-				Verify.verify(inputStream.readInt() == scope.getIntervals());
+		/**
+		 * Reads the format that has been used before the introduction of
+		 * {@link VDFStateFormat}.
+		 */
+		private void readLegacyFile(URL inputFile) throws IOException {
+			DataInputStream inputStream = new DataInputStream(IOUtils.getInputStream(inputFile));
 
-				while (inputStream.available() > 0) {
-					Id<Link> linkId = Id.createLinkId(inputStream.readUTF());
+			Verify.verify(inputStream.readDouble() == scope.getStartTime());
+			Verify.verify(inputStream.readDouble() == scope.getEndTime());
+			Verify.verify(inputStream.readDouble() == scope.getIntervalTime());
 
-					List<Double> values = new ArrayList<>(Collections.nCopies(scope.getIntervals(), 0.0));
-					for (int i = 0; i < values.size(); i++) {
-						values.set(i, inputStream.readDouble());
-					}
+			// The legacy writer stored the number of intervals as a double
+			Verify.verify(inputStream.readDouble() == scope.getIntervals());
 
-					interpolatedCounts.put(linkId, values);
+			// available() is not reliable for compressed streams, so we read until the end
+			while (true) {
+				final String linkId;
+
+				try {
+					linkId = inputStream.readUTF();
+				} catch (EOFException e) {
+					break;
 				}
 
-				inputStream.close();
-			} catch (IOException e) {
-				throw new RuntimeException(e);
+				int row = linkIndex.getRow(Id.createLinkId(linkId));
+
+				for (int i = 0; i < intervals; i++) {
+					double value = inputStream.readDouble();
+
+					if (row >= 0) {
+						interpolatedCounts[row * intervals + i] = value;
+					}
+				}
 			}
+
+			inputStream.close();
 		}
 	}
 
@@ -108,23 +149,7 @@ public class VDFInterpolationHandler implements VDFTrafficHandler, LinkEnterEven
 		@Override
 		public void writeFile(File outputFile) {
 			try {
-				DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(outputFile.toString()));
-
-				outputStream.writeDouble(scope.getStartTime());
-				outputStream.writeDouble(scope.getEndTime());
-				outputStream.writeDouble(scope.getIntervalTime());
-				outputStream.writeDouble(scope.getIntervals());
-
-				for (var entry : interpolatedCounts.entrySet()) {
-					outputStream.writeUTF(entry.getKey().toString());
-
-					List<Double> values = entry.getValue();
-					for (int i = 0; i < values.size(); i++) {
-						outputStream.writeDouble(values.get(i));
-					}
-				}
-
-				outputStream.close();
+				new VDFStateWriter(scope, linkIndex, Kind.Interpolation, 0, 0).write(outputFile, List.of(interpolatedCounts));
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			}
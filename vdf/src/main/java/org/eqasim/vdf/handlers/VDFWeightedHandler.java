@@ -0,0 +1,198 @@
+package org.eqasim.vdf.handlers;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eqasim.vdf.VDFScope;
+import org.eqasim.vdf.data.LinkCounter;
+import org.eqasim.vdf.data.ParallelRows;
+import org.eqasim.vdf.data.VDFLinkIndex;
+import org.eqasim.vdf.io.VDFReaderInterface;
+import org.eqasim.vdf.io.VDFStateFormat.Header;
+import org.eqasim.vdf.io.VDFStateFormat.Kind;
+import org.eqasim.vdf.io.VDFStateReader;
+import org.eqasim.vdf.io.VDFStateWriter;
+import org.eqasim.vdf.io.VDFWriterInterface;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.IdMap;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Verify;
+
+/**
+ * Averages the flows of all previous iterations with weights that decrease
+ * towards older iterations. Instead of keeping the history, only a running
+ * weighted sum per link and interval and the total weight are maintained, so
+ * memory does not depend on the effective horizon.
+ *
+ * With exponential weighting, the weights of all previous iterations are
+ * multiplied by the decay factor in each iteration, which corresponds to an
+ * effective horizon of 1 / (1 - decay) iterations. With linear weighting, the
+ * flows of iteration n receive the weight n, so the relative weights decrease
+ * linearly towards the first iteration.
+ */
+public class VDFWeightedHandler implements VDFTrafficHandler, LinkEnterEventHandler {
+	private final VDFScope scope;
+
+	private final WeightingType weighting;
+	private final double decay;
+	private final int numberOfThreads;
+
+	private final VDFLinkIndex linkIndex;
+	private final int intervals;
+	private final int size;
+
+	private final LinkCounter counts;
+
+	private final double[] weightedSums;
+	private double totalWeight = 0.0;
+	private int iterations = 0;
+
+	private final double[] aggregated;
+	private final IdMap<Link, List<Double>> aggregatedView;
+
+	private final static Logger logger = LogManager.getLogger(VDFWeightedHandler.class);
+
+	public enum WeightingType {
+		Exponential, Linear
+	}
+
+	public VDFWeightedHandler(Network network, VDFScope scope, WeightingType weighting, double decay,
+			int numberOfThreads, boolean concurrentCounting) {
+		// The decay is only used by exponential weighting
+		Preconditions.checkArgument(weighting != WeightingType.Exponential || decay > 0.0 && decay < 1.0,
+				"Decay must be between zero and one");
+
+		this.scope = scope;
+		this.weighting = weighting;
+		this.decay = decay;
+		this.numberOfThreads = numberOfThreads;
+
+		this.linkIndex = new VDFLinkIndex(network);
+		this.intervals = scope.getIntervals();
+		this.size = linkIndex.size() * intervals;
+
+		this.counts = LinkCounter.create(size, concurrentCounting);
+		this.weightedSums = new double[size];
+		this.aggregated = new double[size];
+		this.aggregatedView = linkIndex.createView(aggregated, intervals);
+	}
+
+	@Override
+	public void handleEvent(LinkEnterEvent event) {
+		processEnterLink(event.getTime(), event.getLinkId());
+	}
+
+	public void processEnterLink(double time, Id<Link> linkId) {
+		int i = scope.getIntervalIndex(time);
+		counts.increment(linkIndex.getRow(linkId) * intervals + i);
+	}
+
+	/**
+	 * Returns the factor by which the previous weighted sums are multiplied when
+	 * the given iteration is added.
+	 */
+	private double getRetention() {
+		return weighting == WeightingType.Exponential ? decay : 1.0;
+	}
+
+	/**
+	 * Returns the weight of the flows of the given iteration, starting at one.
+	 */
+	private double getWeight(int iteration) {
+		return weighting == WeightingType.Exponential ? 1.0 : iteration;
+	}
+
+	@Override
+	public IdMap<Link, List<Double>> aggregate() {
+		iterations++;
+
+		double retention = getRetention();
+		double weight = getWeight(iterations);
+
+		totalWeight = retention * totalWeight + weight;
+		double normalization = 1.0 / totalWeight;
+
+		logger.info(String.format("Starting %s aggregation of %d iterations", weighting.toString().toLowerCase(),
+				iterations));
+
+		ParallelRows.run(linkIndex.size(), numberOfThreads, (startRow, endRow) -> {
+			int start = startRow * intervals;
+			int end = endRow * intervals;
+
+			for (int k = start; k < end; k++) {
+				weightedSums[k] = retention * weightedSums[k] + weight * counts.take(k);
+				aggregated[k] = weightedSums[k] * normalization;
+			}
+		});
+
+		logger.info(String.format("  Finished aggregation"));
+
+		return aggregatedView;
+	}
+
+	@Override
+	public VDFReaderInterface getReader() {
+		return new Reader();
+	}
+
+	@Override
+	public VDFWriterInterface getWriter() {
+		return new Writer();
+	}
+
+	/**
+	 * The state consists of the current weighted averages. The number of
+	 * aggregated iterations, from which the total weight is derived, is stored in
+	 * the header.
+	 */
+	public class Reader implements VDFReaderInterface {
+		@Override
+		public void readFile(URL inputFile) {
+			try {
+				Verify.verify(VDFStateReader.isStateFile(inputFile),
+						"The weighted handler only reads the binary state format");
+
+				Header header = new VDFStateReader(scope, linkIndex).read(inputFile, blockIndex -> aggregated);
+				Verify.verify(header.kind() == Kind.Weighted, "Expected a weighted VDF state, but found %s",
+						header.kind());
+				Verify.verify(header.blocks() == 1);
+
+				iterations = header.iterations();
+				totalWeight = 0.0;
+
+				for (int iteration = 1; iteration <= iterations; iteration++) {
+					totalWeight = getRetention() * totalWeight + getWeight(iteration);
+				}
+
+				for (int k = 0; k < size; k++) {
+					weightedSums[k] = aggregated[k] * totalWeight;
+				}
+
+				logger.info(String.format("Loaded weighted state of %d iterations with %d links", iterations,
+						header.links()));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	public class Writer implements VDFWriterInterface {
+		@Override
+		public void writeFile(File outputFile) {
+			try {
+				new VDFStateWriter(scope, linkIndex, Kind.Weighted, 0, iterations).write(outputFile, List.of(aggregated));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package org.eqasim.vdf.io;
+
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Columnar binary format for the VDF state. All values are little-endian:
+ * 
+ * <ul>
+ * <li>Header: magic bytes, format version, kind of state, scope (start time,
+ * end time, interval time, intervals), horizon, number of iterations, number
+ * of blocks, number of links and size of the link dictionary in bytes</li>
+ * <li>Link dictionary: for each link the length of the UTF-8 encoded link id
+ * followed by its bytes, padded to a multiple of eight bytes</li>
+ * <li>Blocks: for each block (e.g., a slice of the history) one contiguous
+ * array of links x intervals doubles, ordered by link and then interval</li>
+ * </ul>
+ * 
+ * The blocks can be mapped directly from the file, so reading a state does not
+ * require to decode the values one by one.
+ */
+public class VDFStateFormat {
+	static final byte[] MAGIC = "EQVDFBIN".getBytes(StandardCharsets.US_ASCII);
+	static final int VERSION = 2;
+
+	static final int HEADER_SIZE = MAGIC.length + 2 * Integer.BYTES + 3 * Double.BYTES + 5 * Integer.BYTES
+			+ Long.BYTES;
+	static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	static long padding(long size) {
+		return (Double.BYTES - size % Double.BYTES) % Double.BYTES;
+	}
+
+	/**
+	 * Producer of the state, so that a handler does not interpret the state of
+	 * another one. The horizon only applies to the horizon handler, the number of
+	 * iterations only to the weighted handler.
+	 */
+	public enum Kind {
+		Flows, Interpolation, Horizon, Weighted
+	}
+
+	public record Header(Kind kind, double startTime, double endTime, double intervalTime, int intervals,
+			int horizon, int iterations, int blocks, int links) {
+	}
+}
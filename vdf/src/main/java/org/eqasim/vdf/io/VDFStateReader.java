@@ -0,0 +1,206 @@
+package org.eqasim.vdf.io;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import org.eqasim.vdf.VDFScope;
+import org.eqasim.vdf.data.VDFLinkIndex;
+import org.eqasim.vdf.io.VDFStateFormat.Header;
+import org.eqasim.vdf.io.VDFStateFormat.Kind;
+import org.matsim.api.core.v01.Id;
+import org.matsim.core.utils.io.IOUtils;
+
+import com.google.common.base.Verify;
+
+/**
+ * Reads the VDF state in the format described in {@link VDFStateFormat}. Local
+ * uncompressed files are memory-mapped block by block, compressed files (by
+ * extension) and other sources are streamed.
+ */
+public class VDFStateReader {
+	// Extensions for which IOUtils decompresses the input
+	private final static List<String> COMPRESSED_EXTENSIONS = List.of(".gz", ".bz2", ".lz4", ".zst");
+
+	private final VDFScope scope;
+	private final VDFLinkIndex linkIndex;
+
+	public VDFStateReader(VDFScope scope, VDFLinkIndex linkIndex) {
+		this.scope = scope;
+		this.linkIndex = linkIndex;
+	}
+
+	/**
+	 * Checks whether the file starts with the magic bytes of the format. Files
+	 * written in the legacy formats start with the start time of the scope.
+	 */
+	static public boolean isStateFile(URL inputFile) throws IOException {
+		try (DataInputStream inputStream = new DataInputStream(IOUtils.getInputStream(inputFile))) {
+			byte[] magic = new byte[VDFStateFormat.MAGIC.length];
+			inputStream.readFully(magic);
+			return Arrays.equals(magic, VDFStateFormat.MAGIC);
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the file and copies each block into the array returned by the block
+	 * provider for the respective block index. Links that are not part of the
+	 * network are skipped, links that are not part of the file are set to zero.
+	 */
+	public Header read(URL inputFile, IntFunction<double[]> blockProvider) throws IOException {
+		try (Source source = createSource(inputFile)) {
+			ByteBuffer headerBuffer = source.next(VDFStateFormat.HEADER_SIZE);
+
+			byte[] magic = new byte[VDFStateFormat.MAGIC.length];
+			headerBuffer.get(magic);
+			Verify.verify(Arrays.equals(magic, VDFStateFormat.MAGIC), "Not a VDF state file");
+
+			int version = headerBuffer.getInt();
+			Verify.verify(version == VDFStateFormat.VERSION, "Unsupported VDF state version: %s", version);
+
+			int kind = headerBuffer.getInt();
+			Verify.verify(kind >= 0 && kind < Kind.values().length, "Unknown kind of VDF state: %s", kind);
+
+			Header header = new Header(Kind.values()[kind], headerBuffer.getDouble(), headerBuffer.getDouble(),
+					headerBuffer.getDouble(), headerBuffer.getInt(), headerBuffer.getInt(), headerBuffer.getInt(),
+					headerBuffer.getInt(), headerBuffer.getInt());
+			long dictionarySize = headerBuffer.getLong();
+
+			Verify.verify(header.startTime() == scope.getStartTime());
+			Verify.verify(header.endTime() == scope.getEndTime());
+			Verify.verify(header.intervalTime() == scope.getIntervalTime());
+			Verify.verify(header.intervals() == scope.getIntervals());
+
+			int intervals = header.intervals();
+			long blockSize = (long) header.links() * intervals * Double.BYTES;
+			Verify.verify(blockSize <= Integer.MAX_VALUE, "Blocks are too large");
+
+			// Link dictionary
+			ByteBuffer dictionaryBuffer = source
+					.next(dictionarySize + VDFStateFormat.padding(VDFStateFormat.HEADER_SIZE + dictionarySize));
+
+			int[] rows = new int[header.links()];
+			boolean isAligned = header.links() == linkIndex.size();
+
+			for (int fileRow = 0; fileRow < header.links(); fileRow++) {
+				byte[] linkId = new byte[dictionaryBuffer.getInt()];
+				dictionaryBuffer.get(linkId);
+
+				rows[fileRow] = linkIndex.getRow(Id.createLinkId(new String(linkId, StandardCharsets.UTF_8)));
+				isAligned &= rows[fileRow] == fileRow;
+			}
+
+			// Blocks
+			for (int blockIndex = 0; blockIndex < header.blocks(); blockIndex++) {
+				DoubleBuffer values = source.next(blockSize).asDoubleBuffer();
+				double[] target = blockProvider.apply(blockIndex);
+
+				if (isAligned) {
+					values.get(target, 0, header.links() * intervals);
+				} else {
+					Arrays.fill(target, 0.0);
+
+					for (int fileRow = 0; fileRow < header.links(); fileRow++) {
+						if (rows[fileRow] >= 0) {
+							values.position(fileRow * intervals);
+							values.get(target, rows[fileRow] * intervals, intervals);
+						}
+					}
+				}
+			}
+
+			source.verifyEnd();
+			return header;
+		}
+	}
+
+	private Source createSource(URL inputFile) throws IOException {
+		if (inputFile.getProtocol().equals("file") && !isCompressed(inputFile)) {
+			try {
+				return new FileSource(Paths.get(inputFile.toURI()));
+			} catch (URISyntaxException e) {
+				throw new IOException(e);
+			}
+		} else {
+			return new StreamSource(IOUtils.getInputStream(inputFile));
+		}
+	}
+
+	static private boolean isCompressed(URL inputFile) {
+		String path = inputFile.getPath().toLowerCase();
+		return COMPRESSED_EXTENSIONS.stream().anyMatch(path::endsWith);
+	}
+
+	private interface Source extends Closeable {
+		ByteBuffer next(long length) throws IOException;
+
+		void verifyEnd() throws IOException;
+	}
+
+	static private class FileSource implements Source {
+		private final FileChannel channel;
+		private long position = 0;
+
+		FileSource(Path path) throws IOException {
+			this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		}
+
+		@Override
+		public ByteBuffer next(long length) throws IOException {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+			position += length;
+			return buffer.order(VDFStateFormat.BYTE_ORDER);
+		}
+
+		@Override
+		public void verifyEnd() throws IOException {
+			Verify.verify(position == channel.size(), "Unexpected data at the end of the file");
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	static private class StreamSource implements Source {
+		private final DataInputStream inputStream;
+
+		StreamSource(InputStream inputStream) {
+			this.inputStream = new DataInputStream(inputStream);
+		}
+
+		@Override
+		public ByteBuffer next(long length) throws IOException {
+			byte[] buffer = new byte[(int) length];
+			inputStream.readFully(buffer);
+			return ByteBuffer.wrap(buffer).order(VDFStateFormat.BYTE_ORDER);
+		}
+
+		@Override
+		public void verifyEnd() throws IOException {
+			Verify.verify(inputStream.read() == -1, "Unexpected data at the end of the file");
+		}
+
+		@Override
+		public void close() throws IOException {
+			inputStream.close();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package org.eqasim.vdf.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.eqasim.vdf.VDFScope;
+import org.eqasim.vdf.data.VDFLinkIndex;
+import org.eqasim.vdf.io.VDFStateFormat.Kind;
+
+/**
+ * Writes the VDF state in the format described in {@link VDFStateFormat}
+ * through a buffered file channel.
+ */
+public class VDFStateWriter {
+	private final static int BUFFER_SIZE = 1 << 20;
+
+	private final VDFScope scope;
+	private final VDFLinkIndex linkIndex;
+	private final Kind kind;
+	private final int horizon;
+	private final int iterations;
+
+	public VDFStateWriter(VDFScope scope, VDFLinkIndex linkIndex, Kind kind, int horizon, int iterations) {
+		this.scope = scope;
+		this.linkIndex = linkIndex;
+		this.kind = kind;
+		this.horizon = horizon;
+		this.iterations = iterations;
+	}
+
+	public void write(File outputFile, List<double[]> blocks) throws IOException {
+		int links = linkIndex.size();
+		int size = links * scope.getIntervals();
+
+		byte[][] linkIds = new byte[links][];
+		long dictionarySize = 0;
+
+		for (int row = 0; row < links; row++) {
+			linkIds[row] = linkIndex.getLinkId(row).toString().getBytes(StandardCharsets.UTF_8);
+			dictionarySize += Integer.BYTES + linkIds[row].length;
+		}
+
+		try (FileChannel channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(VDFStateFormat.BYTE_ORDER);
+
+			buffer.put(VDFStateFormat.MAGIC);
+			buffer.putInt(VDFStateFormat.VERSION);
+			buffer.putInt(kind.ordinal());
+			buffer.putDouble(scope.getStartTime());
+			buffer.putDouble(scope.getEndTime());
+			buffer.putDouble(scope.getIntervalTime());
+			buffer.putInt(scope.getIntervals());
+			buffer.putInt(horizon);
+			buffer.putInt(iterations);
+			buffer.putInt(blocks.size());
+			buffer.putInt(links);
+			buffer.putLong(dictionarySize);
+
+			for (byte[] linkId : linkIds) {
+				ensureCapacity(channel, buffer, Integer.BYTES);
+				buffer.putInt(linkId.length);
+
+				for (int offset = 0; offset < linkId.length;) {
+					ensureCapacity(channel, buffer, 1);
+
+					int length = Math.min(buffer.remaining(), linkId.length - offset);
+					buffer.put(linkId, offset, length);
+					offset += length;
+				}
+			}
+
+			long padding = VDFStateFormat.padding(VDFStateFormat.HEADER_SIZE + dictionarySize);
+			ensureCapacity(channel, buffer, (int) padding);
+
+			for (int k = 0; k < padding; k++) {
+				buffer.put((byte) 0);
+			}
+
+			for (double[] block : blocks) {
+				for (int offset = 0; offset < size;) {
+					ensureCapacity(channel, buffer, Double.BYTES);
+
+					int length = Math.min(buffer.remaining() / Double.BYTES, size - offset);
+					buffer.asDoubleBuffer().put(block, offset, length);
+					buffer.position(buffer.position() + length * Double.BYTES);
+					offset += length;
+				}
+			}
+
+			flush(channel, buffer);
+		}
+	}
+
+	private void ensureCapacity(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush(channel, buffer);
+		}
+	}
+
+	private void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+
+		buffer.clear();
+	}
+}
@@ -1,15 +1,15 @@
 package org.eqasim.vdf.travel_time;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eqasim.vdf.VDFScope;
+import org.eqasim.vdf.data.IntervalArrayList;
+import org.eqasim.vdf.data.ParallelRows;
+import org.eqasim.vdf.data.VDFLinkIndex;
 import org.eqasim.vdf.travel_time.function.VolumeDelayFunction;
-import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.IdMap;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
@@ -17,79 +17,237 @@ import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.router.util.TravelTime;
 import org.matsim.vehicles.Vehicle;
 
+/**
+ * Travel times per link and interval derived from the aggregated flows. Link
+ * properties that do not depend on the flows (capacity per interval, free-flow
+ * travel time, crossing penalty) are computed once. On update, only links whose
+ * flows changed by more than the tolerance since their last recomputation are
+ * processed again.
+ *
+ * By default, travel times are constant within each interval. Optionally, they
+ * are interpolated linearly between the midpoints of the intervals. To keep the
+ * interpolation FIFO-consistent (leaving later never means arriving earlier),
+ * travel times may not decrease faster than time advances, so the anchor values
+ * at the midpoints are raised where necessary. Anchors and slopes are
+ * precomputed on update.
+ */
 public class VDFTravelTime implements TravelTime {
 	private final VDFScope scope;
 
 	private final double minimumSpeed;
-	private final double capacityFactor;
 	private final double samplingRate;
-	private final double crossingPenalty;
+	private final double updateTolerance;
+	private final int numberOfThreads;
 
 	private final Network network;
 	private final VolumeDelayFunction vdf;
 
-	private final IdMap<Link, List<Double>> travelTimes = new IdMap<>(Link.class);
+	private final VDFLinkIndex linkIndex;
+	private final int intervals;
+
+	private final double[] intervalTimes;
+	private final double[] capacities;
+	private final double[] freeflowTravelTimes;
+	private final double[] penalties;
+
+	private final double[] travelTimes;
+	private final double[] referenceFlows;
+	private final int[] slowerIntervals;
+
+	// Only used for interpolated lookup, otherwise null
+	private final double[] anchorTravelTimes;
+	private final double[] slopes;
 
 	private final Logger logger = LogManager.getLogger(VDFTravelTime.class);
 
 	public VDFTravelTime(VDFScope scope, double minimumSpeed, double capacityFacotor, double samplingRate,
-			Network network, VolumeDelayFunction vdf, double crossingPenalty) {
+			Network network, VolumeDelayFunction vdf, double crossingPenalty, double updateTolerance,
+			int numberOfThreads, boolean interpolate) {
 		this.scope = scope;
 		this.network = network;
 		this.vdf = vdf;
 		this.minimumSpeed = minimumSpeed;
-		this.capacityFactor = capacityFacotor;
 		this.samplingRate = samplingRate;
-		this.crossingPenalty = crossingPenalty;
+		this.updateTolerance = updateTolerance;
+		this.numberOfThreads = numberOfThreads;
+
+		this.linkIndex = new VDFLinkIndex(network);
+		this.intervals = scope.getIntervals();
+
+		int size = linkIndex.size() * intervals;
+
+		this.intervalTimes = new double[intervals];
+		this.capacities = new double[size];
+		this.freeflowTravelTimes = new double[linkIndex.size()];
+		this.penalties = new double[linkIndex.size()];
+
+		this.travelTimes = new double[size];
+		this.referenceFlows = new double[size];
+		this.slowerIntervals = new int[linkIndex.size()];
+
+		this.anchorTravelTimes = interpolate ? new double[size] : null;
+		this.slopes = interpolate ? new double[size] : null;
 
-		for (Link link : network.getLinks().values()) {
-			double travelTime = Math.max(1.0,
-					Math.min(link.getLength() / minimumSpeed, link.getLength() / link.getFreespeed()));
-			travelTimes.put(link.getId(), new ArrayList<>(
-					Collections.nCopies(scope.getIntervals(), considerCrossingPenalty(link, travelTime))));
+		for (int i = 0; i < intervals; i++) {
+			intervalTimes[i] = scope.getStartTime() + i * scope.getIntervalTime();
+		}
+
+		for (int row = 0; row < linkIndex.size(); row++) {
+			Link link = network.getLinks().get(linkIndex.getLinkId(row));
+
+			freeflowTravelTimes[row] = link.getLength() / link.getFreespeed();
+			penalties[row] = isCrossingPenaltyApplied(link) ? crossingPenalty : 0.0;
+
+			double travelTime = Math.max(1.0, Math.min(link.getLength() / minimumSpeed, freeflowTravelTimes[row]));
+
+			for (int i = 0; i < intervals; i++) {
+				capacities[row * intervals + i] = capacityFacotor * scope.getIntervalTime()
+						* link.getCapacity(intervalTimes[i]) / network.getCapacityPeriod();
+				travelTimes[row * intervals + i] = travelTime + penalties[row];
+
+				// Make sure that all links are computed on the first update
+				referenceFlows[row * intervals + i] = Double.NaN;
+			}
+
+			updateSlopes(row);
 		}
 	}
 
 	@Override
 	public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
-		int i = scope.getIntervalIndex(time);
-		return travelTimes.get(link.getId()).get(i);
+		int offset = linkIndex.getRow(link.getId()) * intervals;
+
+		if (slopes == null) {
+			return travelTimes[offset + scope.getIntervalIndex(time)];
+		}
+
+		// Position relative to the midpoint of the first interval
+		double position = (time - scope.getStartTime()) / scope.getIntervalTime() - 0.5;
+
+		if (position <= 0.0) {
+			return anchorTravelTimes[offset];
+		}
+
+		int i = (int) position;
+
+		if (i >= intervals - 1) {
+			return anchorTravelTimes[offset + intervals - 1];
+		}
+
+		return anchorTravelTimes[offset + i] + slopes[offset + i] * (position - i) * scope.getIntervalTime();
 	}
 
 	public void update(IdMap<Link, List<Double>> counts) {
 		logger.info(String.format("Updating VDFTravelTime ..."));
 
-		long totalCount = counts.size() * scope.getIntervals();
+		AtomicInteger updatedLinks = new AtomicInteger();
+
+		ParallelRows.run(linkIndex.size(), numberOfThreads, (startRow, endRow) -> {
+			int localUpdatedLinks = 0;
+			LinkBuffer buffer = new LinkBuffer();
+
+			for (int row = startRow; row < endRow; row++) {
+				List<Double> linkCounts = counts.get(linkIndex.getLinkId(row));
+
+				if (linkCounts != null && hasChanged(row, linkCounts)) {
+					updateLink(row, linkCounts, buffer);
+					localUpdatedLinks++;
+				}
+			}
+
+			updatedLinks.addAndGet(localUpdatedLinks);
+		});
+
+		long totalCount = (long) linkIndex.size() * intervals;
 		long nonFreespeedCount = 0;
 
-		for (Map.Entry<Id<Link>, List<Double>> entry : counts.entrySet()) {
-			Link link = network.getLinks().get(entry.getKey());
+		for (int row = 0; row < linkIndex.size(); row++) {
+			nonFreespeedCount += slowerIntervals[row];
+		}
 
-			List<Double> linkCounts = entry.getValue();
-			List<Double> linkTravelTimes = travelTimes.get(entry.getKey());
+		logger.info(String.format("  Done: %d/%d are slower than freespeed, %d/%d links recomputed",
+				nonFreespeedCount, totalCount, updatedLinks.get(), linkIndex.size()));
+	}
 
-			for (int i = 0; i < scope.getIntervals(); i++) {
-				double time = scope.getStartTime() + i * scope.getIntervalTime();
+	private boolean hasChanged(int row, List<Double> linkCounts) {
+		for (int i = 0; i < intervals; i++) {
+			double reference = referenceFlows[row * intervals + i];
+			double flow = IntervalArrayList.getValue(linkCounts, i);
 
-				// Pass per interval
-				double flow = linkCounts.get(i) / samplingRate;
-				double capacity = capacityFactor * scope.getIntervalTime() * link.getCapacity(time)
-						/ network.getCapacityPeriod();
+			// Comparison is false for the initial NaN references
+			if (!(Math.abs(flow - reference) <= updateTolerance)) {
+				return true;
+			}
+		}
 
-				double travelTime = Math.max(1.0,
-						Math.min(link.getLength() / minimumSpeed, vdf.getTravelTime(time, flow, capacity, link)));
-				linkTravelTimes.set(i, considerCrossingPenalty(link, travelTime));
+		return false;
+	}
 
-				if (travelTime > link.getLength() / link.getFreespeed()) {
-					nonFreespeedCount += 1;
-				}
+	/**
+	 * Per-thread buffers to pass the values of one link to the volume-delay
+	 * function.
+	 */
+	private class LinkBuffer {
+		final double[] flows = new double[intervals];
+		final double[] capacities = new double[intervals];
+		final double[] travelTimes = new double[intervals];
+	}
+
+	private void updateLink(int row, List<Double> linkCounts, LinkBuffer buffer) {
+		Link link = network.getLinks().get(linkIndex.getLinkId(row));
+		int offset = row * intervals;
+
+		for (int i = 0; i < intervals; i++) {
+			referenceFlows[offset + i] = IntervalArrayList.getValue(linkCounts, i);
+
+			// Pass per interval
+			buffer.flows[i] = referenceFlows[offset + i] / samplingRate;
+		}
+
+		System.arraycopy(capacities, offset, buffer.capacities, 0, intervals);
+		vdf.getTravelTimes(intervalTimes, buffer.flows, buffer.capacities, link, buffer.travelTimes);
+
+		double maximumTravelTime = link.getLength() / minimumSpeed;
+		int slower = 0;
+
+		for (int i = 0; i < intervals; i++) {
+			double travelTime = Math.max(1.0, Math.min(maximumTravelTime, buffer.travelTimes[i]));
+			travelTimes[offset + i] = travelTime + penalties[row];
+
+			if (travelTime > freeflowTravelTimes[row]) {
+				slower++;
 			}
 		}
 
-		logger.info(String.format("  Done: %d/%d are slower than freespeed", nonFreespeedCount, totalCount));
+		slowerIntervals[row] = slower;
+		updateSlopes(row);
+	}
+
+	private void updateSlopes(int row) {
+		if (slopes == null) {
+			return;
+		}
+
+		int offset = row * intervals;
+		double intervalTime = scope.getIntervalTime();
+
+		anchorTravelTimes[offset] = travelTimes[offset];
+
+		for (int i = 1; i < intervals; i++) {
+			// Between two midpoints, the travel time may decrease by at most the
+			// interval time for the arrival time to be non-decreasing
+			anchorTravelTimes[offset + i] = Math.max(travelTimes[offset + i],
+					anchorTravelTimes[offset + i - 1] - intervalTime);
+		}
+
+		for (int i = 0; i < intervals - 1; i++) {
+			slopes[offset + i] = (anchorTravelTimes[offset + i + 1] - anchorTravelTimes[offset + i]) / intervalTime;
+		}
+
+		slopes[offset + intervals - 1] = 0.0;
 	}
 
-	private double considerCrossingPenalty(Link link, double baseTravelTime) {
+	private static boolean isCrossingPenaltyApplied(Link link) {
 		boolean isMajor = true;
 
 		for (Link other : link.getToNode().getInLinks().values()) {
@@ -98,10 +256,6 @@ public class VDFTravelTime implements TravelTime {
 			}
 		}
 
-		if (isMajor || link.getToNode().getInLinks().size() == 1) {
-			return baseTravelTime;
-		} else {
-			return baseTravelTime + crossingPenalty;
-		}
+		return !(isMajor || link.getToNode().getInLinks().size() == 1);
 	}
 }
@@ -0,0 +1,44 @@
+package org.eqasim.vdf.travel_time.function;
+
+import org.matsim.api.core.v01.network.Link;
+
+/**
+ * Akcelik volume-delay function (Akcelik, 1991). A delay that depends on the
+ * volume-to-capacity ratio and on the length of the analysis period is added to
+ * the free-flow travel time. Here, the analysis period is the interval over
+ * which flows are aggregated, so the capacity that is passed in (vehicles per
+ * interval) is directly the capacity of the period.
+ */
+public class AkcelikFunction implements VolumeDelayFunction {
+	private final double delayParameter;
+	private final double intervalTime;
+
+	public AkcelikFunction(double delayParameter, double intervalTime) {
+		this.delayParameter = delayParameter;
+		this.intervalTime = intervalTime;
+	}
+
+	private double getDelay(double flow, double capacity) {
+		double ratio = flow / capacity;
+		double excess = ratio - 1.0;
+
+		return 0.25 * intervalTime
+				* (excess + Math.sqrt(excess * excess + 8.0 * delayParameter * ratio / capacity));
+	}
+
+	@Override
+	public double getTravelTime(double time, double flow, double capacity, Link link) {
+		double freeflowTravelTime = link.getLength() / link.getFreespeed(time);
+		return freeflowTravelTime + getDelay(flow, capacity);
+	}
+
+	@Override
+	public void getTravelTimes(double[] times, double[] flows, double[] capacities, Link link,
+			double[] travelTimes) {
+		VolumeDelayFunction.getFreeflowTravelTimes(times, link, travelTimes);
+
+		for (int i = 0; i < flows.length; i++) {
+			travelTimes[i] += getDelay(flows[i], capacities[i]);
+		}
+	}
+}
@@ -2,18 +2,44 @@ package org.eqasim.vdf.travel_time.function;
 
 import org.matsim.api.core.v01.network.Link;
 
+/**
+ * The BPR function keeps the default scalar evaluation of
+ * {@link VolumeDelayFunction#getTravelTimes}, because evaluating it in a block
+ * of intervals is not faster (see VolumeDelayFunctionBenchmark).
+ */
 public class BPRFunction implements VolumeDelayFunction {
 	private final double factor;
 	private final double exponent;
 
+	// Small integer exponents (like the default of 4) are evaluated by repeated
+	// multiplication instead of Math.pow
+	private final int integerExponent;
+
 	public BPRFunction(double factor, double exponent) {
 		this.factor = factor;
 		this.exponent = exponent;
+
+		boolean isInteger = exponent == Math.rint(exponent) && exponent >= 0.0 && exponent <= 8.0;
+		this.integerExponent = isInteger ? (int) exponent : -1;
+	}
+
+	private double power(double value) {
+		if (integerExponent < 0) {
+			return Math.pow(value, exponent);
+		}
+
+		double result = 1.0;
+
+		for (int k = 0; k < integerExponent; k++) {
+			result *= value;
+		}
+
+		return result;
 	}
 
 	@Override
 	public double getTravelTime(double time, double flow, double capacity, Link link) {
 		double freeflowTravelTime = link.getLength() / link.getFreespeed(time);
-		return freeflowTravelTime * (1.0 + factor * Math.pow(flow / capacity, exponent));
+		return freeflowTravelTime * (1.0 + factor * power(flow / capacity));
 	}
 }
@@ -0,0 +1,43 @@
+package org.eqasim.vdf.travel_time.function;
+
+import org.matsim.api.core.v01.network.Link;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Conical volume-delay function (Spiess, 1990). In contrast to the BPR
+ * function, travel times grow linearly for large volume-to-capacity ratios and
+ * are exactly twice the free-flow travel time at capacity.
+ */
+public class ConicalFunction implements VolumeDelayFunction {
+	private final double alpha;
+	private final double beta;
+
+	public ConicalFunction(double alpha) {
+		Preconditions.checkArgument(alpha > 1.0, "Alpha of the conical function must be larger than one");
+
+		this.alpha = alpha;
+		this.beta = (2.0 * alpha - 1.0) / (2.0 * alpha - 2.0);
+	}
+
+	private double getFactor(double ratio) {
+		double remainder = 1.0 - ratio;
+		return 2.0 + Math.sqrt(alpha * alpha * remainder * remainder + beta * beta) - alpha * remainder - beta;
+	}
+
+	@Override
+	public double getTravelTime(double time, double flow, double capacity, Link link) {
+		double freeflowTravelTime = link.getLength() / link.getFreespeed(time);
+		return freeflowTravelTime * getFactor(flow / capacity);
+	}
+
+	@Override
+	public void getTravelTimes(double[] times, double[] flows, double[] capacities, Link link,
+			double[] travelTimes) {
+		VolumeDelayFunction.getFreeflowTravelTimes(times, link, travelTimes);
+
+		for (int i = 0; i < flows.length; i++) {
+			travelTimes[i] *= getFactor(flows[i] / capacities[i]);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package org.eqasim.vdf.travel_time.function;
+
+import org.matsim.api.core.v01.network.Link;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Modified Davidson volume-delay function. The original function diverges when
+ * the flow reaches capacity, so it is continued linearly beyond the given
+ * saturation ratio.
+ */
+public class DavidsonFunction implements VolumeDelayFunction {
+	private final double delayParameter;
+	private final double saturation;
+
+	private final double saturationFactor;
+	private final double saturationSlope;
+
+	public DavidsonFunction(double delayParameter, double saturation) {
+		Preconditions.checkArgument(saturation > 0.0 && saturation < 1.0,
+				"Saturation of the Davidson function must be between zero and one");
+
+		this.delayParameter = delayParameter;
+		this.saturation = saturation;
+
+		this.saturationFactor = 1.0 + delayParameter * saturation / (1.0 - saturation);
+		this.saturationSlope = delayParameter / ((1.0 - saturation) * (1.0 - saturation));
+	}
+
+	private double getFactor(double ratio) {
+		return ratio < saturation ? 1.0 + delayParameter * ratio / (1.0 - ratio)
+				: saturationFactor + saturationSlope * (ratio - saturation);
+	}
+
+	@Override
+	public double getTravelTime(double time, double flow, double capacity, Link link) {
+		double freeflowTravelTime = link.getLength() / link.getFreespeed(time);
+		return freeflowTravelTime * getFactor(flow / capacity);
+	}
+
+	@Override
+	public void getTravelTimes(double[] times, double[] flows, double[] capacities, Link link,
+			double[] travelTimes) {
+		VolumeDelayFunction.getFreeflowTravelTimes(times, link, travelTimes);
+
+		for (int i = 0; i < flows.length; i++) {
+			travelTimes[i] *= getFactor(flows[i] / capacities[i]);
+		}
+	}
+}
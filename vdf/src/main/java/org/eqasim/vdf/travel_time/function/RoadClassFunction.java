@@ -0,0 +1,52 @@
+package org.eqasim.vdf.travel_time.function;
+
+import java.util.Map;
+
+import org.matsim.api.core.v01.IdMap;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+
+/**
+ * Selects the volume-delay function of each link by its road class, given by
+ * the osm:way:highway attribute. Links without a matching road class use the
+ * default function. The selection is done once for the whole network.
+ */
+public class RoadClassFunction implements VolumeDelayFunction {
+	static public final String HIGHWAY_ATTRIBUTE = "osm:way:highway";
+
+	private final VolumeDelayFunction defaultFunction;
+	private final IdMap<Link, VolumeDelayFunction> functions = new IdMap<>(Link.class);
+
+	public RoadClassFunction(Network network, VolumeDelayFunction defaultFunction,
+			Map<String, VolumeDelayFunction> roadClassFunctions) {
+		this.defaultFunction = defaultFunction;
+
+		for (Link link : network.getLinks().values()) {
+			String roadClass = (String) link.getAttributes().getAttribute(HIGHWAY_ATTRIBUTE);
+
+			if (roadClass != null) {
+				VolumeDelayFunction function = roadClassFunctions.get(roadClass);
+
+				if (function != null) {
+					functions.put(link.getId(), function);
+				}
+			}
+		}
+	}
+
+	private VolumeDelayFunction getFunction(Link link) {
+		VolumeDelayFunction function = functions.get(link.getId());
+		return function == null ? defaultFunction : function;
+	}
+
+	@Override
+	public double getTravelTime(double time, double flow, double capacity, Link link) {
+		return getFunction(link).getTravelTime(time, flow, capacity, link);
+	}
+
+	@Override
+	public void getTravelTimes(double[] times, double[] flows, double[] capacities, Link link,
+			double[] travelTimes) {
+		getFunction(link).getTravelTimes(times, flows, capacities, link, travelTimes);
+	}
+}
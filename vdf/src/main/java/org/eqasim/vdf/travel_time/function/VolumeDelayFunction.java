@@ -4,4 +4,30 @@ import org.matsim.api.core.v01.network.Link;
 
 public interface VolumeDelayFunction {
 	double getTravelTime(double time, double flow, double capacity, Link link);
+
+	/**
+	 * Computes the travel times of one link for a block of intervals at once. All
+	 * arrays have one entry per interval. Implementations should keep the
+	 * per-interval arithmetic in a plain loop over the arrays so that it can be
+	 * optimized by the compiler. The default evaluates the intervals one by one
+	 * and is kept by functions that do not gain from a block evaluation.
+	 */
+	default void getTravelTimes(double[] times, double[] flows, double[] capacities, Link link,
+			double[] travelTimes) {
+		for (int i = 0; i < flows.length; i++) {
+			travelTimes[i] = getTravelTime(times[i], flows[i], capacities[i], link);
+		}
+	}
+
+	/**
+	 * Writes the free-flow travel times of the link for the given times into the
+	 * output array.
+	 */
+	static void getFreeflowTravelTimes(double[] times, Link link, double[] travelTimes) {
+		double length = link.getLength();
+
+		for (int i = 0; i < times.length; i++) {
+			travelTimes[i] = length / link.getFreespeed(times[i]);
+		}
+	}
 }
@@ -0,0 +1,162 @@
+package org.eqasim.vdf.analysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.eqasim.vdf.VDFScope;
+import org.eqasim.vdf.data.VDFLinkIndex;
+import org.eqasim.vdf.io.VDFStateFormat.Header;
+import org.eqasim.vdf.io.VDFStateReader;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.IdMap;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.io.IOUtils;
+
+public class TestFlowWriter {
+	// More links than fit into one batch of a single thread
+	private final static int LINKS = 10000;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final VDFScope scope = new VDFScope(0.0, 1800.0, 900.0);
+
+	private Network createNetwork() {
+		Network network = NetworkUtils.createNetwork();
+
+		Node nodeA = NetworkUtils.createAndAddNode(network, Id.createNodeId("A"), new Coord(0.0, 0.0));
+		Node nodeB = NetworkUtils.createAndAddNode(network, Id.createNodeId("B"), new Coord(1000.0, 0.0));
+
+		for (int k = 0; k < LINKS; k++) {
+			Link link = NetworkUtils.createAndAddLink(network, Id.createLinkId("flow" + k), nodeA, nodeB, 1000.0,
+					10.0, 1000.0, 1.0 + k % 3);
+
+			if (k % 2 == 0) {
+				link.getAttributes().putAttribute("osm:way:highway", "primary");
+			}
+		}
+
+		return network;
+	}
+
+	/**
+	 * Flows for all but every tenth link.
+	 */
+	private IdMap<Link, List<Double>> createFlows(Network network) {
+		Random random = new Random(0);
+		IdMap<Link, List<Double>> flows = new IdMap<>(Link.class);
+
+		int index = 0;
+
+		for (Id<Link> linkId : network.getLinks().keySet()) {
+			if (index++ % 10 != 9) {
+				List<Double> values = new ArrayList<>();
+
+				for (int i = 0; i < scope.getIntervals(); i++) {
+					values.add(random.nextInt(4) == 0 ? 0.0 : random.nextDouble() * 1000.0);
+				}
+
+				flows.put(linkId, values);
+			}
+		}
+
+		return flows;
+	}
+
+	/**
+	 * Formats the rows one by one as the writer did before rows were formatted in
+	 * parallel.
+	 */
+	private String createReference(IdMap<Link, List<Double>> flows, Network network) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.join(";", new String[] { "link_id", "interval", "start_time", "flow", "lanes", "osm" })
+				+ "\n");
+
+		for (Map.Entry<Id<Link>, List<Double>> item : flows.entrySet()) {
+			Link link = network.getLinks().get(item.getKey());
+
+			for (int interval = 0; interval < scope.getIntervals(); interval++) {
+				builder.append(String.join(";", new String[] { //
+						item.getKey().toString(), //
+						String.valueOf(interval), //
+						String.valueOf(scope.getStartTime() + interval * scope.getIntervalTime()), //
+						String.valueOf(item.getValue().get(interval)), //
+						String.valueOf(link.getNumberOfLanes()), //
+						String.valueOf(link.getAttributes().getAttribute("osm:way:highway")) //
+				}) + "\n");
+			}
+		}
+
+		return builder.toString();
+	}
+
+	@Test
+	public void testCsv() throws IOException {
+		Network network = createNetwork();
+		IdMap<Link, List<Double>> flows = createFlows(network);
+		String reference = createReference(flows, network);
+
+		for (int numberOfThreads : new int[] { 1, 2, 5 }) {
+			File outputFile = new File(temporaryFolder.getRoot(), "flow_" + numberOfThreads + ".csv");
+			new FlowWriter(flows, network, scope, numberOfThreads).write(outputFile);
+
+			Assert.assertEquals(reference, Files.readString(outputFile.toPath(), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void testCompressedCsv() throws IOException {
+		Network network = createNetwork();
+		IdMap<Link, List<Double>> flows = createFlows(network);
+
+		File outputFile = new File(temporaryFolder.getRoot(), "flow.csv.gz");
+		new FlowWriter(flows, network, scope, 2).write(outputFile);
+
+		try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(outputFile.toPath()))) {
+			Assert.assertEquals(createReference(flows, network),
+					new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void testBinary() throws IOException {
+		Network network = createNetwork();
+		IdMap<Link, List<Double>> flows = createFlows(network);
+
+		File outputFile = new File(temporaryFolder.getRoot(), "flow.bin");
+		new FlowWriter(flows, network, scope, 2).writeBinary(outputFile);
+
+		VDFLinkIndex linkIndex = new VDFLinkIndex(network);
+		double[] values = new double[linkIndex.size() * scope.getIntervals()];
+
+		Header header = new VDFStateReader(scope, linkIndex).read(IOUtils.getFileUrl(outputFile.getPath()),
+				blockIndex -> values);
+		Assert.assertEquals(1, header.blocks());
+
+		for (int row = 0; row < linkIndex.size(); row++) {
+			List<Double> linkFlows = flows.get(linkIndex.getLinkId(row));
+
+			for (int i = 0; i < scope.getIntervals(); i++) {
+				// Links without flows are written with zero values
+				double expected = linkFlows == null ? 0.0 : linkFlows.get(i);
+				Assert.assertEquals(expected, values[row * scope.getIntervals() + i], 0.0);
+			}
+		}
+	}
+}
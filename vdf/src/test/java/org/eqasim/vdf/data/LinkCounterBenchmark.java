@@ -0,0 +1,94 @@
+package org.eqasim.vdf.data;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Throughput of counting link entries from several event handling threads. The
+ * positions follow the layout of the handlers (links x intervals) and are drawn
+ * uniformly, so threads rarely hit the same cell at the same time. The total
+ * throughput of the concurrent counter should grow with the number of threads,
+ * while the synchronized counter is limited by its lock.
+ *
+ * Run with the main method (the number of threads is varied there) or through
+ * the JMH command line options.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkCounterBenchmark {
+	private final static int OPERATIONS = 1024;
+
+	@State(Scope.Benchmark)
+	public static class CounterState {
+		@Param({ "false", "true" })
+		public boolean concurrent;
+
+		@Param({ "100000" })
+		public int links;
+
+		@Param({ "24" })
+		public int intervals;
+
+		LinkCounter counter;
+
+		@Setup
+		public void setup() {
+			counter = LinkCounter.create(links * intervals, concurrent);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class PositionState {
+		final int[] positions = new int[OPERATIONS];
+
+		@Setup
+		public void setup(CounterState state) {
+			Random random = new Random(Thread.currentThread().getId());
+
+			for (int k = 0; k < OPERATIONS; k++) {
+				positions[k] = random.nextInt(state.links * state.intervals);
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(OPERATIONS)
+	public void increment(CounterState counterState, PositionState positionState) {
+		LinkCounter counter = counterState.counter;
+
+		for (int position : positionState.positions) {
+			counter.increment(position);
+		}
+	}
+
+	static public void main(String[] args) throws RunnerException {
+		for (int threads : new int[] { 1, 2, 4, 8 }) {
+			Options options = new OptionsBuilder() //
+					.include(LinkCounterBenchmark.class.getSimpleName()) //
+					.threads(threads) //
+					.build();
+
+			new Runner(options).run();
+		}
+	}
+}
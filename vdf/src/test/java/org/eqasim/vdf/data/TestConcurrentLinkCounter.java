@@ -0,0 +1,89 @@
+package org.eqasim.vdf.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestConcurrentLinkCounter {
+	private final static int THREADS = 8;
+	private final static int INCREMENTS = 100000;
+	private final static int SIZE = 16;
+
+	/**
+	 * All threads increment the same positions at the same time, so every lost
+	 * update would show up in the totals.
+	 */
+	private void runIncrements(LinkCounter counter) throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>(THREADS);
+		List<Throwable> exceptions = new ArrayList<>();
+
+		for (int k = 0; k < THREADS; k++) {
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+
+					for (int i = 0; i < INCREMENTS; i++) {
+						counter.increment(i % SIZE);
+					}
+				} catch (Throwable e) {
+					synchronized (exceptions) {
+						exceptions.add(e);
+					}
+				}
+			});
+
+			threads.add(thread);
+			thread.start();
+		}
+
+		start.countDown();
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		Assert.assertEquals(0, exceptions.size());
+	}
+
+	@Test
+	public void testConcurrentIncrements() throws InterruptedException {
+		LinkCounter counter = new ConcurrentLinkCounter(SIZE);
+		runIncrements(counter);
+
+		for (int position = 0; position < SIZE; position++) {
+			Assert.assertEquals(THREADS * INCREMENTS / SIZE, counter.take(position), 0.0);
+		}
+	}
+
+	@Test
+	public void testSynchronizedIncrements() throws InterruptedException {
+		LinkCounter counter = new SynchronizedLinkCounter(SIZE);
+		runIncrements(counter);
+
+		for (int position = 0; position < SIZE; position++) {
+			Assert.assertEquals(THREADS * INCREMENTS / SIZE, counter.take(position), 0.0);
+		}
+	}
+
+	@Test
+	public void testTakeResets() throws InterruptedException {
+		LinkCounter counter = new ConcurrentLinkCounter(SIZE);
+		runIncrements(counter);
+
+		for (int position = 0; position < SIZE; position++) {
+			counter.take(position);
+			Assert.assertEquals(0.0, counter.take(position), 0.0);
+		}
+
+		// Counting starts again from zero after a reset
+		runIncrements(counter);
+
+		for (int position = 0; position < SIZE; position++) {
+			Assert.assertEquals(THREADS * INCREMENTS / SIZE, counter.take(position), 0.0);
+		}
+	}
+}
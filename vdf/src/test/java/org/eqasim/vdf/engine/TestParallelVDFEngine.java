@@ -0,0 +1,203 @@
+package org.eqasim.vdf.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.eqasim.vdf.VDFScope;
+import org.eqasim.vdf.engine.TraversalQueue.QueueType;
+import org.eqasim.vdf.handlers.VDFHorizonHandler;
+import org.eqasim.vdf.travel_time.VDFTravelTime;
+import org.eqasim.vdf.travel_time.function.BPRFunction;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.IdMap;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.mobsim.framework.HasPerson;
+import org.matsim.core.mobsim.framework.MobsimAgent;
+import org.matsim.core.mobsim.framework.MobsimDriverAgent;
+import org.matsim.core.mobsim.framework.PlanAgent;
+import org.matsim.core.mobsim.qsim.InternalInterface;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteUtils;
+import org.mockito.Mockito;
+
+/**
+ * Runs the parallel engine on a congested chain of links for two iterations,
+ * with the travel times of the second iteration updated from the counts of the
+ * first one. The events, the agent state changes and the aggregated counts
+ * must not depend on the number of threads or on the run.
+ */
+public class TestParallelVDFEngine {
+	private final static int LINKS = 10;
+	private final static int AGENTS = 300;
+	private final static int ITERATIONS = 2;
+	private final static double END_TIME = 4.0 * 3600.0;
+
+	private final VDFScope scope = new VDFScope(0.0, 3.0 * 3600.0, 900.0);
+
+	private Network createNetwork() {
+		Network network = NetworkUtils.createNetwork();
+		List<Node> nodes = new ArrayList<>();
+
+		for (int k = 0; k <= LINKS; k++) {
+			nodes.add(NetworkUtils.createAndAddNode(network, Id.createNodeId("node" + k),
+					new Coord(k * 500.0, 0.0)));
+		}
+
+		for (int k = 0; k < LINKS; k++) {
+			NetworkUtils.createAndAddLink(network, Id.createLinkId("link" + k), nodes.get(k), nodes.get(k + 1), 500.0,
+					10.0, 100.0, 1.0);
+		}
+
+		return network;
+	}
+
+	private record Departure(int agentIndex, double departureTime, int startLink, int endLink) {
+	}
+
+	private List<Departure> createDepartures() {
+		Random random = new Random(0);
+		List<Departure> departures = new ArrayList<>(AGENTS);
+
+		for (int k = 0; k < AGENTS; k++) {
+			int startLink = random.nextInt(LINKS - 1);
+			int endLink = startLink + 1 + random.nextInt(LINKS - 1 - startLink);
+			departures.add(new Departure(k, random.nextInt(7200), startLink, endLink));
+		}
+
+		departures.sort((a, b) -> Double.compare(a.departureTime(), b.departureTime()));
+		return departures;
+	}
+
+	private Leg createLeg(Network network, Departure departure) {
+		List<Id<Link>> linkIds = new ArrayList<>();
+		double distance = 0.0;
+
+		for (int k = departure.startLink() + 1; k < departure.endLink(); k++) {
+			linkIds.add(Id.createLinkId("link" + k));
+		}
+
+		for (int k = departure.startLink(); k <= departure.endLink(); k++) {
+			distance += network.getLinks().get(Id.createLinkId("link" + k)).getLength();
+		}
+
+		NetworkRoute route = RouteUtils.createLinkNetworkRouteImpl(Id.createLinkId("link" + departure.startLink()),
+				linkIds, Id.createLinkId("link" + departure.endLink()));
+		route.setDistance(distance);
+
+		Leg leg = PopulationUtils.createLeg("car");
+		leg.setRoute(route);
+		return leg;
+	}
+
+	private MobsimAgent createAgent(Leg leg, Departure departure, List<String> trace) {
+		MobsimDriverAgent agent = Mockito.mock(MobsimDriverAgent.class,
+				Mockito.withSettings().extraInterfaces(PlanAgent.class, HasPerson.class));
+
+		Id<Person> personId = Id.createPersonId("agent" + departure.agentIndex());
+		Mockito.when(agent.getId()).thenReturn(personId);
+		Mockito.when(((PlanAgent) agent).getCurrentPlanElement()).thenReturn(leg);
+
+		Mockito.doAnswer(invocation -> {
+			trace.add("end " + personId + " " + invocation.getArgument(0));
+			return null;
+		}).when(agent).endLegAndComputeNextState(Mockito.anyDouble());
+
+		return agent;
+	}
+
+	/**
+	 * Returns the trace of all events and state changes of all iterations,
+	 * followed by the aggregated counts after each iteration.
+	 */
+	private List<String> simulate(int numberOfThreads) {
+		Network network = createNetwork();
+		VDFTravelTime travelTime = new VDFTravelTime(scope, 1.0, 1.0, 1.0, network, new BPRFunction(0.15, 4.0), 0.0,
+				0.0, 1, false);
+		VDFHorizonHandler handler = new VDFHorizonHandler(network, scope, 1, 1, true);
+
+		List<String> trace = Collections.synchronizedList(new ArrayList<>());
+		List<Departure> departures = createDepartures();
+
+		for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+			EventsManager eventsManager = Mockito.mock(EventsManager.class);
+			Mockito.doAnswer(invocation -> {
+				trace.add(invocation.<Event>getArgument(0).getAttributes().toString());
+				return null;
+			}).when(eventsManager).processEvent(Mockito.any());
+
+			InternalInterface internalInterface = Mockito.mock(InternalInterface.class, Mockito.RETURNS_DEEP_STUBS);
+			Mockito.when(internalInterface.getMobsim().getEventsManager()).thenReturn(eventsManager);
+			Mockito.when(internalInterface.getMobsim().getSimTimer().getTimeOfDay()).thenReturn(END_TIME);
+			Mockito.doAnswer(invocation -> {
+				trace.add("arrange " + invocation.<MobsimAgent>getArgument(0).getId());
+				return null;
+			}).when(internalInterface).arrangeNextAgentState(Mockito.any());
+
+			ParallelVDFEngine engine = new ParallelVDFEngine(Set.of("car"), travelTime, network, handler,
+					numberOfThreads, QueueType.Heap);
+			engine.setInternalInterface(internalInterface);
+			engine.onPrepareSim();
+
+			int nextDeparture = 0;
+
+			for (double now = 0.0; now <= END_TIME; now += 1.0) {
+				engine.doSimStep(now);
+
+				while (nextDeparture < departures.size()
+						&& departures.get(nextDeparture).departureTime() == now) {
+					Departure departure = departures.get(nextDeparture++);
+					Leg leg = createLeg(network, departure);
+
+					Assert.assertTrue(engine.handleDeparture(now, createAgent(leg, departure, trace),
+							leg.getRoute().getStartLinkId()));
+				}
+			}
+
+			engine.afterSim();
+
+			IdMap<Link, List<Double>> counts = handler.aggregate();
+
+			for (int k = 0; k < LINKS; k++) {
+				Id<Link> linkId = Id.createLinkId("link" + k);
+				trace.add("counts " + linkId + " " + counts.get(linkId));
+			}
+
+			travelTime.update(counts);
+		}
+
+		return new ArrayList<>(trace);
+	}
+
+	@Test
+	public void testRepeatedRun() {
+		List<String> first = simulate(4);
+		List<String> second = simulate(4);
+
+		// Every agent arrives in every iteration
+		Assert.assertEquals(ITERATIONS * AGENTS, first.stream().filter(item -> item.startsWith("end ")).count());
+		Assert.assertEquals(first, second);
+	}
+
+	@Test
+	public void testNumberOfThreads() {
+		List<String> reference = simulate(1);
+
+		for (int numberOfThreads : new int[] { 2, 3, 8 }) {
+			Assert.assertEquals(reference, simulate(numberOfThreads));
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package org.eqasim.vdf.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the time wheel releases exactly the same items in every time step
+ * as the heap, which is the reference implementation. Items that are due in
+ * the same step may come in a different order, so the releases of each step
+ * are compared as sorted lists.
+ */
+public class TestTimeWheelTraversalQueue {
+	static private class Item {
+		final int index;
+		final double arrivalTime;
+
+		Item(int index, double arrivalTime) {
+			this.index = index;
+			this.arrivalTime = arrivalTime;
+		}
+	}
+
+	private static class Pair {
+		final TraversalQueue<Item> heap = new HeapTraversalQueue<>(item -> item.arrivalTime);
+		final TraversalQueue<Item> wheel;
+
+		Pair(int wheelSize) {
+			this.wheel = new TimeWheelTraversalQueue<>(item -> item.arrivalTime, wheelSize);
+		}
+
+		void add(Item item) {
+			heap.add(item);
+			wheel.add(item);
+		}
+	}
+
+	private List<Integer> pollAll(TraversalQueue<Item> queue, double now, List<Item> polled) {
+		List<Integer> indices = new ArrayList<>();
+		Item item;
+
+		while ((item = queue.pollDue(now)) != null) {
+			Assert.assertTrue(item.arrivalTime <= now);
+
+			indices.add(item.index);
+			polled.add(item);
+		}
+
+		Collections.sort(indices);
+		return indices;
+	}
+
+	/**
+	 * Processes one time step like the engine: all due items are removed and some
+	 * of them are added again with a new arrival time.
+	 */
+	private void step(Pair pair, double now, FollowUp followUp) {
+		Assert.assertEquals(pair.heap.hasDue(now), pair.wheel.hasDue(now));
+
+		List<Item> heapPolled = new ArrayList<>();
+		List<Item> wheelPolled = new ArrayList<>();
+
+		List<Integer> heapIndices = pollAll(pair.heap, now, heapPolled);
+		List<Integer> wheelIndices = pollAll(pair.wheel, now, wheelPolled);
+		Assert.assertEquals("Step " + now, heapIndices, wheelIndices);
+
+		// Follow-ups may be due in the same step, so both queues are drained again
+		List<Item> added = new ArrayList<>();
+
+		for (Item item : heapPolled) {
+			Item next = followUp.create(item, now);
+
+			if (next != null) {
+				pair.add(next);
+				added.add(next);
+			}
+		}
+
+		if (added.size() > 0) {
+			Assert.assertEquals("Step " + now, pollAll(pair.heap, now, new ArrayList<>()),
+					pollAll(pair.wheel, now, new ArrayList<>()));
+		}
+
+		Assert.assertEquals(pair.heap.size(), pair.wheel.size());
+		Assert.assertEquals(pair.heap.isEmpty(), pair.wheel.isEmpty());
+	}
+
+	private interface FollowUp {
+		Item create(Item item, double now);
+	}
+
+	@Test
+	public void testFractionalArrivals() {
+		Pair pair = new Pair(TimeWheelTraversalQueue.DEFAULT_WHEEL_SIZE);
+
+		// Exactly on and just after whole seconds
+		pair.add(new Item(0, 10.0));
+		pair.add(new Item(1, 10.000001));
+		pair.add(new Item(2, 10.5));
+		pair.add(new Item(3, 10.999999));
+		pair.add(new Item(4, 11.0));
+		pair.add(new Item(5, 11.000001));
+
+		for (double now = 9.0; now <= 12.0; now++) {
+			step(pair, now, (item, time) -> null);
+		}
+
+		Assert.assertTrue(pair.wheel.isEmpty());
+	}
+
+	@Test
+	public void testOverflow() {
+		Pair pair = new Pair(TimeWheelTraversalQueue.DEFAULT_WHEEL_SIZE);
+		int wheelSize = TimeWheelTraversalQueue.DEFAULT_WHEEL_SIZE;
+
+		double start = 1000.0;
+
+		// Added before the wheel has started
+		pair.add(new Item(0, start + wheelSize - 1.0));
+		pair.add(new Item(1, start + wheelSize));
+		pair.add(new Item(2, start + wheelSize + 0.5));
+		pair.add(new Item(3, start + 3.0 * wheelSize + 0.25));
+
+		int[] index = { 4 };
+
+		for (double now = start; now <= start + 4.0 * wheelSize; now++) {
+			double time = now;
+
+			if (now == start + 10.0) {
+				// Added once the wheel is running, around the end of its range
+				for (double offset : new double[] { wheelSize - 1.0, wheelSize - 0.5, wheelSize, wheelSize + 0.5,
+						2.0 * wheelSize, 2.0 * wheelSize + 0.75 }) {
+					pair.add(new Item(index[0]++, time + offset));
+				}
+			}
+
+			step(pair, now, (item, current) -> null);
+		}
+
+		Assert.assertTrue(pair.heap.isEmpty());
+		Assert.assertTrue(pair.wheel.isEmpty());
+	}
+
+	@Test
+	public void testAlreadyDue() {
+		Pair pair = new Pair(TimeWheelTraversalQueue.DEFAULT_WHEEL_SIZE);
+
+		// Due before the first step
+		pair.add(new Item(0, 50.0));
+		pair.add(new Item(1, 99.5));
+		step(pair, 100.0, (item, now) -> null);
+
+		Assert.assertTrue(pair.wheel.isEmpty());
+
+		// Arrivals in the past and in the current step, added during the step
+		pair.add(new Item(2, 101.0));
+		int[] index = { 3 };
+
+		step(pair, 101.0, (item, now) -> item.index == 2 ? new Item(index[0]++, now - 30.0) : null);
+		step(pair, 102.0, (item, now) -> null);
+
+		pair.add(new Item(index[0]++, 103.0));
+		step(pair, 103.0, (item, now) -> item.index < 10 ? new Item(index[0]++, now) : null);
+
+		Assert.assertTrue(pair.heap.isEmpty());
+		Assert.assertTrue(pair.wheel.isEmpty());
+	}
+
+	@Test
+	public void testIdleWheel() {
+		Pair pair = new Pair(16);
+
+		pair.add(new Item(0, 5.0));
+
+		for (double now = 0.0; now < 10.0; now++) {
+			step(pair, now, (item, time) -> null);
+		}
+
+		// The wheel has been empty for a while, then receives items relative to a
+		// later time
+		pair.add(new Item(1, 40.5));
+		pair.add(new Item(2, 30.0));
+		pair.add(new Item(3, 12.0));
+
+		for (double now = 20.0; now < 50.0; now++) {
+			step(pair, now, (item, time) -> null);
+		}
+
+		Assert.assertTrue(pair.wheel.isEmpty());
+	}
+
+	private void runRandom(int wheelSize, long seed) {
+		Random random = new Random(seed);
+		Pair pair = new Pair(wheelSize);
+
+		int[] index = { 0 };
+
+		for (int k = 0; k < 2000; k++) {
+			pair.add(new Item(index[0]++, 3600.0 + random.nextDouble() * 7200.0));
+		}
+
+		FollowUp followUp = (item, now) -> {
+			double u = random.nextDouble();
+
+			if (u < 0.1) {
+				return null; // Trip ends
+			} else if (u < 0.15) {
+				return new Item(index[0]++, now); // Due in the same step
+			} else if (u < 0.2) {
+				return new Item(index[0]++, now - random.nextDouble() * 10.0); // Already late
+			} else if (u < 0.25) {
+				return new Item(index[0]++, now + 2.0 * wheelSize + random.nextDouble() * wheelSize); // Overflow
+			} else if (u < 0.3) {
+				return new Item(index[0]++, now + Math.floor(random.nextDouble() * 20.0)); // Whole seconds
+			} else {
+				return new Item(index[0]++, now + random.nextDouble() * 300.0);
+			}
+		};
+
+		for (double now = 3000.0; now < 3600.0 * 24.0 && !pair.heap.isEmpty(); now++) {
+			step(pair, now, followUp);
+		}
+
+		Assert.assertTrue(pair.heap.isEmpty());
+		Assert.assertTrue(pair.wheel.isEmpty());
+	}
+
+	@Test
+	public void testRandomDefaultWheel() {
+		runRandom(TimeWheelTraversalQueue.DEFAULT_WHEEL_SIZE, 0);
+	}
+
+	@Test
+	public void testRandomSmallWheel() {
+		runRandom(64, 1);
+		runRandom(7, 2);
+	}
+}
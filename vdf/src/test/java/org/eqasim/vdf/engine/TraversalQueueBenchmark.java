@@ -0,0 +1,102 @@
+package org.eqasim.vdf.engine;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eqasim.vdf.engine.TraversalQueue.QueueType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Time per simulation step of the traversal queues in a steady state as in the
+ * VDF engine: every step, all due traversals are removed and each is added
+ * again with the arrival time on its next link. Link travel times are
+ * fractional and drawn from a fixed sequence, so both queue types process the
+ * same traversals.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TraversalQueueBenchmark {
+	private final static int TRAVEL_TIMES = 1 << 16;
+
+	@Param({ "Heap", "TimeWheel" })
+	public QueueType queueType;
+
+	// Number of traversals that are pending at any time
+	@Param({ "10000", "100000", "1000000" })
+	public int traversals;
+
+	// Upper bound of the link travel times [s]
+	@Param({ "120" })
+	public double maximumTravelTime;
+
+	static private class Traversal {
+		double arrivalTime;
+	}
+
+	private TraversalQueue<Traversal> queue;
+	private final double[] travelTimes = new double[TRAVEL_TIMES];
+	private int nextTravelTime = 0;
+
+	private double now = 0.0;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(0);
+
+		for (int k = 0; k < TRAVEL_TIMES; k++) {
+			travelTimes[k] = 1.0 + random.nextDouble() * (maximumTravelTime - 1.0);
+		}
+
+		queue = TraversalQueue.create(queueType, traversal -> traversal.arrivalTime);
+
+		for (int k = 0; k < traversals; k++) {
+			Traversal traversal = new Traversal();
+			traversal.arrivalTime = random.nextDouble() * maximumTravelTime;
+			queue.add(traversal);
+		}
+	}
+
+	@Benchmark
+	public int step() {
+		now += 1.0;
+
+		int processed = 0;
+		Traversal traversal;
+
+		while ((traversal = queue.pollDue(now)) != null) {
+			traversal.arrivalTime = now + travelTimes[nextTravelTime];
+			nextTravelTime = (nextTravelTime + 1) % TRAVEL_TIMES;
+
+			queue.add(traversal);
+			processed++;
+		}
+
+		return processed;
+	}
+
+	static public void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder() //
+				.include(TraversalQueueBenchmark.class.getSimpleName()) //
+				.build();
+
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,174 @@
+package org.eqasim.vdf.handlers;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.eqasim.vdf.VDFScope;
+import org.eqasim.vdf.handlers.VDFWeightedHandler.WeightingType;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.IdMap;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.io.IOUtils;
+
+import com.google.common.base.VerifyException;
+
+/**
+ * Compares the ring buffer and the running sum of the horizon handler with the
+ * average over the most recent slices, recomputed from a plain list of all
+ * slices in every iteration.
+ */
+public class TestVDFHorizonHandler {
+	private final static double EPSILON = 1e-9;
+	private final static int LINKS = 5;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final VDFScope scope = new VDFScope(0.0, 3.0 * 3600.0, 900.0);
+
+	private Network createNetwork() {
+		Network network = NetworkUtils.createNetwork();
+
+		Node nodeA = NetworkUtils.createAndAddNode(network, Id.createNodeId("A"), new Coord(0.0, 0.0));
+		Node nodeB = NetworkUtils.createAndAddNode(network, Id.createNodeId("B"), new Coord(1000.0, 0.0));
+
+		for (int k = 0; k < LINKS; k++) {
+			NetworkUtils.createAndAddLink(network, Id.createLinkId("horizon" + k), nodeA, nodeB, 1000.0, 10.0,
+					1000.0, 1.0);
+		}
+
+		return network;
+	}
+
+	/**
+	 * Naive reference that keeps all slices and averages the most recent ones,
+	 * which are at most horizon + 1.
+	 */
+	static private class Reference {
+		private final int horizon;
+		private final List<double[][]> slices = new ArrayList<>();
+
+		Reference(int horizon) {
+			this.horizon = horizon;
+		}
+
+		void add(double[][] slice) {
+			slices.add(slice);
+		}
+
+		double get(int link, int interval) {
+			int start = Math.max(0, slices.size() - horizon - 1);
+			double sum = 0.0;
+
+			for (int s = start; s < slices.size(); s++) {
+				sum += slices.get(s)[link][interval];
+			}
+
+			return sum / (slices.size() - start);
+		}
+	}
+
+	/**
+	 * Enters links at random times and returns the number of entries per link and
+	 * interval.
+	 */
+	private double[][] simulate(Random random, VDFHorizonHandler handler) {
+		double[][] slice = new double[LINKS][scope.getIntervals()];
+		int entries = random.nextInt(200);
+
+		for (int k = 0; k < entries; k++) {
+			int link = random.nextInt(LINKS);
+			double time = random.nextDouble() * scope.getEndTime();
+
+			handler.processEnterLink(time, Id.createLinkId("horizon" + link));
+			slice[link][scope.getIntervalIndex(time)]++;
+		}
+
+		return slice;
+	}
+
+	private void assertEquivalent(Reference reference, IdMap<Link, List<Double>> aggregated) {
+		for (int link = 0; link < LINKS; link++) {
+			List<Double> values = aggregated.get(Id.createLinkId("horizon" + link));
+
+			for (int i = 0; i < scope.getIntervals(); i++) {
+				Assert.assertEquals(reference.get(link, i), values.get(i), EPSILON);
+			}
+		}
+	}
+
+	@Test
+	public void testAggregation() {
+		Random random = new Random(0);
+
+		for (int horizon : new int[] { 0, 1, 3, 5 }) {
+			for (int numberOfThreads : new int[] { 1, 3 }) {
+				VDFHorizonHandler handler = new VDFHorizonHandler(createNetwork(), scope, horizon, numberOfThreads,
+						numberOfThreads > 1);
+				Reference reference = new Reference(horizon);
+
+				// Several turns of the ring, so the sum is refreshed when it wraps around
+				for (int iteration = 0; iteration < 4 * (horizon + 1) + 2; iteration++) {
+					reference.add(simulate(random, handler));
+					assertEquivalent(reference, handler.aggregate());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testReadPartialHistory() {
+		Random random = new Random(1);
+		int horizon = 4;
+
+		// Beyond horizon + 1 iterations, the ring has wrapped around before writing
+		for (int writtenIterations = 1; writtenIterations <= horizon + 3; writtenIterations++) {
+			VDFHorizonHandler handler = new VDFHorizonHandler(createNetwork(), scope, horizon, 1, false);
+			Reference reference = new Reference(horizon);
+
+			for (int iteration = 0; iteration < writtenIterations; iteration++) {
+				reference.add(simulate(random, handler));
+				handler.aggregate();
+			}
+
+			File stateFile = new File(temporaryFolder.getRoot(), "state" + writtenIterations + ".bin");
+			handler.getWriter().writeFile(stateFile);
+
+			// Continue with a new handler that starts from the state, with fewer slices
+			// than the ring holds unless the history is complete
+			VDFHorizonHandler readHandler = new VDFHorizonHandler(createNetwork(), scope, horizon, 2, false);
+			readHandler.getReader().readFile(IOUtils.getFileUrl(stateFile.getPath()));
+
+			for (int iteration = 0; iteration < 3 * (horizon + 1); iteration++) {
+				reference.add(simulate(random, readHandler));
+				assertEquivalent(reference, readHandler.aggregate());
+			}
+		}
+	}
+
+	@Test(expected = VerifyException.class)
+	public void testRejectWeightedState() {
+		VDFWeightedHandler weightedHandler = new VDFWeightedHandler(createNetwork(), scope,
+				WeightingType.Exponential, 0.5, 1, false);
+		weightedHandler.processEnterLink(0.0, Id.createLinkId("horizon0"));
+		weightedHandler.aggregate();
+
+		File stateFile = new File(temporaryFolder.getRoot(), "weighted.bin");
+		weightedHandler.getWriter().writeFile(stateFile);
+
+		// A horizon of zero expects a single slice, which is the layout of the weighted
+		// state
+		VDFHorizonHandler handler = new VDFHorizonHandler(createNetwork(), scope, 0, 1, false);
+		handler.getReader().readFile(IOUtils.getFileUrl(stateFile.getPath()));
+	}
+}
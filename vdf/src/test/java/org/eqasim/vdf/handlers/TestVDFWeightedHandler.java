@@ -0,0 +1,119 @@
+package org.eqasim.vdf.handlers;
+
+import java.io.File;
+import java.util.List;
+
+import org.eqasim.vdf.VDFScope;
+import org.eqasim.vdf.handlers.VDFWeightedHandler.WeightingType;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.io.IOUtils;
+
+import com.google.common.base.VerifyException;
+
+public class TestVDFWeightedHandler {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final VDFScope scope = new VDFScope(0.0, 3600.0, 3600.0);
+	private final Id<Link> linkId = Id.createLinkId("weighted");
+
+	private Network createNetwork() {
+		Network network = NetworkUtils.createNetwork();
+
+		Node nodeA = NetworkUtils.createAndAddNode(network, Id.createNodeId("A"), new Coord(0.0, 0.0));
+		Node nodeB = NetworkUtils.createAndAddNode(network, Id.createNodeId("B"), new Coord(1000.0, 0.0));
+		NetworkUtils.createAndAddLink(network, linkId, nodeA, nodeB, 1000.0, 10.0, 1000.0, 1.0);
+
+		return network;
+	}
+
+	/**
+	 * Adds the given number of entries per iteration and returns the aggregated
+	 * value of the first interval after the last iteration.
+	 */
+	private double aggregate(VDFWeightedHandler handler, int... entries) {
+		double value = Double.NaN;
+
+		for (int iteration = 0; iteration < entries.length; iteration++) {
+			for (int k = 0; k < entries[iteration]; k++) {
+				handler.processEnterLink(0.0, linkId);
+			}
+
+			List<Double> values = handler.aggregate().get(linkId);
+			value = values.get(0);
+		}
+
+		return value;
+	}
+
+	@Test
+	public void testExponential() {
+		VDFWeightedHandler handler = new VDFWeightedHandler(createNetwork(), scope, WeightingType.Exponential, 0.5,
+				1, false);
+
+		// Weights 0.25, 0.5 and 1
+		double expected = (0.25 * 10.0 + 0.5 * 20.0 + 1.0 * 40.0) / (0.25 + 0.5 + 1.0);
+		Assert.assertEquals(expected, aggregate(handler, 10, 20, 40), 1e-9);
+	}
+
+	@Test
+	public void testLinear() {
+		// The decay is ignored with linear weighting, so it need not be valid
+		for (double decay : new double[] { 0.9, 0.0, 1.0, 2.0 }) {
+			VDFWeightedHandler handler = new VDFWeightedHandler(createNetwork(), scope, WeightingType.Linear, decay,
+					1, false);
+
+			// Weights 1, 2 and 3
+			double expected = (1.0 * 10.0 + 2.0 * 20.0 + 3.0 * 40.0) / (1.0 + 2.0 + 3.0);
+			Assert.assertEquals(expected, aggregate(handler, 10, 20, 40), 1e-9);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testExponentialDecay() {
+		new VDFWeightedHandler(createNetwork(), scope, WeightingType.Exponential, 1.0, 1, false);
+	}
+
+	@Test
+	public void testReadState() {
+		VDFWeightedHandler handler = new VDFWeightedHandler(createNetwork(), scope, WeightingType.Exponential, 0.5,
+				1, false);
+		aggregate(handler, 10, 20);
+
+		File stateFile = new File(temporaryFolder.getRoot(), "weighted.bin");
+		handler.getWriter().writeFile(stateFile);
+
+		VDFWeightedHandler readHandler = new VDFWeightedHandler(createNetwork(), scope, WeightingType.Exponential,
+				0.5, 1, false);
+		readHandler.getReader().readFile(IOUtils.getFileUrl(stateFile.getPath()));
+
+		// The number of iterations is restored, so the weights continue with 0.25,
+		// 0.5 and 1
+		double expected = (0.25 * 10.0 + 0.5 * 20.0 + 1.0 * 40.0) / (0.25 + 0.5 + 1.0);
+		Assert.assertEquals(expected, aggregate(readHandler, 40), 1e-9);
+	}
+
+	@Test(expected = VerifyException.class)
+	public void testRejectHorizonState() {
+		VDFHorizonHandler horizonHandler = new VDFHorizonHandler(createNetwork(), scope, 0, 1, false);
+		horizonHandler.processEnterLink(0.0, linkId);
+		horizonHandler.aggregate();
+
+		File stateFile = new File(temporaryFolder.getRoot(), "horizon.bin");
+		horizonHandler.getWriter().writeFile(stateFile);
+
+		// A single slice has the same layout as the weighted state
+		VDFWeightedHandler handler = new VDFWeightedHandler(createNetwork(), scope, WeightingType.Exponential, 0.5,
+				1, false);
+		handler.getReader().readFile(IOUtils.getFileUrl(stateFile.getPath()));
+	}
+}
@@ -0,0 +1,264 @@
+package org.eqasim.vdf.io;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eqasim.vdf.VDFScope;
+import org.eqasim.vdf.data.VDFLinkIndex;
+import org.eqasim.vdf.handlers.VDFHorizonHandler;
+import org.eqasim.vdf.handlers.VDFInterpolationHandler;
+import org.eqasim.vdf.io.VDFStateFormat.Header;
+import org.eqasim.vdf.io.VDFStateFormat.Kind;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.io.IOUtils;
+
+public class TestVDFStateFormat {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final VDFScope scope = new VDFScope(0.0, 3.0 * 3600.0, 3600.0);
+
+	private Network createNetwork(String... linkIds) {
+		Network network = NetworkUtils.createNetwork();
+
+		Node nodeA = NetworkUtils.createAndAddNode(network, Id.createNodeId("A"), new Coord(0.0, 0.0));
+		Node nodeB = NetworkUtils.createAndAddNode(network, Id.createNodeId("B"), new Coord(1000.0, 0.0));
+
+		for (String linkId : linkIds) {
+			NetworkUtils.createAndAddLink(network, Id.createLinkId(linkId), nodeA, nodeB, 1000.0, 10.0, 1000.0, 1.0);
+		}
+
+		return network;
+	}
+
+	private double[] createBlock(VDFLinkIndex linkIndex, double offset) {
+		double[] block = new double[linkIndex.size() * scope.getIntervals()];
+
+		for (int row = 0; row < linkIndex.size(); row++) {
+			double base = offset + 100.0 * Integer.parseInt(linkIndex.getLinkId(row).toString().substring(4));
+
+			for (int i = 0; i < scope.getIntervals(); i++) {
+				block[row * scope.getIntervals() + i] = base + i;
+			}
+		}
+
+		return block;
+	}
+
+	private List<double[]> readBlocks(URL url, VDFLinkIndex linkIndex, int expectedBlocks) throws IOException {
+		List<double[]> blocks = new ArrayList<>();
+
+		for (int k = 0; k < expectedBlocks; k++) {
+			blocks.add(new double[linkIndex.size() * scope.getIntervals()]);
+		}
+
+		Header header = new VDFStateReader(scope, linkIndex).read(url, blocks::get);
+		Assert.assertEquals(expectedBlocks, header.blocks());
+
+		return blocks;
+	}
+
+	private File compress(File inputFile, String extension) throws IOException {
+		File outputFile = new File(inputFile.getPath() + extension);
+
+		try (InputStream inputStream = Files.newInputStream(inputFile.toPath());
+				OutputStream outputStream = IOUtils.getOutputStream(IOUtils.getFileUrl(outputFile.getPath()), false)) {
+			inputStream.transferTo(outputStream);
+		}
+
+		return outputFile;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		VDFLinkIndex linkIndex = new VDFLinkIndex(createNetwork("link1", "link2", "link3"));
+		List<double[]> blocks = List.of(createBlock(linkIndex, 0.0), createBlock(linkIndex, 0.5));
+
+		File file = new File(temporaryFolder.getRoot(), "vdf.bin");
+		new VDFStateWriter(scope, linkIndex, Kind.Horizon, 5, 7).write(file, blocks);
+
+		URL url = IOUtils.getFileUrl(file.getPath());
+		Assert.assertTrue(VDFStateReader.isStateFile(url));
+
+		List<double[]> readBlocks = new ArrayList<>();
+		Header header = new VDFStateReader(scope, linkIndex).read(url, blockIndex -> {
+			readBlocks.add(new double[linkIndex.size() * scope.getIntervals()]);
+			return readBlocks.get(blockIndex);
+		});
+
+		Assert.assertEquals(Kind.Horizon, header.kind());
+		Assert.assertEquals(5, header.horizon());
+		Assert.assertEquals(7, header.iterations());
+		Assert.assertEquals(2, header.blocks());
+		Assert.assertEquals(3, header.links());
+		Assert.assertEquals(scope.getIntervals(), header.intervals());
+
+		for (int k = 0; k < blocks.size(); k++) {
+			Assert.assertArrayEquals(blocks.get(k), readBlocks.get(k), 0.0);
+		}
+	}
+
+	@Test
+	public void testCompressedRoundTrip() throws IOException {
+		VDFLinkIndex linkIndex = new VDFLinkIndex(createNetwork("link1", "link2", "link3"));
+		List<double[]> blocks = List.of(createBlock(linkIndex, 0.0), createBlock(linkIndex, 0.5));
+
+		File file = new File(temporaryFolder.getRoot(), "vdf.bin");
+		new VDFStateWriter(scope, linkIndex, Kind.Horizon, 5, 7).write(file, blocks);
+
+		// Compressed files must be streamed through decompression, not mapped
+		for (String extension : List.of(".gz", ".bz2", ".lz4", ".zst")) {
+			URL url = IOUtils.getFileUrl(compress(file, extension).getPath());
+			Assert.assertTrue(extension, VDFStateReader.isStateFile(url));
+
+			List<double[]> readBlocks = readBlocks(url, linkIndex, 2);
+
+			for (int k = 0; k < blocks.size(); k++) {
+				Assert.assertArrayEquals(blocks.get(k), readBlocks.get(k), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testDifferentLinks() throws IOException {
+		VDFLinkIndex writerIndex = new VDFLinkIndex(createNetwork("link1", "link2", "link3"));
+		double[] block = createBlock(writerIndex, 0.0);
+
+		File file = new File(temporaryFolder.getRoot(), "vdf.bin");
+		new VDFStateWriter(scope, writerIndex, Kind.Horizon, 1, 0).write(file, List.of(block));
+
+		// link2 is missing and link4 is new
+		VDFLinkIndex readerIndex = new VDFLinkIndex(createNetwork("link3", "link1", "link4"));
+		double[] readBlock = readBlocks(IOUtils.getFileUrl(file.getPath()), readerIndex, 1).get(0);
+
+		int intervals = scope.getIntervals();
+
+		for (int row = 0; row < readerIndex.size(); row++) {
+			Id<Link> linkId = readerIndex.getLinkId(row);
+
+			for (int i = 0; i < intervals; i++) {
+				double expected = linkId.toString().equals("link4") ? 0.0
+						: block[writerIndex.getRow(linkId) * intervals + i];
+				Assert.assertEquals(expected, readBlock[row * intervals + i], 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testShortFileIsNoStateFile() throws IOException {
+		File file = new File(temporaryFolder.getRoot(), "short.bin");
+		Files.write(file.toPath(), new byte[] { 1, 2, 3 });
+
+		Assert.assertFalse(VDFStateReader.isStateFile(IOUtils.getFileUrl(file.getPath())));
+	}
+
+	/**
+	 * Writes a file in the layout of the horizon handler before the introduction
+	 * of {@link VDFStateFormat}.
+	 */
+	private void writeLegacyHorizonFile(File file, Network network, int horizon, List<double[]> slices)
+			throws IOException {
+		VDFLinkIndex linkIndex = new VDFLinkIndex(network);
+
+		try (DataOutputStream outputStream = new DataOutputStream(
+				IOUtils.getOutputStream(IOUtils.getFileUrl(file.getPath()), false))) {
+			outputStream.writeDouble(scope.getStartTime());
+			outputStream.writeDouble(scope.getEndTime());
+			outputStream.writeDouble(scope.getIntervalTime());
+			outputStream.writeInt(scope.getIntervals());
+			outputStream.writeInt(horizon);
+			outputStream.writeInt(slices.size());
+			outputStream.writeInt(linkIndex.size());
+
+			for (int row = 0; row < linkIndex.size(); row++) {
+				outputStream.writeUTF(linkIndex.getLinkId(row).toString());
+			}
+
+			for (double[] slice : slices) {
+				for (double value : slice) {
+					outputStream.writeDouble(value);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testLegacyHorizonFile() throws IOException {
+		Network network = createNetwork("link1", "link2", "link3");
+		VDFLinkIndex linkIndex = new VDFLinkIndex(network);
+
+		List<double[]> slices = List.of(createBlock(linkIndex, 0.0), createBlock(linkIndex, 0.25),
+				createBlock(linkIndex, 0.75));
+
+		for (String name : List.of("legacy.bin", "legacy.bin.gz")) {
+			File legacyFile = new File(temporaryFolder.getRoot(), name);
+			writeLegacyHorizonFile(legacyFile, network, 3, slices);
+
+			URL legacyUrl = IOUtils.getFileUrl(legacyFile.getPath());
+			Assert.assertFalse(VDFStateReader.isStateFile(legacyUrl));
+
+			VDFHorizonHandler handler = new VDFHorizonHandler(network, scope, 3, 1, false);
+			handler.getReader().readFile(legacyUrl);
+
+			// Writing the state again yields the slices in the current format
+			File stateFile = new File(temporaryFolder.getRoot(), name + ".state.bin");
+			handler.getWriter().writeFile(stateFile);
+
+			List<double[]> readSlices = readBlocks(IOUtils.getFileUrl(stateFile.getPath()), linkIndex, 3);
+
+			for (int k = 0; k < slices.size(); k++) {
+				Assert.assertArrayEquals(slices.get(k), readSlices.get(k), 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testLegacyInterpolationFile() throws IOException {
+		Network network = createNetwork("link1", "link2", "link3");
+		VDFLinkIndex linkIndex = new VDFLinkIndex(network);
+		double[] values = createBlock(linkIndex, 0.5);
+
+		File legacyFile = new File(temporaryFolder.getRoot(), "legacy.bin.gz");
+
+		try (DataOutputStream outputStream = new DataOutputStream(
+				IOUtils.getOutputStream(IOUtils.getFileUrl(legacyFile.getPath()), false))) {
+			outputStream.writeDouble(scope.getStartTime());
+			outputStream.writeDouble(scope.getEndTime());
+			outputStream.writeDouble(scope.getIntervalTime());
+			outputStream.writeDouble(scope.getIntervals());
+
+			for (int row = 0; row < linkIndex.size(); row++) {
+				outputStream.writeUTF(linkIndex.getLinkId(row).toString());
+
+				for (int i = 0; i < scope.getIntervals(); i++) {
+					outputStream.writeDouble(values[row * scope.getIntervals() + i]);
+				}
+			}
+		}
+
+		VDFInterpolationHandler handler = new VDFInterpolationHandler(network, scope, 0.5, false);
+		handler.getReader().readFile(IOUtils.getFileUrl(legacyFile.getPath()));
+
+		File stateFile = new File(temporaryFolder.getRoot(), "state.bin");
+		handler.getWriter().writeFile(stateFile);
+
+		double[] readValues = readBlocks(IOUtils.getFileUrl(stateFile.getPath()), linkIndex, 1).get(0);
+		Assert.assertArrayEquals(values, readValues, 0.0);
+	}
+}
@@ -0,0 +1,178 @@
+package org.eqasim.vdf.travel_time;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eqasim.vdf.VDFScope;
+import org.eqasim.vdf.travel_time.function.BPRFunction;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.IdMap;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+public class TestVDFTravelTime {
+	private final static double EPSILON = 1e-6;
+
+	// 1000 m at 10 m/s, at least 0.5 m/s
+	private final static double FREEFLOW_TRAVEL_TIME = 100.0;
+	private final static double MINIMUM_SPEED = 0.5;
+
+	private final VDFScope scope = new VDFScope(0.0, 4.0 * 3600.0, 900.0);
+
+	private Network createNetwork(int links) {
+		Network network = NetworkUtils.createNetwork();
+
+		Node nodeA = NetworkUtils.createAndAddNode(network, Id.createNodeId("A"), new Coord(0.0, 0.0));
+		Node nodeB = NetworkUtils.createAndAddNode(network, Id.createNodeId("B"), new Coord(1000.0, 0.0));
+
+		for (int k = 0; k < links; k++) {
+			NetworkUtils.createAndAddLink(network, Id.createLinkId("link" + k), nodeA, nodeB, 1000.0, 10.0, 1000.0,
+					1.0);
+		}
+
+		return network;
+	}
+
+	private VDFTravelTime createTravelTime(Network network, double updateTolerance, boolean interpolate) {
+		return new VDFTravelTime(scope, MINIMUM_SPEED, 1.0, 1.0, network, new BPRFunction(0.15, 4.0), 0.0,
+				updateTolerance, 1, interpolate);
+	}
+
+	private List<Double> createFlows(double... flows) {
+		List<Double> values = new ArrayList<>(Collections.nCopies(scope.getIntervals(), 0.0));
+
+		for (int i = 0; i < flows.length; i++) {
+			values.set(i, flows[i]);
+		}
+
+		return values;
+	}
+
+	/*
+	 * The link is jammed up to the travel time of the minimum speed in the third
+	 * interval and empty in the fourth, so the travel time drops by much more than
+	 * the interval time at the boundary.
+	 */
+	private VDFTravelTime createSharpDrop(Network network, Link link, boolean interpolate) {
+		VDFTravelTime travelTime = createTravelTime(network, 0.0, interpolate);
+
+		IdMap<Link, List<Double>> counts = new IdMap<>(Link.class);
+		counts.put(link.getId(), createFlows(0.0, 100.0, 2000.0, 0.0));
+		travelTime.update(counts);
+
+		double maximumTravelTime = link.getLength() / MINIMUM_SPEED;
+		Assert.assertEquals(maximumTravelTime, travelTime.getLinkTravelTime(link, 2.5 * 900.0, null, null), EPSILON);
+		Assert.assertEquals(FREEFLOW_TRAVEL_TIME, travelTime.getLinkTravelTime(link, 8.5 * 900.0, null, null),
+				EPSILON);
+
+		return travelTime;
+	}
+
+	@Test
+	public void testInterpolatedArrivalIsMonotonic() {
+		Network network = createNetwork(1);
+		Link link = network.getLinks().get(Id.createLinkId("link0"));
+		VDFTravelTime travelTime = createSharpDrop(network, link, true);
+
+		double previousArrivalTime = Double.NEGATIVE_INFINITY;
+
+		// Departures every second across all interval boundaries and beyond the scope
+		for (double departureTime = -900.0; departureTime <= scope.getEndTime() + 900.0; departureTime += 1.0) {
+			double arrivalTime = departureTime + travelTime.getLinkTravelTime(link, departureTime, null, null);
+			Assert.assertTrue(arrivalTime >= previousArrivalTime - EPSILON);
+			previousArrivalTime = arrivalTime;
+		}
+	}
+
+	@Test
+	public void testConstantArrivalIsNotMonotonic() {
+		Network network = createNetwork(1);
+		Link link = network.getLinks().get(Id.createLinkId("link0"));
+		VDFTravelTime travelTime = createSharpDrop(network, link, false);
+
+		// Without interpolation, leaving right after the boundary arrives much earlier
+		double before = 3.0 * 900.0 - 1.0;
+		double after = 3.0 * 900.0;
+
+		Assert.assertTrue(after + travelTime.getLinkTravelTime(link, after, null, null) < before
+				+ travelTime.getLinkTravelTime(link, before, null, null));
+	}
+
+	static private double getExpectedTravelTime(double flow) {
+		// Capacity of 1000 veh/h over an interval of 15 min
+		return FREEFLOW_TRAVEL_TIME * (1.0 + 0.15 * Math.pow(flow / 250.0, 4.0));
+	}
+
+	@Test
+	public void testUpdateTolerance() {
+		Network network = createNetwork(2);
+		Link first = network.getLinks().get(Id.createLinkId("link0"));
+		Link second = network.getLinks().get(Id.createLinkId("link1"));
+
+		VDFTravelTime travelTime = createTravelTime(network, 10.0, false);
+		double time = 1.5 * 900.0;
+
+		IdMap<Link, List<Double>> counts = new IdMap<>(Link.class);
+		counts.put(first.getId(), createFlows(0.0, 200.0));
+		counts.put(second.getId(), createFlows(0.0, 200.0));
+		travelTime.update(counts);
+
+		Assert.assertEquals(getExpectedTravelTime(200.0), travelTime.getLinkTravelTime(first, time, null, null),
+				EPSILON);
+		Assert.assertEquals(getExpectedTravelTime(200.0), travelTime.getLinkTravelTime(second, time, null, null),
+				EPSILON);
+
+		// Within the tolerance, the first link keeps its travel time
+		counts.put(first.getId(), createFlows(0.0, 208.0));
+		counts.put(second.getId(), createFlows(0.0, 250.0));
+		travelTime.update(counts);
+
+		Assert.assertEquals(getExpectedTravelTime(200.0), travelTime.getLinkTravelTime(first, time, null, null),
+				EPSILON);
+		Assert.assertEquals(getExpectedTravelTime(250.0), travelTime.getLinkTravelTime(second, time, null, null),
+				EPSILON);
+
+		// Within the tolerance of the previous update, but not of the flows from
+		// which the travel time has been computed
+		counts.put(first.getId(), createFlows(0.0, 215.0));
+		travelTime.update(counts);
+
+		Assert.assertEquals(getExpectedTravelTime(215.0), travelTime.getLinkTravelTime(first, time, null, null),
+				EPSILON);
+		Assert.assertEquals(getExpectedTravelTime(250.0), travelTime.getLinkTravelTime(second, time, null, null),
+				EPSILON);
+
+		// Other intervals are compared as well
+		counts.put(first.getId(), createFlows(0.0, 215.0, 0.0, 0.0, 300.0));
+		travelTime.update(counts);
+
+		Assert.assertEquals(getExpectedTravelTime(300.0),
+				travelTime.getLinkTravelTime(first, 4.5 * 900.0, null, null), EPSILON);
+	}
+
+	@Test
+	public void testZeroTolerance() {
+		Network network = createNetwork(1);
+		Link link = network.getLinks().get(Id.createLinkId("link0"));
+
+		VDFTravelTime travelTime = createTravelTime(network, 0.0, false);
+		double time = 1.5 * 900.0;
+
+		IdMap<Link, List<Double>> counts = new IdMap<>(Link.class);
+		counts.put(link.getId(), createFlows(0.0, 200.0));
+		travelTime.update(counts);
+
+		// Any change is applied
+		counts.put(link.getId(), createFlows(0.0, 200.5));
+		travelTime.update(counts);
+
+		Assert.assertEquals(getExpectedTravelTime(200.5), travelTime.getLinkTravelTime(link, time, null, null),
+				EPSILON);
+	}
+}
@@ -0,0 +1,208 @@
+package org.eqasim.vdf.travel_time.function;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+public class TestVolumeDelayFunctions {
+	private final static double EPSILON = 1e-9;
+
+	// 1000 m at 10 m/s
+	private final static double FREEFLOW_TRAVEL_TIME = 100.0;
+
+	private Network createNetwork(String... roadClasses) {
+		Network network = NetworkUtils.createNetwork();
+
+		Node nodeA = NetworkUtils.createAndAddNode(network, Id.createNodeId("A"), new Coord(0.0, 0.0));
+		Node nodeB = NetworkUtils.createAndAddNode(network, Id.createNodeId("B"), new Coord(1000.0, 0.0));
+
+		for (int k = 0; k < roadClasses.length; k++) {
+			Link link = NetworkUtils.createAndAddLink(network, Id.createLinkId("link" + k), nodeA, nodeB, 1000.0,
+					10.0, 1000.0, 1.0);
+
+			if (roadClasses[k] != null) {
+				link.getAttributes().putAttribute(RoadClassFunction.HIGHWAY_ATTRIBUTE, roadClasses[k]);
+			}
+		}
+
+		return network;
+	}
+
+	private Link createLink() {
+		return createNetwork((String) null).getLinks().values().iterator().next();
+	}
+
+	@Test
+	public void testConical() {
+		Link link = createLink();
+		double capacity = 1000.0;
+
+		for (double alpha : new double[] { 1.5, 4.0, 10.0 }) {
+			VolumeDelayFunction function = new ConicalFunction(alpha);
+			double beta = (2.0 * alpha - 1.0) / (2.0 * alpha - 2.0);
+
+			// Free-flow travel time without flow and twice that value at capacity
+			Assert.assertEquals(FREEFLOW_TRAVEL_TIME, function.getTravelTime(0.0, 0.0, capacity, link), EPSILON);
+			Assert.assertEquals(2.0 * FREEFLOW_TRAVEL_TIME, function.getTravelTime(0.0, capacity, capacity, link),
+					EPSILON);
+
+			for (double ratio : new double[] { 0.25, 0.8, 1.3, 3.0 }) {
+				double expected = FREEFLOW_TRAVEL_TIME * (2.0 + Math.sqrt(Math.pow(alpha * (1.0 - ratio), 2.0)
+						+ beta * beta) - alpha * (1.0 - ratio) - beta);
+				Assert.assertEquals(expected, function.getTravelTime(0.0, ratio * capacity, capacity, link), EPSILON);
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConicalAlpha() {
+		new ConicalFunction(1.0);
+	}
+
+	@Test
+	public void testAkcelik() {
+		Link link = createLink();
+
+		double intervalTime = 3600.0;
+		double delayParameter = 0.1;
+		VolumeDelayFunction function = new AkcelikFunction(delayParameter, intervalTime);
+
+		for (double capacity : new double[] { 500.0, 1800.0 }) {
+			for (double ratio : new double[] { 0.0, 0.5, 0.9, 1.0, 1.2, 2.0 }) {
+				double x = ratio;
+				double expected = FREEFLOW_TRAVEL_TIME + 0.25 * intervalTime
+						* ((x - 1.0) + Math.sqrt((x - 1.0) * (x - 1.0) + 8.0 * delayParameter * x / capacity));
+
+				Assert.assertEquals(expected, function.getTravelTime(0.0, ratio * capacity, capacity, link),
+						EPSILON);
+			}
+		}
+
+		// No delay without flow
+		Assert.assertEquals(FREEFLOW_TRAVEL_TIME, function.getTravelTime(0.0, 0.0, 1000.0, link), EPSILON);
+	}
+
+	@Test
+	public void testDavidson() {
+		Link link = createLink();
+		double capacity = 1000.0;
+
+		double delayParameter = 0.25;
+		double saturation = 0.9;
+		VolumeDelayFunction function = new DavidsonFunction(delayParameter, saturation);
+
+		// Original function below saturation
+		for (double ratio : new double[] { 0.0, 0.3, 0.6, 0.89 }) {
+			double expected = FREEFLOW_TRAVEL_TIME * (1.0 + delayParameter * ratio / (1.0 - ratio));
+			Assert.assertEquals(expected, function.getTravelTime(0.0, ratio * capacity, capacity, link), EPSILON);
+		}
+
+		// Linear continuation with the value and slope of the original function at
+		// saturation
+		double saturationFactor = 1.0 + delayParameter * saturation / (1.0 - saturation);
+		double saturationSlope = delayParameter / Math.pow(1.0 - saturation, 2.0);
+
+		for (double ratio : new double[] { saturation, 1.0, 1.5, 3.0 }) {
+			double expected = FREEFLOW_TRAVEL_TIME * (saturationFactor + saturationSlope * (ratio - saturation));
+			Assert.assertEquals(expected, function.getTravelTime(0.0, ratio * capacity, capacity, link), EPSILON);
+		}
+
+		// Continuity at saturation
+		double below = function.getTravelTime(0.0, (saturation - 1e-9) * capacity, capacity, link);
+		double above = function.getTravelTime(0.0, (saturation + 1e-9) * capacity, capacity, link);
+		Assert.assertEquals(below, above, 1e-4);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDavidsonSaturation() {
+		new DavidsonFunction(0.25, 1.0);
+	}
+
+	@Test
+	public void testBatchEqualsScalar() {
+		Network network = createNetwork("motorway", "residential", null);
+
+		VolumeDelayFunction roadClassFunction = new RoadClassFunction(network, new BPRFunction(0.15, 4.0),
+				Map.of("motorway", new AkcelikFunction(0.1, 900.0), "residential", new DavidsonFunction(0.25, 0.9)));
+
+		List<VolumeDelayFunction> functions = List.of( //
+				new BPRFunction(0.15, 4.0), //
+				new BPRFunction(0.15, 2.5), //
+				new ConicalFunction(4.0), //
+				new AkcelikFunction(0.1, 900.0), //
+				new DavidsonFunction(0.25, 0.9), //
+				roadClassFunction);
+
+		int intervals = 96;
+
+		double[] times = new double[intervals];
+		double[] flows = new double[intervals];
+		double[] capacities = new double[intervals];
+
+		for (int i = 0; i < intervals; i++) {
+			times[i] = i * 900.0;
+			flows[i] = 600.0 * (1.0 + Math.sin(i * 0.2)) + i;
+			capacities[i] = 250.0 + 10.0 * (i % 7);
+		}
+
+		for (VolumeDelayFunction function : functions) {
+			for (Link link : network.getLinks().values()) {
+				double[] travelTimes = new double[intervals];
+				function.getTravelTimes(times, flows, capacities, link, travelTimes);
+
+				for (int i = 0; i < intervals; i++) {
+					double expected = function.getTravelTime(times[i], flows[i], capacities[i], link);
+					Assert.assertEquals(function.getClass().getSimpleName() + " interval " + i, expected,
+							travelTimes[i], 0.0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testRoadClassDispatch() {
+		Network network = createNetwork("motorway", "residential", "primary", null);
+
+		VolumeDelayFunction defaultFunction = new BPRFunction(0.15, 4.0);
+		VolumeDelayFunction motorwayFunction = new AkcelikFunction(0.1, 900.0);
+		VolumeDelayFunction residentialFunction = new DavidsonFunction(0.25, 0.9);
+
+		VolumeDelayFunction function = new RoadClassFunction(network, defaultFunction,
+				Map.of("motorway", motorwayFunction, "residential", residentialFunction));
+
+		Link motorway = network.getLinks().get(Id.createLinkId("link0"));
+		Link residential = network.getLinks().get(Id.createLinkId("link1"));
+		Link primary = network.getLinks().get(Id.createLinkId("link2"));
+		Link unclassified = network.getLinks().get(Id.createLinkId("link3"));
+
+		double flow = 950.0;
+		double capacity = 1000.0;
+
+		double motorwayTravelTime = motorwayFunction.getTravelTime(0.0, flow, capacity, motorway);
+		double residentialTravelTime = residentialFunction.getTravelTime(0.0, flow, capacity, residential);
+		double defaultTravelTime = defaultFunction.getTravelTime(0.0, flow, capacity, primary);
+
+		// Make sure that the functions can be told apart by their results
+		Assert.assertNotEquals(motorwayTravelTime, residentialTravelTime, 1.0);
+		Assert.assertNotEquals(motorwayTravelTime, defaultTravelTime, 1.0);
+		Assert.assertNotEquals(residentialTravelTime, defaultTravelTime, 1.0);
+
+		Assert.assertEquals(motorwayTravelTime, function.getTravelTime(0.0, flow, capacity, motorway), 0.0);
+		Assert.assertEquals(residentialTravelTime, function.getTravelTime(0.0, flow, capacity, residential), 0.0);
+		Assert.assertEquals(defaultTravelTime, function.getTravelTime(0.0, flow, capacity, primary), 0.0);
+		Assert.assertEquals(defaultTravelTime, function.getTravelTime(0.0, flow, capacity, unclassified), 0.0);
+
+		double[] travelTimes = new double[1];
+		function.getTravelTimes(new double[] { 0.0 }, new double[] { flow }, new double[] { capacity }, motorway,
+				travelTimes);
+		Assert.assertEquals(motorwayTravelTime, travelTimes[0], 0.0);
+	}
+}
@@ -0,0 +1,142 @@
+package org.eqasim.vdf.travel_time.function;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the evaluation of the travel times of all links and intervals one
+ * value at a time (scalar) with the evaluation of one link at a time through
+ * the batch API.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VolumeDelayFunctionBenchmark {
+	@Param({ "BPR", "Conical", "Akcelik", "Davidson" })
+	public String function;
+
+	@Param({ "10000" })
+	public int links;
+
+	@Param({ "24", "96" })
+	public int intervals;
+
+	private VolumeDelayFunction volumeDelayFunction;
+	private List<Link> linkList;
+
+	private double[] times;
+	private double[][] flows;
+	private double[][] capacities;
+	private double[] travelTimes;
+
+	@Setup
+	public void setup() {
+		switch (function) {
+		case "BPR":
+			volumeDelayFunction = new BPRFunction(0.15, 4.0);
+			break;
+		case "Conical":
+			volumeDelayFunction = new ConicalFunction(4.0);
+			break;
+		case "Akcelik":
+			volumeDelayFunction = new AkcelikFunction(0.1, 3600.0);
+			break;
+		case "Davidson":
+			volumeDelayFunction = new DavidsonFunction(0.25, 0.9);
+			break;
+		default:
+			throw new IllegalStateException("Unknown function: " + function);
+		}
+
+		Network network = NetworkUtils.createNetwork();
+		Node nodeA = NetworkUtils.createAndAddNode(network, Id.createNodeId("A"), new Coord(0.0, 0.0));
+		Node nodeB = NetworkUtils.createAndAddNode(network, Id.createNodeId("B"), new Coord(1000.0, 0.0));
+
+		Random random = new Random(0);
+		linkList = new ArrayList<>(links);
+
+		times = new double[intervals];
+		flows = new double[links][intervals];
+		capacities = new double[links][intervals];
+		travelTimes = new double[intervals];
+
+		for (int i = 0; i < intervals; i++) {
+			times[i] = i * 86400.0 / intervals;
+		}
+
+		for (int k = 0; k < links; k++) {
+			linkList.add(NetworkUtils.createAndAddLink(network, Id.createLinkId("benchmark" + k), nodeA, nodeB,
+					50.0 + random.nextDouble() * 950.0, 8.0 + random.nextDouble() * 25.0, 1000.0, 1.0));
+
+			for (int i = 0; i < intervals; i++) {
+				capacities[k][i] = 500.0 + random.nextDouble() * 1500.0;
+				flows[k][i] = random.nextDouble() * 1.5 * capacities[k][i];
+			}
+		}
+	}
+
+	@Benchmark
+	public double scalar() {
+		double total = 0.0;
+
+		for (int k = 0; k < links; k++) {
+			Link link = linkList.get(k);
+
+			for (int i = 0; i < intervals; i++) {
+				total += volumeDelayFunction.getTravelTime(times[i], flows[k][i], capacities[k][i], link);
+			}
+		}
+
+		return total;
+	}
+
+	@Benchmark
+	public double batch() {
+		double total = 0.0;
+
+		for (int k = 0; k < links; k++) {
+			volumeDelayFunction.getTravelTimes(times, flows[k], capacities[k], linkList.get(k), travelTimes);
+
+			for (int i = 0; i < intervals; i++) {
+				total += travelTimes[i];
+			}
+		}
+
+		return total;
+	}
+
+	static public void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder() //
+				.include(VolumeDelayFunctionBenchmark.class.getSimpleName()) //
+				.build();
+
+		new Runner(options).run();
+	}
+}